@@ -0,0 +1,108 @@
+package com.github.komarovd95.widgetstore.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.komarovd95.widgetstore.api.common.Point2D;
+import com.github.komarovd95.widgetstore.api.common.WidgetDimensions;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Positive;
+import java.util.Optional;
+
+/**
+ * A spatial search of widgets in a batch query.
+ */
+@Schema(description = "A spatial search of widgets")
+public class RegionQuery {
+
+    @NotNull
+    @Valid
+    @Schema(description = "Coordinates of the region to search into", required = true)
+    private final Point2D coordinates;
+
+    @NotNull
+    @Valid
+    @Schema(description = "Dimensions of the region to search into", required = true)
+    private final WidgetDimensions dimensions;
+
+    @Pattern(regexp = "CONTAINS|INTERSECTS")
+    @Schema(
+        description = "A mode of the spatial search: widgets contained by the region (CONTAINS) or widgets " +
+            "intersecting the region (INTERSECTS)",
+        defaultValue = "CONTAINS"
+    )
+    private final String match;
+
+    @Positive
+    @Max(500)
+    @Schema(description = "A maximum number of widgets that will be returned on the page", defaultValue = "10")
+    private final Integer limit;
+
+    @Schema(description = "A cursor of the page. If not presented, then the first page will be returned")
+    private final String cursor;
+
+    @JsonCreator
+    public RegionQuery(
+        @JsonProperty("coordinates") Point2D coordinates,
+        @JsonProperty("dimensions") WidgetDimensions dimensions,
+        @JsonProperty("match") String match,
+        @JsonProperty("limit") Integer limit,
+        @JsonProperty("cursor") String cursor
+    ) {
+        this.coordinates = coordinates;
+        this.dimensions = dimensions;
+        this.match = match;
+        this.limit = limit;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return the coordinates, not null
+     */
+    public Point2D getCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * @return the dimensions, not null
+     */
+    public WidgetDimensions getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return the optional match mode, not null
+     */
+    public Optional<String> getMatch() {
+        return Optional.ofNullable(match);
+    }
+
+    /**
+     * @return the optional limit, not null
+     */
+    public Optional<Integer> getLimit() {
+        return Optional.ofNullable(limit);
+    }
+
+    /**
+     * @return the optional cursor, not null
+     */
+    public Optional<String> getCursor() {
+        return Optional.ofNullable(cursor);
+    }
+
+    @Override
+    public String toString() {
+        return "RegionQuery{" +
+            "coordinates=" + coordinates +
+            ", dimensions=" + dimensions +
+            ", match='" + match + '\'' +
+            ", limit=" + limit +
+            ", cursor='" + cursor + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.komarovd95.widgetstore.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A list of widgets that cover a point.
+ */
+@Schema(description = "A list of widgets that cover a point, the topmost widget first")
+public class WidgetsAtPointView {
+
+    /**
+     * A list of widgets sorted by Z-index in descending order.
+     */
+    @ArraySchema(
+        arraySchema = @Schema(description = "A list of widgets sorted by Z-index in descending order", required = true)
+    )
+    private final List<WidgetView> widgets;
+
+    @JsonCreator
+    public WidgetsAtPointView(@JsonProperty("widgets") List<WidgetView> widgets) {
+        this.widgets = Collections.unmodifiableList(Objects.requireNonNull(widgets, "widgets"));
+    }
+
+    /**
+     * @return the list of widgets, not null
+     */
+    public List<WidgetView> getWidgets() {
+        return widgets;
+    }
+
+    @Override
+    public String toString() {
+        return "WidgetsAtPointView{" +
+            "widgets.size=" + widgets.size() +
+            '}';
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.komarovd95.widgetstore.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * A body of the batch query of widgets.
+ */
+@Schema(description = "A body of the batch query of widgets")
+public class WidgetsBatchQueryRequest {
+
+    @NotEmpty
+    @Size(max = 100)
+    @Valid
+    @ArraySchema(
+        arraySchema = @Schema(description = "A list of spatial searches", required = true),
+        maxItems = 100
+    )
+    private final List<@NotNull RegionQuery> queries;
+
+    @JsonCreator
+    public WidgetsBatchQueryRequest(@JsonProperty("queries") List<RegionQuery> queries) {
+        this.queries = queries;
+    }
+
+    /**
+     * @return the list of spatial searches, not null
+     */
+    public List<RegionQuery> getQueries() {
+        return queries;
+    }
+
+    @Override
+    public String toString() {
+        return "WidgetsBatchQueryRequest{" +
+            "queries=" + queries +
+            '}';
+    }
+}
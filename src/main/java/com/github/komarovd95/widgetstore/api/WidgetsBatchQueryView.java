@@ -0,0 +1,44 @@
+package com.github.komarovd95.widgetstore.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Results of the batch query of widgets.
+ */
+@Schema(description = "Results of the batch query of widgets")
+public class WidgetsBatchQueryView {
+
+    /**
+     * Pages of widgets in the same order as the queries.
+     */
+    @ArraySchema(
+        arraySchema = @Schema(description = "Pages of widgets in the same order as the queries", required = true)
+    )
+    private final List<WidgetsListView> results;
+
+    @JsonCreator
+    public WidgetsBatchQueryView(@JsonProperty("results") List<WidgetsListView> results) {
+        this.results = Collections.unmodifiableList(Objects.requireNonNull(results, "results"));
+    }
+
+    /**
+     * @return the pages of widgets, not null
+     */
+    public List<WidgetsListView> getResults() {
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return "WidgetsBatchQueryView{" +
+            "results.size=" + results.size() +
+            '}';
+    }
+}
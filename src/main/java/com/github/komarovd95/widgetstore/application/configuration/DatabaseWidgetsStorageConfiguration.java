@@ -1,26 +1,43 @@
 package com.github.komarovd95.widgetstore.application.configuration;
 
+import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree;
+import com.github.komarovd95.widgetstore.application.repository.CachingWidgetsRepository;
 import com.github.komarovd95.widgetstore.application.repository.H2DatabaseWidgetsRepository;
 import com.github.komarovd95.widgetstore.application.repository.WidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.WidgetsCompactionJob;
+import com.github.komarovd95.widgetstore.application.service.WidgetsService;
 import com.github.komarovd95.widgetstore.application.service.transaction.DatabaseTransactionsService;
 import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
 import com.github.komarovd95.widgetstore.application.service.transaction.locks.ExclusiveLock;
 import com.github.komarovd95.widgetstore.application.service.transaction.locks.H2DatabaseWidgetExclusiveLock;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * The configuration for in-memory widgets storage.
  * <p>
  * It activates only with 'database' Spring's profile.
+ * <p>
+ * The repository defers modification timestamps of shifted widgets, so the storage is compacted periodically by
+ * {@link WidgetsCompactionJob}.
+ * <p>
+ * If {@value #NEAR_CACHE_PROPERTY} property is true, then reads are served by an in-memory mirror of the database
+ * (see {@link CachingWidgetsRepository}). Its spatial index is configured via {@link SpatialIndexProperties}.
  */
 @Configuration
 @Profile("database")
+@EnableConfigurationProperties(SpatialIndexProperties.class)
+@EnableScheduling
 public class DatabaseWidgetsStorageConfiguration {
 
+    static final String NEAR_CACHE_PROPERTY = "widgets.database.near-cache";
+
     /**
      * A widget table lock name.
      */
@@ -40,7 +57,29 @@ public class DatabaseWidgetsStorageConfiguration {
     }
 
     @Bean
+    @ConditionalOnProperty(name = NEAR_CACHE_PROPERTY, havingValue = "false", matchIfMissing = true)
     public WidgetsRepository h2DatabaseWidgetsRepository(NamedParameterJdbcTemplate jdbcTemplate) {
         return new H2DatabaseWidgetsRepository(jdbcTemplate);
     }
+
+    @Bean
+    @ConditionalOnProperty(name = NEAR_CACHE_PROPERTY, havingValue = "true")
+    public CachingWidgetsRepository cachingWidgetsRepository(
+        NamedParameterJdbcTemplate jdbcTemplate,
+        SpatialIndexProperties spatialIndexProperties
+    ) {
+        return new CachingWidgetsRepository(
+            new H2DatabaseWidgetsRepository(jdbcTemplate),
+            () -> new WidgetRTree(
+                spatialIndexProperties.getMaxEntries(),
+                spatialIndexProperties.getMinEntries(),
+                spatialIndexProperties.getSplitPolicy()
+            )
+        );
+    }
+
+    @Bean
+    public WidgetsCompactionJob widgetsCompactionJob(WidgetsService widgetsService) {
+        return new WidgetsCompactionJob(widgetsService);
+    }
 }
@@ -1,20 +1,70 @@
 package com.github.komarovd95.widgetstore.application.configuration;
 
+import com.github.komarovd95.widgetstore.application.domain.rtree.PersistentWidgetRTree;
+import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree;
+import com.github.komarovd95.widgetstore.application.repository.ColumnarWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.repository.CopyOnWriteWidgetsRepository;
 import com.github.komarovd95.widgetstore.application.repository.InMemoryWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.repository.ShardedWidgetsRepository;
 import com.github.komarovd95.widgetstore.application.repository.WidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.CanvasesEvictionJob;
+import com.github.komarovd95.widgetstore.application.service.CanvasesService;
+import com.github.komarovd95.widgetstore.application.service.WidgetsStorageFactory;
+import com.github.komarovd95.widgetstore.application.service.generator.WidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.CopyOnWriteTransactionsService;
+import com.github.komarovd95.widgetstore.application.service.transaction.GroupCommitTransactionsService;
 import com.github.komarovd95.widgetstore.application.service.transaction.InMemoryTransactionsService;
+import com.github.komarovd95.widgetstore.application.service.transaction.StampedLockTransactionsService;
 import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.time.Clock;
+import java.time.Duration;
 
 /**
  * The configuration for in-memory widgets storage.
  * <p>
- * It activates only with 'in-memory' Spring's profile.
+ * It activates only with 'in-memory' Spring's profile. The spatial index is configured via
+ * {@link SpatialIndexProperties}.
+ * <p>
+ * The concurrency control is selected via {@value #CONCURRENCY_PROPERTY} property:
+ * <ul>
+ *     <li>{@code read-write-lock} (default) - a mutable storage guarded by a Read-Write lock</li>
+ *     <li>
+ *         {@code copy-on-write} - a storage of immutable snapshots, readers don't acquire any locks. Snapshots
+ *         referenced by pages are retained for {@value #SNAPSHOT_RETENTION_PROPERTY} (one minute by default)
+ *     </li>
+ *     <li>
+ *         {@code optimistic-read} - a mutable storage guarded by a Stamped lock, short lookups are executed as
+ *         optimistic reads
+ *     </li>
+ *     <li>
+ *         {@code group-commit} - a mutable storage guarded by a Read-Write lock, modifications are applied by a single
+ *         writer thread in batches (see {@value #GROUP_COMMIT_CAPACITY_PROPERTY} and
+ *         {@value #GROUP_COMMIT_MAX_BATCH_SIZE_PROPERTY})
+ *     </li>
+ *     <li>
+ *         {@code sharded} - a storage that splits the plane into tiles of {@value #SHARDING_TILE_SIZE_PROPERTY} size
+ *         with their own R-trees and locks, spatial searches don't wait for writes to other tiles, and moves of
+ *         widgets that keep their Z-indices don't wait for each other
+ *     </li>
+ *     <li>
+ *         {@code columnar} - a storage of widgets in primitive columns guarded by a Read-Write lock, for large numbers
+ *         of widgets per node. Columns are preallocated for {@value #COLUMNAR_INITIAL_CAPACITY_PROPERTY} widgets
+ *     </li>
+ * </ul>
+ * Every flavour is a {@link WidgetsStorageFactory}: it creates the storage of the default canvas and storages of
+ * canvases managed by {@link CanvasesService}. Empty canvases that haven't been accessed for
+ * {@value #CANVASES_IDLE_TIMEOUT_PROPERTY} (one hour by default) are evicted by {@link CanvasesEvictionJob}.
  */
 @Configuration
 @Profile("in-memory")
@@ -22,15 +72,141 @@ import org.springframework.context.annotation.Profile;
     DataSourceAutoConfiguration.class,
     DataSourceTransactionManagerAutoConfiguration.class
 })
+@EnableConfigurationProperties(SpatialIndexProperties.class)
+@EnableScheduling
 public class InMemoryWidgetsStorageConfiguration {
 
+    static final String CONCURRENCY_PROPERTY = "widgets.in-memory.concurrency";
+
+    static final String SNAPSHOT_RETENTION_PROPERTY = "widgets.in-memory.snapshot-retention";
+
+    static final String GROUP_COMMIT_CAPACITY_PROPERTY = "widgets.in-memory.group-commit.capacity";
+
+    static final String GROUP_COMMIT_MAX_BATCH_SIZE_PROPERTY = "widgets.in-memory.group-commit.max-batch-size";
+
+    static final String SHARDING_TILE_SIZE_PROPERTY = "widgets.in-memory.sharding.tile-size";
+
+    static final String COLUMNAR_INITIAL_CAPACITY_PROPERTY = "widgets.in-memory.columnar.initial-capacity";
+
+    static final String CANVASES_IDLE_TIMEOUT_PROPERTY = "widgets.canvases.idle-timeout";
+
     @Bean
-    public TransactionsService inMemoryTransactionsService() {
-        return new InMemoryTransactionsService();
+    @ConditionalOnProperty(name = CONCURRENCY_PROPERTY, havingValue = "read-write-lock", matchIfMissing = true)
+    public WidgetsStorageFactory readWriteLockStorageFactory(SpatialIndexProperties spatialIndexProperties) {
+        return new WidgetsStorageFactory(
+            InMemoryTransactionsService::new,
+            () -> newInMemoryWidgetsRepository(spatialIndexProperties)
+        );
     }
 
     @Bean
-    public WidgetsRepository inMemoryWidgetsRepository() {
-        return new InMemoryWidgetsRepository();
+    @ConditionalOnProperty(name = CONCURRENCY_PROPERTY, havingValue = "copy-on-write")
+    public WidgetsStorageFactory copyOnWriteStorageFactory(
+        SpatialIndexProperties spatialIndexProperties,
+        Clock clock,
+        @Value("${" + SNAPSHOT_RETENTION_PROPERTY + ":PT1M}") Duration snapshotRetention
+    ) {
+        return new WidgetsStorageFactory(
+            CopyOnWriteTransactionsService::new,
+            () -> new CopyOnWriteWidgetsRepository(
+                PersistentWidgetRTree.empty(
+                    spatialIndexProperties.getMaxEntries(),
+                    spatialIndexProperties.getMinEntries(),
+                    spatialIndexProperties.getSplitPolicy()
+                ),
+                clock,
+                snapshotRetention
+            )
+        );
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = CONCURRENCY_PROPERTY, havingValue = "optimistic-read")
+    public WidgetsStorageFactory optimisticReadStorageFactory(SpatialIndexProperties spatialIndexProperties) {
+        return new WidgetsStorageFactory(
+            StampedLockTransactionsService::new,
+            () -> newInMemoryWidgetsRepository(spatialIndexProperties)
+        );
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = CONCURRENCY_PROPERTY, havingValue = "group-commit")
+    public WidgetsStorageFactory groupCommitStorageFactory(
+        SpatialIndexProperties spatialIndexProperties,
+        @Value("${" + GROUP_COMMIT_CAPACITY_PROPERTY + ":1024}") int capacity,
+        @Value("${" + GROUP_COMMIT_MAX_BATCH_SIZE_PROPERTY + ":64}") int maxBatchSize
+    ) {
+        return new WidgetsStorageFactory(
+            () -> new GroupCommitTransactionsService(new InMemoryTransactionsService(), capacity, maxBatchSize),
+            () -> newInMemoryWidgetsRepository(spatialIndexProperties)
+        );
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = CONCURRENCY_PROPERTY, havingValue = "sharded")
+    public WidgetsStorageFactory shardedStorageFactory(
+        SpatialIndexProperties spatialIndexProperties,
+        @Value("${" + SHARDING_TILE_SIZE_PROPERTY + ":" + ShardedWidgetsRepository.DEFAULT_TILE_SIZE + "}") int tileSize
+    ) {
+        return new WidgetsStorageFactory(
+            CopyOnWriteTransactionsService::new,
+            () -> new ShardedWidgetsRepository(() -> newWidgetRTree(spatialIndexProperties), tileSize),
+            true
+        );
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = CONCURRENCY_PROPERTY, havingValue = "columnar")
+    public WidgetsStorageFactory columnarStorageFactory(
+        @Value("${" + COLUMNAR_INITIAL_CAPACITY_PROPERTY + ":" + ColumnarWidgetsRepository.DEFAULT_INITIAL_CAPACITY + "}")
+            int initialCapacity
+    ) {
+        return new WidgetsStorageFactory(
+            InMemoryTransactionsService::new,
+            () -> new ColumnarWidgetsRepository(initialCapacity)
+        );
+    }
+
+    /**
+     * The transactions service of the default canvas.
+     */
+    @Bean
+    public TransactionsService transactionsService(WidgetsStorageFactory storageFactory) {
+        return storageFactory.newTransactionsService();
+    }
+
+    /**
+     * The repository of the default canvas.
+     */
+    @Bean
+    public WidgetsRepository widgetsRepository(WidgetsStorageFactory storageFactory) {
+        return storageFactory.newWidgetsRepository();
+    }
+
+    @Bean
+    public CanvasesService canvasesService(
+        WidgetsStorageFactory storageFactory,
+        WidgetIdGenerator widgetIdGenerator,
+        Clock clock,
+        @Value("${" + CANVASES_IDLE_TIMEOUT_PROPERTY + ":PT1H}") Duration idleTimeout
+    ) {
+        return new CanvasesService(storageFactory, widgetIdGenerator, clock, idleTimeout);
+    }
+
+    @Bean
+    public CanvasesEvictionJob canvasesEvictionJob(CanvasesService canvasesService) {
+        return new CanvasesEvictionJob(canvasesService);
+    }
+
+    private static WidgetsRepository newInMemoryWidgetsRepository(SpatialIndexProperties spatialIndexProperties) {
+        return new InMemoryWidgetsRepository(newWidgetRTree(spatialIndexProperties));
+    }
+
+    private static WidgetRTree newWidgetRTree(SpatialIndexProperties spatialIndexProperties) {
+        return new WidgetRTree(
+            spatialIndexProperties.getMaxEntries(),
+            spatialIndexProperties.getMinEntries(),
+            spatialIndexProperties.getSplitPolicy()
+        );
     }
 }
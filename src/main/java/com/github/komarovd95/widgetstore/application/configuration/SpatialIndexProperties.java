@@ -0,0 +1,58 @@
+package com.github.komarovd95.widgetstore.application.configuration;
+
+import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Properties of the in-memory spatial index (R-tree).
+ * <p>
+ * Example:
+ * <pre>
+ * widgets.spatial-index.split-policy=R_STAR
+ * widgets.spatial-index.max-entries=32
+ * widgets.spatial-index.min-entries=12
+ * </pre>
+ */
+@ConfigurationProperties(prefix = "widgets.spatial-index")
+public class SpatialIndexProperties {
+
+    /**
+     * The strategy of insertion and the node split. The copy-on-write storage doesn't apply forced reinsertion of
+     * the R*-tree policy.
+     */
+    private WidgetRTree.SplitPolicy splitPolicy = WidgetRTree.SplitPolicy.LINEAR;
+
+    /**
+     * The maximum number of entries in a node (fan-out).
+     */
+    private int maxEntries = 50;
+
+    /**
+     * The minimum number of entries in a non-root node (minimum fill).
+     */
+    private int minEntries = 2;
+
+    public WidgetRTree.SplitPolicy getSplitPolicy() {
+        return splitPolicy;
+    }
+
+    public void setSplitPolicy(WidgetRTree.SplitPolicy splitPolicy) {
+        this.splitPolicy = splitPolicy;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public int getMinEntries() {
+        return minEntries;
+    }
+
+    public void setMinEntries(int minEntries) {
+        this.minEntries = minEntries;
+    }
+}
@@ -2,9 +2,14 @@ package com.github.komarovd95.widgetstore.application.configuration;
 
 import com.github.komarovd95.widgetstore.application.repository.WidgetsRepository;
 import com.github.komarovd95.widgetstore.application.service.WidgetsService;
+import com.github.komarovd95.widgetstore.application.service.WidgetsStorageFactory;
+import com.github.komarovd95.widgetstore.application.service.generator.TimeOrderedWidgetIdGenerator;
 import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
 import com.github.komarovd95.widgetstore.application.service.generator.WidgetIdGenerator;
 import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -12,27 +17,65 @@ import java.time.Clock;
 
 /**
  * The configuration for the application.
+ * <p>
+ * Updates of widgets that don't change Z-indices are executed optimistically (without exclusive write transactions)
+ * if {@value #OPTIMISTIC_MOVES_PROPERTY} property is true (it's supported by the SQL database storage) or if the in-memory
+ * {@link WidgetsStorageFactory} enables them.
+ * <p>
+ * The generator of widgets' identifiers is selected via {@value #ID_GENERATOR_PROPERTY} property:
+ * <ul>
+ *     <li>{@code random-uuid} (default) - random UUIDs (version 4)</li>
+ *     <li>
+ *         {@code time-ordered} - monotonic time-ordered UUIDs (version 7) generated from per-thread state. Instances
+ *         of the application that share the database MUST have distinct {@value #ID_GENERATOR_NODE_ID_PROPERTY}
+ *     </li>
+ * </ul>
  */
 @Configuration
 public class WidgetsStoreConfiguration {
 
+    static final String OPTIMISTIC_MOVES_PROPERTY = "widgets.database.optimistic-moves";
+
+    static final String ID_GENERATOR_PROPERTY = "widgets.id-generator.type";
+
+    static final String ID_GENERATOR_NODE_ID_PROPERTY = "widgets.id-generator.node-id";
+
     @Bean
     public Clock clock() {
         return Clock.systemUTC();
     }
 
     @Bean
+    @ConditionalOnProperty(name = ID_GENERATOR_PROPERTY, havingValue = "random-uuid", matchIfMissing = true)
     public WidgetIdGenerator widgetIdGenerator() {
         return new UuidWidgetIdGenerator();
     }
 
+    @Bean
+    @ConditionalOnProperty(name = ID_GENERATOR_PROPERTY, havingValue = "time-ordered")
+    public WidgetIdGenerator timeOrderedWidgetIdGenerator(
+        Clock clock,
+        @Value("${" + ID_GENERATOR_NODE_ID_PROPERTY + ":0}") int nodeId
+    ) {
+        return new TimeOrderedWidgetIdGenerator(clock, nodeId);
+    }
+
     @Bean
     public WidgetsService widgetsService(
         TransactionsService transactionsService,
         WidgetsRepository widgetsRepository,
         WidgetIdGenerator widgetIdGenerator,
-        Clock clock
+        Clock clock,
+        ObjectProvider<WidgetsStorageFactory> storageFactory,
+        @Value("${" + OPTIMISTIC_MOVES_PROPERTY + ":false}") boolean optimisticMoves
     ) {
-        return new WidgetsService(transactionsService, widgetsRepository, widgetIdGenerator, clock);
+        WidgetsStorageFactory inMemoryStorageFactory = storageFactory.getIfAvailable();
+        return new WidgetsService(
+            transactionsService,
+            widgetsRepository,
+            widgetIdGenerator,
+            clock,
+            optimisticMoves || inMemoryStorageFactory != null && inMemoryStorageFactory.isOptimisticMoves()
+        );
     }
 }
@@ -0,0 +1,49 @@
+package com.github.komarovd95.widgetstore.application.controller;
+
+import com.github.komarovd95.widgetstore.application.service.CanvasesService;
+import com.github.komarovd95.widgetstore.application.service.WidgetsService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/admin")
+@Tag(name = "Admin API", description = "REST API for maintenance of the widgets storage")
+public class AdminController {
+
+    private final WidgetsService widgetsService;
+
+    private final CanvasesService canvasesService;
+
+    @Autowired
+    public AdminController(WidgetsService widgetsService, ObjectProvider<CanvasesService> canvasesService) {
+        this.widgetsService = widgetsService;
+        this.canvasesService = canvasesService.getIfAvailable();
+    }
+
+    @PostMapping(value = "/indexes/rebuild")
+    @Operation(
+        operationId = "RebuildIndexes",
+        summary = "Rebuilds indexes of the widgets storage",
+        description = "Indexes of the default canvas and of all existing canvases are rebuilt",
+        responses = @ApiResponse(
+            responseCode = "204",
+            description = "Indexes have been rebuilt successfully",
+            content = @Content()
+        )
+    )
+    public ResponseEntity<Void> rebuildIndexes() {
+        widgetsService.rebuildIndexes();
+        if (canvasesService != null) {
+            canvasesService.forEachCanvas(WidgetsService::rebuildIndexes);
+        }
+        return ResponseEntity.noContent().build();
+    }
+}
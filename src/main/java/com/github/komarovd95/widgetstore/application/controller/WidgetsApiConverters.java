@@ -1,19 +1,35 @@
 package com.github.komarovd95.widgetstore.application.controller;
 
 import com.github.komarovd95.widgetstore.api.CreateWidgetRequest;
+import com.github.komarovd95.widgetstore.api.RegionQuery;
 import com.github.komarovd95.widgetstore.api.UpdateWidgetRequest;
 import com.github.komarovd95.widgetstore.api.WidgetView;
+import com.github.komarovd95.widgetstore.api.WidgetsListView;
+import com.github.komarovd95.widgetstore.api.common.Paging;
 import com.github.komarovd95.widgetstore.api.common.Point2D;
 import com.github.komarovd95.widgetstore.api.common.WidgetDimensions;
+import com.github.komarovd95.widgetstore.application.domain.PagedList;
 import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
 import com.github.komarovd95.widgetstore.application.domain.Widget;
 import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * The class with helper methods for the DTOs conversion.
  */
 public final class WidgetsApiConverters {
 
+    /**
+     * The separator of the Z-index and the snapshot version in the API cursor ({@code <Z-index>@<snapshot version>}).
+     * The cursor without a snapshot version is just a Z-index.
+     */
+    private static final String CURSOR_SNAPSHOT_SEPARATOR = "@";
+
     private WidgetsApiConverters() {
     }
 
@@ -57,6 +73,20 @@ public final class WidgetsApiConverters {
             .build();
     }
 
+    /**
+     * Converts a widget's ID from the API representation to the internal one.
+     *
+     * @param widgetId the API representation of the ID, not null
+     * @return the ID or {@link Optional#empty()} if the ID is malformed (i.e. there is no widget with such ID)
+     */
+    public static Optional<WidgetId> toWidgetId(String widgetId) {
+        try {
+            return Optional.of(WidgetId.parse(widgetId));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
     /**
      * Converts a widget from the internal representation to the API view.
      *
@@ -65,7 +95,7 @@ public final class WidgetsApiConverters {
      */
     public static WidgetView toApiView(Widget widget) {
         return WidgetView.builder()
-            .setId(widget.getId())
+            .setId(widget.getId().toString())
             .setCoordinates(
                 Point2D.builder()
                     .setX(widget.getBoundaries().getX())
@@ -82,4 +112,73 @@ public final class WidgetsApiConverters {
             .setModifiedAt(widget.getModifiedAt())
             .build();
     }
+
+    /**
+     * Converts a spatial search of the batch query to the internal filter representation.
+     *
+     * @param query the spatial search
+     * @param defaultLimit the limit that used if the search has no limit
+     * @return the filter. Never returns null
+     */
+    public static WidgetsFilter toFilter(RegionQuery query, int defaultLimit) {
+        return toFilter(
+            Region.builder()
+                .setX(query.getCoordinates().getX())
+                .setY(query.getCoordinates().getY())
+                .setWidth(query.getDimensions().getWidth())
+                .setHeight(query.getDimensions().getHeight())
+                .builder(),
+            query.getMatch().map(RegionMatchMode::valueOf).orElse(RegionMatchMode.CONTAINS),
+            query.getCursor().orElse(null),
+            query.getLimit().orElse(defaultLimit)
+        );
+    }
+
+    /**
+     * Converts parameters of a widgets list request to the internal filter representation.
+     *
+     * @param region the region for spatial search. Might be null
+     * @param matchMode the mode of matching widgets against the region, not null
+     * @param cursor the API cursor of the page. Might be null
+     * @param limit the maximum number of widgets on the page
+     * @return the filter. Never returns null
+     * @throws NumberFormatException if the cursor is malformed
+     */
+    public static WidgetsFilter toFilter(Region region, RegionMatchMode matchMode, String cursor, int limit) {
+        if (cursor == null) {
+            return new WidgetsFilter(region, matchMode, null, limit);
+        }
+        int separatorIndex = cursor.indexOf(CURSOR_SNAPSHOT_SEPARATOR);
+        return separatorIndex < 0
+            ? new WidgetsFilter(region, matchMode, Integer.parseInt(cursor), limit)
+            : new WidgetsFilter(
+                region,
+                matchMode,
+                Integer.parseInt(cursor.substring(0, separatorIndex)),
+                limit,
+                Long.parseLong(cursor.substring(separatorIndex + CURSOR_SNAPSHOT_SEPARATOR.length()))
+            );
+    }
+
+    /**
+     * Converts a page of widgets from the internal representation to the API view.
+     *
+     * @param pageWidgets the page of widgets
+     * @return page's API view. Never returns null
+     */
+    public static WidgetsListView toApiView(PagedList<Widget> pageWidgets) {
+        return new WidgetsListView(
+            pageWidgets.getItems()
+                .stream()
+                .map(WidgetsApiConverters::toApiView)
+                .collect(Collectors.toList()),
+            pageWidgets.getCursor()
+                .map(nextPageCursor -> Paging.forNonLastPage(
+                    pageWidgets.getSnapshotVersion()
+                        .map(snapshotVersion -> nextPageCursor + CURSOR_SNAPSHOT_SEPARATOR + snapshotVersion)
+                        .orElseGet(nextPageCursor::toString)
+                ))
+                .orElseGet(Paging::forLastPage)
+        );
+    }
 }
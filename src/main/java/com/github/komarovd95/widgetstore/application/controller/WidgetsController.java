@@ -1,14 +1,22 @@
 package com.github.komarovd95.widgetstore.application.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.komarovd95.widgetstore.api.CreateWidgetRequest;
 import com.github.komarovd95.widgetstore.api.UpdateWidgetRequest;
 import com.github.komarovd95.widgetstore.api.WidgetView;
+import com.github.komarovd95.widgetstore.api.WidgetsAtPointView;
+import com.github.komarovd95.widgetstore.api.WidgetsBatchQueryRequest;
+import com.github.komarovd95.widgetstore.api.WidgetsBatchQueryView;
 import com.github.komarovd95.widgetstore.api.WidgetsListView;
-import com.github.komarovd95.widgetstore.api.common.Paging;
 import com.github.komarovd95.widgetstore.application.domain.PagedList;
 import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.SnapshotExpiredException;
 import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
 import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.service.CanvasesService;
 import com.github.komarovd95.widgetstore.application.service.WidgetsService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -16,7 +24,9 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
@@ -29,27 +39,45 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Positive;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @RestController
-@RequestMapping("/api/widgets")
+@RequestMapping({"/api/widgets", "/api/canvases/{canvasId}/widgets"})
 @Validated
 @Tag(name = "Widgets API", description = "REST API for interaction with widgets")
 public class WidgetsController {
 
     private static final String DEFAULT_LIMIT = "10";
+    private static final String DEFAULT_HIT_LIMIT = "1";
     private static final int MAX_LIMIT = 500;
 
     private final WidgetsService widgetsService;
 
+    private final CanvasesService canvasesService;
+
+    private final ObjectMapper objectMapper;
+
     @Autowired
-    public WidgetsController(WidgetsService widgetsService) {
+    public WidgetsController(
+        WidgetsService widgetsService,
+        ObjectProvider<CanvasesService> canvasesService,
+        ObjectMapper objectMapper
+    ) {
         this.widgetsService = widgetsService;
+        this.canvasesService = canvasesService.getIfAvailable();
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
@@ -70,8 +98,16 @@ public class WidgetsController {
             )
         }
     )
-    public ResponseEntity<WidgetView> createWidget(@Valid @RequestBody CreateWidgetRequest request) {
-        Widget widget = widgetsService.createWidget(WidgetsApiConverters.toParameters(request));
+    public ResponseEntity<WidgetView> createWidget(
+        @PathVariable(name = "canvasId", required = false)
+        @Parameter(description = "An ID of the canvas. If not presented, then the default canvas is used")
+        String canvasId,
+        @Valid @RequestBody CreateWidgetRequest request
+    ) {
+        Widget widget = writeWidgets(
+            canvasId,
+            service -> service.createWidget(WidgetsApiConverters.toParameters(request))
+        );
         return ResponseEntity.ok(WidgetsApiConverters.toApiView(widget));
     }
 
@@ -103,12 +139,16 @@ public class WidgetsController {
         }
     )
     public ResponseEntity<WidgetView> updateWidget(
+        @PathVariable(name = "canvasId", required = false)
+        @Parameter(description = "An ID of the canvas. If not presented, then the default canvas is used")
+        String canvasId,
         @PathVariable("widgetId") String widgetId,
         @Valid @RequestBody UpdateWidgetRequest request
     ) {
-        Optional<Widget> optionalWidget = widgetsService.updateWidget(
-            widgetId,
-            WidgetsApiConverters.toParameters(request)
+        Optional<Widget> optionalWidget = readWidgets(
+            canvasId,
+            service -> WidgetsApiConverters.toWidgetId(widgetId)
+                .flatMap(id -> service.updateWidget(id, WidgetsApiConverters.toParameters(request)))
         );
         return optionalWidget
             .map(widget -> ResponseEntity.ok(WidgetsApiConverters.toApiView(widget)))
@@ -125,11 +165,70 @@ public class WidgetsController {
             content = @Content()
         )
     )
-    public ResponseEntity<Void> deleteWidget(@PathVariable("widgetId") String widgetId) {
-        widgetsService.deleteWidget(widgetId);
+    public ResponseEntity<Void> deleteWidget(
+        @PathVariable(name = "canvasId", required = false)
+        @Parameter(description = "An ID of the canvas. If not presented, then the default canvas is used")
+        String canvasId,
+        @PathVariable("widgetId") String widgetId
+    ) {
+        Optional<WidgetId> id = WidgetsApiConverters.toWidgetId(widgetId);
+        if (canvasId == null) {
+            id.ifPresent(widgetsService::deleteWidget);
+        } else {
+            // a missing canvas has no widgets to delete, so it's not created
+            canvasesService().readCanvas(canvasId, service -> {
+                id.ifPresent(service::deleteWidget);
+                return null;
+            });
+        }
         return ResponseEntity.noContent().build();
     }
 
+    @GetMapping(value = "/at", produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(
+        operationId = "GetWidgetsAtPoint",
+        summary = "Returns the topmost widgets that cover the given point",
+        responses = {
+            @ApiResponse(
+                responseCode = "200",
+                description = "Widgets were found",
+                content = @Content(
+                    schema = @Schema(implementation = WidgetsAtPointView.class)
+                )
+            ),
+            @ApiResponse(
+                responseCode = "400",
+                description = "Request is malformed"
+            )
+        }
+    )
+    public ResponseEntity<WidgetsAtPointView> getWidgetsAtPoint(
+        @PathVariable(name = "canvasId", required = false)
+        @Parameter(description = "An ID of the canvas. If not presented, then the default canvas is used")
+        String canvasId,
+        @RequestParam(name = "x")
+        Integer x,
+        @RequestParam(name = "y")
+        Integer y,
+        @RequestParam(name = "limit", defaultValue = DEFAULT_HIT_LIMIT, required = false)
+        @Parameter(
+            description = "A maximum number of widgets that will be returned (the topmost widget first)",
+            schema = @Schema(defaultValue = DEFAULT_HIT_LIMIT)
+        )
+        @Positive
+        @Max(MAX_LIMIT)
+        Integer limit
+    ) {
+        return ResponseEntity.ok(
+            new WidgetsAtPointView(
+                readWidgets(canvasId, service -> service.getWidgetsAt(x, y, limit))
+                    .stream()
+                    .map(WidgetsApiConverters::toApiView)
+                    .collect(Collectors.toList())
+            )
+        );
+    }
+
     @GetMapping(value = "/{widgetId}", produces = MediaType.APPLICATION_JSON_VALUE)
     @Operation(
         operationId = "GetWidgetById",
@@ -149,8 +248,16 @@ public class WidgetsController {
             )
         }
     )
-    public ResponseEntity<WidgetView> getWidgetById(@PathVariable("widgetId") String widgetId) {
-        Optional<Widget> optionalWidget = widgetsService.getWidgetById(widgetId);
+    public ResponseEntity<WidgetView> getWidgetById(
+        @PathVariable(name = "canvasId", required = false)
+        @Parameter(description = "An ID of the canvas. If not presented, then the default canvas is used")
+        String canvasId,
+        @PathVariable("widgetId") String widgetId
+    ) {
+        Optional<Widget> optionalWidget = readWidgets(
+            canvasId,
+            service -> WidgetsApiConverters.toWidgetId(widgetId).flatMap(service::getWidgetById)
+        );
         return optionalWidget
             .map(widget -> ResponseEntity.ok(WidgetsApiConverters.toApiView(widget)))
             .orElseGet(() -> ResponseEntity.notFound().build());
@@ -160,15 +267,24 @@ public class WidgetsController {
     @Operation(
         operationId = "GetAllWidgets",
         summary = "Returns all existing widgets",
-        responses = @ApiResponse(
-            responseCode = "200",
-            description = "Widgets were found",
-            content = @Content(
-                schema = @Schema(implementation = WidgetsListView.class)
+        responses = {
+            @ApiResponse(
+                responseCode = "200",
+                description = "Widgets were found",
+                content = @Content(
+                    schema = @Schema(implementation = WidgetsListView.class)
+                )
+            ),
+            @ApiResponse(
+                responseCode = "410",
+                description = "The snapshot of the cursor is not retained anymore, paging has to start over"
             )
-        )
+        }
     )
     public ResponseEntity<WidgetsListView> getWidgets(
+        @PathVariable(name = "canvasId", required = false)
+        @Parameter(description = "An ID of the canvas. If not presented, then the default canvas is used")
+        String canvasId,
         @RequestParam(name = "x", required = false)
         Integer x,
         @RequestParam(name = "y", required = false)
@@ -179,6 +295,13 @@ public class WidgetsController {
         @RequestParam(name = "height", required = false)
         @Positive
         Integer height,
+        @RequestParam(name = "match", defaultValue = "CONTAINS", required = false)
+        @Parameter(
+            description = "A mode of the spatial search: widgets contained by the region (CONTAINS) or widgets " +
+                "intersecting the region (INTERSECTS)",
+            schema = @Schema(defaultValue = "CONTAINS")
+        )
+        RegionMatchMode match,
         @RequestParam(name = "limit", defaultValue = DEFAULT_LIMIT, required = false)
         @Parameter(
             description = "A maximum number of widgets that will be returned on the page",
@@ -191,32 +314,150 @@ public class WidgetsController {
         @Parameter(description = "A cursor of the page. If not presented, then the first page will be returned")
         String cursor
     ) {
-        PagedList<Widget> pageWidgets = widgetsService.getWidgets(
-            new WidgetsFilter(
-                x != null && y != null && width != null && height != null
-                    ? Region.builder()
-                        .setX(x)
-                        .setY(y)
-                        .setWidth(width)
-                        .setHeight(height)
-                        .builder()
-                    : null,
-                cursor != null
-                    ? Integer.parseInt(cursor)
-                    : null,
-                limit
-            )
+        WidgetsFilter filter = WidgetsApiConverters.toFilter(
+            x != null && y != null && width != null && height != null
+                ? Region.builder()
+                    .setX(x)
+                    .setY(y)
+                    .setWidth(width)
+                    .setHeight(height)
+                    .builder()
+                : null,
+            match,
+            cursor,
+            limit
         );
+        PagedList<Widget> pageWidgets;
+        try {
+            pageWidgets = readWidgets(canvasId, service -> service.getWidgets(filter));
+        } catch (SnapshotExpiredException e) {
+            throw new ResponseStatusException(HttpStatus.GONE, "Snapshot of the cursor has expired", e);
+        }
+        return ResponseEntity.ok(WidgetsApiConverters.toApiView(pageWidgets));
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(
+        operationId = "ExportWidgets",
+        summary = "Streams all existing widgets as newline-delimited JSON (a widget per line, sorted by Z-index)",
+        description = "Every widget of a single state of the storage is streamed exactly once, even if widgets are " +
+            "modified concurrently. Widgets are written to the client outside of storage locks, so modifications " +
+            "don't wait for slow clients. If the storage doesn't retain the snapshot of the export until its end, " +
+            "then the stream is aborted",
+        responses = @ApiResponse(
+            responseCode = "200",
+            description = "Widgets are streamed",
+            content = @Content(
+                mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+                schema = @Schema(implementation = WidgetView.class)
+            )
+        )
+    )
+    public ResponseEntity<StreamingResponseBody> exportWidgets(
+        @PathVariable(name = "canvasId", required = false)
+        @Parameter(description = "An ID of the canvas. If not presented, then the default canvas is used")
+        String canvasId
+    ) {
+        // responds with 404 Not Found before streaming if the canvas doesn't exist
+        readWidgets(canvasId, service -> service);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                Consumer<Widget> consumer = widget -> writeLine(generator, WidgetsApiConverters.toApiView(widget));
+                if (canvasId == null) {
+                    widgetsService.exportWidgets(MAX_LIMIT, consumer);
+                } else {
+                    canvasesService.readCanvas(canvasId, service -> {
+                        service.exportWidgets(MAX_LIMIT, consumer);
+                        return null;
+                    });
+                }
+            }
+        };
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .body(body);
+    }
+
+    private static void writeLine(JsonGenerator generator, WidgetView widget) {
+        try {
+            generator.writeObject(widget);
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @PostMapping(
+        value = "/query",
+        consumes = MediaType.APPLICATION_JSON_VALUE,
+        produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @Operation(
+        operationId = "QueryWidgets",
+        summary = "Returns pages of widgets for several regions at once",
+        responses = {
+            @ApiResponse(
+                responseCode = "200",
+                description = "Widgets were found",
+                content = @Content(
+                    schema = @Schema(implementation = WidgetsBatchQueryView.class)
+                )
+            ),
+            @ApiResponse(
+                responseCode = "400",
+                description = "Request is malformed"
+            )
+        }
+    )
+    public ResponseEntity<WidgetsBatchQueryView> queryWidgets(
+        @PathVariable(name = "canvasId", required = false)
+        @Parameter(description = "An ID of the canvas. If not presented, then the default canvas is used")
+        String canvasId,
+        @Valid @RequestBody WidgetsBatchQueryRequest request
+    ) {
+        List<WidgetsFilter> filters = request.getQueries()
+            .stream()
+            .map(query -> WidgetsApiConverters.toFilter(query, Integer.parseInt(DEFAULT_LIMIT)))
+            .collect(Collectors.toList());
+        List<PagedList<Widget>> pages = readWidgets(canvasId, service -> service.getWidgets(filters));
         return ResponseEntity.ok(
-            new WidgetsListView(
-                pageWidgets.getItems()
-                    .stream()
+            new WidgetsBatchQueryView(
+                pages.stream()
                     .map(WidgetsApiConverters::toApiView)
-                    .collect(Collectors.toList()),
-                pageWidgets.getCursor()
-                    .map(nextPageCursor -> Paging.forNonLastPage(nextPageCursor.toString()))
-                    .orElseGet(Paging::forLastPage)
+                    .collect(Collectors.toList())
             )
         );
     }
+
+    /**
+     * Applies the action to the widgets service of the canvas or the default one if the canvas ID is not presented.
+     * A missing canvas is not created.
+     *
+     * @throws ResponseStatusException with {@code 404 Not Found} if the canvas doesn't exist
+     */
+    private <T> T readWidgets(String canvasId, Function<WidgetsService, T> action) {
+        if (canvasId == null) {
+            return action.apply(widgetsService);
+        }
+        return canvasesService().readCanvas(canvasId, action)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Canvas was not found"));
+    }
+
+    /**
+     * Applies the action to the widgets service of the canvas or the default one if the canvas ID is not presented.
+     * A missing canvas is created.
+     */
+    private <T> T writeWidgets(String canvasId, Function<WidgetsService, T> action) {
+        if (canvasId == null) {
+            return action.apply(widgetsService);
+        }
+        return canvasesService().writeCanvas(canvasId, action);
+    }
+
+    private CanvasesService canvasesService() {
+        if (canvasesService == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Canvases are not supported by the storage");
+        }
+        return canvasesService;
+    }
 }
@@ -22,9 +22,15 @@ public class PagedList<T> {
      */
     private final Integer cursor;
 
-    private PagedList(List<T> items, Integer cursor) {
+    /**
+     * A version of the snapshot that the next page should be read from.
+     */
+    private final Long snapshotVersion;
+
+    private PagedList(List<T> items, Integer cursor, Long snapshotVersion) {
         this.items = Collections.unmodifiableList(items);
         this.cursor = cursor;
+        this.snapshotVersion = snapshotVersion;
     }
 
     /**
@@ -41,11 +47,20 @@ public class PagedList<T> {
         return Optional.ofNullable(cursor);
     }
 
+    /**
+     * @return the optional version of the snapshot for the next page, not null. Presented only if the next page exists
+     *         and the storage supports snapshots
+     */
+    public Optional<Long> getSnapshotVersion() {
+        return Optional.ofNullable(snapshotVersion);
+    }
+
     @Override
     public String toString() {
         return "PagedList{" +
             "items.size=" + items.size() +
             ", cursor=" + cursor +
+            ", snapshotVersion=" + snapshotVersion +
             '}';
     }
 
@@ -58,7 +73,7 @@ public class PagedList<T> {
      */
     public static <T> PagedList<T> lastPage(List<T> items) {
         Objects.requireNonNull(items, "items");
-        return new PagedList<>(items, null);
+        return new PagedList<>(items, null, null);
     }
 
     /**
@@ -70,8 +85,21 @@ public class PagedList<T> {
      * @return the paged list
      */
     public static <T> PagedList<T> nonLastPage(List<T> items, Integer cursor) {
+        return nonLastPage(items, cursor, null);
+    }
+
+    /**
+     * Returns a paged list for the non-last page read from a snapshot of the storage.
+     *
+     * @param items the list of items on this page
+     * @param cursor the cursor for the next page
+     * @param snapshotVersion the version of the snapshot that the next page should be read from. Might be null
+     * @param <T> the type of items
+     * @return the paged list
+     */
+    public static <T> PagedList<T> nonLastPage(List<T> items, Integer cursor, Long snapshotVersion) {
         Objects.requireNonNull(items, "items");
         Objects.requireNonNull(cursor, "cursor");
-        return new PagedList<>(items, cursor);
+        return new PagedList<>(items, cursor, snapshotVersion);
     }
 }
@@ -0,0 +1,18 @@
+package com.github.komarovd95.widgetstore.application.domain;
+
+/**
+ * A mode of matching widgets against a region in the spatial search.
+ */
+public enum RegionMatchMode {
+
+    /**
+     * A widget matches if it's fully contained by the region.
+     */
+    CONTAINS,
+
+    /**
+     * A widget matches if it intersects the region. Rectangles are considered closed, so a widget that touches
+     * the region by an edge or a corner matches too.
+     */
+    INTERSECTS
+}
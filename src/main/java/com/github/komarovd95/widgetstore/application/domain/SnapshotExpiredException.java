@@ -0,0 +1,29 @@
+package com.github.komarovd95.widgetstore.application.domain;
+
+/**
+ * Thrown if a read references a snapshot of the storage that is not retained anymore (e.g. the next page of a paged
+ * read has been requested after the retention of its snapshot has expired). The read can't be served from the same
+ * state of the storage, so the client has to start over.
+ */
+public class SnapshotExpiredException extends RuntimeException {
+
+    /**
+     * The version of the expired snapshot.
+     */
+    private final long snapshotVersion;
+
+    /**
+     * @param snapshotVersion the version of the expired snapshot
+     */
+    public SnapshotExpiredException(long snapshotVersion) {
+        super("Snapshot is not retained anymore: snapshotVersion=" + snapshotVersion);
+        this.snapshotVersion = snapshotVersion;
+    }
+
+    /**
+     * @return the version of the expired snapshot
+     */
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.komarovd95.widgetstore.application.domain;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A value read from a particular version of the storage (a snapshot) or of a stored record.
+ *
+ * @param <T> a type of the value
+ */
+public class Versioned<T> {
+
+    /**
+     * The value.
+     */
+    private final T value;
+
+    /**
+     * The version of the snapshot (or the record) that the value has been read from. If null, then the storage doesn't
+     * support versioning.
+     */
+    private final Long version;
+
+    private Versioned(T value, Long version) {
+        this.value = Objects.requireNonNull(value, "value");
+        this.version = version;
+    }
+
+    /**
+     * @return the value, not null
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return the optional version of the snapshot, not null. Presented only if the storage supports snapshots
+     */
+    public Optional<Long> getVersion() {
+        return Optional.ofNullable(version);
+    }
+
+    @Override
+    public String toString() {
+        return "Versioned{" +
+            "value=" + value +
+            ", version=" + version +
+            '}';
+    }
+
+    /**
+     * Returns a value read from the snapshot of the given version.
+     *
+     * @param value the value, not null
+     * @param version the version of the snapshot
+     * @param <T> the type of the value
+     * @return the versioned value
+     */
+    public static <T> Versioned<T> of(T value, long version) {
+        return new Versioned<>(value, version);
+    }
+
+    /**
+     * Returns a value read from a storage that doesn't support snapshots.
+     *
+     * @param value the value, not null
+     * @param <T> the type of the value
+     * @return the versioned value without a version
+     */
+    public static <T> Versioned<T> unversioned(T value) {
+        return new Versioned<>(value, null);
+    }
+}
@@ -11,7 +11,7 @@ public class Widget {
     /**
      * A widget's identifier.
      */
-    private final String id;
+    private final WidgetId id;
 
     /**
      * A widget's boundaries.
@@ -28,7 +28,7 @@ public class Widget {
      */
     private final Instant modifiedAt;
 
-    private Widget(String id, Region boundaries, int z, Instant modifiedAt) {
+    private Widget(WidgetId id, Region boundaries, int z, Instant modifiedAt) {
         this.id = Objects.requireNonNull(id, "id");
         this.boundaries = Objects.requireNonNull(boundaries, "boundaries");
         this.z = z;
@@ -38,7 +38,7 @@ public class Widget {
     /**
      * @return the widget's identifier, not null
      */
-    public String getId() {
+    public WidgetId getId() {
         return id;
     }
 
@@ -102,7 +102,7 @@ public class Widget {
      */
     public static class Builder {
 
-        private String id;
+        private WidgetId id;
         private Region boundaries;
         private Integer z;
         private Instant modifiedAt;
@@ -110,7 +110,7 @@ public class Widget {
         private Builder() {
         }
 
-        public Builder setId(String id) {
+        public Builder setId(WidgetId id) {
             this.id = id;
             return this;
         }
@@ -0,0 +1,124 @@
+package com.github.komarovd95.widgetstore.application.domain;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A 128-bit widget's identifier.
+ * <p>
+ * Identifiers are kept as two {@code long} values everywhere in the application: in memory, in indexes and in the
+ * database ({@code UUID} column). The text form (the canonical UUID representation) is used only by the API.
+ */
+public final class WidgetId implements Comparable<WidgetId> {
+
+    /**
+     * The length of the canonical text form: 32 hex digits and 4 dashes.
+     */
+    private static final int TEXT_LENGTH = 36;
+
+    /**
+     * The most significant 64 bits.
+     */
+    private final long high;
+
+    /**
+     * The least significant 64 bits.
+     */
+    private final long low;
+
+    public WidgetId(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @param uuid the UUID, not null
+     * @return the identifier with the same bits as the UUID
+     */
+    public static WidgetId of(UUID uuid) {
+        Objects.requireNonNull(uuid, "uuid");
+        return new WidgetId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Parses the canonical text form of an identifier (e.g. {@code 123e4567-e89b-12d3-a456-426614174000}).
+     *
+     * @param text the text form, not null
+     * @return the identifier
+     * @throws IllegalArgumentException if the text is not a canonical text form of an identifier
+     */
+    public static WidgetId parse(String text) {
+        Objects.requireNonNull(text, "text");
+        if (text.length() != TEXT_LENGTH) {
+            throw new IllegalArgumentException("Malformed widget's identifier: " + text);
+        }
+        return of(UUID.fromString(text));
+    }
+
+    /**
+     * @return the most significant 64 bits
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * @return the least significant 64 bits
+     */
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * @return the UUID with the same bits, not null
+     */
+    public UUID toUuid() {
+        return new UUID(high, low);
+    }
+
+    /**
+     * @return the canonical text form
+     */
+    @Override
+    public String toString() {
+        return toUuid().toString();
+    }
+
+    /**
+     * Compares identifiers as unsigned 128-bit numbers, so the order is the same as the order of their text forms.
+     */
+    @Override
+    public int compareTo(WidgetId other) {
+        int comparison = Long.compareUnsigned(high, other.high);
+        return comparison != 0 ? comparison : Long.compareUnsigned(low, other.low);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        WidgetId widgetId = (WidgetId) obj;
+        return high == widgetId.high && low == widgetId.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(high, low);
+    }
+
+    /**
+     * The hash code of an identifier given by its bits, so primitive-keyed indexes hash identifiers the same way.
+     *
+     * @param high the most significant 64 bits
+     * @param low the least significant 64 bits
+     * @return the hash code
+     */
+    public static int hash(long high, long low) {
+        long h = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
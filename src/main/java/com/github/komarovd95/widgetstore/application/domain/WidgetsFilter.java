@@ -1,5 +1,6 @@
 package com.github.komarovd95.widgetstore.application.domain;
 
+import java.util.Objects;
 import java.util.Optional;
 
 /**
@@ -12,6 +13,11 @@ public class WidgetsFilter {
      */
     private final Region region;
 
+    /**
+     * A mode of matching widgets against the region.
+     */
+    private final RegionMatchMode matchMode;
+
     /**
      * A cursor that references on the particular page. If null, then the first page will be returned.
      */
@@ -22,10 +28,25 @@ public class WidgetsFilter {
      */
     private final int limit;
 
+    /**
+     * A version of the snapshot to read widgets from. If null, then the latest state will be read.
+     */
+    private final Long snapshotVersion;
+
     public WidgetsFilter(Region region, Integer cursor, int limit) {
+        this(region, RegionMatchMode.CONTAINS, cursor, limit);
+    }
+
+    public WidgetsFilter(Region region, RegionMatchMode matchMode, Integer cursor, int limit) {
+        this(region, matchMode, cursor, limit, null);
+    }
+
+    public WidgetsFilter(Region region, RegionMatchMode matchMode, Integer cursor, int limit, Long snapshotVersion) {
         this.region = region;
+        this.matchMode = Objects.requireNonNull(matchMode, "matchMode");
         this.cursor = cursor;
         this.limit = limit;
+        this.snapshotVersion = snapshotVersion;
     }
 
     /**
@@ -35,6 +56,13 @@ public class WidgetsFilter {
         return Optional.ofNullable(region);
     }
 
+    /**
+     * @return the mode of matching widgets against the region, not null
+     */
+    public RegionMatchMode getMatchMode() {
+        return matchMode;
+    }
+
     /**
      * @return the optional cursor, not null
      */
@@ -49,12 +77,21 @@ public class WidgetsFilter {
         return limit;
     }
 
+    /**
+     * @return the optional version of the snapshot, not null
+     */
+    public Optional<Long> getSnapshotVersion() {
+        return Optional.ofNullable(snapshotVersion);
+    }
+
     @Override
     public String toString() {
         return "WidgetsFilter{" +
             "region=" + region +
+            ", matchMode=" + matchMode +
             ", cursor=" + cursor +
             ", limit=" + limit +
+            ", snapshotVersion=" + snapshotVersion +
             '}';
     }
 }
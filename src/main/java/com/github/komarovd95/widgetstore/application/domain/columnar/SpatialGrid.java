@@ -0,0 +1,318 @@
+package com.github.komarovd95.widgetstore.application.domain.columnar;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * A hierarchical loose grid of slots of {@link WidgetColumns} for spatial search.
+ * <p>
+ * Level {@code L} of the grid splits the plane into square cells of size {@code 2^(6 + L)}. A widget is stored in
+ * a single cell: the one of the lowest level whose cell size isn't less than both sides of the widget, and that
+ * contains the lower-left corner of the widget. So, a widget never spans more than 2x2 cells of its level, and a search
+ * visits at each level only the cells of the searched region extended by one cell downwards and to the left.
+ * <p>
+ * A cell is an intrusive linked list of slots: the cell table of a level maps the key of a cell to its first slot
+ * (open addressing with linear probing over primitive arrays), and {@code next} links every slot to the following slot
+ * of its cell. Boundaries are read from the columns. So, the grid is a few dozen primitive arrays regardless of the
+ * number of widgets and occupied cells, and there are no per-cell or per-widget objects.
+ * <p>
+ * Unlike the R-tree, the grid doesn't keep widgets in the Z-index order: the caller sorts found slots.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class SpatialGrid {
+
+    private static final int BASE_CELL_BITS = 6;
+
+    /**
+     * Cells of the top level are large enough for any widget (sides are at most {@code 2^31 - 1}).
+     */
+    private static final int LEVELS_COUNT = Integer.SIZE - BASE_CELL_BITS;
+
+    /**
+     * The marker of the end of a cell's list and of an empty entry of a cell table (both store {@code slot + 1}).
+     */
+    private static final int EMPTY = 0;
+
+    private final WidgetColumns columns;
+
+    private final CellTable[] levels = new CellTable[LEVELS_COUNT];
+
+    /**
+     * The next slot of the same cell ({@code slot + 1}) per slot.
+     */
+    private int[] next = new int[16];
+
+    /**
+     * @param columns the columns of indexed widgets, not null
+     */
+    public SpatialGrid(WidgetColumns columns) {
+        this.columns = Objects.requireNonNull(columns, "columns");
+    }
+
+    /**
+     * Adds the slot. Its boundaries MUST be set.
+     *
+     * @param slot the slot
+     */
+    public void add(int slot) {
+        int level = levelOf(slot);
+        if (levels[level] == null) {
+            levels[level] = new CellTable();
+        }
+        if (slot >= next.length) {
+            next = Arrays.copyOf(next, Math.max(slot + 1, next.length + (next.length >> 1)));
+        }
+        CellTable cells = levels[level];
+        long key = cellOf(slot, level);
+        next[slot] = cells.get(key);
+        cells.put(key, slot + 1);
+    }
+
+    /**
+     * Removes the slot. Its boundaries MUST NOT be changed since its addition.
+     *
+     * @param slot the slot
+     */
+    public void remove(int slot) {
+        int level = levelOf(slot);
+        CellTable cells = levels[level];
+        long key = cellOf(slot, level);
+        int previous = EMPTY;
+        int current = cells == null ? EMPTY : cells.get(key);
+        while (current != EMPTY && current != slot + 1) {
+            previous = current;
+            current = next[current - 1];
+        }
+        if (current == EMPTY) {
+            throw new IllegalStateException("Slot is not found: slot=" + slot);
+        }
+        if (previous == EMPTY) {
+            cells.put(key, next[slot]);
+        } else {
+            next[previous - 1] = next[slot];
+        }
+    }
+
+    /**
+     * Removes all slots.
+     */
+    public void clear() {
+        Arrays.fill(levels, null);
+    }
+
+    /**
+     * Finds slots of widgets that intersect the given rectangle (boundaries are inclusive).
+     *
+     * @param minX the minimal X coordinate of the rectangle
+     * @param minY the minimal Y coordinate of the rectangle
+     * @param maxX the maximal X coordinate of the rectangle
+     * @param maxY the maximal Y coordinate of the rectangle
+     * @param slotConsumer the consumer of found slots, not null
+     */
+    public void intersecting(long minX, long minY, long maxX, long maxY, IntConsumer slotConsumer) {
+        Objects.requireNonNull(slotConsumer, "slotConsumer");
+        forEachCandidate(minX, minY, maxX, maxY, slot -> {
+            if (columns.x[slot] <= maxX
+                && columns.y[slot] <= maxY
+                && (long) columns.x[slot] + columns.width[slot] >= minX
+                && (long) columns.y[slot] + columns.height[slot] >= minY) {
+                slotConsumer.accept(slot);
+            }
+        });
+    }
+
+    /**
+     * Finds slots of widgets that are contained by the given rectangle (boundaries are inclusive).
+     *
+     * @param minX the minimal X coordinate of the rectangle
+     * @param minY the minimal Y coordinate of the rectangle
+     * @param maxX the maximal X coordinate of the rectangle
+     * @param maxY the maximal Y coordinate of the rectangle
+     * @param slotConsumer the consumer of found slots, not null
+     */
+    public void contained(long minX, long minY, long maxX, long maxY, IntConsumer slotConsumer) {
+        Objects.requireNonNull(slotConsumer, "slotConsumer");
+        forEachCandidate(minX, minY, maxX, maxY, slot -> {
+            if (columns.x[slot] >= minX
+                && columns.y[slot] >= minY
+                && (long) columns.x[slot] + columns.width[slot] <= maxX
+                && (long) columns.y[slot] + columns.height[slot] <= maxY) {
+                slotConsumer.accept(slot);
+            }
+        });
+    }
+
+    /**
+     * Finds slots of widgets that cover the given point. A widget covers the point if {@code x <= px < x + width} and
+     * {@code y <= py < y + height}.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @param slotConsumer the consumer of found slots, not null
+     */
+    public void covering(int x, int y, IntConsumer slotConsumer) {
+        Objects.requireNonNull(slotConsumer, "slotConsumer");
+        forEachCandidate(x, y, x, y, slot -> {
+            if (columns.x[slot] <= x
+                && columns.y[slot] <= y
+                && x < (long) columns.x[slot] + columns.width[slot]
+                && y < (long) columns.y[slot] + columns.height[slot]) {
+                slotConsumer.accept(slot);
+            }
+        });
+    }
+
+    /**
+     * Provides all slots of cells that might contain widgets intersecting the given rectangle.
+     */
+    private void forEachCandidate(long minX, long minY, long maxX, long maxY, IntConsumer slotConsumer) {
+        for (int level = 0; level < LEVELS_COUNT; level++) {
+            CellTable cells = levels[level];
+            if (cells == null || cells.size == 0) {
+                continue;
+            }
+            int cellBits = BASE_CELL_BITS + level;
+            long cellSize = 1L << cellBits;
+            long fromX = (minX - cellSize) >> cellBits;
+            long fromY = (minY - cellSize) >> cellBits;
+            long toX = maxX >> cellBits;
+            long toY = maxY >> cellBits;
+            long cellsInRange = (toX - fromX + 1) * (toY - fromY + 1);
+            if (cellsInRange > cells.size) {
+                // the region is large for this level, so it's cheaper to check all occupied cells
+                for (int i = 0; i < cells.heads.length; i++) {
+                    if (cells.heads[i] == EMPTY) {
+                        continue;
+                    }
+                    long cellX = cells.keys[i] >> Integer.SIZE;
+                    long cellY = (int) cells.keys[i];
+                    if (fromX <= cellX && cellX <= toX && fromY <= cellY && cellY <= toY) {
+                        forEachSlot(cells.heads[i], slotConsumer);
+                    }
+                }
+            } else {
+                for (long cellX = fromX; cellX <= toX; cellX++) {
+                    for (long cellY = fromY; cellY <= toY; cellY++) {
+                        forEachSlot(cells.get(key(cellX, cellY)), slotConsumer);
+                    }
+                }
+            }
+        }
+    }
+
+    private int levelOf(int slot) {
+        long side = Math.max(Math.max(columns.width[slot], columns.height[slot]), 1);
+        int sideBits = Long.SIZE - Long.numberOfLeadingZeros(side - 1);
+        return Math.max(0, sideBits - BASE_CELL_BITS);
+    }
+
+    private long cellOf(int slot, int level) {
+        int cellBits = BASE_CELL_BITS + level;
+        return key(columns.x[slot] >> cellBits, columns.y[slot] >> cellBits);
+    }
+
+    private static long key(long cellX, long cellY) {
+        return (cellX << Integer.SIZE) | (cellY & 0xFFFFFFFFL);
+    }
+
+    private void forEachSlot(int head, IntConsumer slotConsumer) {
+        for (int entry = head; entry != EMPTY; entry = next[entry - 1]) {
+            slotConsumer.accept(entry - 1);
+        }
+    }
+
+    /**
+     * An open-addressing hash table (linear probing) from keys of occupied cells to their first slots
+     * ({@code slot + 1}).
+     */
+    private static final class CellTable {
+
+        private long[] keys = new long[16];
+        private int[] heads = new int[16];
+        private int size;
+
+        /**
+         * @return the first slot of the cell ({@code slot + 1}) or {@link #EMPTY} if the cell is not occupied
+         */
+        private int get(long key) {
+            int mask = heads.length - 1;
+            for (int i = hash(key) & mask; heads[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return heads[i];
+                }
+            }
+            return EMPTY;
+        }
+
+        /**
+         * Sets the first slot of the cell ({@code slot + 1}). The cell is removed if the given head is {@link #EMPTY}.
+         */
+        private void put(long key, int head) {
+            int mask = heads.length - 1;
+            int i = hash(key) & mask;
+            while (heads[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (heads[i] != EMPTY) {
+                if (head == EMPTY) {
+                    remove(i);
+                } else {
+                    heads[i] = head;
+                }
+            } else if (head != EMPTY) {
+                keys[i] = key;
+                heads[i] = head;
+                size++;
+                // the load factor is kept below 1/2, so probe sequences stay short
+                if (size * 2 > heads.length) {
+                    resize(heads.length * 2);
+                }
+            }
+        }
+
+        /**
+         * Removes the entry by the backward shift deletion: entries of the probe sequence that follows the removed one
+         * are moved back, so lookups never need tombstones.
+         */
+        private void remove(int index) {
+            int mask = heads.length - 1;
+            int hole = index;
+            for (int j = (hole + 1) & mask; heads[j] != EMPTY; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                // the entry may be moved to the hole only if its home isn't in (hole, j] cyclically
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    heads[hole] = heads[j];
+                    hole = j;
+                }
+            }
+            heads[hole] = EMPTY;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldHeads = heads;
+            keys = new long[capacity];
+            heads = new int[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldHeads.length; j++) {
+                if (oldHeads[j] != EMPTY) {
+                    int i = hash(oldKeys[j]) & mask;
+                    while (heads[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    heads[i] = oldHeads[j];
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.github.komarovd95.widgetstore.application.domain.columnar;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Widgets stored as a struct of arrays: every attribute of a widget is a primitive column, and a widget is an index
+ * (a <i>slot</i>) into the columns. A stored widget costs a few primitive array elements (the 128-bit ID included)
+ * instead of a graph of objects, so the heap stays small and there is almost nothing for the garbage collector to
+ * trace.
+ * <p>
+ * Slots of removed widgets are reused via a free-list. IDs are mapped to slots by an open-addressing hash table of
+ * {@code int} slots (linear probing, the keys are read from the ID columns), so the map doesn't allocate entries either.
+ * <p>
+ * Modification timestamps are stored as nanoseconds since the epoch, so they are exact until the year 2262.
+ * <p>
+ * Columns are grown by reallocation, so references to the arrays MUST NOT be kept across insertions.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class WidgetColumns {
+
+    /**
+     * The marker of an empty cell of the ID table (the table stores {@code slot + 1}).
+     */
+    private static final int EMPTY = 0;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    long[] idHigh;
+    long[] idLow;
+    int[] x;
+    int[] y;
+    int[] width;
+    int[] height;
+    int[] z;
+    long[] modifiedAt;
+
+    /**
+     * The number of slots that have ever been allocated. Slots above it are untouched.
+     */
+    private int allocatedSlots;
+
+    private int[] freeSlots = new int[16];
+    private int freeSlotsCount;
+
+    private int[] idTable;
+    private int size;
+
+    /**
+     * @param initialCapacity the initial number of slots, positive
+     */
+    public WidgetColumns(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("Initial capacity must be positive: initialCapacity=" + initialCapacity);
+        }
+        idHigh = new long[initialCapacity];
+        idLow = new long[initialCapacity];
+        x = new int[initialCapacity];
+        y = new int[initialCapacity];
+        width = new int[initialCapacity];
+        height = new int[initialCapacity];
+        z = new int[initialCapacity];
+        modifiedAt = new long[initialCapacity];
+        idTable = new int[Integer.highestOneBit(initialCapacity) << 2];
+    }
+
+    /**
+     * @return the number of stored widgets
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stores a new widget.
+     *
+     * @param id the ID of the widget, not null. It MUST be absent
+     * @param boundaries the boundaries of the widget, not null
+     * @param zIndex the Z-index of the widget
+     * @param modificationTimestamp the modification timestamp of the widget, not null
+     * @return the slot of the widget
+     */
+    public int add(WidgetId id, Region boundaries, int zIndex, Instant modificationTimestamp) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(boundaries, "boundaries");
+        Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
+        if (slotOf(id) >= 0) {
+            throw new IllegalArgumentException("Widget's ID is not unique: id=" + id);
+        }
+        int slot = allocateSlot();
+        idHigh[slot] = id.getHigh();
+        idLow[slot] = id.getLow();
+        setBoundaries(slot, boundaries);
+        z[slot] = zIndex;
+        modifiedAt[slot] = toNanos(modificationTimestamp);
+        putId(slot);
+        size++;
+        return slot;
+    }
+
+    /**
+     * Removes a widget and returns its slot to the free-list.
+     *
+     * @param slot the slot of the widget
+     */
+    public void remove(int slot) {
+        removeId(slot);
+        if (freeSlotsCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeSlotsCount++] = slot;
+        size--;
+    }
+
+    /**
+     * @param id the ID of the widget, not null
+     * @return the slot of the widget or -1 if there is no widget with the given ID
+     */
+    public int slotOf(WidgetId id) {
+        long high = id.getHigh();
+        long low = id.getLow();
+        int mask = idTable.length - 1;
+        for (int i = WidgetId.hash(high, low) & mask; idTable[i] != EMPTY; i = (i + 1) & mask) {
+            int slot = idTable[i] - 1;
+            if (idHigh[slot] == high && idLow[slot] == low) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param slot the slot of the widget
+     * @return the Z-index of the widget
+     */
+    public int z(int slot) {
+        return z[slot];
+    }
+
+    /**
+     * Sets boundaries of the widget. The widget MUST NOT be indexed by its boundaries while they are changed.
+     *
+     * @param slot the slot of the widget
+     * @param boundaries the boundaries, not null
+     */
+    public void setBoundaries(int slot, Region boundaries) {
+        x[slot] = boundaries.getX();
+        y[slot] = boundaries.getY();
+        width[slot] = boundaries.getWidth();
+        height[slot] = boundaries.getHeight();
+    }
+
+    /**
+     * Sets the Z-index of the widget. The widget MUST NOT be indexed by its Z-index while it's changed.
+     *
+     * @param slot the slot of the widget
+     * @param zIndex the Z-index
+     */
+    public void setZ(int slot, int zIndex) {
+        z[slot] = zIndex;
+    }
+
+    /**
+     * @param slot the slot of the widget
+     * @param modificationTimestamp the modification timestamp, not null
+     */
+    public void setModifiedAt(int slot, Instant modificationTimestamp) {
+        modifiedAt[slot] = toNanos(modificationTimestamp);
+    }
+
+    /**
+     * @param slot the slot of the widget
+     * @param boundaries the boundaries to compare with, not null
+     * @return true if the widget has the given boundaries
+     */
+    public boolean hasBoundaries(int slot, Region boundaries) {
+        return x[slot] == boundaries.getX()
+            && y[slot] == boundaries.getY()
+            && width[slot] == boundaries.getWidth()
+            && height[slot] == boundaries.getHeight();
+    }
+
+    /**
+     * Materializes a widget. It's the only place where objects of a widget are allocated.
+     *
+     * @param slot the slot of the widget
+     * @return the widget
+     */
+    public Widget toWidget(int slot) {
+        return Widget.builder()
+            .setId(new WidgetId(idHigh[slot], idLow[slot]))
+            .setBoundaries(
+                Region.builder()
+                    .setX(x[slot])
+                    .setY(y[slot])
+                    .setWidth(width[slot])
+                    .setHeight(height[slot])
+                    .builder()
+            )
+            .setZ(z[slot])
+            .setModifiedAt(
+                Instant.ofEpochSecond(
+                    Math.floorDiv(modifiedAt[slot], NANOS_PER_SECOND),
+                    Math.floorMod(modifiedAt[slot], NANOS_PER_SECOND)
+                )
+            )
+            .build();
+    }
+
+    static long toNanos(Instant timestamp) {
+        return Math.addExact(Math.multiplyExact(timestamp.getEpochSecond(), NANOS_PER_SECOND), timestamp.getNano());
+    }
+
+    private int allocateSlot() {
+        if (freeSlotsCount > 0) {
+            return freeSlots[--freeSlotsCount];
+        }
+        if (allocatedSlots == z.length) {
+            int capacity = z.length + (z.length >> 1) + 1;
+            idHigh = Arrays.copyOf(idHigh, capacity);
+            idLow = Arrays.copyOf(idLow, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            z = Arrays.copyOf(z, capacity);
+            modifiedAt = Arrays.copyOf(modifiedAt, capacity);
+        }
+        return allocatedSlots++;
+    }
+
+    private void putId(int slot) {
+        // the load factor is kept below 1/2, so probe sequences stay short
+        if ((size + 1) * 2 > idTable.length) {
+            resizeIdTable(idTable.length * 2);
+        }
+        insertIntoIdTable(idTable, slot);
+    }
+
+    private void insertIntoIdTable(int[] table, int slot) {
+        int mask = table.length - 1;
+        int i = hash(slot) & mask;
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+    }
+
+    private void resizeIdTable(int capacity) {
+        int[] table = new int[capacity];
+        for (int entry : idTable) {
+            if (entry != EMPTY) {
+                insertIntoIdTable(table, entry - 1);
+            }
+        }
+        idTable = table;
+    }
+
+    /**
+     * Removes the slot from the ID table by the backward shift deletion: entries of the probe sequence that follows
+     * the removed one are moved back, so lookups never need tombstones.
+     */
+    private void removeId(int slot) {
+        int mask = idTable.length - 1;
+        int i = hash(slot) & mask;
+        while (idTable[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & mask; idTable[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(idTable[j] - 1) & mask;
+            // the entry may be moved to the hole only if its home isn't in (hole, j] cyclically
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                idTable[hole] = idTable[j];
+                hole = j;
+            }
+        }
+        idTable[hole] = EMPTY;
+    }
+
+    private int hash(int slot) {
+        return WidgetId.hash(idHigh[slot], idLow[slot]);
+    }
+}
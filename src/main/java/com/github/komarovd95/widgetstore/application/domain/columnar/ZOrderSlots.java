@@ -0,0 +1,242 @@
+package com.github.komarovd95.widgetstore.application.domain.columnar;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.IntConsumer;
+
+/**
+ * Slots of {@link WidgetColumns} sorted by unique Z-indices.
+ * <p>
+ * The sequence is a list of chunks: every chunk is a sorted {@code int[]} of up to {@value #CHUNK_CAPACITY} slots, and
+ * chunks are ordered by their first Z-index. A lookup is a binary search over first Z-indices of chunks and then
+ * within the chunk; an insertion or a removal moves at most one chunk. Z-indices are read from the Z column, so the
+ * sequence stores nothing but slots.
+ * <p>
+ * A shift of the contiguous run of Z-indices doesn't change the order of slots, so only the Z and the modification
+ * timestamp columns of the run are rewritten (it's <i>O(length of the run)</i>, but every step touches two primitive
+ * array elements).
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class ZOrderSlots {
+
+    private static final int CHUNK_CAPACITY = 512;
+
+    /**
+     * Neighbouring chunks are merged when both of them are less than this size.
+     */
+    private static final int MERGE_THRESHOLD = CHUNK_CAPACITY / 4;
+
+    private final WidgetColumns columns;
+
+    private int[][] chunks = new int[4][];
+    private int[] chunkSizes = new int[4];
+    private int chunkCount;
+
+    private int size;
+
+    /**
+     * @param columns the columns of indexed widgets, not null
+     */
+    public ZOrderSlots(WidgetColumns columns) {
+        this.columns = Objects.requireNonNull(columns, "columns");
+    }
+
+    /**
+     * @return the number of slots in this sequence
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the greatest Z-index of this sequence or {@link Optional#empty()} if this sequence is empty
+     */
+    public Optional<Integer> lastZ() {
+        if (size == 0) {
+            return Optional.empty();
+        }
+        int lastChunk = chunkCount - 1;
+        return Optional.of(columns.z[chunks[lastChunk][chunkSizes[lastChunk] - 1]]);
+    }
+
+    /**
+     * Shifts the contiguous run of Z-indices starting from the given one upwards, if the Z-index is occupied. Shifted
+     * widgets get the given modification timestamp.
+     *
+     * @param z the Z-index
+     * @param modifiedAt the modification timestamp of shifted widgets, not null
+     */
+    public void shift(int z, Instant modifiedAt) {
+        Objects.requireNonNull(modifiedAt, "modifiedAt");
+        if (size == 0) {
+            return;
+        }
+        long modifiedAtNanos = WidgetColumns.toNanos(modifiedAt);
+        int chunk = chunkIndex(z);
+        int index = lowerBound(chunk, z);
+        long expectedZ = z;
+        while (chunk < chunkCount) {
+            int[] slots = chunks[chunk];
+            for (; index < chunkSizes[chunk]; index++) {
+                int slot = slots[index];
+                if (columns.z[slot] != expectedZ) {
+                    return;
+                }
+                columns.z[slot]++;
+                columns.modifiedAt[slot] = modifiedAtNanos;
+                expectedZ++;
+            }
+            chunk++;
+            index = 0;
+        }
+    }
+
+    /**
+     * Inserts the slot. Its Z-index MUST be set and MUST be free.
+     *
+     * @param slot the slot
+     */
+    public void insert(int slot) {
+        int z = columns.z[slot];
+        if (chunkCount == 0) {
+            insertChunk(0, new int[CHUNK_CAPACITY], 0);
+        }
+        int chunk = chunkIndex(z);
+        if (chunkSizes[chunk] == CHUNK_CAPACITY) {
+            splitChunk(chunk);
+            chunk = chunkIndex(z);
+        }
+        int index = lowerBound(chunk, z);
+        int[] slots = chunks[chunk];
+        if (index < chunkSizes[chunk] && columns.z[slots[index]] == z) {
+            throw new IllegalArgumentException("Z-index is occupied: z=" + z);
+        }
+        System.arraycopy(slots, index, slots, index + 1, chunkSizes[chunk] - index);
+        slots[index] = slot;
+        chunkSizes[chunk]++;
+        size++;
+    }
+
+    /**
+     * Removes the slot. Its Z-index MUST NOT be changed since its insertion.
+     *
+     * @param slot the slot
+     */
+    public void remove(int slot) {
+        int z = columns.z[slot];
+        int chunk = chunkIndex(z);
+        int index = lowerBound(chunk, z);
+        int[] slots = chunks[chunk];
+        if (index == chunkSizes[chunk] || slots[index] != slot) {
+            throw new IllegalStateException("Slot is not found: slot=" + slot + ", z=" + z);
+        }
+        System.arraycopy(slots, index + 1, slots, index, chunkSizes[chunk] - index - 1);
+        chunkSizes[chunk]--;
+        size--;
+        if (chunkSizes[chunk] == 0) {
+            removeChunk(chunk);
+        } else if (chunk + 1 < chunkCount
+            && chunkSizes[chunk] < MERGE_THRESHOLD
+            && chunkSizes[chunk + 1] < MERGE_THRESHOLD) {
+            mergeChunks(chunk);
+        }
+    }
+
+    /**
+     * Provides slots with Z-indices greater than the cursor in the ascending order of Z-indices.
+     *
+     * @param zCursor the Z-index cursor. Might be null, then the slots are provided from the very first one
+     * @param limit the maximum number of slots to provide
+     * @param slotConsumer the consumer of slots, not null
+     */
+    public void forEachAfter(Integer zCursor, int limit, IntConsumer slotConsumer) {
+        Objects.requireNonNull(slotConsumer, "slotConsumer");
+        if (size == 0) {
+            return;
+        }
+        long lowestZ = zCursor != null ? zCursor + 1L : Long.MIN_VALUE;
+        int chunk = chunkIndex(lowestZ);
+        int index = lowerBound(chunk, lowestZ);
+        int provided = 0;
+        for (; chunk < chunkCount; chunk++, index = 0) {
+            int[] slots = chunks[chunk];
+            for (; index < chunkSizes[chunk]; index++) {
+                if (provided++ == limit) {
+                    return;
+                }
+                slotConsumer.accept(slots[index]);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the last chunk whose first Z-index isn't greater than the given one, or 0 if there is none
+     */
+    private int chunkIndex(long z) {
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (columns.z[chunks[middle][0]] <= z) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first slot of the chunk with a Z-index that isn't less than the given one
+     */
+    private int lowerBound(int chunk, long z) {
+        int[] slots = chunks[chunk];
+        int low = 0;
+        int high = chunkSizes[chunk];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (columns.z[slots[middle]] < z) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void splitChunk(int chunk) {
+        int half = chunkSizes[chunk] / 2;
+        int[] upperHalf = new int[CHUNK_CAPACITY];
+        System.arraycopy(chunks[chunk], half, upperHalf, 0, chunkSizes[chunk] - half);
+        insertChunk(chunk + 1, upperHalf, chunkSizes[chunk] - half);
+        chunkSizes[chunk] = half;
+    }
+
+    private void mergeChunks(int chunk) {
+        System.arraycopy(chunks[chunk + 1], 0, chunks[chunk], chunkSizes[chunk], chunkSizes[chunk + 1]);
+        chunkSizes[chunk] += chunkSizes[chunk + 1];
+        removeChunk(chunk + 1);
+    }
+
+    private void insertChunk(int chunk, int[] slots, int chunkSize) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            chunkSizes = Arrays.copyOf(chunkSizes, chunkCount * 2);
+        }
+        System.arraycopy(chunks, chunk, chunks, chunk + 1, chunkCount - chunk);
+        System.arraycopy(chunkSizes, chunk, chunkSizes, chunk + 1, chunkCount - chunk);
+        chunks[chunk] = slots;
+        chunkSizes[chunk] = chunkSize;
+        chunkCount++;
+    }
+
+    private void removeChunk(int chunk) {
+        System.arraycopy(chunks, chunk + 1, chunks, chunk, chunkCount - chunk - 1);
+        System.arraycopy(chunkSizes, chunk + 1, chunkSizes, chunk, chunkCount - chunk - 1);
+        chunkCount--;
+        chunks[chunkCount] = null;
+    }
+}
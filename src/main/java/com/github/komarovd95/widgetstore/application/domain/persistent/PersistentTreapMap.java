@@ -0,0 +1,253 @@
+package com.github.komarovd95.widgetstore.application.domain.persistent;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * An immutable (persistent) sorted map based on a treap.
+ * <p>
+ * Every modification returns a new map that shares all untouched nodes with the previous one (path copying). So,
+ * a modification costs <i>O(log N)</i> allocations and any previous version of the map stays valid and might be read
+ * concurrently without any synchronization.
+ * <p>
+ * Priorities of the nodes are derived from hash codes of the keys. So, the shape of the tree depends only on the set
+ * of keys and doesn't depend on the order of modifications.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public final class PersistentTreapMap<K extends Comparable<? super K>, V> {
+
+    private static final PersistentTreapMap<?, ?> EMPTY = new PersistentTreapMap<>(null);
+
+    private final Node<K, V> root;
+
+    private PersistentTreapMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns an empty map.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return the empty map, not null
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentTreapMap<K, V> empty() {
+        return (PersistentTreapMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @return the number of entries in this map
+     */
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * @return {@code true} if this map has no entries
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Returns a value by the given key.
+     *
+     * @param key the key, not null
+     * @return the value or null if there is no such key in this map
+     */
+    public V get(K key) {
+        Objects.requireNonNull(key, "key");
+        Node<K, V> node = root;
+        while (node != null) {
+            int comparison = key.compareTo(node.key);
+            if (comparison == 0) {
+                return node.value;
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * @return the greatest key of this map or {@link Optional#empty()} if this map is empty
+     */
+    public Optional<K> lastKey() {
+        Node<K, V> node = root;
+        if (node == null) {
+            return Optional.empty();
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return Optional.of(node.key);
+    }
+
+    /**
+     * Returns a map that contains all entries of this map and the given entry (the previous value of the key is
+     * replaced).
+     *
+     * @param key the key, not null
+     * @param value the value, not null
+     * @return the new map, not null
+     */
+    public PersistentTreapMap<K, V> put(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        return new PersistentTreapMap<>(put(root, key, value, priority(key)));
+    }
+
+    /**
+     * Returns a map that contains all entries of this map except the entry with the given key.
+     *
+     * @param key the key, not null
+     * @return the new map or this map if there is no such key, not null
+     */
+    public PersistentTreapMap<K, V> remove(K key) {
+        Objects.requireNonNull(key, "key");
+        Node<K, V> newRoot = remove(root, key);
+        return newRoot == root ? this : new PersistentTreapMap<>(newRoot);
+    }
+
+    /**
+     * Returns an iterator over values (in the ascending order of keys) whose keys are greater than the given one.
+     *
+     * @param fromKeyExclusive the lower bound of keys. Might be null. If null, then all values are returned
+     * @return the iterator, not null
+     */
+    public Iterator<V> valuesAfter(K fromKeyExclusive) {
+        return new ValuesIterator<>(root, fromKeyExclusive);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> put(Node<K, V> node, K key, V value, int priority) {
+        if (node == null) {
+            return new Node<>(key, value, priority, null, null);
+        }
+        int comparison = key.compareTo(node.key);
+        if (comparison == 0) {
+            return new Node<>(key, value, node.priority, node.left, node.right);
+        } else if (comparison < 0) {
+            Node<K, V> left = put(node.left, key, value, priority);
+            return left.priority > node.priority
+                ? new Node<>(left.key, left.value, left.priority, left.left,
+                    new Node<>(node.key, node.value, node.priority, left.right, node.right))
+                : new Node<>(node.key, node.value, node.priority, left, node.right);
+        } else {
+            Node<K, V> right = put(node.right, key, value, priority);
+            return right.priority > node.priority
+                ? new Node<>(right.key, right.value, right.priority,
+                    new Node<>(node.key, node.value, node.priority, node.left, right.left), right.right)
+                : new Node<>(node.key, node.value, node.priority, node.left, right);
+        }
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> remove(Node<K, V> node, K key) {
+        if (node == null) {
+            return null;
+        }
+        int comparison = key.compareTo(node.key);
+        if (comparison == 0) {
+            return merge(node.left, node.right);
+        } else if (comparison < 0) {
+            Node<K, V> left = remove(node.left, key);
+            return left == node.left ? node : new Node<>(node.key, node.value, node.priority, left, node.right);
+        } else {
+            Node<K, V> right = remove(node.right, key);
+            return right == node.right ? node : new Node<>(node.key, node.value, node.priority, node.left, right);
+        }
+    }
+
+    /**
+     * Merges two treaps where all keys of the left one are less than keys of the right one.
+     */
+    private static <K, V> Node<K, V> merge(Node<K, V> left, Node<K, V> right) {
+        if (left == null) {
+            return right;
+        } else if (right == null) {
+            return left;
+        } else if (left.priority > right.priority) {
+            return new Node<>(left.key, left.value, left.priority, left.left, merge(left.right, right));
+        } else {
+            return new Node<>(right.key, right.value, right.priority, merge(left, right.left), right.right);
+        }
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node != null ? node.size : 0;
+    }
+
+    /**
+     * Mixes bits of the key's hash code (the finalizer of MurmurHash3), so sequential keys get random-like priorities.
+     */
+    private static int priority(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static final class Node<K, V> {
+
+        private final K key;
+        private final V value;
+        private final int priority;
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+        private final int size;
+
+        private Node(K key, V value, int priority, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    /**
+     * An in-order iterator that keeps the path to the current node in a stack.
+     */
+    private static final class ValuesIterator<K extends Comparable<? super K>, V> implements Iterator<V> {
+
+        private final Deque<Node<K, V>> path = new ArrayDeque<>();
+
+        private ValuesIterator(Node<K, V> root, K fromKeyExclusive) {
+            Node<K, V> node = root;
+            while (node != null) {
+                if (fromKeyExclusive == null || node.key.compareTo(fromKeyExclusive) > 0) {
+                    path.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public V next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> node = path.pop();
+            for (Node<K, V> next = node.right; next != null; next = next.left) {
+                path.push(next);
+            }
+            return node.value;
+        }
+    }
+}
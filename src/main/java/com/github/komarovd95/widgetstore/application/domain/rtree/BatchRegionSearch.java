@@ -0,0 +1,108 @@
+package com.github.komarovd95.widgetstore.application.domain.rtree;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parameters and the state of several spatial searches executed by a single traversal of an R-tree.
+ * <p>
+ * Searches are identified by their indices in the list of filters. Every search has its own region, match mode,
+ * lowest acceptable Z-index and the remaining number of widgets to find.
+ */
+final class BatchRegionSearch {
+
+    private final long[] regions;
+    private final boolean[] intersects;
+    final long[] lowestZ;
+    final int[] remaining;
+    int active;
+
+    /**
+     * @param filters the filters of searches. Regions MUST be present. The lowest Z-indices are derived from cursors
+     */
+    BatchRegionSearch(List<WidgetsFilter> filters) {
+        this(filters, lowestZ(filters));
+    }
+
+    /**
+     * @param filters the filters of searches. Regions MUST be present
+     * @param lowestZ the lowest Z-index of widgets to find for every search
+     */
+    BatchRegionSearch(List<WidgetsFilter> filters, long[] lowestZ) {
+        int count = filters.size();
+        this.regions = new long[count * 4];
+        this.intersects = new boolean[count];
+        this.lowestZ = lowestZ.clone();
+        this.remaining = new int[count];
+        for (int i = 0; i < count; i++) {
+            WidgetsFilter filter = filters.get(i);
+            Region region = filter.getRegion()
+                .orElseThrow(() -> new IllegalArgumentException("Region is required: filter=" + filter));
+            regions[i * 4] = region.getX();
+            regions[i * 4 + 1] = region.getY();
+            regions[i * 4 + 2] = (long) region.getX() + region.getWidth();
+            regions[i * 4 + 3] = (long) region.getY() + region.getHeight();
+            intersects[i] = filter.getMatchMode() == RegionMatchMode.INTERSECTS;
+            remaining[i] = Math.max(filter.getLimit(), 0);
+            if (remaining[i] > 0) {
+                active++;
+            }
+        }
+    }
+
+    private static long[] lowestZ(List<WidgetsFilter> filters) {
+        long[] lowestZ = new long[filters.size()];
+        for (int i = 0; i < lowestZ.length; i++) {
+            lowestZ[i] = filters.get(i).getCursor().map(cursor -> cursor + 1L).orElse(Long.MIN_VALUE);
+        }
+        return lowestZ;
+    }
+
+    /**
+     * @param searches the indices of searches. Might be null. If null, then all searches are checked
+     * @return the indices of the given searches that still need more widgets
+     */
+    int[] activeSearches(int[] searches) {
+        int count = searches != null ? searches.length : remaining.length;
+        int[] result = new int[count];
+        int activeCount = 0;
+        for (int i = 0; i < count; i++) {
+            int searchIndex = searches != null ? searches[i] : i;
+            if (remaining[searchIndex] > 0) {
+                result[activeCount++] = searchIndex;
+            }
+        }
+        return activeCount == count ? result : Arrays.copyOf(result, activeCount);
+    }
+
+    /**
+     * Checks whether the entry at the given offset may contain widgets matching the given search. Leaf entries are
+     * checked against the match mode of the search, inner entries are checked for an overlap.
+     */
+    boolean matches(long[] bounds, int offset, boolean leaf, int searchIndex) {
+        int regionOffset = searchIndex * 4;
+        if (leaf && !intersects[searchIndex]) {
+            return regions[regionOffset] <= bounds[offset]
+                && regions[regionOffset + 1] <= bounds[offset + 1]
+                && regions[regionOffset + 2] >= bounds[offset + 2]
+                && regions[regionOffset + 3] >= bounds[offset + 3];
+        }
+        return bounds[offset] <= regions[regionOffset + 2]
+            && bounds[offset + 1] <= regions[regionOffset + 3]
+            && bounds[offset + 2] >= regions[regionOffset]
+            && bounds[offset + 3] >= regions[regionOffset + 1];
+    }
+
+    /**
+     * Records a found widget for the given search.
+     */
+    void found(int searchIndex) {
+        if (--remaining[searchIndex] == 0) {
+            active--;
+        }
+    }
+}
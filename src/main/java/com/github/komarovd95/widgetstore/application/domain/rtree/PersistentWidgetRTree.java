@@ -0,0 +1,731 @@
+package com.github.komarovd95.widgetstore.application.domain.rtree;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree.SplitPolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * An immutable (persistent) 2D R-tree for widgets augmented with Z-indices.
+ * <p>
+ * Every modification returns a new tree that shares all untouched nodes with the previous one (path copying). So,
+ * a modification costs <i>O(M log N)</i> copied entries and any previous version of the tree stays valid and might be
+ * searched concurrently without any synchronization.
+ * <p>
+ * Node layout is the same as in {@link WidgetRTree}: exact {@code long} bounds in a flat array and the range of
+ * Z-indices for every entry. Arrays of nodes are sized exactly and never modified after construction. The subtree
+ * choice, the node split and bulk-loading are shared with {@link WidgetRTree} (see {@link RTreeAlgorithms}) and follow
+ * the given split policy, except for forced reinsertion of the R*-tree policy: it's not applied, since every reinserted
+ * entry would copy one more path. Entries are located by their boundaries, so the caller must provide the current
+ * boundaries of the widget for every modification.
+ */
+public final class PersistentWidgetRTree {
+
+    private final int maxEntries;
+
+    private final int minEntries;
+
+    private final SplitPolicy splitPolicy;
+
+    private final Node root;
+
+    private final int size;
+
+    private PersistentWidgetRTree(int maxEntries, int minEntries, SplitPolicy splitPolicy, Node root, int size) {
+        this.maxEntries = maxEntries;
+        this.minEntries = minEntries;
+        this.splitPolicy = splitPolicy;
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns an empty tree with the linear split.
+     *
+     * @param maxEntries the maximum number of entries in a node, at least 2
+     * @param minEntries the minimum number of entries in a non-root node, from 1 to {@code maxEntries / 2}
+     * @return the empty tree, not null
+     */
+    public static PersistentWidgetRTree empty(int maxEntries, int minEntries) {
+        return empty(maxEntries, minEntries, SplitPolicy.LINEAR);
+    }
+
+    /**
+     * Returns an empty tree.
+     *
+     * @param maxEntries the maximum number of entries in a node, at least 2
+     * @param minEntries the minimum number of entries in a non-root node, from 1 to {@code maxEntries / 2}
+     * @param splitPolicy the strategy of insertion and the node split, not null
+     * @return the empty tree, not null
+     */
+    public static PersistentWidgetRTree empty(int maxEntries, int minEntries, SplitPolicy splitPolicy) {
+        Objects.requireNonNull(splitPolicy, "splitPolicy");
+        if (maxEntries < 2) {
+            throw new IllegalArgumentException("maxEntries must be at least 2: maxEntries=" + maxEntries);
+        }
+        if (minEntries < 1 || minEntries > maxEntries / 2) {
+            throw new IllegalArgumentException(
+                "minEntries must be in [1, maxEntries / 2]: minEntries=" + minEntries + ", maxEntries=" + maxEntries
+            );
+        }
+        return new PersistentWidgetRTree(maxEntries, minEntries, splitPolicy, Node.EMPTY_LEAF, 0);
+    }
+
+    /**
+     * @return the number of widgets in this tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a tree that contains all widgets of this tree and the given one.
+     *
+     * @param id the widget's identifier, not null
+     * @param boundaries the widget's boundaries, not null
+     * @param z the widget's Z-index
+     * @return the new tree, not null
+     */
+    public PersistentWidgetRTree add(WidgetId id, Region boundaries, int z) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(boundaries, "boundaries");
+        long[] entry = { minX(boundaries), minY(boundaries), maxX(boundaries), maxY(boundaries) };
+        return withRoot(insert(root, id, z, entry), size + 1);
+    }
+
+    /**
+     * Returns a tree that contains the same widgets as the given ones. The tree is bulk-loaded via Sort-Tile-Recursive
+     * packing. Parameters of this tree are kept, widgets of this tree are discarded.
+     *
+     * @param widgets the widgets, not null. Widgets' IDs MUST be unique
+     * @return the new tree, not null
+     */
+    public PersistentWidgetRTree load(Collection<Widget> widgets) {
+        Objects.requireNonNull(widgets, "widgets");
+        if (widgets.isEmpty()) {
+            return withRoot(Node.EMPTY_LEAF, 0);
+        }
+        List<Widget> entries = new ArrayList<>(widgets);
+        int count = entries.size();
+        long[] bounds = new long[count * 4];
+        for (int i = 0; i < count; i++) {
+            Region boundaries = entries.get(i).getBoundaries();
+            bounds[i * 4] = minX(boundaries);
+            bounds[i * 4 + 1] = minY(boundaries);
+            bounds[i * 4 + 2] = maxX(boundaries);
+            bounds[i * 4 + 3] = maxY(boundaries);
+        }
+        int[] order = new int[count];
+        int[] tileStarts = RTreeAlgorithms.pack(bounds, count, maxEntries, order);
+        Node[] level = new Node[tileStarts.length - 1];
+        for (int tile = 0; tile < level.length; tile++) {
+            List<Widget> tileWidgets = new ArrayList<>(tileStarts[tile + 1] - tileStarts[tile]);
+            for (int i = tileStarts[tile]; i < tileStarts[tile + 1]; i++) {
+                tileWidgets.add(entries.get(order[i]));
+            }
+            level[tile] = Node.leaf(tileWidgets);
+        }
+        while (level.length > 1) {
+            bounds = new long[level.length * 4];
+            for (int i = 0; i < level.length; i++) {
+                System.arraycopy(level[i].mbr, 0, bounds, i * 4, 4);
+            }
+            order = new int[level.length];
+            tileStarts = RTreeAlgorithms.pack(bounds, level.length, maxEntries, order);
+            Node[] nextLevel = new Node[tileStarts.length - 1];
+            for (int tile = 0; tile < nextLevel.length; tile++) {
+                Node[] children = new Node[tileStarts[tile + 1] - tileStarts[tile]];
+                for (int i = tileStarts[tile]; i < tileStarts[tile + 1]; i++) {
+                    children[i - tileStarts[tile]] = level[order[i]];
+                }
+                nextLevel[tile] = Node.inner(children);
+            }
+            level = nextLevel;
+        }
+        return withRoot(level[0], count);
+    }
+
+    /**
+     * Returns a tree that doesn't contain the given widget.
+     *
+     * @param id the widget's identifier, not null
+     * @param boundaries the current widget's boundaries, not null
+     * @return the new tree or this tree if the widget is not found, not null
+     */
+    public PersistentWidgetRTree remove(WidgetId id, Region boundaries) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(boundaries, "boundaries");
+        long[] entry = { minX(boundaries), minY(boundaries), maxX(boundaries), maxY(boundaries) };
+        List<Node> orphans = new ArrayList<>();
+        Node newRoot = remove(root, id, entry, orphans);
+        if (newRoot == null) {
+            return this;
+        }
+        while (!newRoot.leaf && newRoot.size() == 1) {
+            newRoot = newRoot.children[0];
+        }
+        if (!newRoot.leaf && newRoot.size() == 0) {
+            newRoot = Node.EMPTY_LEAF;
+        }
+        // entries of underflowed nodes are inserted again (like in Guttman's CondenseTree)
+        List<Node> leaves = new ArrayList<>();
+        for (Node orphan : orphans) {
+            collectLeaves(orphan, leaves);
+        }
+        for (Node leaf : leaves) {
+            for (int i = 0; i < leaf.size(); i++) {
+                newRoot = insert(newRoot, leaf.ids[i], leaf.minZ[i], Arrays.copyOfRange(leaf.bounds, i * 4, i * 4 + 4));
+            }
+        }
+        return withRoot(newRoot, size - 1);
+    }
+
+    /**
+     * Returns a tree where the given widget has new boundaries and Z-index.
+     *
+     * @param id the widget's identifier, not null
+     * @param boundaries the current widget's boundaries, not null
+     * @param newBoundaries the new widget's boundaries, not null
+     * @param z the widget's Z-index
+     * @return the new tree or this tree if the widget is not found, not null
+     */
+    public PersistentWidgetRTree move(WidgetId id, Region boundaries, Region newBoundaries, int z) {
+        PersistentWidgetRTree removed = remove(id, boundaries);
+        return removed != this ? removed.add(id, newBoundaries, z) : this;
+    }
+
+    /**
+     * Returns a tree where the given widget has a new Z-index.
+     *
+     * @param id the widget's identifier, not null
+     * @param boundaries the current widget's boundaries, not null
+     * @param z the new widget's Z-index
+     * @return the new tree or this tree if the widget is not found, not null
+     */
+    public PersistentWidgetRTree updateZ(WidgetId id, Region boundaries, int z) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(boundaries, "boundaries");
+        long[] entry = { minX(boundaries), minY(boundaries), maxX(boundaries), maxY(boundaries) };
+        Node newRoot = updateZ(root, id, entry, z);
+        return newRoot != null ? withRoot(newRoot, size) : this;
+    }
+
+    private PersistentWidgetRTree withRoot(Node newRoot, int newSize) {
+        return new PersistentWidgetRTree(maxEntries, minEntries, splitPolicy, newRoot, newSize);
+    }
+
+    /**
+     * Searches for all widgets contained by the given region.
+     *
+     * @param region the region to search into, not null
+     * @param widgetConsumer the consumer of found widgets' identifiers, not null
+     */
+    public void contains(Region region, Consumer<WidgetId> widgetConsumer) {
+        Objects.requireNonNull(region, "region");
+        Objects.requireNonNull(widgetConsumer, "widgetConsumer");
+        long[] query = { minX(region), minY(region), maxX(region), maxY(region) };
+        contains(root, query, widgetConsumer);
+    }
+
+    /**
+     * Searches for widgets contained by the given region in the ascending order of Z-indices. The search stops as soon
+     * as {@code limit} widgets are found.
+     *
+     * @param region the region to search into, not null
+     * @param zIndexCursor the Z-index cursor. Might be null. If present, then only widgets with Z-index more than
+     *                     given value are returned
+     * @param limit the maximum number of widgets to find
+     * @param widgetConsumer the consumer of found widgets' identifiers, not null
+     */
+    public void containsInZOrder(Region region, Integer zIndexCursor, int limit, Consumer<WidgetId> widgetConsumer) {
+        searchInZOrder(region, false, zIndexCursor, limit, widgetConsumer);
+    }
+
+    /**
+     * Searches for widgets intersecting the given region (rectangles are considered closed) in the ascending order of
+     * Z-indices. The search stops as soon as {@code limit} widgets are found.
+     *
+     * @param region the region to search into, not null
+     * @param zIndexCursor the Z-index cursor. Might be null. If present, then only widgets with Z-index more than
+     *                     given value are returned
+     * @param limit the maximum number of widgets to find
+     * @param widgetConsumer the consumer of found widgets' identifiers, not null
+     */
+    public void intersectsInZOrder(Region region, Integer zIndexCursor, int limit, Consumer<WidgetId> widgetConsumer) {
+        searchInZOrder(region, true, zIndexCursor, limit, widgetConsumer);
+    }
+
+    private void searchInZOrder(
+        Region region,
+        boolean intersects,
+        Integer zIndexCursor,
+        int limit,
+        Consumer<WidgetId> widgetConsumer
+    ) {
+        Objects.requireNonNull(region, "region");
+        Objects.requireNonNull(widgetConsumer, "widgetConsumer");
+        long[] query = { minX(region), minY(region), maxX(region), maxY(region) };
+        long lowestZ = zIndexCursor != null ? zIndexCursor + 1L : Long.MIN_VALUE;
+
+        ZOrderQueue<Node> queue = new ZOrderQueue<>();
+        offerMatching(queue, root, intersects, lowestZ, query);
+        int found = 0;
+        while (found < limit && !queue.isEmpty()) {
+            Node node = queue.peekNode();
+            int index = queue.peekIndex();
+            queue.poll();
+            if (node.leaf) {
+                widgetConsumer.accept(node.ids[index]);
+                found++;
+            } else {
+                offerMatching(queue, node.children[index], intersects, lowestZ, query);
+            }
+        }
+    }
+
+    /**
+     * Traverses the tree once for several spatial searches at the same time. Results of every search are found in the
+     * ascending order of Z-index, exactly as the corresponding single search would find them.
+     *
+     * @param filters the searches. Regions MUST be present. The limit of every filter is the maximum number of widgets
+     *                to find for it
+     * @param widgetConsumer the consumer of found widget IDs along with the index of the matched filter
+     */
+    public void searchInZOrder(List<WidgetsFilter> filters, ObjIntConsumer<WidgetId> widgetConsumer) {
+        Objects.requireNonNull(filters, "filters");
+        Objects.requireNonNull(widgetConsumer, "widgetConsumer");
+        BatchRegionSearch search = new BatchRegionSearch(filters);
+        ZOrderQueue<Node> queue = new ZOrderQueue<>();
+        offerMatching(queue, root, search, search.activeSearches(null));
+        while (search.active > 0 && !queue.isEmpty()) {
+            Node node = queue.peekNode();
+            int index = queue.peekIndex();
+            int[] searches = queue.peekSearches();
+            queue.poll();
+            if (node.leaf) {
+                for (int searchIndex : searches) {
+                    if (search.remaining[searchIndex] > 0) {
+                        widgetConsumer.accept(node.ids[index], searchIndex);
+                        search.found(searchIndex);
+                    }
+                }
+            } else {
+                int[] activeSearches = search.activeSearches(searches);
+                if (activeSearches.length > 0) {
+                    offerMatching(queue, node.children[index], search, activeSearches);
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches for widgets that cover the given point in the descending order of Z-indices (the topmost widget first).
+     * A widget covers the point if {@code x <= px < x + width} and {@code y <= py < y + height}. The search stops as
+     * soon as {@code limit} widgets are found.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @param limit the maximum number of widgets to find
+     * @param widgetConsumer the consumer of found widgets' identifiers, not null
+     */
+    public void coveringInReverseZOrder(int x, int y, int limit, Consumer<WidgetId> widgetConsumer) {
+        Objects.requireNonNull(widgetConsumer, "widgetConsumer");
+        long[] point = { x, y, x, y };
+        ZOrderQueue<Node> queue = new ZOrderQueue<>();
+        offerCovering(queue, root, point);
+        int found = 0;
+        while (found < limit && !queue.isEmpty()) {
+            Node node = queue.peekNode();
+            int index = queue.peekIndex();
+            queue.poll();
+            if (node.leaf) {
+                widgetConsumer.accept(node.ids[index]);
+                found++;
+            } else {
+                offerCovering(queue, node.children[index], point);
+            }
+        }
+    }
+
+    /**
+     * Offers entries that may cover the point. Entries are ordered by their maximum Z-index descending (keys are
+     * negated).
+     */
+    private static void offerCovering(ZOrderQueue<Node> queue, Node node, long[] point) {
+        long[] bounds = node.bounds;
+        for (int i = 0, offset = 0; i < node.size(); i++, offset += 4) {
+            boolean matches = node.leaf
+                ? bounds[offset] <= point[0] && point[0] < bounds[offset + 2]
+                    && bounds[offset + 1] <= point[1] && point[1] < bounds[offset + 3]
+                : isOverlapped(bounds, offset, point);
+            if (matches) {
+                queue.offer(node, i, -(long) node.maxZ[i]);
+            }
+        }
+    }
+
+    private static void offerMatching(
+        ZOrderQueue<Node> queue,
+        Node node,
+        boolean intersects,
+        long lowestZ,
+        long[] query
+    ) {
+        for (int i = 0; i < node.size(); i++) {
+            boolean matches = node.leaf && !intersects
+                ? isContained(node.bounds, i * 4, query)
+                : isOverlapped(node.bounds, i * 4, query);
+            if (node.maxZ[i] >= lowestZ && matches) {
+                queue.offer(node, i, Math.max(node.minZ[i], lowestZ));
+            }
+        }
+    }
+
+    /**
+     * Offers entries that may contain widgets matching any of the given searches along with these searches.
+     */
+    private static void offerMatching(
+        ZOrderQueue<Node> queue,
+        Node node,
+        BatchRegionSearch search,
+        int[] activeSearches
+    ) {
+        int[] matched = new int[activeSearches.length];
+        for (int i = 0; i < node.size(); i++) {
+            int matchedCount = 0;
+            long key = Long.MAX_VALUE;
+            for (int searchIndex : activeSearches) {
+                if (node.maxZ[i] >= search.lowestZ[searchIndex]
+                    && search.matches(node.bounds, i * 4, node.leaf, searchIndex)) {
+                    matched[matchedCount++] = searchIndex;
+                    key = Math.min(key, search.lowestZ[searchIndex]);
+                }
+            }
+            if (matchedCount > 0) {
+                queue.offer(node, i, Math.max(node.minZ[i], key), Arrays.copyOf(matched, matchedCount));
+            }
+        }
+    }
+
+    private static void contains(Node node, long[] query, Consumer<WidgetId> widgetConsumer) {
+        for (int i = 0; i < node.size(); i++) {
+            if (node.leaf) {
+                if (isContained(node.bounds, i * 4, query)) {
+                    widgetConsumer.accept(node.ids[i]);
+                }
+            } else if (isOverlapped(node.bounds, i * 4, query)) {
+                contains(node.children[i], query, widgetConsumer);
+            }
+        }
+    }
+
+    private Node insert(Node subtree, WidgetId id, int z, long[] entry) {
+        Node[] nodes = insertIntoSubtree(subtree, id, z, entry);
+        return nodes.length == 1 ? nodes[0] : Node.inner(nodes);
+    }
+
+    /**
+     * Inserts the entry into the subtree.
+     *
+     * @return the new subtree or two subtrees if the root of the subtree has been split
+     */
+    private Node[] insertIntoSubtree(Node node, WidgetId id, int z, long[] entry) {
+        Node inserted;
+        if (node.leaf) {
+            inserted = node.withEntry(id, z, entry);
+        } else {
+            int index = chooseSubtree(node, entry);
+            Node[] children = insertIntoSubtree(node.children[index], id, z, entry);
+            inserted = node.withChild(index, children[0]);
+            if (children.length == 2) {
+                inserted = inserted.withChild(inserted.size(), children[1]);
+            }
+        }
+        return inserted.size() > maxEntries ? split(inserted) : new Node[] { inserted };
+    }
+
+    private int chooseSubtree(Node node, long[] entry) {
+        return RTreeAlgorithms.chooseSubtree(
+            splitPolicy,
+            node.bounds,
+            node.size(),
+            node.children[0].leaf,
+            entry[0],
+            entry[1],
+            entry[2],
+            entry[3]
+        );
+    }
+
+    /**
+     * Splits the overflowed node into two nodes according to the split policy.
+     */
+    private Node[] split(Node node) {
+        int[] groups = RTreeAlgorithms.split(splitPolicy, node.bounds, node.size(), minEntries);
+        int firstGroupSize = 0;
+        for (int group : groups) {
+            if (group == 1) {
+                firstGroupSize++;
+            }
+        }
+        return new Node[] {
+            node.subset(groups, 1, firstGroupSize),
+            node.subset(groups, 2, groups.length - firstGroupSize)
+        };
+    }
+
+    /**
+     * Removes the entry from the subtree. Underflowed children are removed from their parents and collected as orphans.
+     *
+     * @return the new subtree or null if the entry is not found
+     */
+    private Node remove(Node node, WidgetId id, long[] entry, List<Node> orphans) {
+        for (int i = 0; i < node.size(); i++) {
+            if (node.leaf) {
+                if (node.ids[i].equals(id)) {
+                    return node.without(i);
+                }
+            } else if (isContained(entry, 0, node.bounds, i * 4)) {
+                Node child = remove(node.children[i], id, entry, orphans);
+                if (child != null) {
+                    if (child.size() < minEntries) {
+                        orphans.add(child);
+                        return node.without(i);
+                    }
+                    return node.withChild(i, child);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Updates Z-index of the entry in the subtree.
+     *
+     * @return the new subtree or null if the entry is not found
+     */
+    private static Node updateZ(Node node, WidgetId id, long[] entry, int z) {
+        for (int i = 0; i < node.size(); i++) {
+            if (node.leaf) {
+                if (node.ids[i].equals(id)) {
+                    return node.withZ(i, z);
+                }
+            } else if (isContained(entry, 0, node.bounds, i * 4)) {
+                Node child = updateZ(node.children[i], id, entry, z);
+                if (child != null) {
+                    return node.withChild(i, child);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void collectLeaves(Node node, List<Node> leaves) {
+        if (node.leaf) {
+            leaves.add(node);
+        } else {
+            for (Node child : node.children) {
+                collectLeaves(child, leaves);
+            }
+        }
+    }
+
+    private static boolean isOverlapped(long[] bounds, int offset, long[] query) {
+        return bounds[offset] <= query[2]
+            && query[0] <= bounds[offset + 2]
+            && bounds[offset + 1] <= query[3]
+            && query[1] <= bounds[offset + 3];
+    }
+
+    private static boolean isContained(long[] bounds, int offset, long[] query) {
+        return isContained(bounds, offset, query, 0);
+    }
+
+    /**
+     * @return {@code true} if the inner rectangle is contained by the outer one
+     */
+    private static boolean isContained(long[] inner, int innerOffset, long[] outer, int outerOffset) {
+        return outer[outerOffset] <= inner[innerOffset]
+            && outer[outerOffset + 1] <= inner[innerOffset + 1]
+            && inner[innerOffset + 2] <= outer[outerOffset + 2]
+            && inner[innerOffset + 3] <= outer[outerOffset + 3];
+    }
+
+    private static long minX(Region region) {
+        return region.getX();
+    }
+
+    private static long minY(Region region) {
+        return region.getY();
+    }
+
+    private static long maxX(Region region) {
+        return (long) region.getX() + region.getWidth();
+    }
+
+    private static long maxY(Region region) {
+        return (long) region.getY() + region.getHeight();
+    }
+
+    /**
+     * An immutable node of the tree. All arrays are sized exactly by the number of entries.
+     */
+    private static final class Node {
+
+        private static final Node EMPTY_LEAF = new Node(true, new long[0], new int[0], new int[0], null, new WidgetId[0]);
+
+        private final boolean leaf;
+
+        /**
+         * Bounds of entries: minX, minY, maxX, maxY for every entry.
+         */
+        private final long[] bounds;
+
+        private final int[] minZ;
+
+        private final int[] maxZ;
+
+        private final Node[] children;
+
+        private final WidgetId[] ids;
+
+        /**
+         * Bounds of the node itself (the union of entries' bounds).
+         */
+        private final long[] mbr;
+
+        private Node(boolean leaf, long[] bounds, int[] minZ, int[] maxZ, Node[] children, WidgetId[] ids) {
+            this.leaf = leaf;
+            this.bounds = bounds;
+            this.minZ = minZ;
+            this.maxZ = maxZ;
+            this.children = children;
+            this.ids = ids;
+            this.mbr = new long[4];
+            if (minZ.length > 0) {
+                System.arraycopy(bounds, 0, mbr, 0, 4);
+                for (int i = 1; i < minZ.length; i++) {
+                    RTreeAlgorithms.union(mbr, 0, bounds, i * 4);
+                }
+            }
+        }
+
+        private static Node leaf(List<Widget> widgets) {
+            int count = widgets.size();
+            long[] bounds = new long[count * 4];
+            int[] z = new int[count];
+            WidgetId[] ids = new WidgetId[count];
+            for (int i = 0; i < count; i++) {
+                Widget widget = widgets.get(i);
+                Region boundaries = widget.getBoundaries();
+                bounds[i * 4] = minX(boundaries);
+                bounds[i * 4 + 1] = minY(boundaries);
+                bounds[i * 4 + 2] = maxX(boundaries);
+                bounds[i * 4 + 3] = maxY(boundaries);
+                z[i] = widget.getZ();
+                ids[i] = widget.getId();
+            }
+            return new Node(true, bounds, z, z, null, ids);
+        }
+
+        private static Node inner(Node[] children) {
+            int count = children.length;
+            long[] bounds = new long[count * 4];
+            int[] minZ = new int[count];
+            int[] maxZ = new int[count];
+            for (int i = 0; i < count; i++) {
+                setChildSlot(bounds, minZ, maxZ, i, children[i]);
+            }
+            return new Node(false, bounds, minZ, maxZ, children, null);
+        }
+
+        private int size() {
+            return minZ.length;
+        }
+
+        private Node withEntry(WidgetId id, int z, long[] entry) {
+            int count = size();
+            long[] newBounds = Arrays.copyOf(bounds, (count + 1) * 4);
+            System.arraycopy(entry, 0, newBounds, count * 4, 4);
+            int[] newZ = Arrays.copyOf(minZ, count + 1);
+            newZ[count] = z;
+            WidgetId[] newIds = Arrays.copyOf(ids, count + 1);
+            newIds[count] = id;
+            return new Node(true, newBounds, newZ, newZ, null, newIds);
+        }
+
+        private Node withZ(int index, int z) {
+            int[] newZ = minZ.clone();
+            newZ[index] = z;
+            return new Node(true, bounds, newZ, newZ, null, ids);
+        }
+
+        /**
+         * Returns a copy of this inner node where the child at the given index is replaced (or appended if the index
+         * is equal to the size of this node).
+         */
+        private Node withChild(int index, Node child) {
+            int count = Math.max(size(), index + 1);
+            long[] newBounds = Arrays.copyOf(bounds, count * 4);
+            int[] newMinZ = Arrays.copyOf(minZ, count);
+            int[] newMaxZ = Arrays.copyOf(maxZ, count);
+            Node[] newChildren = Arrays.copyOf(children, count);
+            newChildren[index] = child;
+            setChildSlot(newBounds, newMinZ, newMaxZ, index, child);
+            return new Node(false, newBounds, newMinZ, newMaxZ, newChildren, null);
+        }
+
+        private Node without(int index) {
+            int[] groups = new int[size()];
+            Arrays.fill(groups, 1);
+            groups[index] = 0;
+            return subset(groups, 1, size() - 1);
+        }
+
+        /**
+         * Returns a node that contains entries of the given group only.
+         */
+        private Node subset(int[] groups, int group, int count) {
+            long[] newBounds = new long[count * 4];
+            int[] newMinZ = new int[count];
+            int[] newMaxZ = leaf ? newMinZ : new int[count];
+            Node[] newChildren = leaf ? null : new Node[count];
+            WidgetId[] newIds = leaf ? new WidgetId[count] : null;
+            for (int i = 0, j = 0; i < groups.length; i++) {
+                if (groups[i] == group) {
+                    System.arraycopy(bounds, i * 4, newBounds, j * 4, 4);
+                    newMinZ[j] = minZ[i];
+                    newMaxZ[j] = maxZ[i];
+                    if (leaf) {
+                        newIds[j] = ids[i];
+                    } else {
+                        newChildren[j] = children[i];
+                    }
+                    j++;
+                }
+            }
+            return new Node(leaf, newBounds, newMinZ, newMaxZ, newChildren, newIds);
+        }
+
+        private static void setChildSlot(long[] bounds, int[] minZ, int[] maxZ, int index, Node child) {
+            System.arraycopy(child.mbr, 0, bounds, index * 4, 4);
+            int childMinZ = Integer.MAX_VALUE;
+            int childMaxZ = Integer.MIN_VALUE;
+            for (int i = 0; i < child.size(); i++) {
+                childMinZ = Math.min(childMinZ, child.minZ[i]);
+                childMaxZ = Math.max(childMaxZ, child.maxZ[i]);
+            }
+            minZ[index] = childMinZ;
+            maxZ[index] = childMaxZ;
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package com.github.komarovd95.widgetstore.application.domain.rtree;
+
+import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree.SplitPolicy;
+
+import java.util.Arrays;
+
+/**
+ * Algorithms shared by {@link WidgetRTree} and {@link PersistentWidgetRTree}: the choice of a subtree for insertion,
+ * the node split and Sort-Tile-Recursive packing.
+ * <p>
+ * Both trees keep bounds of node's entries in a flat {@code long[]} array ({@code minX, minY, maxX, maxY} for every
+ * entry), so the algorithms work with these arrays and the number of entries only and don't depend on the layout of
+ * nodes.
+ */
+final class RTreeAlgorithms {
+
+    /**
+     * The number of low bits of a sorting key that hold an index of the entry while bulk-loading. The rest bits hold
+     * a doubled center of the entry (it requires 34 bits).
+     */
+    private static final int SORTING_INDEX_BITS = 29;
+    private static final long SORTING_CENTER_OFFSET = 1L << 32;
+
+    private RTreeAlgorithms() {
+    }
+
+    /**
+     * Checks that the given number of entries can be bulk-loaded.
+     *
+     * @throws IllegalArgumentException if there are too many entries
+     */
+    static void checkPackable(int count) {
+        if (count >= 1 << SORTING_INDEX_BITS) {
+            throw new IllegalArgumentException("Too many widgets to bulk-load: size=" + count);
+        }
+    }
+
+    /**
+     * Packs entries of one level into tiles via Sort-Tile-Recursive packing: entries are sorted by X and split into
+     * vertical slices, then every slice is sorted by Y and split into tiles of nearly equal sizes.
+     *
+     * @param bounds the bounds of the entries
+     * @param count the number of the entries
+     * @param maxEntries the maximum number of entries in a tile
+     * @param order the array of size {@code count} that receives indices of the entries in the packed order
+     * @return the starts of tiles in the packed order followed by {@code count}: the t-th tile consists of entries
+     *         {@code order[starts[t]] .. order[starts[t + 1] - 1]}
+     */
+    static int[] pack(long[] bounds, int count, int maxEntries, int[] order) {
+        checkPackable(count);
+        int tileCount = (count + maxEntries - 1) / maxEntries;
+        int sliceCount = (int) Math.ceil(Math.sqrt(tileCount));
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        sortByCenter(bounds, order, keys, 0, count, 0);
+
+        int[] starts = new int[tileCount + sliceCount + 1];
+        int tiles = 0;
+        for (int slice = 0; slice < sliceCount; slice++) {
+            int sliceFrom = partitionBound(count, sliceCount, slice);
+            int sliceTo = partitionBound(count, sliceCount, slice + 1);
+            sortByCenter(bounds, order, keys, sliceFrom, sliceTo, 1);
+            int sliceSize = sliceTo - sliceFrom;
+            int sliceTileCount = (sliceSize + maxEntries - 1) / maxEntries;
+            for (int tile = 0; tile < sliceTileCount; tile++) {
+                starts[tiles++] = sliceFrom + partitionBound(sliceSize, sliceTileCount, tile);
+            }
+        }
+        starts[tiles] = count;
+        return Arrays.copyOf(starts, tiles + 1);
+    }
+
+    /**
+     * Returns the bound of the given part when {@code count} items are split into {@code parts} nearly equal parts.
+     * Nearly equal parts guarantee that every packed node holds at least the minimum number of entries.
+     */
+    private static int partitionBound(int count, int parts, int part) {
+        return (int) ((long) count * part / parts);
+    }
+
+    /**
+     * Sorts the range of the entries' order by centers of the entries along the given dimension.
+     */
+    private static void sortByCenter(long[] bounds, int[] order, long[] keys, int from, int to, int dimension) {
+        for (int i = from; i < to; i++) {
+            int offset = order[i] * 4;
+            long doubledCenter = bounds[offset + dimension] + bounds[offset + 2 + dimension];
+            keys[i] = ((doubledCenter + SORTING_CENTER_OFFSET) << SORTING_INDEX_BITS) | order[i];
+        }
+        Arrays.sort(keys, from, to);
+        for (int i = from; i < to; i++) {
+            order[i] = (int) (keys[i] & ((1L << SORTING_INDEX_BITS) - 1));
+        }
+    }
+
+    /**
+     * Chooses the entry of the inner node to insert the given rectangle into. The R*-tree policy minimizes the overlap
+     * enlargement if children of the node are leaves, otherwise the area enlargement is minimized.
+     *
+     * @param bounds the bounds of the node's entries
+     * @param count the number of the node's entries
+     * @param childrenAreLeaves whether children of the node are leaves
+     * @return the index of the chosen entry
+     */
+    static int chooseSubtree(
+        SplitPolicy splitPolicy,
+        long[] bounds,
+        int count,
+        boolean childrenAreLeaves,
+        long minX,
+        long minY,
+        long maxX,
+        long maxY
+    ) {
+        return splitPolicy == SplitPolicy.R_STAR && childrenAreLeaves
+            ? chooseLeastOverlapEnlargement(bounds, count, minX, minY, maxX, maxY)
+            : chooseLeastAreaEnlargement(bounds, count, minX, minY, maxX, maxY);
+    }
+
+    private static int chooseLeastAreaEnlargement(
+        long[] bounds,
+        int count,
+        long minX,
+        long minY,
+        long maxX,
+        long maxY
+    ) {
+        int best = 0;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int i = 0, offset = 0; i < count; i++, offset += 4) {
+            double area = area(bounds[offset], bounds[offset + 1], bounds[offset + 2], bounds[offset + 3]);
+            double enlargement = area(
+                Math.min(bounds[offset], minX),
+                Math.min(bounds[offset + 1], minY),
+                Math.max(bounds[offset + 2], maxX),
+                Math.max(bounds[offset + 3], maxY)
+            ) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                best = i;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Chooses the child whose overlap with its siblings grows least after covering the given rectangle (ties are
+     * resolved by the least area enlargement and then by the least area).
+     */
+    private static int chooseLeastOverlapEnlargement(
+        long[] bounds,
+        int count,
+        long minX,
+        long minY,
+        long maxX,
+        long maxY
+    ) {
+        int best = 0;
+        double bestOverlapEnlargement = Double.POSITIVE_INFINITY;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int i = 0, offset = 0; i < count; i++, offset += 4) {
+            long enlargedMinX = Math.min(bounds[offset], minX);
+            long enlargedMinY = Math.min(bounds[offset + 1], minY);
+            long enlargedMaxX = Math.max(bounds[offset + 2], maxX);
+            long enlargedMaxY = Math.max(bounds[offset + 3], maxY);
+            double overlapEnlargement = 0.0;
+            for (int j = 0, siblingOffset = 0; j < count; j++, siblingOffset += 4) {
+                if (i != j) {
+                    overlapEnlargement += overlap(
+                        enlargedMinX,
+                        enlargedMinY,
+                        enlargedMaxX,
+                        enlargedMaxY,
+                        bounds,
+                        siblingOffset
+                    ) - overlap(bounds[offset], bounds[offset + 1], bounds[offset + 2], bounds[offset + 3],
+                        bounds, siblingOffset);
+                }
+            }
+            double area = area(bounds[offset], bounds[offset + 1], bounds[offset + 2], bounds[offset + 3]);
+            double enlargement = area(enlargedMinX, enlargedMinY, enlargedMaxX, enlargedMaxY) - area;
+            if (overlapEnlargement < bestOverlapEnlargement
+                || (overlapEnlargement == bestOverlapEnlargement && enlargement < bestEnlargement)
+                || (overlapEnlargement == bestOverlapEnlargement && enlargement == bestEnlargement
+                    && area < bestArea)) {
+                best = i;
+                bestOverlapEnlargement = overlapEnlargement;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Distributes entries of the overflowed node between two groups according to the split policy.
+     *
+     * @param bounds the bounds of the node's entries
+     * @param count the number of the node's entries
+     * @param minEntries the minimum number of entries in a group
+     * @return the group (1 or 2) of every entry
+     */
+    static int[] split(SplitPolicy splitPolicy, long[] bounds, int count, int minEntries) {
+        return splitPolicy == SplitPolicy.R_STAR
+            ? rStarDistribution(bounds, count, minEntries)
+            : guttmanDistribution(splitPolicy, bounds, count, minEntries);
+    }
+
+    /**
+     * Distributes entries of the overflowed node between two groups via Guttman's algorithm (linear or quadratic).
+     *
+     * @return the group (1 or 2) of every entry
+     */
+    private static int[] guttmanDistribution(SplitPolicy splitPolicy, long[] bounds, int count, int minEntries) {
+        int[] seeds = splitPolicy == SplitPolicy.LINEAR
+            ? linearPickSeeds(bounds, count)
+            : quadraticPickSeeds(bounds, count);
+
+        // 0 - unassigned, 1 - the first group, 2 - the second group
+        int[] groups = new int[count];
+        long[] groupBounds = new long[8];
+        int[] groupSizes = new int[2];
+        for (int group = 0; group < 2; group++) {
+            int seed = seeds[group];
+            groups[seed] = group + 1;
+            groupSizes[group] = 1;
+            System.arraycopy(bounds, seed * 4, groupBounds, group * 4, 4);
+        }
+
+        int remaining = count - 2;
+        while (remaining > 0) {
+            if (groupSizes[0] + remaining == minEntries || groupSizes[1] + remaining == minEntries) {
+                int group = groupSizes[0] + remaining == minEntries ? 0 : 1;
+                for (int i = 0; i < count; i++) {
+                    if (groups[i] == 0) {
+                        groups[i] = group + 1;
+                        groupSizes[group]++;
+                    }
+                }
+                break;
+            }
+            int next = splitPolicy == SplitPolicy.LINEAR
+                ? linearPickNext(groups)
+                : quadraticPickNext(bounds, groups, groupBounds);
+            int offset = next * 4;
+            double enlargement0 = enlargement(groupBounds, 0, bounds, offset);
+            double enlargement1 = enlargement(groupBounds, 4, bounds, offset);
+            int group;
+            if (enlargement0 != enlargement1) {
+                group = enlargement0 < enlargement1 ? 0 : 1;
+            } else {
+                double area0 = area(groupBounds[0], groupBounds[1], groupBounds[2], groupBounds[3]);
+                double area1 = area(groupBounds[4], groupBounds[5], groupBounds[6], groupBounds[7]);
+                if (area0 != area1) {
+                    group = area0 < area1 ? 0 : 1;
+                } else {
+                    group = groupSizes[0] <= groupSizes[1] ? 0 : 1;
+                }
+            }
+            groups[next] = group + 1;
+            groupSizes[group]++;
+            union(groupBounds, group * 4, bounds, offset);
+            remaining--;
+        }
+        return groups;
+    }
+
+    /**
+     * Distributes entries of the overflowed node between two groups via the R*-tree split: the split axis is chosen
+     * by the minimum sum of margins of all distributions, then the distribution along this axis is chosen by
+     * the minimum overlap (ties are resolved by the minimum total area).
+     *
+     * @return the group (1 or 2) of every entry
+     */
+    private static int[] rStarDistribution(long[] bounds, int count, int minEntries) {
+        int[][][] orders = new int[2][][];
+        double bestMarginSum = Double.POSITIVE_INFINITY;
+        int bestAxis = 0;
+        long[] prefixes = new long[count * 4];
+        long[] suffixes = new long[count * 4];
+        for (int axis = 0; axis < 2; axis++) {
+            // sorted by the lower bound and by the upper bound
+            orders[axis] = new int[][] {
+                sortedOrder(bounds, count, axis, axis + 2),
+                sortedOrder(bounds, count, axis + 2, axis)
+            };
+            double marginSum = 0.0;
+            for (int[] order : orders[axis]) {
+                computeDistributionBounds(bounds, count, order, prefixes, suffixes);
+                for (int k = minEntries; k <= count - minEntries; k++) {
+                    marginSum += margin(prefixes, (k - 1) * 4) + margin(suffixes, k * 4);
+                }
+            }
+            if (marginSum < bestMarginSum) {
+                bestMarginSum = marginSum;
+                bestAxis = axis;
+            }
+        }
+
+        int[] bestOrder = null;
+        int bestSplit = 0;
+        double bestOverlap = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int[] order : orders[bestAxis]) {
+            computeDistributionBounds(bounds, count, order, prefixes, suffixes);
+            for (int k = minEntries; k <= count - minEntries; k++) {
+                int first = (k - 1) * 4;
+                int second = k * 4;
+                double overlap = overlap(
+                    prefixes[first], prefixes[first + 1], prefixes[first + 2], prefixes[first + 3],
+                    suffixes, second
+                );
+                double area = area(prefixes[first], prefixes[first + 1], prefixes[first + 2], prefixes[first + 3])
+                    + area(suffixes[second], suffixes[second + 1], suffixes[second + 2], suffixes[second + 3]);
+                if (overlap < bestOverlap || (overlap == bestOverlap && area < bestArea)) {
+                    bestOverlap = overlap;
+                    bestArea = area;
+                    bestOrder = order;
+                    bestSplit = k;
+                }
+            }
+        }
+
+        int[] groups = new int[count];
+        for (int i = 0; i < count; i++) {
+            groups[bestOrder[i]] = i < bestSplit ? 1 : 2;
+        }
+        return groups;
+    }
+
+    /**
+     * Computes bounding rectangles of the first {@code k + 1} entries ({@code prefixes[4 * k]}) and of the entries
+     * starting from the k-th one ({@code suffixes[4 * k]}) in the given order.
+     */
+    private static void computeDistributionBounds(
+        long[] bounds,
+        int count,
+        int[] order,
+        long[] prefixes,
+        long[] suffixes
+    ) {
+        System.arraycopy(bounds, order[0] * 4, prefixes, 0, 4);
+        for (int i = 1; i < count; i++) {
+            System.arraycopy(prefixes, (i - 1) * 4, prefixes, i * 4, 4);
+            union(prefixes, i * 4, bounds, order[i] * 4);
+        }
+        System.arraycopy(bounds, order[count - 1] * 4, suffixes, (count - 1) * 4, 4);
+        for (int i = count - 2; i >= 0; i--) {
+            System.arraycopy(suffixes, (i + 1) * 4, suffixes, i * 4, 4);
+            union(suffixes, i * 4, bounds, order[i] * 4);
+        }
+    }
+
+    /**
+     * Returns indices of the entries sorted by the given bound (ties are resolved by the second bound).
+     */
+    private static int[] sortedOrder(long[] bounds, int count, int boundIndex, int tieBoundIndex) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            int entry = i;
+            int position = i;
+            while (position > 0 && compareBounds(bounds, order[position - 1], entry, boundIndex, tieBoundIndex) > 0) {
+                order[position] = order[position - 1];
+                position--;
+            }
+            order[position] = entry;
+        }
+        return order;
+    }
+
+    private static int compareBounds(long[] bounds, int first, int second, int boundIndex, int tieBoundIndex) {
+        int result = Long.compare(bounds[first * 4 + boundIndex], bounds[second * 4 + boundIndex]);
+        return result != 0
+            ? result
+            : Long.compare(bounds[first * 4 + tieBoundIndex], bounds[second * 4 + tieBoundIndex]);
+    }
+
+    // Implementation of LinearPickSeeds
+    private static int[] linearPickSeeds(long[] bounds, int count) {
+        int[] seeds = null;
+        double bestSeparation = -1.0;
+        for (int dimension = 0; dimension < 2; dimension++) {
+            long lowest = Long.MAX_VALUE;
+            long highest = Long.MIN_VALUE;
+            long highestLow = Long.MIN_VALUE;
+            long lowestHigh = Long.MAX_VALUE;
+            int highestLowIndex = 0;
+            int lowestHighIndex = 0;
+            for (int i = 0, offset = 0; i < count; i++, offset += 4) {
+                long low = bounds[offset + dimension];
+                long high = bounds[offset + 2 + dimension];
+                lowest = Math.min(lowest, low);
+                highest = Math.max(highest, high);
+                if (low > highestLow) {
+                    highestLow = low;
+                    highestLowIndex = i;
+                }
+                if (high < lowestHigh) {
+                    lowestHigh = high;
+                    lowestHighIndex = i;
+                }
+            }
+            if (highestLowIndex == lowestHighIndex) {
+                continue;
+            }
+            double width = Math.max(1.0, (double) highest - lowest);
+            double separation = Math.abs(((double) highestLow - lowestHigh) / width);
+            if (separation > bestSeparation) {
+                bestSeparation = separation;
+                seeds = new int[] { highestLowIndex, lowestHighIndex };
+            }
+        }
+        // In the degenerate case where all entries are the same, the above algorithm does not find a pair.
+        // Just pick the first 2 entries.
+        return seeds != null ? seeds : new int[] { 0, 1 };
+    }
+
+    // Implementation of LinearPickNext
+    private static int linearPickNext(int[] groups) {
+        for (int i = 0; i < groups.length; i++) {
+            if (groups[i] == 0) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No unassigned entries left");
+    }
+
+    // Implementation of QuadraticPickSeeds
+    private static int[] quadraticPickSeeds(long[] bounds, int count) {
+        int[] seeds = new int[] { 0, 1 };
+        double maxWaste = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            int offsetI = i * 4;
+            double areaI = area(bounds[offsetI], bounds[offsetI + 1], bounds[offsetI + 2], bounds[offsetI + 3]);
+            for (int j = i + 1; j < count; j++) {
+                int offsetJ = j * 4;
+                double areaJ = area(bounds[offsetJ], bounds[offsetJ + 1], bounds[offsetJ + 2], bounds[offsetJ + 3]);
+                double waste = area(
+                    Math.min(bounds[offsetI], bounds[offsetJ]),
+                    Math.min(bounds[offsetI + 1], bounds[offsetJ + 1]),
+                    Math.max(bounds[offsetI + 2], bounds[offsetJ + 2]),
+                    Math.max(bounds[offsetI + 3], bounds[offsetJ + 3])
+                ) - areaI - areaJ;
+                if (waste > maxWaste) {
+                    maxWaste = waste;
+                    seeds[0] = i;
+                    seeds[1] = j;
+                }
+            }
+        }
+        return seeds;
+    }
+
+    // Implementation of QuadraticPickNext
+    private static int quadraticPickNext(long[] bounds, int[] groups, long[] groupBounds) {
+        int next = -1;
+        double maxDifference = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < groups.length; i++) {
+            if (groups[i] != 0) {
+                continue;
+            }
+            double difference = Math.abs(
+                enlargement(groupBounds, 0, bounds, i * 4) - enlargement(groupBounds, 4, bounds, i * 4)
+            );
+            if (difference > maxDifference) {
+                maxDifference = difference;
+                next = i;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the increase in area necessary for the rectangle at the target offset to cover the rectangle at
+     * the source offset.
+     */
+    private static double enlargement(long[] target, int targetOffset, long[] source, int sourceOffset) {
+        return area(
+            Math.min(target[targetOffset], source[sourceOffset]),
+            Math.min(target[targetOffset + 1], source[sourceOffset + 1]),
+            Math.max(target[targetOffset + 2], source[sourceOffset + 2]),
+            Math.max(target[targetOffset + 3], source[sourceOffset + 3])
+        ) - area(target[targetOffset], target[targetOffset + 1], target[targetOffset + 2], target[targetOffset + 3]);
+    }
+
+    /**
+     * Returns the area of the intersection of the given rectangle and the rectangle at the given offset.
+     */
+    private static double overlap(long minX, long minY, long maxX, long maxY, long[] bounds, int offset) {
+        double width = (double) Math.min(maxX, bounds[offset + 2]) - Math.max(minX, bounds[offset]);
+        double height = (double) Math.min(maxY, bounds[offset + 3]) - Math.max(minY, bounds[offset + 1]);
+        return width > 0 && height > 0 ? width * height : 0.0;
+    }
+
+    private static double margin(long[] bounds, int offset) {
+        return ((double) bounds[offset + 2] - bounds[offset]) + ((double) bounds[offset + 3] - bounds[offset + 1]);
+    }
+
+    /**
+     * Extends the rectangle at the target offset to cover the rectangle at the source offset.
+     */
+    static void union(long[] target, int targetOffset, long[] source, int sourceOffset) {
+        target[targetOffset] = Math.min(target[targetOffset], source[sourceOffset]);
+        target[targetOffset + 1] = Math.min(target[targetOffset + 1], source[sourceOffset + 1]);
+        target[targetOffset + 2] = Math.max(target[targetOffset + 2], source[sourceOffset + 2]);
+        target[targetOffset + 3] = Math.max(target[targetOffset + 3], source[sourceOffset + 3]);
+    }
+
+    /**
+     * The area is used only for heuristics, so it's computed in doubles to avoid overflows.
+     */
+    private static double area(long minX, long minY, long maxX, long maxY) {
+        return ((double) maxX - minX) * ((double) maxY - minY);
+    }
+}
@@ -1,47 +1,272 @@
 package com.github.komarovd95.widgetstore.application.domain.rtree;
 
 import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToLongFunction;
 
 /**
- * An R-tree wrapper for widgets.
+ * A 2D R-tree of widgets' boundaries. Based on R-Trees: A Dynamic Index Structure for Spatial Searching
+ * (Antonin Guttman, 1984).
+ * <p>
+ * This class is not thread-safe.
+ * <p>
+ * The tree is specialized for {@link Region}: all coordinates are stored as exact {@code long} bounds
+ * ({@code minX, minY, maxX, maxY}), so there is no precision loss for large coordinates and no fudge factor in the
+ * overlap tests. Every node keeps the bounds of its entries in a single flat {@code long[]} array (4 slots per entry)
+ * and the entries themselves in a plain array, so the search path does not allocate and does not chase list nodes.
+ * <p>
+ * Additionally, every entry is augmented with the minimum and the maximum Z-index of its subtree. It allows to return
+ * found widgets in the Z-index order via best-first traversal and to stop the traversal as soon as the requested number
+ * of widgets is found. Z-indices are stored as {@code long} values, so the tree might be keyed by any order-preserving
+ * labels of Z-indices instead of Z-indices themselves (see {@link #containsFromZ(Region, long, int, Consumer)}).
+ * <p>
+ * The tree keeps a back-pointer from every widget's ID to its leaf, so removals and updates don't search for the leaf.
+ * <p>
+ * Insertion follows one of the split policies: Guttman's linear or quadratic split, or the R*-tree strategy
+ * (Beckmann et al., 1990) with overlap-minimizing subtree choice, margin-based split and forced reinsertion. Forced
+ * reinsertion is applied to overflowed leaves only.
+ * <p>
+ * The tree can be bulk-loaded via Sort-Tile-Recursive packing (Leutenegger et al., 1997). A packed tree is smaller and
+ * faster to query than a tree built by one-at-a-time insertions.
  */
 public class WidgetRTree {
 
-    private final RTree<String> tree = new RTree<>();
+    /**
+     * A strategy of insertion and the node split.
+     */
+    public enum SplitPolicy {LINEAR, QUADRATIC, R_STAR}
+
+    private static final int DEFAULT_MAX_ENTRIES = 50;
+    private static final int DEFAULT_MIN_ENTRIES = 2;
+
+    /**
+     * The fraction of the overflowed leaf's entries that are reinserted by the R*-tree policy.
+     */
+    private static final double REINSERT_FRACTION = 0.3;
+
+    private final int maxEntries;
+    private final int minEntries;
+    private final SplitPolicy splitPolicy;
+
+    private Node root;
+
+    /**
+     * Back-pointers from widgets' IDs to leaves that contain them. They allow to jump straight to the leaf on
+     * removals and updates instead of searching for it from the root.
+     */
+    private final Map<WidgetId, Node> leafById = new HashMap<>();
+
+    private int size;
+
+    /**
+     * A flag that forced reinsertion is in progress. The R*-tree policy reinserts entries only once per insertion.
+     */
+    private boolean reinserting;
+
+    /**
+     * Creates a new R-tree using default parameters: maximum 50 entries per node, minimum 2 entries per node,
+     * linear split.
+     */
+    public WidgetRTree() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MIN_ENTRIES, SplitPolicy.LINEAR);
+    }
+
+    /**
+     * Creates a new R-tree.
+     *
+     * @param maxEntries maximum number of entries per node
+     * @param minEntries minimum number of entries per node (except for the root node)
+     * @param splitPolicy the strategy of insertion and the node split, not null
+     */
+    public WidgetRTree(int maxEntries, int minEntries, SplitPolicy splitPolicy) {
+        if (maxEntries < 2) {
+            throw new IllegalArgumentException("maxEntries must be at least 2: maxEntries=" + maxEntries);
+        }
+        if (minEntries < 1 || minEntries > maxEntries / 2) {
+            throw new IllegalArgumentException(
+                "minEntries must be in [1, maxEntries / 2]: minEntries=" + minEntries + ", maxEntries=" + maxEntries
+            );
+        }
+        this.maxEntries = maxEntries;
+        this.minEntries = minEntries;
+        this.splitPolicy = Objects.requireNonNull(splitPolicy, "splitPolicy");
+        this.root = new Node(true, maxEntries);
+    }
+
+    /**
+     * @return the number of widgets in this tree
+     */
+    public int size() {
+        return size;
+    }
 
     /**
      * Adds a widget's boundaries to the R-tree.
      *
      * @param id an ID of the widget
      * @param boundaries boundaries of the widget
+     * @param z a Z-index of the widget
      */
-    public void add(String id, Region boundaries) {
+    public void add(WidgetId id, Region boundaries, long z) {
         Objects.requireNonNull(id, "id");
         Objects.requireNonNull(boundaries, "boundaries");
-        tree.insert(
-            new float[] { boundaries.getX(), boundaries.getY() },
-            new float[] { boundaries.getWidth(), boundaries.getHeight() },
-            id
-        );
+        insert(id, z, minX(boundaries), minY(boundaries), maxX(boundaries), maxY(boundaries));
+        size++;
     }
 
     /**
-     * Removes a widget from the R-tree.
+     * Replaces the content of this R-tree with the given widgets. The tree is built in one pass via Sort-Tile-Recursive
+     * packing: all nodes except the last ones in every slice are filled up to the maximum number of entries.
+     *
+     * @param widgets widgets to load, not null
+     */
+    public void load(Collection<Widget> widgets) {
+        load(widgets, Widget::getZ);
+    }
+
+    /**
+     * Replaces the content of this R-tree with the given widgets. The same as {@link #load(Collection)}, but Z-indices
+     * of widgets are replaced with the given keys.
+     *
+     * @param widgets widgets to load, not null
+     * @param zKey the function that returns the Z key of the widget, not null
+     */
+    public void load(Collection<Widget> widgets, ToLongFunction<Widget> zKey) {
+        Objects.requireNonNull(widgets, "widgets");
+        Objects.requireNonNull(zKey, "zKey");
+        RTreeAlgorithms.checkPackable(widgets.size());
+        leafById.clear();
+        Node entries = new Node(true, widgets.size() - 1);
+        for (Widget widget : widgets) {
+            Region boundaries = widget.getBoundaries();
+            entries.addEntry(
+                widget.getId(),
+                zKey.applyAsLong(widget),
+                minX(boundaries),
+                minY(boundaries),
+                maxX(boundaries),
+                maxY(boundaries)
+            );
+        }
+        while (entries.size > maxEntries) {
+            entries = packLevel(entries);
+        }
+        root = new Node(entries.leaf, maxEntries);
+        for (int i = 0; i < entries.size; i++) {
+            copyPackedEntry(entries, i, root);
+        }
+        size = widgets.size();
+    }
+
+    /**
+     * Packs entries of one level into nodes (tiles): entries are sorted by X and split into vertical slices, then every
+     * slice is sorted by Y and split into nodes.
+     *
+     * @param entries the entries of the level, stored in a single oversized node
+     * @return the packed nodes, stored in a single oversized node as entries of the next level
+     */
+    private Node packLevel(Node entries) {
+        int[] order = new int[entries.size];
+        int[] tileStarts = RTreeAlgorithms.pack(entries.bounds, entries.size, maxEntries, order);
+        Node packed = new Node(false, tileStarts.length - 2);
+        for (int tile = 0; tile + 1 < tileStarts.length; tile++) {
+            Node node = new Node(entries.leaf, maxEntries);
+            for (int i = tileStarts[tile]; i < tileStarts[tile + 1]; i++) {
+                copyPackedEntry(entries, order[i], node);
+            }
+            packed.addChild(node);
+        }
+        return packed;
+    }
+
+    private void copyPackedEntry(Node source, int index, Node target) {
+        if (target.leaf) {
+            leafById.put(source.ids[index], target);
+        }
+        target.copyEntryFrom(source, index);
+    }
+
+    /**
+     * Moves a widget to the new boundaries.
+     * <p>
+     * If the new boundaries still fit into the bounding rectangle of the widget's leaf, then the widget is updated
+     * in place and only ancestors' bounds are tightened. Otherwise, the widget is reinserted.
      *
      * @param id an ID of the widget
-     * @param boundaries boundaries of the widget
+     * @param boundaries new boundaries of the widget
+     * @return {@code true} if the widget has been moved or {@code false} if there is no such widget in the tree
      */
-    public void remove(String id, Region boundaries) {
+    public boolean move(WidgetId id, Region boundaries) {
         Objects.requireNonNull(id, "id");
         Objects.requireNonNull(boundaries, "boundaries");
-        tree.delete(
-            new float[] { boundaries.getX(), boundaries.getY() },
-            new float[] { boundaries.getWidth(), boundaries.getHeight() },
-            id
-        );
+        Node leaf = leafById.get(id);
+        if (leaf == null) {
+            return false;
+        }
+        long minX = minX(boundaries);
+        long minY = minY(boundaries);
+        long maxX = maxX(boundaries);
+        long maxY = maxY(boundaries);
+        int index = leaf.indexOf(id);
+        Node parent = leaf.parent;
+        if (parent == null || isContained(parent.bounds, parent.indexOf(leaf) * 4, minX, minY, maxX, maxY, true)) {
+            leaf.setBounds(index, minX, minY, maxX, maxY);
+            refreshAncestors(leaf);
+        } else {
+            long z = leaf.minZ[index];
+            removeAt(leaf, index);
+            insert(id, z, minX, minY, maxX, maxY);
+        }
+        return true;
+    }
+
+    /**
+     * Updates a Z-index of the widget stored in the R-tree.
+     *
+     * @param id an ID of the widget
+     * @param z a new Z-index of the widget
+     * @return {@code true} if the widget has been updated or {@code false} if there is no such widget in the tree
+     */
+    public boolean updateZ(WidgetId id, long z) {
+        Objects.requireNonNull(id, "id");
+        Node leaf = leafById.get(id);
+        if (leaf == null) {
+            return false;
+        }
+        int index = leaf.indexOf(id);
+        leaf.minZ[index] = z;
+        leaf.maxZ[index] = z;
+        refreshAncestors(leaf);
+        return true;
+    }
+
+    /**
+     * Removes a widget from the R-tree.
+     *
+     * @param id an ID of the widget
+     * @return {@code true} if the widget has been removed or {@code false} if there is no such widget in the tree
+     */
+    public boolean remove(WidgetId id) {
+        Objects.requireNonNull(id, "id");
+        Node leaf = leafById.get(id);
+        if (leaf == null) {
+            return false;
+        }
+        removeAt(leaf, leaf.indexOf(id));
+        size--;
+        return true;
     }
 
     /**
@@ -51,35 +276,741 @@ public class WidgetRTree {
      * @param region the region for the spatial search
      * @param widgetConsumer the consumer of found widget IDs
      */
-    public void contains(Region region, Consumer<String> widgetConsumer) {
+    public void contains(Region region, Consumer<WidgetId> widgetConsumer) {
+        Objects.requireNonNull(region, "region");
+        Objects.requireNonNull(widgetConsumer, "widgetConsumer");
+        contains(root, minX(region), minY(region), maxX(region), maxY(region), widgetConsumer);
+    }
+
+    /**
+     * Traverses the R-tree and finds widgets that contained by the given region in the ascending order of Z-index.
+     * Every found widget's ID will be provided to the consumer.
+     * <p>
+     * The traversal is best-first: subtrees are visited in the order of their minimum Z-index, subtrees without
+     * widgets above the cursor are skipped, and the traversal stops as soon as the limit is reached.
+     *
+     * @param region the region for the spatial search
+     * @param zIndexCursor the Z-index cursor. Might be null. If present, then only widgets with Z-index more than given
+     *                     value will be found
+     * @param limit the maximum number of widgets to find
+     * @param widgetConsumer the consumer of found widget IDs
+     */
+    public void containsInZOrder(Region region, Integer zIndexCursor, int limit, Consumer<WidgetId> widgetConsumer) {
+        searchInZOrder(region, false, lowestZ(zIndexCursor), limit, widgetConsumer);
+    }
+
+    /**
+     * The same as {@link #containsInZOrder(Region, Integer, int, Consumer)}, but the lower bound of Z-indices is given
+     * explicitly (inclusive).
+     *
+     * @param region the region for the spatial search
+     * @param lowestZ the lowest Z-index of widgets to find
+     * @param limit the maximum number of widgets to find
+     * @param widgetConsumer the consumer of found widget IDs
+     */
+    public void containsFromZ(Region region, long lowestZ, int limit, Consumer<WidgetId> widgetConsumer) {
+        searchInZOrder(region, false, lowestZ, limit, widgetConsumer);
+    }
+
+    /**
+     * Traverses the R-tree and finds widgets that intersect the given region in the ascending order of Z-index.
+     * Rectangles are considered closed, so widgets that touch the region by an edge are found too. Every found widget's
+     * ID will be provided to the consumer.
+     * <p>
+     * The traversal is the same as in {@link #containsInZOrder(Region, Integer, int, Consumer)}.
+     *
+     * @param region the region for the spatial search
+     * @param zIndexCursor the Z-index cursor. Might be null. If present, then only widgets with Z-index more than given
+     *                     value will be found
+     * @param limit the maximum number of widgets to find
+     * @param widgetConsumer the consumer of found widget IDs
+     */
+    public void intersectsInZOrder(Region region, Integer zIndexCursor, int limit, Consumer<WidgetId> widgetConsumer) {
+        searchInZOrder(region, true, lowestZ(zIndexCursor), limit, widgetConsumer);
+    }
+
+    /**
+     * The same as {@link #intersectsInZOrder(Region, Integer, int, Consumer)}, but the lower bound of Z-indices is given
+     * explicitly (inclusive).
+     *
+     * @param region the region for the spatial search
+     * @param lowestZ the lowest Z-index of widgets to find
+     * @param limit the maximum number of widgets to find
+     * @param widgetConsumer the consumer of found widget IDs
+     */
+    public void intersectsFromZ(Region region, long lowestZ, int limit, Consumer<WidgetId> widgetConsumer) {
+        searchInZOrder(region, true, lowestZ, limit, widgetConsumer);
+    }
+
+    private static long lowestZ(Integer zIndexCursor) {
+        return zIndexCursor != null ? zIndexCursor + 1L : Long.MIN_VALUE;
+    }
+
+    private void searchInZOrder(
+        Region region,
+        boolean intersects,
+        long lowestZ,
+        int limit,
+        Consumer<WidgetId> widgetConsumer
+    ) {
         Objects.requireNonNull(region, "region");
         Objects.requireNonNull(widgetConsumer, "widgetConsumer");
-        search(region, tree.root, widgetConsumer);
+        long minX = minX(region);
+        long minY = minY(region);
+        long maxX = maxX(region);
+        long maxY = maxY(region);
+
+        ZOrderQueue<Node> queue = new ZOrderQueue<>();
+        offerMatching(queue, root, intersects, lowestZ, minX, minY, maxX, maxY);
+        int found = 0;
+        while (found < limit && !queue.isEmpty()) {
+            Node node = queue.peekNode();
+            int index = queue.peekIndex();
+            queue.poll();
+            if (node.leaf) {
+                widgetConsumer.accept(node.ids[index]);
+                found++;
+            } else {
+                offerMatching(queue, node.children[index], intersects, lowestZ, minX, minY, maxX, maxY);
+            }
+        }
+    }
+
+    /**
+     * Traverses the R-tree and finds widgets that cover the given point in the descending order of Z-index (the topmost
+     * widget first). A widget covers the point if {@code x <= px < x + width} and {@code y <= py < y + height}. Every
+     * found widget's ID will be provided to the consumer.
+     * <p>
+     * The traversal is best-first: subtrees are visited in the descending order of their maximum Z-index, so
+     * the traversal stops as soon as the limit is reached.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @param limit the maximum number of widgets to find
+     * @param widgetConsumer the consumer of found widget IDs
+     */
+    public void coveringInReverseZOrder(int x, int y, int limit, Consumer<WidgetId> widgetConsumer) {
+        Objects.requireNonNull(widgetConsumer, "widgetConsumer");
+        ZOrderQueue<Node> queue = new ZOrderQueue<>();
+        offerCovering(queue, root, x, y);
+        int found = 0;
+        while (found < limit && !queue.isEmpty()) {
+            Node node = queue.peekNode();
+            int index = queue.peekIndex();
+            queue.poll();
+            if (node.leaf) {
+                widgetConsumer.accept(node.ids[index]);
+                found++;
+            } else {
+                offerCovering(queue, node.children[index], x, y);
+            }
+        }
+    }
+
+    /**
+     * Traverses the R-tree once for several spatial searches at the same time (e.g. for tiles of a viewport). Every
+     * node is visited at most once and only with the searches that may still match it. Results of every search are
+     * found in the ascending order of Z-index, exactly as {@link #containsInZOrder(Region, Integer, int, Consumer)} and
+     * {@link #intersectsInZOrder(Region, Integer, int, Consumer)} would find them.
+     *
+     * @param filters the searches. Regions MUST be present. The limit of every filter is the maximum number of widgets
+     *                to find for it
+     * @param widgetConsumer the consumer of found widget IDs along with the index of the matched filter
+     */
+    public void searchInZOrder(List<WidgetsFilter> filters, ObjIntConsumer<WidgetId> widgetConsumer) {
+        Objects.requireNonNull(filters, "filters");
+        Objects.requireNonNull(widgetConsumer, "widgetConsumer");
+        searchInZOrder(new BatchRegionSearch(filters), widgetConsumer);
+    }
+
+    /**
+     * The same as {@link #searchInZOrder(List, ObjIntConsumer)}, but the lower bounds of Z-indices are given explicitly
+     * (inclusive). Cursors of the filters are ignored.
+     *
+     * @param filters the searches. Regions MUST be present
+     * @param lowestZ the lowest Z-index of widgets to find for every filter
+     * @param widgetConsumer the consumer of found widget IDs along with the index of the matched filter
+     */
+    public void searchInZOrder(List<WidgetsFilter> filters, long[] lowestZ, ObjIntConsumer<WidgetId> widgetConsumer) {
+        Objects.requireNonNull(filters, "filters");
+        Objects.requireNonNull(lowestZ, "lowestZ");
+        Objects.requireNonNull(widgetConsumer, "widgetConsumer");
+        if (lowestZ.length != filters.size()) {
+            throw new IllegalArgumentException(
+                "Lowest Z-indices don't match filters: lowestZ.length=" + lowestZ.length + ", filters=" + filters.size()
+            );
+        }
+        searchInZOrder(new BatchRegionSearch(filters, lowestZ), widgetConsumer);
+    }
+
+    private void searchInZOrder(BatchRegionSearch search, ObjIntConsumer<WidgetId> widgetConsumer) {
+        int[] activeSearches = search.activeSearches(null);
+        ZOrderQueue<Node> queue = new ZOrderQueue<>();
+        offerMatching(queue, root, search, activeSearches);
+        while (search.active > 0 && !queue.isEmpty()) {
+            Node node = queue.peekNode();
+            int index = queue.peekIndex();
+            int[] searches = queue.peekSearches();
+            queue.poll();
+            if (node.leaf) {
+                for (int searchIndex : searches) {
+                    if (search.remaining[searchIndex] > 0) {
+                        widgetConsumer.accept(node.ids[index], searchIndex);
+                        search.found(searchIndex);
+                    }
+                }
+            } else {
+                activeSearches = search.activeSearches(searches);
+                if (activeSearches.length > 0) {
+                    offerMatching(queue, node.children[index], search, activeSearches);
+                }
+            }
+        }
+    }
+
+    /**
+     * Offers all entries of the given node that may contain widgets matching any of the given searches. Every entry is
+     * offered with the searches it may match.
+     */
+    private static void offerMatching(
+        ZOrderQueue<Node> queue,
+        Node node,
+        BatchRegionSearch search,
+        int[] activeSearches
+    ) {
+        long[] bounds = node.bounds;
+        int[] matched = new int[activeSearches.length];
+        for (int i = 0, offset = 0; i < node.size; i++, offset += 4) {
+            int matchedCount = 0;
+            long key = Long.MAX_VALUE;
+            for (int searchIndex : activeSearches) {
+                if (node.maxZ[i] >= search.lowestZ[searchIndex]
+                    && search.matches(bounds, offset, node.leaf, searchIndex)) {
+                    matched[matchedCount++] = searchIndex;
+                    key = Math.min(key, search.lowestZ[searchIndex]);
+                }
+            }
+            if (matchedCount > 0) {
+                queue.offer(node, i, Math.max(node.minZ[i], key), Arrays.copyOf(matched, matchedCount));
+            }
+        }
+    }
+
+    /**
+     * Offers all entries of the given node that may contain widgets matching the search.
+     *
+     * @param intersects if {@code true}, then widgets intersecting the region match. Otherwise, only widgets
+     *                   contained by the region match
+     */
+    private static void offerMatching(
+        ZOrderQueue<Node> queue,
+        Node node,
+        boolean intersects,
+        long lowestZ,
+        long minX,
+        long minY,
+        long maxX,
+        long maxY
+    ) {
+        long[] bounds = node.bounds;
+        for (int i = 0, offset = 0; i < node.size; i++, offset += 4) {
+            if (node.maxZ[i] < lowestZ) {
+                continue;
+            }
+            boolean matches = node.leaf && !intersects
+                ? isContained(bounds, offset, minX, minY, maxX, maxY)
+                : isOverlapped(bounds, offset, minX, minY, maxX, maxY);
+            if (matches) {
+                queue.offer(node, i, Math.max(node.minZ[i], lowestZ));
+            }
+        }
+    }
+
+    /**
+     * Offers all entries of the given node that may contain widgets covering the given point. Entries are ordered by
+     * their maximum Z-index descending (keys are negated).
+     */
+    private static void offerCovering(ZOrderQueue<Node> queue, Node node, long x, long y) {
+        long[] bounds = node.bounds;
+        for (int i = 0, offset = 0; i < node.size; i++, offset += 4) {
+            boolean matches = node.leaf
+                ? bounds[offset] <= x && x < bounds[offset + 2] && bounds[offset + 1] <= y && y < bounds[offset + 3]
+                : isOverlapped(bounds, offset, x, y, x, y);
+            if (matches) {
+                queue.offer(node, i, -node.maxZ[i]);
+            }
+        }
     }
 
-    private void search(Region region, RTree<String>.Node node, Consumer<String> widgetConsumer) {
+    private static void contains(
+        Node node,
+        long minX,
+        long minY,
+        long maxX,
+        long maxY,
+        Consumer<WidgetId> widgetConsumer
+    ) {
+        long[] bounds = node.bounds;
         if (node.leaf) {
-            for (RTree<String>.Node e : node.children) {
-                if (isContained(region, e.coords, e.dimensions)) {
-                    String widgetId = ((RTree<String>.Entry) e).entry;
-                    widgetConsumer.accept(widgetId);
+            for (int i = 0, offset = 0; i < node.size; i++, offset += 4) {
+                if (isContained(bounds, offset, minX, minY, maxX, maxY)) {
+                    widgetConsumer.accept(node.ids[i]);
                 }
             }
         } else {
-            float[] coords = new float[] { region.getX(), region.getY() };
-            float[] dimensions = new float[] { region.getWidth(), region.getHeight() };
-            for (RTree<String>.Node c : node.children) {
-                if (tree.isOverlap(coords, dimensions, c.coords, c.dimensions)) {
-                    search(region, c, widgetConsumer);
+            for (int i = 0, offset = 0; i < node.size; i++, offset += 4) {
+                if (isOverlapped(bounds, offset, minX, minY, maxX, maxY)) {
+                    contains(node.children[i], minX, minY, maxX, maxY, widgetConsumer);
                 }
             }
         }
     }
 
-    private boolean isContained(Region region, float[] coordinates, float[] dimensions) {
-        return Float.compare(region.getX(), coordinates[0]) <= 0
-            && Float.compare(region.getY(), coordinates[1]) <= 0
-            && Float.compare(region.getX() + region.getWidth(), coordinates[0] + dimensions[0]) >= 0
-            && Float.compare(region.getY() + region.getHeight(), coordinates[1] + dimensions[1]) >= 0;
+    private void insert(WidgetId id, long z, long minX, long minY, long maxX, long maxY) {
+        Node leaf = chooseLeaf(minX, minY, maxX, maxY);
+        leaf.addEntry(id, z, minX, minY, maxX, maxY);
+        leafById.put(id, leaf);
+        if (splitPolicy == SplitPolicy.R_STAR && !reinserting && leaf.size > maxEntries && leaf.parent != null) {
+            forcedReinsert(leaf);
+        } else {
+            adjustTree(leaf);
+        }
+    }
+
+    /**
+     * Removes the entries farthest from the center of the overflowed leaf and inserts them again (starting from the
+     * closest one). It allows entries to find better leaves instead of splitting the leaf.
+     */
+    private void forcedReinsert(Node leaf) {
+        long[] bounds = leaf.bounds;
+        int count = leaf.size;
+        long[] leafBounds = new long[4];
+        System.arraycopy(bounds, 0, leafBounds, 0, 4);
+        for (int i = 1; i < count; i++) {
+            RTreeAlgorithms.union(leafBounds, 0, bounds, i * 4);
+        }
+        // doubled coordinates of the center, as well as of the entries' centers below
+        double centerX = (double) leafBounds[0] + leafBounds[2];
+        double centerY = (double) leafBounds[1] + leafBounds[3];
+
+        int[] order = new int[count];
+        double[] distances = new double[count];
+        for (int i = 0, offset = 0; i < count; i++, offset += 4) {
+            double dx = (double) bounds[offset] + bounds[offset + 2] - centerX;
+            double dy = (double) bounds[offset + 1] + bounds[offset + 3] - centerY;
+            distances[i] = dx * dx + dy * dy;
+            order[i] = i;
+        }
+        sortByKeys(order, distances);
+
+        int reinsertCount = Math.max(1, (int) Math.round(maxEntries * REINSERT_FRACTION));
+        Node reinserted = new Node(true, reinsertCount - 1);
+        boolean[] removed = new boolean[count];
+        // the closest of the removed entries goes first
+        for (int i = count - reinsertCount; i < count; i++) {
+            reinserted.copyEntryFrom(leaf, order[i]);
+            removed[order[i]] = true;
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (!removed[i]) {
+                leaf.moveEntry(i, kept++);
+            }
+        }
+        leaf.truncate(kept);
+        refreshAncestors(leaf);
+
+        reinserting = true;
+        try {
+            long[] reinsertedBounds = reinserted.bounds;
+            for (int i = 0, offset = 0; i < reinserted.size; i++, offset += 4) {
+                insert(
+                    reinserted.ids[i],
+                    reinserted.minZ[i],
+                    reinsertedBounds[offset],
+                    reinsertedBounds[offset + 1],
+                    reinsertedBounds[offset + 2],
+                    reinsertedBounds[offset + 3]
+                );
+            }
+        } finally {
+            reinserting = false;
+        }
+    }
+
+    /**
+     * Sorts the order array by the given keys (insertion sort, it's used for node-sized arrays only).
+     */
+    private static void sortByKeys(int[] order, double[] keys) {
+        for (int i = 1; i < order.length; i++) {
+            int entry = order[i];
+            int position = i;
+            while (position > 0 && keys[order[position - 1]] > keys[entry]) {
+                order[position] = order[position - 1];
+                position--;
+            }
+            order[position] = entry;
+        }
+    }
+
+    private Node chooseLeaf(long minX, long minY, long maxX, long maxY) {
+        Node node = root;
+        while (!node.leaf) {
+            int best = RTreeAlgorithms.chooseSubtree(
+                splitPolicy,
+                node.bounds,
+                node.size,
+                node.children[0].leaf,
+                minX,
+                minY,
+                maxX,
+                maxY
+            );
+            node = node.children[best];
+        }
+        return node;
+    }
+
+    /**
+     * Propagates changes of the given node upwards: splits overflowed nodes and refreshes bounds (and Z-index ranges)
+     * of ancestors.
+     */
+    private void adjustTree(Node node) {
+        while (true) {
+            Node sibling = node.size > maxEntries ? splitNode(node) : null;
+            Node parent = node.parent;
+            if (parent == null) {
+                if (sibling != null) {
+                    Node newRoot = new Node(false, maxEntries);
+                    newRoot.addChild(node);
+                    newRoot.addChild(sibling);
+                    root = newRoot;
+                }
+                return;
+            }
+            boolean changed = parent.refreshChild(parent.indexOf(node));
+            if (sibling != null) {
+                parent.addChild(sibling);
+            } else if (!changed) {
+                return;
+            }
+            node = parent;
+        }
+    }
+
+    private void removeAt(Node leaf, int index) {
+        leafById.remove(leaf.ids[index]);
+        leaf.removeAt(index);
+        condenseTree(leaf);
+    }
+
+    /**
+     * Refreshes bounds and Z-index ranges of the node's ancestors until they are not changed.
+     */
+    private static void refreshAncestors(Node node) {
+        for (; node.parent != null; node = node.parent) {
+            if (!node.parent.refreshChild(node.parent.indexOf(node))) {
+                break;
+            }
+        }
+    }
+
+    private void condenseTree(Node leaf) {
+        List<Node> eliminated = new ArrayList<>();
+        Node node = leaf;
+        while (node.parent != null) {
+            Node parent = node.parent;
+            int index = parent.indexOf(node);
+            if (node.size < minEntries) {
+                parent.removeAt(index);
+                eliminated.add(node);
+            } else {
+                parent.refreshChild(index);
+            }
+            node = parent;
+        }
+        while (!root.leaf && root.size == 1) {
+            root = root.children[0];
+            root.parent = null;
+        }
+        if (!root.leaf && root.size == 0) {
+            root = new Node(true, maxEntries);
+        }
+        for (Node eliminatedNode : eliminated) {
+            reinsertEntries(eliminatedNode);
+        }
+    }
+
+    private void reinsertEntries(Node node) {
+        long[] bounds = node.bounds;
+        for (int i = 0, offset = 0; i < node.size; i++, offset += 4) {
+            if (node.leaf) {
+                insert(
+                    node.ids[i],
+                    node.minZ[i],
+                    bounds[offset],
+                    bounds[offset + 1],
+                    bounds[offset + 2],
+                    bounds[offset + 3]
+                );
+            } else {
+                reinsertEntries(node.children[i]);
+            }
+        }
+    }
+
+    /**
+     * Splits the overflowed node into two nodes. The given node keeps the first group of entries, the newly created
+     * node gets the second one.
+     *
+     * @return the newly created node
+     */
+    private Node splitNode(Node node) {
+        int count = node.size;
+        int[] groups = RTreeAlgorithms.split(splitPolicy, node.bounds, count, minEntries);
+
+        Node sibling = new Node(node.leaf, maxEntries);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (groups[i] == 2) {
+                if (sibling.leaf) {
+                    leafById.put(node.ids[i], sibling);
+                }
+                sibling.copyEntryFrom(node, i);
+            } else {
+                node.moveEntry(i, kept++);
+            }
+        }
+        node.truncate(kept);
+        return sibling;
+    }
+
+    private static boolean isOverlapped(long[] bounds, int offset, long minX, long minY, long maxX, long maxY) {
+        return bounds[offset] <= maxX
+            && bounds[offset + 1] <= maxY
+            && bounds[offset + 2] >= minX
+            && bounds[offset + 3] >= minY;
+    }
+
+    private static boolean isContained(long[] bounds, int offset, long minX, long minY, long maxX, long maxY) {
+        return isContained(bounds, offset, minX, minY, maxX, maxY, false);
+    }
+
+    /**
+     * Checks the containment of two rectangles.
+     *
+     * @param reversed if {@code false}, then checks that the rectangle at the given offset is contained by the given
+     *                 rectangle. Otherwise, checks that the rectangle at the given offset contains the given one
+     */
+    private static boolean isContained(
+        long[] bounds,
+        int offset,
+        long minX,
+        long minY,
+        long maxX,
+        long maxY,
+        boolean reversed
+    ) {
+        if (reversed) {
+            return bounds[offset] <= minX
+                && bounds[offset + 1] <= minY
+                && bounds[offset + 2] >= maxX
+                && bounds[offset + 3] >= maxY;
+        }
+        return minX <= bounds[offset]
+            && minY <= bounds[offset + 1]
+            && maxX >= bounds[offset + 2]
+            && maxY >= bounds[offset + 3];
+    }
+
+    private static long minX(Region region) {
+        return region.getX();
+    }
+
+    private static long minY(Region region) {
+        return region.getY();
+    }
+
+    private static long maxX(Region region) {
+        return (long) region.getX() + region.getWidth();
+    }
+
+    private static long maxY(Region region) {
+        return (long) region.getY() + region.getHeight();
+    }
+
+    /**
+     * A node of the R-tree. Bounds of the i-th entry are stored in {@code bounds[4 * i .. 4 * i + 3]}
+     * as {@code minX, minY, maxX, maxY}, the Z-index range of the i-th entry is stored in {@code minZ[i]} and
+     * {@code maxZ[i]} (for widgets, both values are equal to widget's Z-index). Leaves store widgets' IDs, other nodes
+     * store child nodes.
+     * <p>
+     * Every node has a room for one extra entry, so the overflowed node can be split after the insertion.
+     */
+    static final class Node {
+
+        final boolean leaf;
+        final long[] bounds;
+        final long[] minZ;
+        final long[] maxZ;
+        final Node[] children;
+        final WidgetId[] ids;
+
+        int size;
+
+        Node parent;
+
+        private Node(boolean leaf, int maxEntries) {
+            this.leaf = leaf;
+            this.bounds = new long[(maxEntries + 1) * 4];
+            this.minZ = new long[maxEntries + 1];
+            this.maxZ = new long[maxEntries + 1];
+            this.children = leaf ? null : new Node[maxEntries + 1];
+            this.ids = leaf ? new WidgetId[maxEntries + 1] : null;
+        }
+
+        private void addEntry(WidgetId id, long z, long minX, long minY, long maxX, long maxY) {
+            int offset = size * 4;
+            minZ[size] = z;
+            maxZ[size] = z;
+            bounds[offset] = minX;
+            bounds[offset + 1] = minY;
+            bounds[offset + 2] = maxX;
+            bounds[offset + 3] = maxY;
+            ids[size++] = id;
+        }
+
+        private void addChild(Node child) {
+            child.parent = this;
+            children[size] = child;
+            child.computeBounds(this, size);
+            size++;
+        }
+
+        private void setBounds(int index, long minX, long minY, long maxX, long maxY) {
+            int offset = index * 4;
+            bounds[offset] = minX;
+            bounds[offset + 1] = minY;
+            bounds[offset + 2] = maxX;
+            bounds[offset + 3] = maxY;
+        }
+
+        private int indexOf(WidgetId id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i].equals(id)) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Widget is not found in its leaf: id=" + id);
+        }
+
+        private int indexOf(Node child) {
+            for (int i = 0; i < size; i++) {
+                if (children[i] == child) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Node is not a child of its parent");
+        }
+
+        /**
+         * Recomputes bounds and the Z-index range of the child at the given index.
+         *
+         * @return {@code true} if bounds or the Z-index range have been changed
+         */
+        private boolean refreshChild(int index) {
+            int offset = index * 4;
+            long minX = bounds[offset];
+            long minY = bounds[offset + 1];
+            long maxX = bounds[offset + 2];
+            long maxY = bounds[offset + 3];
+            long childMinZ = minZ[index];
+            long childMaxZ = maxZ[index];
+            children[index].computeBounds(this, index);
+            return minX != bounds[offset]
+                || minY != bounds[offset + 1]
+                || maxX != bounds[offset + 2]
+                || maxY != bounds[offset + 3]
+                || childMinZ != minZ[index]
+                || childMaxZ != maxZ[index];
+        }
+
+        /**
+         * Computes the minimum bounding rectangle and the Z-index range of this node and writes them into the entry of
+         * the target node.
+         */
+        private void computeBounds(Node target, int targetIndex) {
+            long minX = Long.MAX_VALUE;
+            long minY = Long.MAX_VALUE;
+            long maxX = Long.MIN_VALUE;
+            long maxY = Long.MIN_VALUE;
+            long lowestZ = Long.MAX_VALUE;
+            long highestZ = Long.MIN_VALUE;
+            for (int i = 0, offset = 0; i < size; i++, offset += 4) {
+                minX = Math.min(minX, bounds[offset]);
+                minY = Math.min(minY, bounds[offset + 1]);
+                maxX = Math.max(maxX, bounds[offset + 2]);
+                maxY = Math.max(maxY, bounds[offset + 3]);
+                lowestZ = Math.min(lowestZ, minZ[i]);
+                highestZ = Math.max(highestZ, maxZ[i]);
+            }
+            int targetOffset = targetIndex * 4;
+            target.bounds[targetOffset] = minX;
+            target.bounds[targetOffset + 1] = minY;
+            target.bounds[targetOffset + 2] = maxX;
+            target.bounds[targetOffset + 3] = maxY;
+            target.minZ[targetIndex] = lowestZ;
+            target.maxZ[targetIndex] = highestZ;
+        }
+
+        /**
+         * Removes the entry at the given index. The last entry takes its place.
+         */
+        private void removeAt(int index) {
+            int last = size - 1;
+            moveEntry(last, index);
+            truncate(last);
+        }
+
+        private void moveEntry(int from, int to) {
+            if (from == to) {
+                return;
+            }
+            System.arraycopy(bounds, from * 4, bounds, to * 4, 4);
+            minZ[to] = minZ[from];
+            maxZ[to] = maxZ[from];
+            if (leaf) {
+                ids[to] = ids[from];
+            } else {
+                children[to] = children[from];
+            }
+        }
+
+        private void copyEntryFrom(Node source, int index) {
+            System.arraycopy(source.bounds, index * 4, bounds, size * 4, 4);
+            minZ[size] = source.minZ[index];
+            maxZ[size] = source.maxZ[index];
+            if (leaf) {
+                ids[size] = source.ids[index];
+            } else {
+                children[size] = source.children[index];
+                children[size].parent = this;
+            }
+            size++;
+        }
+
+        /**
+         * Shrinks this node to the given size and releases references to removed entries.
+         */
+        private void truncate(int newSize) {
+            for (int i = newSize; i < size; i++) {
+                if (leaf) {
+                    ids[i] = null;
+                } else {
+                    children[i] = null;
+                }
+            }
+            size = newSize;
+        }
     }
 }
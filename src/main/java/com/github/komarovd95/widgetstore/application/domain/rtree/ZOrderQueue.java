@@ -0,0 +1,98 @@
+package com.github.komarovd95.widgetstore.application.domain.rtree;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of node entries (a node and an index of the entry in it) ordered by the lowest Z-index of
+ * the entry's subtree. It's the queue of best-first searches of {@link WidgetRTree} and {@link PersistentWidgetRTree}.
+ * Entries are stored in parallel arrays to avoid per-entry allocations.
+ *
+ * @param <N> the type of nodes
+ */
+final class ZOrderQueue<N> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Object[] nodes = new Object[INITIAL_CAPACITY];
+    private int[] indices = new int[INITIAL_CAPACITY];
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[][] searches = new int[INITIAL_CAPACITY][];
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    N peekNode() {
+        return (N) nodes[0];
+    }
+
+    int peekIndex() {
+        return indices[0];
+    }
+
+    /**
+     * @return the indices of batch searches the head entry may match, or null for single searches
+     */
+    int[] peekSearches() {
+        return searches[0];
+    }
+
+    void offer(N node, int index, long key) {
+        offer(node, index, key, null);
+    }
+
+    void offer(N node, int index, long key, int[] entrySearches) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            indices = Arrays.copyOf(indices, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+            searches = Arrays.copyOf(searches, size * 2);
+        }
+        int position = size++;
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            set(position, nodes[parent], indices[parent], keys[parent], searches[parent]);
+            position = parent;
+        }
+        set(position, node, index, key, entrySearches);
+    }
+
+    void poll() {
+        int last = --size;
+        Object node = nodes[last];
+        int index = indices[last];
+        long key = keys[last];
+        int[] entrySearches = searches[last];
+        nodes[last] = null;
+        searches[last] = null;
+        if (last == 0) {
+            return;
+        }
+        int position = 0;
+        int half = last >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            if (child + 1 < last && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            set(position, nodes[child], indices[child], keys[child], searches[child]);
+            position = child;
+        }
+        set(position, node, index, key, entrySearches);
+    }
+
+    private void set(int position, Object node, int index, long key, int[] entrySearches) {
+        nodes[position] = node;
+        indices[position] = index;
+        keys[position] = key;
+        searches[position] = entrySearches;
+    }
+}
@@ -0,0 +1,691 @@
+package com.github.komarovd95.widgetstore.application.domain.zorder;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A sequence of values ordered by unique Z-indices that shifts contiguous runs of Z-indices in <i>O(log N)</i>.
+ * <p>
+ * The sequence is a treap with lazy tags. A shift of the contiguous run of Z-indices (the one that happens when a value
+ * is inserted at an occupied Z-index) is a single range update: the run is cut out of the tree by two splits, its root
+ * gets a pending "add 1 to Z-index and set the modification timestamp" tag, and the run is merged back. Tags are pushed
+ * down to children only by write operations that pass through the node. Read operations never modify the tree: they
+ * accumulate pending tags of ancestors on the way down, so they might be executed concurrently with each other.
+ * Read operations might be executed concurrently with a write operation as well (e.g. optimistic reads): they always
+ * terminate, but they might return inconsistent results or throw {@link ConcurrentModificationException}, so the caller
+ * MUST validate the result.
+ * <p>
+ * A shift doesn't change the relative order of values. So, besides a Z-index, every value has a stable
+ * <i>label</i>: a {@code long} that is ordered exactly as Z-indices and doesn't change on shifts. Labels allow other
+ * indexes (e.g. an R-tree) to keep values in the Z-index order without being updated on every shift. A new value takes
+ * a label between the labels of its neighbours. When there is no free label between them, a window of neighbours is
+ * relabeled evenly (order-maintenance labeling) and every relabeled value is reported to the listener.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <V> the type of values
+ */
+public final class ZOrderTreap<V> {
+
+    /**
+     * The distance between labels of a new value and its only neighbour (when the value is appended to either end of
+     * the sequence).
+     */
+    private static final long LABEL_GAP = 1L << 32;
+
+    private final ObjLongConsumer<V> relabelListener;
+
+    private Node<V> root;
+
+    /**
+     * The state of the xorshift generator of nodes' priorities. Priorities can't be derived from labels because labels
+     * might change.
+     */
+    private int seed = 0x9E3779B9;
+
+    /**
+     * Creates an empty sequence.
+     *
+     * @param relabelListener the listener of relabeled values (the value and its new label), not null
+     */
+    public ZOrderTreap(ObjLongConsumer<V> relabelListener) {
+        this.relabelListener = Objects.requireNonNull(relabelListener, "relabelListener");
+    }
+
+    /**
+     * @return the number of values in this sequence
+     */
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * @return the greatest Z-index of this sequence or {@link Optional#empty()} if this sequence is empty
+     */
+    public Optional<Integer> lastZ() {
+        if (root == null) {
+            return Optional.empty();
+        }
+        Node<V> node = root;
+        int pendingZ = 0;
+        int hops = hopsLimit();
+        while (node.right != null) {
+            checkHops(--hops);
+            pendingZ += node.pendingZ;
+            node = node.right;
+        }
+        return Optional.of(node.z + pendingZ);
+    }
+
+    /**
+     * Inserts a value at the given Z-index. If the Z-index is occupied, then the contiguous run of Z-indices starting
+     * from it is shifted upwards and values of the run get the given modification timestamp.
+     *
+     * @param value the value, not null
+     * @param z the Z-index of the value
+     * @param modifiedAt the modification timestamp of the value and of the shifted values, not null
+     * @return the label of the inserted value
+     */
+    public long insert(V value, int z, Instant modifiedAt) {
+        Objects.requireNonNull(value, "value");
+        Objects.requireNonNull(modifiedAt, "modifiedAt");
+        int position = countLess(z);
+        Node<V> occupant = position < size(root) ? nodeAt(position) : null;
+        if (occupant != null && occupant.z == z) {
+            shift(position, findRunEnd(position, z), modifiedAt);
+        }
+
+        long label = freeLabel(position);
+        if (label == Long.MAX_VALUE) {
+            relabel(position);
+            label = freeLabel(position);
+        }
+        Node<V> node = new Node<>(label, value, nextPriority(), z, modifiedAt);
+        Node<V>[] parts = splitByLabel(root, label);
+        root = merge(merge(parts[0], node), parts[1]);
+        return label;
+    }
+
+    /**
+     * Removes a value by the given label.
+     *
+     * @param label the label of the value
+     * @return {@code true} if the value has been removed or {@code false} if there is no value with the given label
+     */
+    public boolean remove(long label) {
+        int size = size(root);
+        root = remove(root, label);
+        return size(root) != size;
+    }
+
+    /**
+     * Sets the modification timestamp of a value.
+     *
+     * @param label the label of the value
+     * @param modifiedAt the new modification timestamp, not null
+     * @return {@code true} if the value has been updated or {@code false} if there is no value with the given label
+     */
+    public boolean touch(long label, Instant modifiedAt) {
+        Objects.requireNonNull(modifiedAt, "modifiedAt");
+        Node<V> node = root;
+        while (node != null) {
+            push(node);
+            if (label == node.label) {
+                node.modifiedAt = modifiedAt;
+                return true;
+            }
+            node = label < node.label ? node.left : node.right;
+        }
+        return false;
+    }
+
+    /**
+     * Returns an entry by the given label.
+     *
+     * @param label the label of the value
+     * @return the entry or null if there is no value with the given label
+     */
+    public Entry<V> get(long label) {
+        Node<V> node = root;
+        int pendingZ = 0;
+        Instant pendingModifiedAt = null;
+        int hops = hopsLimit();
+        while (node != null) {
+            checkHops(--hops);
+            if (label == node.label) {
+                return new Entry<>(
+                    node.label,
+                    node.value,
+                    node.z + pendingZ,
+                    pendingModifiedAt != null ? pendingModifiedAt : node.modifiedAt
+                );
+            }
+            pendingZ += node.pendingZ;
+            pendingModifiedAt = pendingModifiedAt != null ? pendingModifiedAt : node.pendingModifiedAt;
+            node = label < node.label ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a value has the given Z-index and modification timestamp. Unlike {@link #get(long)}, it doesn't
+     * allocate anything.
+     *
+     * @param label the label of the value
+     * @param z the expected Z-index
+     * @param modifiedAt the expected modification timestamp, not null
+     * @return {@code true} if there is a value with the given label, Z-index and modification timestamp
+     */
+    public boolean matches(long label, int z, Instant modifiedAt) {
+        Node<V> node = root;
+        int pendingZ = 0;
+        Instant pendingModifiedAt = null;
+        int hops = hopsLimit();
+        while (node != null) {
+            checkHops(--hops);
+            if (label == node.label) {
+                return node.z + pendingZ == z
+                    && modifiedAt.equals(pendingModifiedAt != null ? pendingModifiedAt : node.modifiedAt);
+            }
+            pendingZ += node.pendingZ;
+            pendingModifiedAt = pendingModifiedAt != null ? pendingModifiedAt : node.pendingModifiedAt;
+            node = label < node.label ? node.left : node.right;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the label of the first value whose Z-index is greater than the given one.
+     *
+     * @param zCursor the lower bound of Z-indices (exclusive). Might be null. If null, then the first value is used
+     * @return the label or {@link Long#MAX_VALUE} if there is no such value (it's never used as a label)
+     */
+    public long lowestLabelAfter(Integer zCursor) {
+        Node<V> node = root;
+        int pendingZ = 0;
+        long label = Long.MAX_VALUE;
+        int hops = hopsLimit();
+        while (node != null) {
+            checkHops(--hops);
+            if (zCursor == null || node.z + pendingZ > zCursor) {
+                label = node.label;
+                pendingZ += node.pendingZ;
+                node = node.left;
+            } else {
+                pendingZ += node.pendingZ;
+                node = node.right;
+            }
+        }
+        return label;
+    }
+
+    /**
+     * Provides entries to the consumer in the ascending order of Z-indices.
+     *
+     * @param zCursor the lower bound of Z-indices (exclusive). Might be null. If null, then entries are provided from
+     *                the first one
+     * @param limit the maximum number of entries to provide
+     * @param entryConsumer the consumer of entries, not null
+     */
+    public void forEachAfter(Integer zCursor, int limit, Consumer<Entry<V>> entryConsumer) {
+        Objects.requireNonNull(entryConsumer, "entryConsumer");
+        forEachAfter(zCursor, limit, (label, value, z, modifiedAt) ->
+            entryConsumer.accept(new Entry<>(label, value, z, modifiedAt))
+        );
+    }
+
+    /**
+     * Provides entries to the consumer in the ascending order of Z-indices without allocating an object per entry: the
+     * traversal keeps its path in arrays.
+     *
+     * @param zCursor the lower bound of Z-indices (exclusive). Might be null. If null, then entries are provided from
+     *                the first one
+     * @param limit the maximum number of entries to provide
+     * @param entryConsumer the consumer of entries' fields, not null
+     */
+    public void forEachAfter(Integer zCursor, int limit, EntryConsumer<? super V> entryConsumer) {
+        Objects.requireNonNull(entryConsumer, "entryConsumer");
+        Path<V> path = new Path<>();
+        Node<V> node = root;
+        int pendingZ = 0;
+        Instant pendingModifiedAt = null;
+        int hops = hopsLimit();
+        while (node != null) {
+            checkHops(--hops);
+            boolean after = zCursor == null || node.z + pendingZ > zCursor;
+            if (after) {
+                path.push(node, pendingZ, pendingModifiedAt);
+            }
+            pendingZ += node.pendingZ;
+            pendingModifiedAt = pendingModifiedAt != null ? pendingModifiedAt : node.pendingModifiedAt;
+            node = after ? node.left : node.right;
+        }
+        for (int found = 0; found < limit && path.size > 0; found++) {
+            int top = --path.size;
+            Node<V> parent = path.nodes[top];
+            pendingZ = path.pendingZ[top];
+            pendingModifiedAt = path.pendingModifiedAt[top];
+            entryConsumer.accept(
+                parent.label,
+                parent.value,
+                parent.z + pendingZ,
+                pendingModifiedAt != null ? pendingModifiedAt : parent.modifiedAt
+            );
+            pendingZ += parent.pendingZ;
+            pendingModifiedAt = pendingModifiedAt != null ? pendingModifiedAt : parent.pendingModifiedAt;
+            for (node = parent.right; node != null; node = node.left) {
+                checkHops(--hops);
+                path.push(node, pendingZ, pendingModifiedAt);
+                pendingZ += node.pendingZ;
+                pendingModifiedAt = pendingModifiedAt != null ? pendingModifiedAt : node.pendingModifiedAt;
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of nodes that a read operation might visit. Any read operation on a consistent tree
+     * visits every node at most twice, so exceeding this number means that the tree is modified concurrently (e.g. a
+     * cycle is observed in the middle of a rotation).
+     */
+    private int hopsLimit() {
+        return 2 * size(root) + 2;
+    }
+
+    private static void checkHops(int hops) {
+        if (hops < 0) {
+            throw new ConcurrentModificationException("Sequence has been modified concurrently");
+        }
+    }
+
+    /**
+     * @return the number of values with Z-index less than the given one
+     */
+    private int countLess(int z) {
+        int count = 0;
+        Node<V> node = root;
+        while (node != null) {
+            push(node);
+            if (node.z < z) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    private Node<V> nodeAt(int position) {
+        Node<V> node = root;
+        while (true) {
+            push(node);
+            int leftSize = size(node.left);
+            if (position < leftSize) {
+                node = node.left;
+            } else if (position == leftSize) {
+                return node;
+            } else {
+                position -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Finds the end of the contiguous run of Z-indices that starts at the given position. Z-indices are unique and
+     * sorted, so {@code z - position} never decreases and the run ends at the first position where it grows.
+     *
+     * @return the position right after the run
+     */
+    private int findRunEnd(int position, int z) {
+        long runKey = (long) z - position;
+        int end = size(root);
+        int offset = 0;
+        Node<V> node = root;
+        while (node != null) {
+            push(node);
+            int rank = offset + size(node.left);
+            if ((long) node.z - rank > runKey) {
+                end = rank;
+                node = node.left;
+            } else {
+                offset = rank + 1;
+                node = node.right;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Shifts Z-indices of values in the given range of positions upwards by one.
+     */
+    private void shift(int from, int to, Instant modifiedAt) {
+        Node<V>[] head = splitByPosition(root, from);
+        Node<V>[] run = splitByPosition(head[1], to - from);
+        run[0].apply(1, modifiedAt);
+        root = merge(head[0], merge(run[0], run[1]));
+    }
+
+    /**
+     * Chooses a label for a value inserted at the given position.
+     *
+     * @return the label or {@link Long#MAX_VALUE} if there is no free label between neighbours
+     */
+    private long freeLabel(int position) {
+        boolean hasLower = position > 0;
+        boolean hasUpper = position < size(root);
+        long lower = hasLower ? nodeAt(position - 1).label : Long.MIN_VALUE;
+        long upper = hasUpper ? nodeAt(position).label : Long.MAX_VALUE;
+        // the distance is unsigned: it exceeds Long.MAX_VALUE when labels have different signs
+        long distance = upper - lower;
+        if (Long.compareUnsigned(distance, 2) < 0) {
+            return Long.MAX_VALUE;
+        }
+        long halfDistance = distance >>> 1;
+        if (hasLower && hasUpper) {
+            return lower + halfDistance;
+        } else if (hasLower) {
+            return lower + Math.min(halfDistance, LABEL_GAP);
+        } else if (hasUpper) {
+            return upper - Math.min(halfDistance, LABEL_GAP);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Relabels evenly the smallest window of values around the given position that is sparse enough. A window is
+     * sparse enough when the spacing of its new labels is not less than its size, so the bigger windows are relabeled
+     * less often. The whole sequence is always sparse enough.
+     * <p>
+     * The new labels leave a double spacing before the given position for the value being inserted.
+     */
+    private void relabel(int position) {
+        int size = size(root);
+        for (int windowSize = 2; ; windowSize = (int) Math.min(2L * windowSize, size)) {
+            int to = Math.min(size, position + windowSize / 2);
+            int from = Math.max(0, to - windowSize);
+            to = Math.min(size, from + windowSize);
+            long lower = from > 0 ? nodeAt(from - 1).label : Long.MIN_VALUE;
+            long upper = to < size ? nodeAt(to).label : Long.MAX_VALUE;
+            int count = to - from;
+            long spacing = Long.divideUnsigned(upper - lower, count + 2L);
+            if (Long.compareUnsigned(spacing, Math.max(count, 1)) >= 0 || (from == 0 && to == size)) {
+                relabel(from, to, position, lower, spacing);
+                return;
+            }
+        }
+    }
+
+    private void relabel(int from, int to, int position, long lower, long spacing) {
+        Node<V>[] head = splitByPosition(root, from);
+        Node<V>[] window = splitByPosition(head[1], to - from);
+        Deque<Node<V>> path = new ArrayDeque<>();
+        int index = from;
+        Node<V> node = window[0];
+        while (node != null || !path.isEmpty()) {
+            while (node != null) {
+                path.push(node);
+                node = node.left;
+            }
+            node = path.pop();
+            long slot = index - from + (index < position ? 1 : 2);
+            node.label = lower + spacing * slot;
+            relabelListener.accept(node.value, node.label);
+            index++;
+            node = node.right;
+        }
+        root = merge(head[0], merge(window[0], window[1]));
+    }
+
+    private Node<V> remove(Node<V> node, long label) {
+        if (node == null) {
+            return null;
+        }
+        push(node);
+        if (label == node.label) {
+            return merge(node.left, node.right);
+        } else if (label < node.label) {
+            node.left = remove(node.left, label);
+        } else {
+            node.right = remove(node.right, label);
+        }
+        node.update();
+        return node;
+    }
+
+    /**
+     * Splits the tree into values with labels less than the given one and all other values.
+     */
+    private Node<V>[] splitByLabel(Node<V> node, long label) {
+        if (node == null) {
+            return pair(null, null);
+        }
+        push(node);
+        if (node.label < label) {
+            Node<V>[] parts = splitByLabel(node.right, label);
+            node.right = parts[0];
+            node.update();
+            return pair(node, parts[1]);
+        } else {
+            Node<V>[] parts = splitByLabel(node.left, label);
+            node.left = parts[1];
+            node.update();
+            return pair(parts[0], node);
+        }
+    }
+
+    /**
+     * Splits the tree into the first {@code count} values and all other values.
+     */
+    private Node<V>[] splitByPosition(Node<V> node, int count) {
+        if (node == null) {
+            return pair(null, null);
+        }
+        push(node);
+        int leftSize = size(node.left);
+        if (count <= leftSize) {
+            Node<V>[] parts = splitByPosition(node.left, count);
+            node.left = parts[1];
+            node.update();
+            return pair(parts[0], node);
+        } else {
+            Node<V>[] parts = splitByPosition(node.right, count - leftSize - 1);
+            node.right = parts[0];
+            node.update();
+            return pair(node, parts[1]);
+        }
+    }
+
+    /**
+     * Merges two trees where all values of the left one precede values of the right one.
+     */
+    private Node<V> merge(Node<V> left, Node<V> right) {
+        if (left == null) {
+            return right;
+        } else if (right == null) {
+            return left;
+        } else if (left.priority > right.priority) {
+            push(left);
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        } else {
+            push(right);
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+    }
+
+    /**
+     * Pushes pending tags of the node down to its children.
+     */
+    private static <V> void push(Node<V> node) {
+        if (node.pendingZ != 0 || node.pendingModifiedAt != null) {
+            if (node.left != null) {
+                node.left.apply(node.pendingZ, node.pendingModifiedAt);
+            }
+            if (node.right != null) {
+                node.right.apply(node.pendingZ, node.pendingModifiedAt);
+            }
+            node.pendingZ = 0;
+            node.pendingModifiedAt = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] pair(Node<V> left, Node<V> right) {
+        return new Node[] { left, right };
+    }
+
+    private static int size(Node<?> node) {
+        return node != null ? node.size : 0;
+    }
+
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    /**
+     * A node of the treap. Z-index and the modification timestamp of the node are exact once pending tags of all
+     * ancestors are applied. Pending tags of the node itself belong to its children.
+     */
+    private static final class Node<V> {
+
+        private final V value;
+        private final int priority;
+        private long label;
+        private int z;
+        private Instant modifiedAt;
+        private int pendingZ;
+        private Instant pendingModifiedAt;
+        private Node<V> left;
+        private Node<V> right;
+        private int size;
+
+        private Node(long label, V value, int priority, int z, Instant modifiedAt) {
+            this.label = label;
+            this.value = value;
+            this.priority = priority;
+            this.z = z;
+            this.modifiedAt = modifiedAt;
+            this.size = 1;
+        }
+
+        /**
+         * Applies a tag to the whole subtree of this node.
+         */
+        private void apply(int deltaZ, Instant newModifiedAt) {
+            z += deltaZ;
+            pendingZ += deltaZ;
+            if (newModifiedAt != null) {
+                modifiedAt = newModifiedAt;
+                pendingModifiedAt = newModifiedAt;
+            }
+        }
+
+        private void update() {
+            size = size(left) + size(right) + 1;
+        }
+    }
+
+    /**
+     * A consumer of fields of entries.
+     *
+     * @param <V> the type of values
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+
+        /**
+         * @param label the label of the value
+         * @param value the value, not null
+         * @param z the Z-index of the value
+         * @param modifiedAt the modification timestamp of the value, not null
+         */
+        void accept(long label, V value, int z, Instant modifiedAt);
+    }
+
+    /**
+     * The path of an in-order traversal: nodes along with pending tags of their ancestors.
+     */
+    private static final class Path<V> {
+
+        @SuppressWarnings("unchecked")
+        private Node<V>[] nodes = new Node[16];
+        private int[] pendingZ = new int[16];
+        private Instant[] pendingModifiedAt = new Instant[16];
+        private int size;
+
+        private void push(Node<V> node, int nodePendingZ, Instant nodePendingModifiedAt) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                pendingZ = Arrays.copyOf(pendingZ, size * 2);
+                pendingModifiedAt = Arrays.copyOf(pendingModifiedAt, size * 2);
+            }
+            nodes[size] = node;
+            pendingZ[size] = nodePendingZ;
+            pendingModifiedAt[size] = nodePendingModifiedAt;
+            size++;
+        }
+    }
+
+    /**
+     * A value of the sequence along with its Z-index and the modification timestamp.
+     *
+     * @param <V> the type of values
+     */
+    public static final class Entry<V> {
+
+        private final long label;
+        private final V value;
+        private final int z;
+        private final Instant modifiedAt;
+
+        private Entry(long label, V value, int z, Instant modifiedAt) {
+            this.label = label;
+            this.value = value;
+            this.z = z;
+            this.modifiedAt = modifiedAt;
+        }
+
+        /**
+         * @return the label of the value
+         */
+        public long getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the value, not null
+         */
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * @return the Z-index of the value
+         */
+        public int getZ() {
+            return z;
+        }
+
+        /**
+         * @return the modification timestamp of the value, not null
+         */
+        public Instant getModifiedAt() {
+            return modifiedAt;
+        }
+    }
+}
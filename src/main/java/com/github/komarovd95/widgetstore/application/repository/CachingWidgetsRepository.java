@@ -0,0 +1,388 @@
+package com.github.komarovd95.widgetstore.application.repository;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.Versioned;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree;
+import com.github.komarovd95.widgetstore.application.service.transaction.DatabaseTransactionsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A write-through near-cache in front of a durable repository (the H2 repository).
+ * <p>
+ * The cache is a full in-memory mirror of the durable repository ({@link InMemoryWidgetsRepository}: the map of
+ * widgets by IDs, the Z-order treap and the R-tree). Every modification is applied to the durable repository
+ * immediately, and to the mirror only after the write transaction has been committed (see
+ * {@link TransactionSynchronization#afterCommit()}), so modifications of rolled back transactions never reach the
+ * mirror. Modifications of committed transactions are applied in the order of commits. All reads are served by the
+ * mirror, except for versioned reads that need versions of the durable records (see
+ * {@link #getVersionedWidgetById(WidgetId)}), reads in read-only database transactions that need a snapshot of the
+ * durable records and reads of write transactions that have modified the durable repository: the mirror doesn't see
+ * their modifications yet.
+ * <p>
+ * The mirror is loaded from the durable repository on startup (see {@link #reload()}). If a modification fails to be
+ * applied to the mirror, then the mirror has diverged from the durable repository: it's invalidated, and all reads are
+ * served by the durable repository until the mirror is reloaded.
+ * <p>
+ * This class guards the mirror by its own read-write lock: readers never observe a half-applied modification. Since
+ * modifications are applied to the mirror after the commit, other readers MAY observe a modification slightly after
+ * it's committed. The committing thread returns only after its modifications have been applied, so it reads its own
+ * writes.
+ * <p>
+ * The durable repository stores timestamps with microsecond precision, so timestamps are rounded the same way before
+ * they are applied to the mirror. Otherwise, the mirror would change timestamps of widgets on every reload.
+ */
+public class CachingWidgetsRepository implements WidgetsRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingWidgetsRepository.class);
+
+    private static final Duration HALF_OF_MICROSECOND = Duration.ofNanos(500);
+
+    private final ReadWriteLock mirrorLock = new ReentrantReadWriteLock();
+
+    /**
+     * Sequence numbers of commits of write transactions, assigned before the commit while rows are still locked.
+     */
+    private final AtomicLong commitSequence = new AtomicLong();
+
+    /**
+     * A lock that guards {@link #appliedSequence} and {@link #committedChanges}.
+     */
+    private final Lock applyLock = new ReentrantLock();
+
+    private final Condition applied = applyLock.newCondition();
+
+    /**
+     * The sequence number of the last commit that has been applied to the mirror.
+     */
+    private long appliedSequence;
+
+    /**
+     * Modifications of completed transactions that wait for the preceding commits, by sequence numbers.
+     */
+    private final Map<Long, List<Consumer<InMemoryWidgetsRepository>>> committedChanges = new HashMap<>();
+
+    private final WidgetsRepository delegate;
+
+    private final Supplier<WidgetRTree> spatialIndexFactory;
+
+    /**
+     * The mirror of the durable repository. It's replaced only under the write lock.
+     */
+    private InMemoryWidgetsRepository mirror;
+
+    /**
+     * Whether a modification has failed to be applied to the mirror. It's modified only under the write lock.
+     */
+    private volatile boolean mirrorInvalid;
+
+    /**
+     * @param delegate the durable repository, not null
+     * @param spatialIndexFactory the factory of empty spatial indexes for the mirror, not null
+     */
+    public CachingWidgetsRepository(WidgetsRepository delegate, Supplier<WidgetRTree> spatialIndexFactory) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.spatialIndexFactory = Objects.requireNonNull(spatialIndexFactory, "spatialIndexFactory");
+        this.mirror = new InMemoryWidgetsRepository(spatialIndexFactory.get());
+    }
+
+    /**
+     * Rebuilds the mirror from scratch with all widgets of the durable repository. It's called on startup.
+     * <p>
+     * The caller MUST prevent concurrent modifications of the durable repository (e.g. hold the exclusive lock of
+     * write transactions).
+     */
+    @PostConstruct
+    public void reload() {
+        Lock writeLock = mirrorLock.writeLock();
+        writeLock.lock();
+        try {
+            List<Widget> widgets = delegate.getWidgets(null, RegionMatchMode.CONTAINS, null, Integer.MAX_VALUE);
+            mirror = new InMemoryWidgetsRepository(spatialIndexFactory.get(), widgets);
+            mirrorInvalid = false;
+            log.info("Near-cache has been loaded: size={}", widgets.size());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Optional<Integer> getCurrentForegroundZIndex() {
+        return readMirror(WidgetsRepository::getCurrentForegroundZIndex);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void insert(WidgetId id, Region boundaries, int zIndex, Instant modificationTimestamp) {
+        delegate.insert(id, boundaries, zIndex, modificationTimestamp);
+        writeMirror(mirror -> mirror.insert(id, boundaries, zIndex, toStoredTimestamp(modificationTimestamp)));
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void update(Widget widget, Region newBoundaries, int newZIndex, Instant modificationTimestamp) {
+        delegate.update(widget, newBoundaries, newZIndex, modificationTimestamp);
+        writeMirror(mirror -> mirror.getWidgetById(widget.getId()).ifPresent(current ->
+            mirror.update(current, newBoundaries, newZIndex, toStoredTimestamp(modificationTimestamp))
+        ));
+    }
+
+    /**
+     * Applies the update to the mirror only if the durable repository has accepted it. The update is applied to the
+     * current state of the widget in the mirror: the conditional update succeeds only if no other write transaction
+     * has modified the widget since it was read.
+     */
+    @Override
+    public boolean updateBoundaries(
+        WidgetId id,
+        long expectedVersion,
+        Region newBoundaries,
+        Instant modificationTimestamp
+    ) {
+        if (!delegate.updateBoundaries(id, expectedVersion, newBoundaries, modificationTimestamp)) {
+            return false;
+        }
+        writeMirror(mirror -> mirror.getWidgetById(id).ifPresent(widget ->
+            mirror.update(widget, newBoundaries, widget.getZ(), toStoredTimestamp(modificationTimestamp))
+        ));
+        return true;
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public boolean deleteById(WidgetId id) {
+        if (!delegate.deleteById(id)) {
+            return false;
+        }
+        writeMirror(mirror -> mirror.deleteById(id));
+        return true;
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void rebuildIndexes() {
+        delegate.rebuildIndexes();
+        writeMirror(InMemoryWidgetsRepository::rebuildIndexes);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void compact() {
+        delegate.compact();
+        writeMirror(InMemoryWidgetsRepository::compact);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Optional<Widget> getWidgetById(WidgetId id) {
+        return readMirror(mirror -> mirror.getWidgetById(id));
+    }
+
+    /**
+     * Reads the widget from the durable repository, since the mirror doesn't store versions of records.
+     */
+    @Override
+    public Optional<Versioned<Widget>> getVersionedWidgetById(WidgetId id) {
+        return delegate.getVersionedWidgetById(id);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgets(Region regionToSearch, RegionMatchMode matchMode, Integer zIndexCursor, int limit) {
+        return readMirror(mirror -> mirror.getWidgets(regionToSearch, matchMode, zIndexCursor, limit));
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Versioned<List<Widget>> getWidgets(WidgetsFilter filter) {
+        return readMirror(mirror -> mirror.getWidgets(filter));
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<List<Widget>> getWidgets(List<WidgetsFilter> filters) {
+        return readMirror(mirror -> mirror.getWidgets(filters));
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y, int limit) {
+        return readMirror(mirror -> mirror.getWidgetsAt(x, y, limit));
+    }
+
+    private static Instant toStoredTimestamp(Instant timestamp) {
+        return timestamp.plus(HALF_OF_MICROSECOND).truncatedTo(ChronoUnit.MICROS);
+    }
+
+    /**
+     * Reads the mirror, except for read-only database transactions and transactions with modifications that are not
+     * applied to the mirror yet: the former are snapshot reads (see
+     * {@link DatabaseTransactionsService#snapshotReadTransaction(Supplier)}) that the mirror can't serve, and the
+     * latter must see their own modifications, so both are served by the durable repository. The invalidated mirror
+     * is not read at all.
+     */
+    private <T> T readMirror(Function<WidgetsRepository, T> action) {
+        if (mirrorInvalid
+            || TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+            || TransactionSynchronizationManager.hasResource(this)) {
+            return action.apply(delegate);
+        }
+        Lock readLock = mirrorLock.readLock();
+        readLock.lock();
+        try {
+            return action.apply(mirror);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Defers the modification of the mirror until the current transaction is committed. Without a transaction the
+     * modification is applied immediately.
+     */
+    private void writeMirror(Consumer<InMemoryWidgetsRepository> action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            applyToMirror(List.of(action));
+            return;
+        }
+        MirrorChanges changes = (MirrorChanges) TransactionSynchronizationManager.getResource(this);
+        if (changes == null) {
+            changes = new MirrorChanges();
+            TransactionSynchronizationManager.bindResource(this, changes);
+            TransactionSynchronizationManager.registerSynchronization(changes);
+        }
+        changes.actions.add(action);
+    }
+
+    /**
+     * Applies modifications of the commit with the given sequence number after all preceding commits, and waits until
+     * they are applied. Rolled back commits have no modifications, but they still fill their places in the sequence.
+     * A commit takes its place even if its modifications fail to be applied, so the following commits never wait for
+     * it forever.
+     */
+    private void applyInCommitOrder(long sequence, List<Consumer<InMemoryWidgetsRepository>> actions) {
+        applyLock.lock();
+        try {
+            committedChanges.put(sequence, actions);
+            try {
+                List<Consumer<InMemoryWidgetsRepository>> next;
+                while ((next = committedChanges.remove(appliedSequence + 1)) != null) {
+                    try {
+                        applyToMirror(next);
+                    } finally {
+                        appliedSequence++;
+                    }
+                }
+            } finally {
+                applied.signalAll();
+            }
+            while (appliedSequence < sequence) {
+                applied.awaitUninterruptibly();
+            }
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    /**
+     * Applies modifications to the mirror. If they fail, then the mirror is invalidated, since the durable repository
+     * has already accepted them. Modifications of the invalidated mirror are skipped.
+     */
+    private void applyToMirror(List<Consumer<InMemoryWidgetsRepository>> actions) {
+        if (actions.isEmpty()) {
+            return;
+        }
+        Lock writeLock = mirrorLock.writeLock();
+        writeLock.lock();
+        try {
+            if (!mirrorInvalid) {
+                actions.forEach(action -> action.accept(mirror));
+            }
+        } catch (RuntimeException e) {
+            mirrorInvalid = true;
+            log.error("Near-cache has diverged from the database, reads are served by the database until reload", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Modifications of the mirror made by the current transaction. They are bound to the transaction as a resource.
+     * <p>
+     * The sequence number is assigned before the commit: writers of the same rows (and all locked writers) still hold
+     * their locks at that moment, so the conflicting modifications are applied in the order of commits.
+     */
+    private class MirrorChanges implements TransactionSynchronization {
+
+        private final List<Consumer<InMemoryWidgetsRepository>> actions = new ArrayList<>();
+
+        private long sequence;
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            sequence = commitSequence.incrementAndGet();
+        }
+
+        @Override
+        public void afterCommit() {
+            applyInCommitOrder(sequence, actions);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(CachingWidgetsRepository.this);
+            if (status != STATUS_COMMITTED && sequence != 0) {
+                applyInCommitOrder(sequence, List.of());
+            }
+        }
+    }
+}
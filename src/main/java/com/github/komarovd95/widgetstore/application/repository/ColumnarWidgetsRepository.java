@@ -0,0 +1,312 @@
+package com.github.komarovd95.widgetstore.application.repository;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.Versioned;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.domain.columnar.SpatialGrid;
+import com.github.komarovd95.widgetstore.application.domain.columnar.WidgetColumns;
+import com.github.komarovd95.widgetstore.application.domain.columnar.ZOrderSlots;
+import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.IntConsumer;
+
+/**
+ * The in-memory implementation of the {@link WidgetsRepository} that stores widgets in primitive columns.
+ * <p>
+ * This class is not thread-safe.
+ * <p>
+ * Widgets are stored as slots of {@link WidgetColumns} (a struct of arrays), and both indexes reference widgets by
+ * {@code int} slots: {@link ZOrderSlots} keeps slots sorted by Z-index, and {@link SpatialGrid} is used for spatial
+ * search. A stored widget costs several dozen bytes of primitive arrays and its ID, so millions of widgets fit into a
+ * moderate heap and the garbage collector has almost no object graph to trace. {@link Widget} objects are allocated
+ * only for the results of reads.
+ * <p>
+ * The trade-offs against {@link InMemoryWidgetsRepository}: a shift of overlying widgets rewrites Z-indices of the
+ * whole contiguous run (instead of a lazy range update), and a spatial search visits all matching widgets (instead of
+ * stopping as soon as the requested page is found). Only the requested page is kept while visiting: a bounded heap of
+ * the {@code limit} best widgets by Z-index, so a search costs {@code O(limit)} memory however many widgets match.
+ * <p>
+ * To achieve atomicity and thread-safety it's required to use in-memory "transactions" mechanism. Columns are
+ * reallocated when they grow, so reads MUST NOT be executed concurrently with writes (i.e. optimistic reads are not
+ * supported).
+ *
+ * @see TransactionsService
+ */
+public class ColumnarWidgetsRepository implements WidgetsRepository {
+
+    public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private final WidgetColumns columns;
+
+    private final ZOrderSlots widgetsByZIndex;
+
+    private final SpatialGrid spatialIndex;
+
+    /**
+     * Creates an empty repository with the default initial capacity.
+     */
+    public ColumnarWidgetsRepository() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an empty repository.
+     *
+     * @param initialCapacity the number of widgets that can be stored without reallocation of the columns, positive
+     */
+    public ColumnarWidgetsRepository(int initialCapacity) {
+        this.columns = new WidgetColumns(initialCapacity);
+        this.widgetsByZIndex = new ZOrderSlots(columns);
+        this.spatialIndex = new SpatialGrid(columns);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Optional<Integer> getCurrentForegroundZIndex() {
+        return widgetsByZIndex.lastZ();
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void insert(WidgetId id, Region boundaries, int zIndex, Instant modificationTimestamp) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(boundaries, "boundaries");
+        Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
+
+        widgetsByZIndex.shift(zIndex, modificationTimestamp);
+        int slot = columns.add(id, boundaries, zIndex, modificationTimestamp);
+        widgetsByZIndex.insert(slot);
+        spatialIndex.add(slot);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void update(Widget widget, Region newBoundaries, int newZIndex, Instant modificationTimestamp) {
+        Objects.requireNonNull(widget, "widget");
+        Objects.requireNonNull(newBoundaries, "newBoundaries");
+        Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
+
+        int slot = columns.slotOf(widget.getId());
+        if (columns.z(slot) != newZIndex) {
+            widgetsByZIndex.remove(slot);
+            widgetsByZIndex.shift(newZIndex, modificationTimestamp);
+            columns.setZ(slot, newZIndex);
+            columns.setModifiedAt(slot, modificationTimestamp);
+            widgetsByZIndex.insert(slot);
+        }
+        if (!columns.hasBoundaries(slot, newBoundaries)) {
+            spatialIndex.remove(slot);
+            columns.setBoundaries(slot, newBoundaries);
+            columns.setModifiedAt(slot, modificationTimestamp);
+            spatialIndex.add(slot);
+        }
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public boolean deleteById(WidgetId id) {
+        Objects.requireNonNull(id, "id");
+        int slot = columns.slotOf(id);
+        if (slot < 0) {
+            return false;
+        }
+        widgetsByZIndex.remove(slot);
+        spatialIndex.remove(slot);
+        columns.remove(slot);
+        return true;
+    }
+
+    /**
+     * Rebuilds the spatial index from scratch, so arrays of its cells are trimmed.
+     */
+    @Override
+    public void rebuildIndexes() {
+        spatialIndex.clear();
+        widgetsByZIndex.forEachAfter(null, Integer.MAX_VALUE, spatialIndex::add);
+    }
+
+    /**
+     * Does nothing: modification timestamps of shifted widgets are written eagerly.
+     */
+    @Override
+    public void compact() {
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Optional<Widget> getWidgetById(WidgetId id) {
+        Objects.requireNonNull(id, "id");
+        int slot = columns.slotOf(id);
+        return slot >= 0 ? Optional.of(columns.toWidget(slot)) : Optional.empty();
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgets(
+        Region regionToSearch,
+        RegionMatchMode matchMode,
+        Integer zIndexCursor,
+        int limit
+    ) {
+        Objects.requireNonNull(matchMode, "matchMode");
+        if (regionToSearch == null) {
+            List<Widget> widgets = new ArrayList<>(Math.min(limit, widgetsByZIndex.size()));
+            widgetsByZIndex.forEachAfter(zIndexCursor, limit, slot -> widgets.add(columns.toWidget(slot)));
+            return widgets;
+        }
+
+        long lowestZ = zIndexCursor != null ? zIndexCursor + 1L : Long.MIN_VALUE;
+        TopSlotsByZIndex found = new TopSlotsByZIndex(limit, false);
+        IntConsumer slotConsumer = slot -> {
+            if (columns.z(slot) >= lowestZ) {
+                found.add(slot);
+            }
+        };
+        long minX = regionToSearch.getX();
+        long minY = regionToSearch.getY();
+        long maxX = minX + regionToSearch.getWidth();
+        long maxY = minY + regionToSearch.getHeight();
+        if (matchMode == RegionMatchMode.INTERSECTS) {
+            spatialIndex.intersecting(minX, minY, maxX, maxY, slotConsumer);
+        } else {
+            spatialIndex.contained(minX, minY, maxX, maxY, slotConsumer);
+        }
+        return found.toWidgets();
+    }
+
+    /**
+     * Doesn't support snapshots: the list is read from the current state.
+     */
+    @Override
+    public Versioned<List<Widget>> getWidgets(WidgetsFilter filter) {
+        Objects.requireNonNull(filter, "filter");
+        return Versioned.unversioned(
+            getWidgets(
+                filter.getRegion().orElse(null),
+                filter.getMatchMode(),
+                filter.getCursor().orElse(null),
+                filter.getLimit()
+            )
+        );
+    }
+
+    /**
+     * Executes a search per filter.
+     */
+    @Override
+    public List<List<Widget>> getWidgets(List<WidgetsFilter> filters) {
+        Objects.requireNonNull(filters, "filters");
+        List<List<Widget>> widgets = new ArrayList<>(filters.size());
+        for (WidgetsFilter filter : filters) {
+            Region region = filter.getRegion()
+                .orElseThrow(() -> new IllegalArgumentException("Region is required: filter=" + filter));
+            widgets.add(getWidgets(region, filter.getMatchMode(), filter.getCursor().orElse(null), filter.getLimit()));
+        }
+        return widgets;
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y, int limit) {
+        TopSlotsByZIndex found = new TopSlotsByZIndex(limit, true);
+        spatialIndex.covering(x, y, found::add);
+        return found.toWidgets();
+    }
+
+    /**
+     * The {@code limit} lowest (or highest, if descending) found slots by Z-index. Slots are packed with their Z-indices
+     * into {@code long} keys, so comparing keys compares the slots by Z-index. A descending search stores inverted
+     * keys, so in both cases the lowest keys are kept: in a binary max-heap whose root is evicted by a lower key.
+     */
+    private final class TopSlotsByZIndex {
+
+        private final int limit;
+        private final boolean descending;
+        private long[] heap;
+        private int size;
+
+        private TopSlotsByZIndex(int limit, boolean descending) {
+            this.limit = limit;
+            this.descending = descending;
+            this.heap = new long[Math.max(1, Math.min(limit, 16))];
+        }
+
+        private void add(int slot) {
+            if (limit <= 0) {
+                return;
+            }
+            long key = ((long) columns.z(slot) << Integer.SIZE) | slot;
+            if (descending) {
+                key = ~key;
+            }
+            if (size < limit) {
+                if (size == heap.length) {
+                    heap = Arrays.copyOf(heap, Math.min(limit, size * 2));
+                }
+                int i = size++;
+                while (i > 0 && heap[(i - 1) >> 1] < key) {
+                    heap[i] = heap[(i - 1) >> 1];
+                    i = (i - 1) >> 1;
+                }
+                heap[i] = key;
+            } else if (key < heap[0]) {
+                siftDown(key);
+            }
+        }
+
+        /**
+         * Replaces the root (the highest key) with the given key.
+         */
+        private void siftDown(long key) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] > heap[child]) {
+                    child++;
+                }
+                if (heap[child] <= key) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = key;
+        }
+
+        private List<Widget> toWidgets() {
+            Arrays.sort(heap, 0, size);
+            List<Widget> widgets = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                long key = descending ? ~heap[i] : heap[i];
+                widgets.add(columns.toWidget((int) key));
+            }
+            return widgets;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.github.komarovd95.widgetstore.application.repository;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.SnapshotExpiredException;
+import com.github.komarovd95.widgetstore.application.domain.Versioned;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.domain.persistent.PersistentTreapMap;
+import com.github.komarovd95.widgetstore.application.domain.rtree.PersistentWidgetRTree;
+import com.github.komarovd95.widgetstore.application.service.transaction.CopyOnWriteTransactionsService;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * The in-memory implementation of the {@link WidgetsRepository} based on immutable snapshots.
+ * <p>
+ * All data of the repository (widgets by Z-index, widgets by ID and the spatial index) is stored in persistent
+ * (path-copying) structures. Every write operation builds a new snapshot that shares all untouched nodes with the
+ * previous one and publishes it with a single volatile write. Read operations take the current snapshot once and
+ * don't need any locks: a published snapshot is never modified.
+ * <p>
+ * Every published snapshot has a version: the number of committed write operations. The persistent structures are
+ * versioned records of widgets, so a snapshot of any version can be read as long as it's referenced. A page of widgets
+ * that might have the next page retains its snapshot for {@code snapshotRetention} (the retention is renewed by every
+ * page read from it), so all pages of a paginated listing might be read from the same snapshot without holding any
+ * lock between pages (see {@link #getWidgets(WidgetsFilter)}). Expired snapshots are released on the next retention
+ * and then garbage-collected as soon as no reader references them.
+ * <p>
+ * Write operations are not thread-safe, they must be serialized by the caller. Read operations are thread-safe and
+ * might be executed concurrently with write operations.
+ *
+ * @see CopyOnWriteTransactionsService
+ */
+public class CopyOnWriteWidgetsRepository implements WidgetsRepository {
+
+    /**
+     * The default retention of snapshots referenced by pages.
+     */
+    public static final Duration DEFAULT_SNAPSHOT_RETENTION = Duration.ofMinutes(1);
+
+    /**
+     * The current snapshot.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Snapshots referenced by pages, by versions.
+     */
+    private final Map<Long, RetainedSnapshot> retainedSnapshots = new ConcurrentHashMap<>();
+
+    private final Clock clock;
+
+    private final Duration snapshotRetention;
+
+    /**
+     * Creates an empty repository with the default retention of snapshots.
+     *
+     * @param spatialIndex the empty spatial index, not null
+     */
+    public CopyOnWriteWidgetsRepository(PersistentWidgetRTree spatialIndex) {
+        this(spatialIndex, Clock.systemUTC(), DEFAULT_SNAPSHOT_RETENTION);
+    }
+
+    /**
+     * Creates an empty repository.
+     *
+     * @param spatialIndex the empty spatial index, not null
+     * @param clock the clock for retention of snapshots, not null
+     * @param snapshotRetention the retention of snapshots referenced by pages, not null
+     */
+    public CopyOnWriteWidgetsRepository(PersistentWidgetRTree spatialIndex, Clock clock, Duration snapshotRetention) {
+        Objects.requireNonNull(spatialIndex, "spatialIndex");
+        if (spatialIndex.size() != 0) {
+            throw new IllegalArgumentException("Spatial index is not empty: size=" + spatialIndex.size());
+        }
+        this.clock = Objects.requireNonNull(clock, "clock");
+        this.snapshotRetention = Objects.requireNonNull(snapshotRetention, "snapshotRetention");
+        this.snapshot = new Snapshot(0L, PersistentTreapMap.empty(), PersistentTreapMap.empty(), spatialIndex);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Optional<Integer> getCurrentForegroundZIndex() {
+        return snapshot.widgetsByZIndex.lastKey();
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void insert(WidgetId id, Region boundaries, int zIndex, Instant modificationTimestamp) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(boundaries, "boundaries");
+        Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
+
+        Widget widget = Widget.builder()
+            .setId(id)
+            .setBoundaries(boundaries)
+            .setZ(zIndex)
+            .setModifiedAt(modificationTimestamp)
+            .build();
+        Snapshot shifted = shiftOverlyingWidgets(snapshot, zIndex, modificationTimestamp);
+        publish(
+            shifted.widgetsByZIndex.put(zIndex, widget),
+            shifted.widgetsByIds.put(id, widget),
+            shifted.spatialIndex.add(id, boundaries, zIndex)
+        );
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void update(Widget widget, Region newBoundaries, int newZIndex, Instant modificationTimestamp) {
+        Objects.requireNonNull(widget, "widget");
+        Objects.requireNonNull(newBoundaries, "newBoundaries");
+        Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
+
+        Snapshot current = snapshot;
+        Widget existingWidget = current.widgetsByIds.get(widget.getId());
+        Widget updatedWidget = Widget.builder(existingWidget)
+            .setBoundaries(newBoundaries)
+            .setZ(newZIndex)
+            .setModifiedAt(modificationTimestamp)
+            .build();
+        Snapshot shifted = current;
+        if (existingWidget.getZ() != newZIndex) {
+            Snapshot removed = new Snapshot(
+                current.version,
+                current.widgetsByZIndex.remove(existingWidget.getZ()),
+                current.widgetsByIds,
+                current.spatialIndex
+            );
+            shifted = shiftOverlyingWidgets(removed, newZIndex, modificationTimestamp);
+        }
+        PersistentWidgetRTree spatialIndex = Objects.equals(existingWidget.getBoundaries(), newBoundaries)
+            ? shifted.spatialIndex.updateZ(widget.getId(), newBoundaries, newZIndex)
+            : shifted.spatialIndex.move(widget.getId(), existingWidget.getBoundaries(), newBoundaries, newZIndex);
+        publish(
+            shifted.widgetsByZIndex.put(newZIndex, updatedWidget),
+            shifted.widgetsByIds.put(widget.getId(), updatedWidget),
+            spatialIndex
+        );
+    }
+
+    /**
+     * Shifts the contiguous run of widgets starting from the given Z-index upwards.
+     *
+     * @return the snapshot with shifted widgets (the given Z-index is free in this snapshot)
+     */
+    private static Snapshot shiftOverlyingWidgets(Snapshot snapshot, int zIndex, Instant modificationTimestamp) {
+        Widget underlyingWidget = snapshot.widgetsByZIndex.get(zIndex);
+        if (underlyingWidget == null) {
+            return snapshot;
+        }
+        List<Widget> overlyingWidgets = new ArrayList<>();
+        overlyingWidgets.add(underlyingWidget);
+        Iterator<Widget> iterator = snapshot.widgetsByZIndex.valuesAfter(zIndex);
+        while (iterator.hasNext()) {
+            Widget widget = iterator.next();
+            if (widget.getZ() != zIndex + overlyingWidgets.size()) {
+                break;
+            }
+            overlyingWidgets.add(widget);
+        }
+
+        PersistentTreapMap<Integer, Widget> widgetsByZIndex = snapshot.widgetsByZIndex.remove(zIndex);
+        PersistentTreapMap<WidgetId, Widget> widgetsByIds = snapshot.widgetsByIds;
+        PersistentWidgetRTree spatialIndex = snapshot.spatialIndex;
+        for (Widget widget : overlyingWidgets) {
+            Widget shiftedWidget = Widget.builder(widget)
+                .setZ(widget.getZ() + 1)
+                .setModifiedAt(modificationTimestamp)
+                .build();
+            widgetsByZIndex = widgetsByZIndex.put(shiftedWidget.getZ(), shiftedWidget);
+            widgetsByIds = widgetsByIds.put(shiftedWidget.getId(), shiftedWidget);
+            spatialIndex = spatialIndex.updateZ(
+                shiftedWidget.getId(),
+                shiftedWidget.getBoundaries(),
+                shiftedWidget.getZ()
+            );
+        }
+        return new Snapshot(snapshot.version, widgetsByZIndex, widgetsByIds, spatialIndex);
+    }
+
+    /**
+     * Publishes a new snapshot with the next version.
+     */
+    private void publish(
+        PersistentTreapMap<Integer, Widget> widgetsByZIndex,
+        PersistentTreapMap<WidgetId, Widget> widgetsByIds,
+        PersistentWidgetRTree spatialIndex
+    ) {
+        snapshot = new Snapshot(snapshot.version + 1, widgetsByZIndex, widgetsByIds, spatialIndex);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public boolean deleteById(WidgetId id) {
+        Objects.requireNonNull(id, "id");
+        Snapshot current = snapshot;
+        Widget removedWidget = current.widgetsByIds.get(id);
+        if (removedWidget == null) {
+            return false;
+        }
+        publish(
+            current.widgetsByZIndex.remove(removedWidget.getZ()),
+            current.widgetsByIds.remove(id),
+            current.spatialIndex.remove(id, removedWidget.getBoundaries())
+        );
+        return true;
+    }
+
+    /**
+     * Rebuilds the spatial index via bulk-loading. The rebuilt index is fully packed.
+     */
+    @Override
+    public void rebuildIndexes() {
+        Snapshot current = snapshot;
+        List<Widget> widgets = new ArrayList<>(current.widgetsByIds.size());
+        current.widgetsByZIndex.valuesAfter(null).forEachRemaining(widgets::add);
+        publish(current.widgetsByZIndex, current.widgetsByIds, current.spatialIndex.load(widgets));
+    }
+
+    /**
+     * Releases expired snapshots. Shifted widgets are copied with their new modification timestamps, so there is
+     * nothing else to compact.
+     */
+    @Override
+    public void compact() {
+        releaseExpiredSnapshots(clock.instant());
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Optional<Widget> getWidgetById(WidgetId id) {
+        Objects.requireNonNull(id, "id");
+        return Optional.ofNullable(snapshot.widgetsByIds.get(id));
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgets(
+        Region regionToSearch,
+        RegionMatchMode matchMode,
+        Integer zIndexCursor,
+        int limit
+    ) {
+        Objects.requireNonNull(matchMode, "matchMode");
+        return getWidgets(snapshot, regionToSearch, matchMode, zIndexCursor, limit);
+    }
+
+    /**
+     * Reads the list from the snapshot of the requested version (the current one or a retained one) or from the
+     * current snapshot if no version is requested. If the list is full (i.e. the next page might exist), then its
+     * snapshot is retained.
+     *
+     * @throws SnapshotExpiredException if the requested snapshot is not retained anymore (e.g. its retention has
+     *                                  expired)
+     */
+    @Override
+    public Versioned<List<Widget>> getWidgets(WidgetsFilter filter) {
+        Objects.requireNonNull(filter, "filter");
+        Instant now = clock.instant();
+        Snapshot current = snapshot;
+        Snapshot source = filter.getSnapshotVersion()
+            .map(version -> version == current.version ? current : getRetainedSnapshot(version, now))
+            .orElse(current);
+        List<Widget> widgets = getWidgets(
+            source,
+            filter.getRegion().orElse(null),
+            filter.getMatchMode(),
+            filter.getCursor().orElse(null),
+            filter.getLimit()
+        );
+        if (widgets.size() == filter.getLimit()) {
+            retain(source, now);
+        }
+        return Versioned.of(widgets, source.version);
+    }
+
+    private static List<Widget> getWidgets(
+        Snapshot current,
+        Region regionToSearch,
+        RegionMatchMode matchMode,
+        Integer zIndexCursor,
+        int limit
+    ) {
+        List<Widget> widgets = new ArrayList<>(Math.min(limit, current.widgetsByIds.size()));
+        if (regionToSearch != null) {
+            Consumer<WidgetId> widgetConsumer = widgetId -> widgets.add(current.widgetsByIds.get(widgetId));
+            if (matchMode == RegionMatchMode.INTERSECTS) {
+                current.spatialIndex.intersectsInZOrder(regionToSearch, zIndexCursor, limit, widgetConsumer);
+            } else {
+                current.spatialIndex.containsInZOrder(regionToSearch, zIndexCursor, limit, widgetConsumer);
+            }
+        } else {
+            Iterator<Widget> iterator = current.widgetsByZIndex.valuesAfter(zIndexCursor);
+            while (widgets.size() < limit && iterator.hasNext()) {
+                widgets.add(iterator.next());
+            }
+        }
+        return widgets;
+    }
+
+    private Snapshot getRetainedSnapshot(long version, Instant now) {
+        RetainedSnapshot retainedSnapshot = retainedSnapshots.get(version);
+        if (retainedSnapshot == null || retainedSnapshot.isExpired(now)) {
+            throw new SnapshotExpiredException(version);
+        }
+        return retainedSnapshot.snapshot;
+    }
+
+    /**
+     * Retains the snapshot (or renews its retention) and releases expired snapshots.
+     */
+    private void retain(Snapshot retainedSnapshot, Instant now) {
+        Instant expiresAt = now.plus(snapshotRetention);
+        retainedSnapshots.compute(retainedSnapshot.version, (version, existing) ->
+            existing != null && existing.expiresAt.isAfter(expiresAt)
+                ? existing
+                : new RetainedSnapshot(retainedSnapshot, expiresAt)
+        );
+        releaseExpiredSnapshots(now);
+    }
+
+    private void releaseExpiredSnapshots(Instant now) {
+        retainedSnapshots.values().removeIf(retainedSnapshot -> retainedSnapshot.isExpired(now));
+    }
+
+    /**
+     * Executes all searches by a single traversal of the spatial index of the current snapshot.
+     */
+    @Override
+    public List<List<Widget>> getWidgets(List<WidgetsFilter> filters) {
+        Objects.requireNonNull(filters, "filters");
+        Snapshot current = snapshot;
+        List<List<Widget>> widgets = new ArrayList<>(filters.size());
+        for (WidgetsFilter filter : filters) {
+            widgets.add(new ArrayList<>(Math.min(filter.getLimit(), current.widgetsByIds.size())));
+        }
+        current.spatialIndex.searchInZOrder(filters, (widgetId, filterIndex) ->
+            widgets.get(filterIndex).add(current.widgetsByIds.get(widgetId))
+        );
+        return widgets;
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y, int limit) {
+        Snapshot current = snapshot;
+        List<Widget> widgets = new ArrayList<>(Math.min(limit, current.widgetsByIds.size()));
+        current.spatialIndex.coveringInReverseZOrder(x, y, limit, widgetId ->
+            widgets.add(current.widgetsByIds.get(widgetId))
+        );
+        return widgets;
+    }
+
+    /**
+     * An immutable snapshot of the repository.
+     */
+    private static final class Snapshot {
+
+        private final long version;
+        private final PersistentTreapMap<Integer, Widget> widgetsByZIndex;
+        private final PersistentTreapMap<WidgetId, Widget> widgetsByIds;
+        private final PersistentWidgetRTree spatialIndex;
+
+        private Snapshot(
+            long version,
+            PersistentTreapMap<Integer, Widget> widgetsByZIndex,
+            PersistentTreapMap<WidgetId, Widget> widgetsByIds,
+            PersistentWidgetRTree spatialIndex
+        ) {
+            this.version = version;
+            this.widgetsByZIndex = widgetsByZIndex;
+            this.widgetsByIds = widgetsByIds;
+            this.spatialIndex = spatialIndex;
+        }
+    }
+
+    /**
+     * A snapshot referenced by pages.
+     */
+    private static final class RetainedSnapshot {
+
+        private final Snapshot snapshot;
+        private final Instant expiresAt;
+
+        private RetainedSnapshot(Snapshot snapshot, Instant expiresAt) {
+            this.snapshot = snapshot;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(Instant now) {
+            return !now.isBefore(expiresAt);
+        }
+    }
+}
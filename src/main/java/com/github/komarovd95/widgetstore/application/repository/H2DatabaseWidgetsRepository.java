@@ -1,7 +1,11 @@
 package com.github.komarovd95.widgetstore.application.repository;
 
 import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.Versioned;
 import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
 import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.jdbc.core.RowMapper;
@@ -10,11 +14,13 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import javax.annotation.PostConstruct;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.StringJoiner;
+import java.util.UUID;
 
 /**
  * The implementation of the {@link WidgetsRepository} backed by H2 Database.
@@ -26,7 +32,22 @@ import java.util.StringJoiner;
  * <p>
  * It uses SQL standard statements like {@code MERGE INTO} for updates.
  * <p>
- * For spatial search, the implementation uses H2's {@code GEOMETRY} type and built-in spatial index.
+ * For spatial search, the implementation uses H2's {@code GEOMETRY} type and built-in spatial index. Geometries are
+ * bound as WKB (see {@link WkbEncoder}).
+ * <p>
+ * Shifting of overlying widgets doesn't rewrite the modification timestamps of the shifted widgets. Instead, every
+ * shift is recorded as a single row of the {@code widget_shift} table ("widgets at Z-indices {@code [z_from, z_to]}
+ * have been shifted at {@code shifted_at}"), and the effective modification timestamp of a widget is resolved at
+ * read time as the latest of its own timestamp and timestamps of the shifts that cover its current Z-index. This is
+ * correct because any widget that takes a Z-index covered by a shift record later is written with a newer timestamp.
+ * The records are folded into the widgets by {@link #compact()}. Until then, they are looked up via the covering index
+ * {@code (z_from, z_to, shifted_at)} for every returned widget.
+ * <p>
+ * Every row has a {@code version} that is incremented by every modification of the row (including shifts). It allows
+ * to update boundaries of a widget via a conditional {@code UPDATE ... WHERE version = ?} without the table lock (see
+ * {@link #updateBoundaries(WidgetId, long, Region, Instant)}). When a widget changes its Z-index, its row is deleted and
+ * inserted again; the version is read under the row lock and carried over, so a concurrent conditional update never
+ * matches the new row.
  * <p>
  * Insert and update methods execute several SQL DML statements, therefore, these methods MUST be called in database
  * transaction.
@@ -36,7 +57,7 @@ import java.util.StringJoiner;
 public class H2DatabaseWidgetsRepository implements WidgetsRepository {
 
     private static final RowMapper<Widget> ROW_MAPPER = (resultSet, i) -> Widget.builder()
-        .setId(resultSet.getString("widget_id"))
+        .setId(WidgetId.of(resultSet.getObject("widget_id", UUID.class)))
         .setBoundaries(
             Region.builder()
                 .setX(resultSet.getInt("x"))
@@ -49,6 +70,22 @@ public class H2DatabaseWidgetsRepository implements WidgetsRepository {
         .setModifiedAt(resultSet.getTimestamp("modified_at").toInstant())
         .build();
 
+    /**
+     * The effective modification timestamp of a widget, see the class description. The subquery is a range scan of
+     * the covering index of {@code widget_shift} by {@code z_from}, so it MUST be evaluated only for the rows that are
+     * returned (see {@link #pageOf(String)}).
+     */
+    private static final String MODIFIED_AT_COLUMN = "GREATEST(" +
+            "widget.modified_at, " +
+            "COALESCE(" +
+                "(SELECT max(s.shifted_at) FROM widget_shift s WHERE widget.z_index BETWEEN s.z_from AND s.z_to), " +
+                "widget.modified_at" +
+            ")" +
+        ") AS modified_at";
+
+    private static final RowMapper<Versioned<Widget>> VERSIONED_ROW_MAPPER = (resultSet, i) ->
+        Versioned.of(ROW_MAPPER.mapRow(resultSet, i), resultSet.getLong("version"));
+
     private final NamedParameterJdbcTemplate jdbcTemplate;
 
     public H2DatabaseWidgetsRepository(NamedParameterJdbcTemplate jdbcTemplate) {
@@ -72,7 +109,7 @@ public class H2DatabaseWidgetsRepository implements WidgetsRepository {
      * @inheritDocs
      */
     @Override
-    public void insert(String id, Region boundaries, int zIndex, Instant modificationTimestamp) {
+    public void insert(WidgetId id, Region boundaries, int zIndex, Instant modificationTimestamp) {
         Objects.requireNonNull(id, "id");
         Objects.requireNonNull(boundaries, "boundaries");
         Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
@@ -83,13 +120,13 @@ public class H2DatabaseWidgetsRepository implements WidgetsRepository {
             "INSERT INTO widget (widget_id, x, y, width, height, z_index, boundaries, modified_at) " +
                 "VALUES (:widget_id, :x, :y, :width, :height, :z_index, :boundaries, :modified_at)",
             new MapSqlParameterSource()
-                .addValue("widget_id", id)
+                .addValue("widget_id", id.toUuid())
                 .addValue("x", boundaries.getX())
                 .addValue("y", boundaries.getY())
                 .addValue("width", boundaries.getWidth())
                 .addValue("height", boundaries.getHeight())
                 .addValue("z_index", zIndex)
-                .addValue("boundaries", toPolygon(boundaries))
+                .addValue("boundaries", WkbEncoder.rectangle(boundaries))
                 .addValue("modified_at", modificationTimestamp)
         );
     }
@@ -103,7 +140,15 @@ public class H2DatabaseWidgetsRepository implements WidgetsRepository {
         Objects.requireNonNull(newBoundaries, "newBoundaries");
         Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
 
+        long version = 0;
         if (widget.getZ() != newZIndex) {
+            // the row is locked, so a concurrent conditional update can't increment the version before it's deleted
+            version = jdbcTemplate.queryForObject(
+                "SELECT version FROM widget WHERE widget_id = :widget_id FOR UPDATE",
+                new MapSqlParameterSource()
+                    .addValue("widget_id", widget.getId().toUuid()),
+                Long.class
+            );
             deleteById(widget.getId());
             shiftOverlyingWidgets(newZIndex, modificationTimestamp);
         }
@@ -117,45 +162,123 @@ public class H2DatabaseWidgetsRepository implements WidgetsRepository {
                     "height = :height, " +
                     "z_index = :z_index, " +
                     "boundaries = :boundaries, " +
-                    "modified_at = :modified_at " +
-                "WHEN NOT MATCHED THEN INSERT (widget_id, x, y, width, height, z_index, boundaries, modified_at) " +
-                    "VALUES (:widget_id, :x, :y, :width, :height, :z_index, :boundaries, :modified_at)",
+                    "modified_at = :modified_at, " +
+                    "version = version + 1 " +
+                "WHEN NOT MATCHED THEN " +
+                    "INSERT (widget_id, x, y, width, height, z_index, boundaries, modified_at, version) " +
+                    "VALUES (:widget_id, :x, :y, :width, :height, :z_index, :boundaries, :modified_at, :version + 1)",
             new MapSqlParameterSource()
-                .addValue("widget_id", widget.getId())
+                .addValue("widget_id", widget.getId().toUuid())
                 .addValue("x", newBoundaries.getX())
                 .addValue("y", newBoundaries.getY())
                 .addValue("width", newBoundaries.getWidth())
                 .addValue("height", newBoundaries.getHeight())
                 .addValue("z_index", newZIndex)
-                .addValue("boundaries", toPolygon(newBoundaries))
+                .addValue("boundaries", WkbEncoder.rectangle(newBoundaries))
+                .addValue("modified_at", modificationTimestamp)
+                .addValue("version", version)
+        );
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public boolean updateBoundaries(
+        WidgetId id,
+        long expectedVersion,
+        Region newBoundaries,
+        Instant modificationTimestamp
+    ) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(newBoundaries, "newBoundaries");
+        Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
+
+        int updatedRows = jdbcTemplate.update(
+            "UPDATE widget " +
+                "SET x = :x, " +
+                    "y = :y, " +
+                    "width = :width, " +
+                    "height = :height, " +
+                    "boundaries = :boundaries, " +
+                    "modified_at = :modified_at, " +
+                    "version = version + 1 " +
+                "WHERE widget_id = :widget_id AND version = :version",
+            new MapSqlParameterSource()
+                .addValue("widget_id", id.toUuid())
+                .addValue("version", expectedVersion)
+                .addValue("x", newBoundaries.getX())
+                .addValue("y", newBoundaries.getY())
+                .addValue("width", newBoundaries.getWidth())
+                .addValue("height", newBoundaries.getHeight())
+                .addValue("boundaries", WkbEncoder.rectangle(newBoundaries))
                 .addValue("modified_at", modificationTimestamp)
         );
+        return updatedRows == 1;
     }
 
+    /**
+     * Shifts the contiguous run of widgets that starts at the given Z-index upwards by set-based statements.
+     * <p>
+     * The end of the run is the lowest occupied Z-index (not less than the given one) that has no widget right above
+     * it. A single {@code UPDATE ... SET z_index = z_index + 1} would temporarily violate the unique index of Z-indices
+     * unless the database checks it against the final state only, so the run is shifted in two steps that are valid in
+     * any order of rows: the run is parked right below the lowest Z-index (where no widgets are), and then it's moved
+     * to its final place one above its original place.
+     */
     private void shiftOverlyingWidgets(int zIndex, Instant modificationTimestamp) {
-        List<Long> idsToUpdate = jdbcTemplate.queryForList(
-            "WITH RECURSIVE cte(id, z_index) AS (" +
-                "SELECT id, z_index FROM widget WHERE z_index = :z_index " +
-                "UNION ALL " +
-                "SELECT widget.id, widget.z_index " +
-                "FROM widget INNER JOIN cte ON widget.z_index = cte.z_index + 1 " +
-                ")" +
-                "SELECT id FROM cte ORDER BY z_index DESC",
+        Integer runEnd = DataAccessUtils.singleResult(jdbcTemplate.queryForList(
+            "SELECT w.z_index FROM widget w " +
+                "WHERE w.z_index >= :z_index " +
+                "AND EXISTS (SELECT 1 FROM widget o WHERE o.z_index = :z_index) " +
+                "AND NOT EXISTS (SELECT 1 FROM widget n WHERE n.z_index = w.z_index + 1) " +
+                "ORDER BY w.z_index " +
+                "LIMIT 1",
             new MapSqlParameterSource()
                 .addValue("z_index", zIndex),
-            Long.class
-        );
+            Integer.class
+        ));
+
+        if (runEnd == null) {
+            return;
+        }
 
-        jdbcTemplate.batchUpdate(
+        int lowestZIndex = jdbcTemplate.queryForObject(
+            "SELECT min(z_index) FROM widget",
+            Collections.emptyMap(),
+            Integer.class
+        );
+        // the run is parked at [lowestZIndex - (runEnd - zIndex + 1), lowestZIndex - 1]
+        long offset = (long) lowestZIndex - runEnd - 1;
+        if (zIndex + offset < Integer.MIN_VALUE) {
+            throw new IllegalStateException(
+                "There is no room for shifting widgets: zIndex=" + zIndex + ", runEnd=" + runEnd +
+                    ", lowestZIndex=" + lowestZIndex
+            );
+        }
+        jdbcTemplate.update(
+            "UPDATE widget " +
+                "SET z_index = z_index + :offset, version = version + 1 " +
+                "WHERE z_index BETWEEN :z_from AND :z_to",
+            new MapSqlParameterSource()
+                .addValue("offset", offset)
+                .addValue("z_from", zIndex)
+                .addValue("z_to", runEnd)
+        );
+        jdbcTemplate.update(
             "UPDATE widget " +
-                "SET z_index = z_index + 1, modified_at = :modified_at " +
-                "WHERE id = :id",
-            idsToUpdate.stream()
-                .map(recordId -> new MapSqlParameterSource()
-                    .addValue("id", recordId)
-                    .addValue("modified_at", modificationTimestamp)
-                )
-                .toArray(MapSqlParameterSource[]::new)
+                "SET z_index = z_index - :offset + 1 " +
+                "WHERE z_index < :lowest_z_index",
+            new MapSqlParameterSource()
+                .addValue("offset", offset)
+                .addValue("lowest_z_index", lowestZIndex)
+        );
+        jdbcTemplate.update(
+            "INSERT INTO widget_shift (z_from, z_to, shifted_at) VALUES (:z_from, :z_to, :shifted_at)",
+            new MapSqlParameterSource()
+                .addValue("z_from", zIndex + 1)
+                .addValue("z_to", runEnd + 1)
+                .addValue("shifted_at", modificationTimestamp)
         );
     }
 
@@ -163,29 +286,58 @@ public class H2DatabaseWidgetsRepository implements WidgetsRepository {
      * @inheritDocs
      */
     @Override
-    public boolean deleteById(String id) {
+    public boolean deleteById(WidgetId id) {
         Objects.requireNonNull(id, "id");
         int deletedRows = jdbcTemplate.update(
             "DELETE FROM widget WHERE widget_id = :id",
             new MapSqlParameterSource()
-                .addValue("id", id)
+                .addValue("id", id.toUuid())
         );
         return deletedRows == 1;
     }
 
+    /**
+     * Does nothing: all indexes are maintained by the database.
+     */
+    @Override
+    public void rebuildIndexes() {
+    }
+
+    /**
+     * Folds all shift records into the modification timestamps of the widgets and deletes them. The effective
+     * modification timestamps of widgets are not changed.
+     */
+    @Override
+    public void compact() {
+        jdbcTemplate.update(
+            "UPDATE widget " +
+                // boundaries of a widget might be updated concurrently (see updateBoundaries)
+                "SET modified_at = GREATEST(" +
+                    "modified_at, " +
+                    "(SELECT max(s.shifted_at) FROM widget_shift s WHERE widget.z_index BETWEEN s.z_from AND s.z_to)" +
+                ") " +
+                "WHERE EXISTS (" +
+                    "SELECT 1 FROM widget_shift s " +
+                    "WHERE widget.z_index BETWEEN s.z_from AND s.z_to AND s.shifted_at > widget.modified_at" +
+                ")",
+            Collections.emptyMap()
+        );
+        jdbcTemplate.update("DELETE FROM widget_shift", Collections.emptyMap());
+    }
+
     /**
      * @inheritDocs
      */
     @Override
-    public Optional<Widget> getWidgetById(String id) {
+    public Optional<Widget> getWidgetById(WidgetId id) {
         Objects.requireNonNull(id, "id");
 
         Widget widget = DataAccessUtils.singleResult(jdbcTemplate.query(
-            "SELECT widget_id, x, y, width, height, z_index, modified_at " +
+            "SELECT widget_id, x, y, width, height, z_index, " + MODIFIED_AT_COLUMN + " " +
                 "FROM widget " +
                 "WHERE widget_id = :id",
             new MapSqlParameterSource()
-                .addValue("id", id),
+                .addValue("id", id.toUuid()),
             ROW_MAPPER
         ));
         return Optional.ofNullable(widget);
@@ -195,20 +347,47 @@ public class H2DatabaseWidgetsRepository implements WidgetsRepository {
      * @inheritDocs
      */
     @Override
-    public List<Widget> getWidgets(Region regionToSearch, Integer zIndexCursor, int limit) {
+    public Optional<Versioned<Widget>> getVersionedWidgetById(WidgetId id) {
+        Objects.requireNonNull(id, "id");
+
+        Versioned<Widget> widget = DataAccessUtils.singleResult(jdbcTemplate.query(
+            "SELECT widget_id, x, y, width, height, z_index, " + MODIFIED_AT_COLUMN + ", version " +
+                "FROM widget " +
+                "WHERE widget_id = :id",
+            new MapSqlParameterSource()
+                .addValue("id", id.toUuid()),
+            VERSIONED_ROW_MAPPER
+        ));
+        return Optional.ofNullable(widget);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgets(
+        Region regionToSearch,
+        RegionMatchMode matchMode,
+        Integer zIndexCursor,
+        int limit
+    ) {
+        Objects.requireNonNull(matchMode, "matchMode");
         StringJoiner clauses = new StringJoiner(" AND ");
         clauses.add("1 = 1");
         MapSqlParameterSource parameters = new MapSqlParameterSource();
         parameters.addValue("limit", limit);
         if (regionToSearch != null) {
+            // widgets are rectangles, so the index operator is an exact intersection check
+            clauses.add("boundaries && :boundaries");
+            parameters.addValue("boundaries", WkbEncoder.rectangle(regionToSearch));
+        }
+        if (regionToSearch != null && matchMode == RegionMatchMode.CONTAINS) {
             clauses
-                .add("boundaries && :boundaries") // for index usage
                 .add("x >= :x")
                 .add("y >= :y")
                 .add("(x + width) <= (:x + :width)")
                 .add("(y + height) <= (:y + :height)");
             parameters
-                .addValue("boundaries", toPolygon(regionToSearch))
                 .addValue("x", regionToSearch.getX())
                 .addValue("y", regionToSearch.getY())
                 .addValue("width", regionToSearch.getWidth())
@@ -220,23 +399,81 @@ public class H2DatabaseWidgetsRepository implements WidgetsRepository {
         }
 
         return jdbcTemplate.query(
-            "SELECT widget_id, x, y, width, height, z_index, modified_at " +
-                "FROM widget " +
-                "WHERE " + clauses + " " +
-                "ORDER BY z_index " +
-                "LIMIT :limit",
+            pageOf(
+                "SELECT widget_id, x, y, width, height, z_index, modified_at " +
+                    "FROM widget " +
+                    "WHERE " + clauses + " " +
+                    "ORDER BY z_index " +
+                    "LIMIT :limit"
+            ) + " ORDER BY z_index",
             parameters,
             ROW_MAPPER
         );
     }
 
-    private static String toPolygon(Region region) {
-        String lowerLeftCorner = String.format("%d %d", region.getX(), region.getY());
-        String lowerRightCorner = String.format("%d %d", region.getX() + region.getWidth(), region.getY());
-        String higherRightCorner = String.format("%d %d",
-            region.getX() + region.getWidth(), region.getY() + region.getHeight());
-        String higherLeftCorner = String.format("%d %d", region.getX(), region.getY() + region.getHeight());
-        return String.format("POLYGON ((%s, %s, %s, %s, %s))",
-            lowerLeftCorner, lowerRightCorner, higherRightCorner, higherLeftCorner, lowerLeftCorner);
+    /**
+     * Doesn't support snapshots: the list is read from the current state.
+     */
+    @Override
+    public Versioned<List<Widget>> getWidgets(WidgetsFilter filter) {
+        Objects.requireNonNull(filter, "filter");
+        return Versioned.unversioned(
+            getWidgets(
+                filter.getRegion().orElse(null),
+                filter.getMatchMode(),
+                filter.getCursor().orElse(null),
+                filter.getLimit()
+            )
+        );
+    }
+
+    /**
+     * Executes a query per filter. All queries use the spatial index of the table, so there is no benefit in combining
+     * them into a single statement.
+     */
+    @Override
+    public List<List<Widget>> getWidgets(List<WidgetsFilter> filters) {
+        Objects.requireNonNull(filters, "filters");
+        List<List<Widget>> widgets = new ArrayList<>(filters.size());
+        for (WidgetsFilter filter : filters) {
+            Region region = filter.getRegion()
+                .orElseThrow(() -> new IllegalArgumentException("Region is required: filter=" + filter));
+            widgets.add(getWidgets(region, filter.getMatchMode(), filter.getCursor().orElse(null), filter.getLimit()));
+        }
+        return widgets;
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y, int limit) {
+        return jdbcTemplate.query(
+            pageOf(
+                "SELECT widget_id, x, y, width, height, z_index, modified_at " +
+                    "FROM widget " +
+                    "WHERE boundaries && :point " + // for index usage
+                    "AND x <= :x AND :x < x + width " +
+                    "AND y <= :y AND :y < y + height " +
+                    "ORDER BY z_index DESC " +
+                    "LIMIT :limit"
+            ) + " ORDER BY z_index DESC",
+            new MapSqlParameterSource()
+                .addValue("point", WkbEncoder.point(x, y))
+                .addValue("x", x)
+                .addValue("y", y)
+                .addValue("limit", limit),
+            ROW_MAPPER
+        );
+    }
+
+    /**
+     * Wraps the query of a page of widgets (with raw modification timestamps) into a query that resolves effective
+     * modification timestamps of the widgets of the page only. Otherwise, the database might resolve them for all
+     * matching widgets before sorting and limiting them (e.g. when a spatial index is used).
+     */
+    private static String pageOf(String pageQuery) {
+        return "SELECT widget_id, x, y, width, height, z_index, " + MODIFIED_AT_COLUMN + " " +
+            "FROM (" + pageQuery + ") widget";
     }
 }
@@ -1,79 +1,145 @@
 package com.github.komarovd95.widgetstore.application.repository;
 
 import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.Versioned;
 import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
 import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree;
+import com.github.komarovd95.widgetstore.application.domain.zorder.ZOrderTreap;
 import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
 
 /**
  * The in-memory implementation of the {@link WidgetsRepository}.
  * <p>
  * This class is not thread-safe.
  * <p>
- * It uses a {@link TreeMap} (widgets sorted by Z-index) for efficient widgets list queries and overlying widgets
- * shifting while inserts and updates. Also, this map is used for maintaining of Z-indices uniqueness.
+ * It uses a {@link ZOrderTreap} (widgets sorted by Z-index) for efficient widgets list queries and overlying widgets
+ * shifting while inserts and updates: a shift of any number of overlying widgets is a single <i>O(log N)</i> range
+ * update. Also, this sequence is used for maintaining of Z-indices uniqueness. The sequence is the source of truth for
+ * Z-indices and modification timestamps of widgets.
  * <p>
- * Additionally, it uses a {@link HashMap} (keys are widgets' IDs) for efficient searched by ID.
+ * Additionally, it uses a {@link ConcurrentHashMap} (keys are widgets' IDs) for efficient searched by ID.
  * <p>
- * For spatial search, the implementation uses an R-tree.
+ * Every widget is stored as an immutable {@link Widget} that is replaced (copy-on-write) when the widget is modified,
+ * so reads return stored instances instead of copying them. A shift changes Z-indices of the whole run lazily, so it
+ * doesn't replace stored instances: a read compares the stored instance with its entry of the sequence and replaces
+ * it only if it's stale (i.e. once per shifted widget that is actually read).
  * <p>
- * To achieve atomicity and thread-safety it's required to use in-memory "transactions" mechanism.
+ * For spatial search, the implementation uses an R-tree augmented with stable labels of Z-indices (see
+ * {@link ZOrderTreap}). Labels are ordered as Z-indices, so spatial search returns widgets in the Z-index order and stops
+ * as soon as the requested page is found. Unlike Z-indices, labels don't change when overlying widgets are shifted, so
+ * a shift doesn't touch the R-tree.
+ * <p>
+ * To achieve atomicity and thread-safety it's required to use in-memory "transactions" mechanism. Searches by ID,
+ * {@link #getCurrentForegroundZIndex()} and searches without a region (i.e. without the R-tree) tolerate concurrent
+ * modification, so they might be executed in optimistic read transactions.
  *
  * @see TransactionsService
  */
 public class InMemoryWidgetsRepository implements WidgetsRepository {
 
     /**
-     * A map for searching widgets by Z-index. Widgets are stored in this map in the sorted order (ascending).
+     * A sequence for searching widgets by Z-index. Widgets are stored in this sequence in the sorted order (ascending).
      */
-    private final NavigableMap<WidgetSortingKey, MutableWidget> widgetsByZIndex = new TreeMap<>();
+    private final ZOrderTreap<StoredWidget> widgetsByZIndex = new ZOrderTreap<>(this::relabel);
 
     /**
      * A map for searching widgets by ID.
      */
-    private final Map<String, MutableWidget> widgetsByIds = new HashMap<>();
+    private final Map<WidgetId, StoredWidget> widgetsByIds = new ConcurrentHashMap<>();
 
     /**
      * An R-tree for spatial search.
      */
-    private final WidgetRTree spatialIndex = new WidgetRTree();
+    private final WidgetRTree spatialIndex;
+
+    /**
+     * Creates an empty repository with the default spatial index.
+     */
+    public InMemoryWidgetsRepository() {
+        this(new WidgetRTree());
+    }
+
+    /**
+     * Creates an empty repository with the given spatial index.
+     *
+     * @param spatialIndex the spatial index, not null. It MUST be empty
+     */
+    public InMemoryWidgetsRepository(WidgetRTree spatialIndex) {
+        this.spatialIndex = Objects.requireNonNull(spatialIndex, "spatialIndex");
+        if (spatialIndex.size() != 0) {
+            throw new IllegalArgumentException("Spatial index is not empty: size=" + spatialIndex.size());
+        }
+    }
+
+    /**
+     * Creates a repository that contains the given widgets (e.g. restored from a snapshot). The spatial index is
+     * bulk-loaded in one pass.
+     *
+     * @param spatialIndex the spatial index, not null. Its content is replaced with the given widgets
+     * @param widgets the widgets, not null. Widgets' IDs and Z-indices MUST be unique
+     */
+    public InMemoryWidgetsRepository(WidgetRTree spatialIndex, Collection<Widget> widgets) {
+        this.spatialIndex = Objects.requireNonNull(spatialIndex, "spatialIndex");
+        Objects.requireNonNull(widgets, "widgets");
+        List<Widget> sortedWidgets = new ArrayList<>(widgets);
+        sortedWidgets.sort(Comparator.comparingInt(Widget::getZ));
+        for (int i = 0; i < sortedWidgets.size(); i++) {
+            Widget widget = sortedWidgets.get(i);
+            if (i > 0 && sortedWidgets.get(i - 1).getZ() == widget.getZ()) {
+                throw new IllegalArgumentException("Widget's Z-index is not unique: widget=" + widget);
+            }
+            StoredWidget storedWidget = new StoredWidget(widget);
+            if (widgetsByIds.putIfAbsent(widget.getId(), storedWidget) != null) {
+                throw new IllegalArgumentException("Widget's ID is not unique: widget=" + widget);
+            }
+            storedWidget.label = widgetsByZIndex.insert(storedWidget, widget.getZ(), widget.getModifiedAt());
+        }
+        spatialIndex.load(widgets, widget -> widgetsByIds.get(widget.getId()).label);
+    }
 
     /**
      * @inheritDocs
      */
     @Override
     public Optional<Integer> getCurrentForegroundZIndex() {
-        return widgetsByZIndex.isEmpty() ? Optional.empty() : Optional.of(widgetsByZIndex.lastKey().z);
+        return widgetsByZIndex.lastZ();
     }
 
     /**
      * @inheritDocs
      */
     @Override
-    public void insert(String id, Region boundaries, int zIndex, Instant modificationTimestamp) {
+    public void insert(WidgetId id, Region boundaries, int zIndex, Instant modificationTimestamp) {
         Objects.requireNonNull(id, "id");
         Objects.requireNonNull(boundaries, "boundaries");
         Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
 
-        MutableWidget widget = new MutableWidget(id, boundaries, zIndex, modificationTimestamp);
-        WidgetSortingKey key = new WidgetSortingKey(zIndex);
-        shiftOverlyingWidgets(key, modificationTimestamp);
-        widgetsByZIndex.put(key, widget);
+        StoredWidget widget = new StoredWidget(
+            Widget.builder()
+                .setId(id)
+                .setBoundaries(boundaries)
+                .setZ(zIndex)
+                .setModifiedAt(modificationTimestamp)
+                .build()
+        );
+        widget.label = widgetsByZIndex.insert(widget, zIndex, modificationTimestamp);
         widgetsByIds.put(id, widget);
-        spatialIndex.add(id, widget.boundaries);
+        spatialIndex.add(id, boundaries, widget.label);
     }
 
     /**
@@ -85,170 +151,231 @@ public class InMemoryWidgetsRepository implements WidgetsRepository {
         Objects.requireNonNull(newBoundaries, "newBoundaries");
         Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
 
-        MutableWidget mutableWidget = null;
-        WidgetSortingKey key = new WidgetSortingKey(newZIndex);
-        if (widget.getZ() != key.z) {
-            mutableWidget = widgetsByZIndex.remove(new WidgetSortingKey(widget.getZ()));
-            shiftOverlyingWidgets(key, modificationTimestamp);
-            mutableWidget.z = key.z;
-            mutableWidget.modifiedAt = modificationTimestamp;
-            widgetsByZIndex.put(key, mutableWidget);
+        StoredWidget storedWidget = widgetsByIds.get(widget.getId());
+        boolean zIndexChanged = widget.getZ() != newZIndex;
+        boolean boundariesChanged = !Objects.equals(widget.getBoundaries(), newBoundaries);
+        if (zIndexChanged) {
+            widgetsByZIndex.remove(storedWidget.label);
+            storedWidget.label = widgetsByZIndex.insert(storedWidget, newZIndex, modificationTimestamp);
+            spatialIndex.updateZ(widget.getId(), storedWidget.label);
         }
-        if (!Objects.equals(widget.getBoundaries(), newBoundaries)) {
-            spatialIndex.remove(widget.getId(), widget.getBoundaries());
-            mutableWidget = mutableWidget != null ? mutableWidget : widgetsByIds.get(widget.getId());
-            mutableWidget.boundaries = newBoundaries;
-            mutableWidget.modifiedAt = modificationTimestamp;
-            spatialIndex.add(widget.getId(), newBoundaries);
+        if (boundariesChanged) {
+            widgetsByZIndex.touch(storedWidget.label, modificationTimestamp);
+            spatialIndex.move(widget.getId(), newBoundaries);
+        }
+        if (zIndexChanged || boundariesChanged) {
+            storedWidget.widget = Widget.builder()
+                .setId(widget.getId())
+                .setBoundaries(newBoundaries)
+                .setZ(newZIndex)
+                .setModifiedAt(modificationTimestamp)
+                .build();
         }
     }
 
-    private void shiftOverlyingWidgets(WidgetSortingKey key, Instant modificationTimestamp) {
-        NavigableMap<WidgetSortingKey, MutableWidget> tailMap = widgetsByZIndex.tailMap(key, true);
-        int previousZ = key.z;
-        for (Map.Entry<WidgetSortingKey, MutableWidget> entry : tailMap.entrySet()) {
-            WidgetSortingKey entryKey = entry.getKey();
-            MutableWidget widget = entry.getValue();
-            if (entryKey.z != previousZ) {
-                break;
-            }
-            // it's a hacky solution to mutate keys of the map.
-            // But we can reduce complexity of shifting the overlying widgets from O(n * log n) to O(n) in the worst case
-            int shiftedZIndex = ++entryKey.z;
-            widget.z = shiftedZIndex;
-            widget.modifiedAt = modificationTimestamp;
-            previousZ = shiftedZIndex;
-        }
+    /**
+     * Updates the label of a widget in the R-tree when the widget is relabeled by the Z-order sequence.
+     */
+    private void relabel(StoredWidget widget, long label) {
+        widget.label = label;
+        spatialIndex.updateZ(widget.widget.getId(), label);
     }
 
     /**
      * @inheritDocs
      */
     @Override
-    public boolean deleteById(String id) {
+    public boolean deleteById(WidgetId id) {
         Objects.requireNonNull(id, "id");
-        MutableWidget removedWidget = widgetsByIds.remove(id);
+        StoredWidget removedWidget = widgetsByIds.remove(id);
         if (removedWidget != null) {
-            widgetsByZIndex.remove(new WidgetSortingKey(removedWidget.z));
-            spatialIndex.remove(id, removedWidget.boundaries);
+            widgetsByZIndex.remove(removedWidget.label);
+            spatialIndex.remove(id);
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Rebuilds the spatial index via bulk-loading. The rebuilt index is fully packed.
+     */
+    @Override
+    public void rebuildIndexes() {
+        List<Widget> widgets = new ArrayList<>(widgetsByZIndex.size());
+        widgetsByZIndex.forEachAfter(null, Integer.MAX_VALUE, (label, widget, z, modifiedAt) ->
+            widgets.add(widget.current(z, modifiedAt))
+        );
+        spatialIndex.load(widgets, widget -> widgetsByIds.get(widget.getId()).label);
+    }
+
+    /**
+     * Does nothing: pending modification timestamps are pushed down by the Z-order treap itself.
+     */
+    @Override
+    public void compact() {
+    }
+
     /**
      * @inheritDocs
      */
     @Override
-    public Optional<Widget> getWidgetById(String id) {
+    public Optional<Widget> getWidgetById(WidgetId id) {
         Objects.requireNonNull(id, "id");
-        return Optional.ofNullable(widgetsByIds.get(id))
-            .map(InMemoryWidgetsRepository::toImmutable);
+        StoredWidget widget = widgetsByIds.get(id);
+        return widget != null ? Optional.of(current(widget)) : Optional.empty();
     }
 
     /**
      * @inheritDocs
      */
     @Override
-    public List<Widget> getWidgets(Region regionToSearch, Integer zIndexCursor, int limit) {
+    public List<Widget> getWidgets(
+        Region regionToSearch,
+        RegionMatchMode matchMode,
+        Integer zIndexCursor,
+        int limit
+    ) {
+        Objects.requireNonNull(matchMode, "matchMode");
         return regionToSearch != null
-            ? getWidgetsBySpatialIndex(regionToSearch, zIndexCursor, limit)
+            ? getWidgetsBySpatialIndex(regionToSearch, matchMode, zIndexCursor, limit)
             : getWidgetsByZIndex(zIndexCursor, limit);
     }
 
-    private List<Widget> getWidgetsBySpatialIndex(Region region, Integer cursor, int limit) {
-        // top-N sort
-        List<MutableWidget> widgets = new ArrayList<>();
-        spatialIndex.contains(region, widgetId -> {
-            MutableWidget widget = widgetsByIds.get(widgetId);
-            if (cursor == null || widget.z > cursor) {
-                int index = -Collections.binarySearch(widgets, widget, Comparator.comparingInt(w -> w.z)) - 1;
-                if (index < limit) {
-                    widgets.add(index, widget);
-                    if (widgets.size() > limit) {
-                        widgets.subList(limit, widgets.size()).clear();
-                    }
-                }
-            }
-        });
-        return widgets
-            .stream()
-            .map(InMemoryWidgetsRepository::toImmutable)
-            .collect(Collectors.toList());
+    private List<Widget> getWidgetsBySpatialIndex(Region region, RegionMatchMode matchMode, Integer cursor, int limit) {
+        List<Widget> widgets = new ArrayList<>(Math.min(limit, spatialIndex.size()));
+        Consumer<WidgetId> widgetConsumer = widgetId -> widgets.add(current(widgetsByIds.get(widgetId)));
+        long lowestLabel = widgetsByZIndex.lowestLabelAfter(cursor);
+        if (matchMode == RegionMatchMode.INTERSECTS) {
+            spatialIndex.intersectsFromZ(region, lowestLabel, limit, widgetConsumer);
+        } else {
+            spatialIndex.containsFromZ(region, lowestLabel, limit, widgetConsumer);
+        }
+        return widgets;
     }
 
-    private List<Widget> getWidgetsByZIndex(Integer cursor, int limit) {
-        Map<WidgetSortingKey, MutableWidget> widgets = cursor != null
-            ? widgetsByZIndex.tailMap(new WidgetSortingKey(cursor), false)
-            : widgetsByZIndex;
-        return widgets
-            .values()
-            .stream()
-            .limit(limit)
-            .map(InMemoryWidgetsRepository::toImmutable)
-            .collect(Collectors.toList());
+    /**
+     * Doesn't support snapshots: the list is read from the current state.
+     */
+    @Override
+    public Versioned<List<Widget>> getWidgets(WidgetsFilter filter) {
+        Objects.requireNonNull(filter, "filter");
+        return Versioned.unversioned(
+            getWidgets(
+                filter.getRegion().orElse(null),
+                filter.getMatchMode(),
+                filter.getCursor().orElse(null),
+                filter.getLimit()
+            )
+        );
     }
 
     /**
-     * A key for a widgets' {@link TreeMap}.
+     * Executes all searches by a single traversal of the spatial index.
      */
-    private static class WidgetSortingKey implements Comparable<WidgetSortingKey> {
+    @Override
+    public List<List<Widget>> getWidgets(List<WidgetsFilter> filters) {
+        Objects.requireNonNull(filters, "filters");
+        List<List<Widget>> widgets = new ArrayList<>(filters.size());
+        long[] lowestLabels = new long[filters.size()];
+        for (int i = 0; i < filters.size(); i++) {
+            WidgetsFilter filter = filters.get(i);
+            widgets.add(new ArrayList<>(Math.min(filter.getLimit(), spatialIndex.size())));
+            lowestLabels[i] = widgetsByZIndex.lowestLabelAfter(filter.getCursor().orElse(null));
+        }
+        spatialIndex.searchInZOrder(filters, lowestLabels, (widgetId, filterIndex) ->
+            widgets.get(filterIndex).add(current(widgetsByIds.get(widgetId)))
+        );
+        return widgets;
+    }
 
-        /**
-         * This field is mutable by design. Mutability allows to reduce time complexity of overlying widgets shifting.
-         */
-        private int z;
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y, int limit) {
+        List<Widget> widgets = new ArrayList<>(Math.min(limit, spatialIndex.size()));
+        spatialIndex.coveringInReverseZOrder(x, y, limit, widgetId ->
+            widgets.add(current(widgetsByIds.get(widgetId)))
+        );
+        return widgets;
+    }
 
-        private WidgetSortingKey(int zIndex) {
-            this.z = zIndex;
-        }
+    private List<Widget> getWidgetsByZIndex(Integer cursor, int limit) {
+        List<Widget> widgets = new ArrayList<>(Math.min(limit, widgetsByZIndex.size()));
+        widgetsByZIndex.forEachAfter(cursor, limit, (label, widget, z, modifiedAt) ->
+            widgets.add(widget.current(z, modifiedAt))
+        );
+        return widgets;
+    }
 
-        @Override
-        public int compareTo(WidgetSortingKey other) {
-            return Integer.compare(z, other.z);
+    /**
+     * Returns the stored instance of a widget. Its Z-index and modification timestamp are checked against the Z-order
+     * sequence without any allocations.
+     */
+    private Widget current(StoredWidget storedWidget) {
+        Widget widget = storedWidget.widget;
+        if (widgetsByZIndex.matches(storedWidget.label, widget.getZ(), widget.getModifiedAt())) {
+            return widget;
         }
+        ZOrderTreap.Entry<StoredWidget> entry = widgetsByZIndex.get(storedWidget.label);
+        return storedWidget.current(entry.getZ(), entry.getModifiedAt());
     }
 
     /**
-     * A mutable widget representation.
+     * A slot of a widget in the map by IDs and in the Z-order sequence.
      * <p>
      * This class is for internal usage only.
      * <p>
-     * Mutability helps us to reduce the number of memory allocations. Also, with mutable class we don't need to call
-     * methods like {@link Map#replace(Object, Object)} when updating widgets.
+     * The widget is immutable, so it's returned by reads as is. Writers replace it when they modify the widget. Readers
+     * replace it when it's stale after a shift (its Z-index and modification timestamp differ from the sequence). Reads
+     * might be executed concurrently with each other and with a write (optimistic reads), so readers replace the widget
+     * by compare-and-set: a reader never overwrites a widget that it hasn't observed. Boundaries are changed by writers
+     * only, and Z-indices and modification timestamps are validated against the sequence on every read, so a stale
+     * widget is never returned from a consistent read.
      */
-    private static class MutableWidget {
+    private static final class StoredWidget {
+
+        private static final AtomicReferenceFieldUpdater<StoredWidget, Widget> WIDGET =
+            AtomicReferenceFieldUpdater.newUpdater(StoredWidget.class, Widget.class, "widget");
+
+        private volatile Widget widget;
+
+        /**
+         * The label of the widget's Z-index in the {@link ZOrderTreap} and the R-tree.
+         */
+        private long label;
 
-        private final String id;
-        private Region boundaries;
-        private int z;
-        private Instant modifiedAt;
+        private StoredWidget(Widget widget) {
+            this.widget = Objects.requireNonNull(widget, "widget");
+        }
 
-        private MutableWidget(String id, Region boundaries, int z, Instant modifiedAt) {
-            this.id = Objects.requireNonNull(id, "id");
-            this.boundaries = Objects.requireNonNull(boundaries, "boundaries");
-            this.z = z;
-            this.modifiedAt = Objects.requireNonNull(modifiedAt, "modifiedAt");
+        /**
+         * @param z the actual Z-index of the widget
+         * @param modifiedAt the actual modification timestamp of the widget, not null
+         * @return the widget with the given Z-index and modification timestamp, not null
+         */
+        private Widget current(int z, Instant modifiedAt) {
+            Widget stored = widget;
+            if (stored.getZ() == z && stored.getModifiedAt().equals(modifiedAt)) {
+                return stored;
+            }
+            Widget shifted = Widget.builder()
+                .setId(stored.getId())
+                .setBoundaries(stored.getBoundaries())
+                .setZ(z)
+                .setModifiedAt(modifiedAt)
+                .build();
+            WIDGET.compareAndSet(this, stored, shifted);
+            return shifted;
         }
 
         @Override
         public String toString() {
-            return "WidgetWrapper{" +
-                "id='" + id + '\'' +
-                ", boundaries=" + boundaries +
-                ", z=" + z +
-                ", modifiedAt=" + modifiedAt +
+            return "StoredWidget{" +
+                "widget=" + widget +
+                ", label=" + label +
                 '}';
         }
     }
-
-    private static Widget toImmutable(MutableWidget wrapper) {
-        return Widget.builder()
-            .setId(wrapper.id)
-            .setBoundaries(wrapper.boundaries)
-            .setZ(wrapper.z)
-            .setModifiedAt(wrapper.modifiedAt)
-            .build();
-    }
 }
@@ -0,0 +1,731 @@
+package com.github.komarovd95.widgetstore.application.repository;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.Versioned;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree;
+import com.github.komarovd95.widgetstore.application.domain.zorder.ZOrderTreap;
+import com.github.komarovd95.widgetstore.application.service.transaction.CopyOnWriteTransactionsService;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * The in-memory implementation of the {@link WidgetsRepository} that partitions the plane into square tiles.
+ * <p>
+ * Every tile that contains lower-left corners of some widgets is a shard: it has its own R-tree and its own Read-Write
+ * lock. A shard tracks the bounding box of its widgets, so spatial searches scatter only over the shards whose bounding
+ * boxes match the region and gather the results in the Z-index order. Z-indices are global: they are kept in a single
+ * {@link ZOrderTreap} (the Z-order layer) guarded by its own Read-Write lock, and R-trees of shards are keyed by stable
+ * labels of the treap (see {@link InMemoryWidgetsRepository}).
+ * <p>
+ * The repository synchronizes itself. A write operation that changes the Z-order (an insert, a delete or an update) holds
+ * the write lock of the Z-order layer and locks shards that it modifies only while modifying them. Boundaries of widgets
+ * are not a part of the Z-order layer: every widget keeps its boundaries together with their modification timestamp and
+ * version. So, {@link #updateBoundaries} holds only the read lock of the Z-order layer and the write locks of the shards
+ * that it modifies (the tile of the widget and, if the widget leaves it, the new tile): moves of widgets in different
+ * tiles run concurrently. A shard left empty by such a move is removed by the next write operation or rebuild.
+ * <p>
+ * A spatial search traverses R-trees of the matching shards under their read locks only, and then takes the read lock
+ * of the Z-order layer for a short time to resolve found widgets. So, expensive traversals of R-trees run concurrently
+ * with writes to other shards. Every write operation increments the version of the repository; if a search observes
+ * that the version has changed meanwhile, then it's executed again a few times. If the version keeps changing, then
+ * the search is executed under the read lock of the Z-order layer and the write lock of moves (i.e. without concurrent
+ * writes, but concurrently with other searches). Thus, every read operation observes the state between write
+ * operations.
+ * <p>
+ * Write operations that change the Z-order MUST be serialized by the caller (each of them is atomic for readers, but
+ * a read-modify-write sequence is not). Moves via {@link #updateBoundaries} MAY be executed concurrently with them.
+ *
+ * @see CopyOnWriteTransactionsService
+ */
+public class ShardedWidgetsRepository implements WidgetsRepository {
+
+    /**
+     * The default size of a side of a tile.
+     */
+    public static final int DEFAULT_TILE_SIZE = 4096;
+
+    /**
+     * The number of executions of a read operation without locks before it's executed without concurrent writes.
+     */
+    private static final int MAX_OPTIMISTIC_READ_ATTEMPTS = 3;
+
+    /**
+     * The lock of the Z-order layer (the sequence and the map of widgets by IDs).
+     */
+    private final ReadWriteLock zOrderLock = new ReentrantReadWriteLock();
+
+    /**
+     * The lock of moves. Moves hold its read lock (after the read lock of the Z-order layer), so they run concurrently
+     * with each other, and read operations that must exclude them hold its write lock.
+     */
+    private final ReadWriteLock moveLock = new ReentrantReadWriteLock();
+
+    private final ZOrderTreap<MutableWidget> widgetsByZIndex = new ZOrderTreap<>(this::relabel);
+
+    private final Map<WidgetId, MutableWidget> widgetsByIds = new ConcurrentHashMap<>();
+
+    /**
+     * Shards by keys of their tiles.
+     */
+    private final Map<Long, Shard> shards = new ConcurrentHashMap<>();
+
+    /**
+     * Keys of tiles whose shards have been left empty by moves (see {@link #removeEmptyShards()}).
+     */
+    private final Set<Long> emptyTileKeys = ConcurrentHashMap.newKeySet();
+
+    private final Supplier<WidgetRTree> spatialIndexFactory;
+
+    private final int tileSize;
+
+    /**
+     * The number of write operations. It's incremented under the write lock of the Z-order layer or under the write
+     * lock of the shard that is modified by a move.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * The version of the repository after the last write operation that has changed the Z-order. Every version of
+     * a widget is the maximum of it and the version of the widget's boundaries, so changes of the Z-order (including
+     * shifts) invalidate versions of all widgets.
+     */
+    private volatile long zOrderVersion;
+
+    /**
+     * Creates an empty repository.
+     *
+     * @param spatialIndexFactory the factory of empty R-trees for shards, not null
+     * @param tileSize the size of a side of a tile, positive
+     */
+    public ShardedWidgetsRepository(Supplier<WidgetRTree> spatialIndexFactory, int tileSize) {
+        this.spatialIndexFactory = Objects.requireNonNull(spatialIndexFactory, "spatialIndexFactory");
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: tileSize=" + tileSize);
+        }
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Optional<Integer> getCurrentForegroundZIndex() {
+        return underZOrderReadLock(widgetsByZIndex::lastZ);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void insert(WidgetId id, Region boundaries, int zIndex, Instant modificationTimestamp) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(boundaries, "boundaries");
+        Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
+        underZOrderWriteLock(() -> {
+            MutableWidget widget = new MutableWidget(
+                id,
+                new Placement(boundaries, tileKey(boundaries), modificationTimestamp, version.get())
+            );
+            widget.label = widgetsByZIndex.insert(widget, zIndex, modificationTimestamp);
+            widgetsByIds.put(id, widget);
+            addToShard(widget);
+        });
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public void update(Widget widget, Region newBoundaries, int newZIndex, Instant modificationTimestamp) {
+        Objects.requireNonNull(widget, "widget");
+        Objects.requireNonNull(newBoundaries, "newBoundaries");
+        Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
+        underZOrderWriteLock(() -> {
+            MutableWidget mutableWidget = widgetsByIds.get(widget.getId());
+            if (widget.getZ() != newZIndex) {
+                widgetsByZIndex.remove(mutableWidget.label);
+                mutableWidget.label = widgetsByZIndex.insert(mutableWidget, newZIndex, modificationTimestamp);
+                Shard shard = shards.get(mutableWidget.placement.tileKey);
+                shard.write(() -> shard.index.updateZ(mutableWidget.id, mutableWidget.label));
+            }
+            // boundaries might have been changed by a concurrent move after the widget has been read
+            Placement placement = mutableWidget.placement;
+            if (!Objects.equals(placement.boundaries, newBoundaries)) {
+                long newTileKey = tileKey(newBoundaries);
+                if (newTileKey == placement.tileKey) {
+                    Shard shard = shards.get(placement.tileKey);
+                    shard.write(() -> {
+                        shard.index.move(mutableWidget.id, newBoundaries);
+                        shard.extendCoverage(newBoundaries);
+                    });
+                } else {
+                    removeFromShard(mutableWidget);
+                }
+                mutableWidget.placement = new Placement(
+                    newBoundaries,
+                    newTileKey,
+                    modificationTimestamp,
+                    version.get()
+                );
+                if (newTileKey != placement.tileKey) {
+                    addToShard(mutableWidget);
+                }
+            }
+        });
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Optional<Versioned<Widget>> getVersionedWidgetById(WidgetId id) {
+        Objects.requireNonNull(id, "id");
+        return underZOrderReadLock(() -> Optional.ofNullable(widgetsByIds.get(id)).map(widget -> {
+            Placement placement = widget.placement;
+            return Versioned.of(
+                toImmutable(widgetsByZIndex.get(widget.label), placement),
+                Math.max(placement.version, zOrderVersion)
+            );
+        }));
+    }
+
+    /**
+     * Moves the widget under the read locks of the Z-order layer and of moves and the write locks of its old and new
+     * shards only (they are locked in the order of keys of their tiles).
+     */
+    @Override
+    public boolean updateBoundaries(
+        WidgetId id,
+        long expectedVersion,
+        Region newBoundaries,
+        Instant modificationTimestamp
+    ) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(newBoundaries, "newBoundaries");
+        Objects.requireNonNull(modificationTimestamp, "modificationTimestamp");
+        return underZOrderReadLock(() -> underLock(moveLock.readLock(), () -> {
+            MutableWidget widget = widgetsByIds.get(id);
+            if (widget == null) {
+                return false;
+            }
+            Placement placement = widget.placement;
+            // the version of the Z-order layer can't change under its read lock
+            if (Math.max(placement.version, zOrderVersion) != expectedVersion) {
+                return false;
+            }
+            long newTileKey = tileKey(newBoundaries);
+            Shard oldShard = shards.get(placement.tileKey);
+            Shard newShard = newTileKey == placement.tileKey
+                ? oldShard
+                : shards.computeIfAbsent(newTileKey, tileKey -> new Shard(spatialIndexFactory.get()));
+            Shard firstShard = placement.tileKey < newTileKey ? oldShard : newShard;
+            Shard secondShard = firstShard == oldShard ? newShard : oldShard;
+            return firstShard.write(() -> secondShard.write(() -> {
+                // the widget might have been moved concurrently before its shards have been locked
+                if (widget.placement != placement) {
+                    return false;
+                }
+                if (newShard == oldShard) {
+                    oldShard.index.move(id, newBoundaries);
+                } else {
+                    oldShard.index.remove(id);
+                    newShard.index.add(id, newBoundaries, widget.label);
+                    if (oldShard.index.size() == 0) {
+                        emptyTileKeys.add(placement.tileKey);
+                    }
+                }
+                newShard.extendCoverage(newBoundaries);
+                widget.placement = new Placement(
+                    newBoundaries,
+                    newTileKey,
+                    modificationTimestamp,
+                    version.incrementAndGet()
+                );
+                return true;
+            }));
+        }));
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public boolean deleteById(WidgetId id) {
+        Objects.requireNonNull(id, "id");
+        return underZOrderWriteLock(() -> {
+            MutableWidget removedWidget = widgetsByIds.remove(id);
+            if (removedWidget == null) {
+                return false;
+            }
+            widgetsByZIndex.remove(removedWidget.label);
+            removeFromShard(removedWidget);
+            return true;
+        });
+    }
+
+    /**
+     * Rebuilds R-trees of all shards via bulk-loading. Bounding boxes of shards are shrunk to their widgets.
+     */
+    @Override
+    public void rebuildIndexes() {
+        underZOrderWriteLock(() -> {
+            Map<Long, List<Widget>> widgetsByTiles = new HashMap<>();
+            widgetsByZIndex.forEachAfter(null, Integer.MAX_VALUE, entry ->
+                widgetsByTiles.computeIfAbsent(entry.getValue().placement.tileKey, tileKey -> new ArrayList<>())
+                    .add(toImmutable(entry))
+            );
+            widgetsByTiles.forEach((tileKey, widgets) -> {
+                Shard shard = shards.get(tileKey);
+                shard.write(() -> {
+                    shard.index.load(widgets, widget -> widgetsByIds.get(widget.getId()).label);
+                    shard.coverage = null;
+                    widgets.forEach(widget -> shard.extendCoverage(widget.getBoundaries()));
+                });
+            });
+        });
+    }
+
+    /**
+     * Does nothing: pending modification timestamps are pushed down by the Z-order treap itself.
+     */
+    @Override
+    public void compact() {
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public Optional<Widget> getWidgetById(WidgetId id) {
+        Objects.requireNonNull(id, "id");
+        return underZOrderReadLock(() -> Optional.ofNullable(widgetsByIds.get(id)).map(this::toImmutable));
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgets(
+        Region regionToSearch,
+        RegionMatchMode matchMode,
+        Integer zIndexCursor,
+        int limit
+    ) {
+        Objects.requireNonNull(matchMode, "matchMode");
+        if (regionToSearch == null) {
+            // widgets might be moved concurrently, so the page is validated as well
+            return readConsistently(() -> underZOrderReadLock(() -> {
+                List<Widget> widgets = new ArrayList<>(Math.min(limit, widgetsByZIndex.size()));
+                widgetsByZIndex.forEachAfter(zIndexCursor, limit, entry -> widgets.add(toImmutable(entry)));
+                return widgets;
+            }));
+        }
+        return readConsistently(() -> {
+            long lowestLabel = underZOrderReadLock(() -> widgetsByZIndex.lowestLabelAfter(zIndexCursor));
+            List<MutableWidget> candidates = new ArrayList<>();
+            for (Shard shard : shards.values()) {
+                if (shard.matches(regionToSearch, matchMode)) {
+                    shard.read(() -> {
+                        if (matchMode == RegionMatchMode.INTERSECTS) {
+                            shard.index.intersectsFromZ(regionToSearch, lowestLabel, limit, id -> addCandidate(candidates, id));
+                        } else {
+                            shard.index.containsFromZ(regionToSearch, lowestLabel, limit, id -> addCandidate(candidates, id));
+                        }
+                    });
+                }
+            }
+            return resolve(candidates, Comparator.comparingLong(widget -> widget.label), limit);
+        });
+    }
+
+    /**
+     * Doesn't support snapshots: the list is read from the current state.
+     */
+    @Override
+    public Versioned<List<Widget>> getWidgets(WidgetsFilter filter) {
+        Objects.requireNonNull(filter, "filter");
+        return Versioned.unversioned(
+            getWidgets(
+                filter.getRegion().orElse(null),
+                filter.getMatchMode(),
+                filter.getCursor().orElse(null),
+                filter.getLimit()
+            )
+        );
+    }
+
+    /**
+     * Executes all searches by a single traversal of R-trees of every matching shard.
+     */
+    @Override
+    public List<List<Widget>> getWidgets(List<WidgetsFilter> filters) {
+        Objects.requireNonNull(filters, "filters");
+        return readConsistently(() -> {
+            long[] lowestLabels = underZOrderReadLock(() -> {
+                long[] labels = new long[filters.size()];
+                for (int i = 0; i < filters.size(); i++) {
+                    labels[i] = widgetsByZIndex.lowestLabelAfter(filters.get(i).getCursor().orElse(null));
+                }
+                return labels;
+            });
+            List<List<MutableWidget>> candidates = new ArrayList<>(filters.size());
+            filters.forEach(filter -> candidates.add(new ArrayList<>()));
+            for (Shard shard : shards.values()) {
+                if (filters.stream().anyMatch(filter -> shard.matches(filter.getRegion().orElse(null), filter.getMatchMode()))) {
+                    shard.read(() -> shard.index.searchInZOrder(filters, lowestLabels, (id, filterIndex) ->
+                        addCandidate(candidates.get(filterIndex), id)
+                    ));
+                }
+            }
+            return underZOrderReadLock(() -> {
+                List<List<Widget>> widgets = new ArrayList<>(filters.size());
+                for (int i = 0; i < filters.size(); i++) {
+                    widgets.add(
+                        resolve(candidates.get(i), Comparator.comparingLong(widget -> widget.label), filters.get(i).getLimit())
+                    );
+                }
+                return widgets;
+            });
+        });
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public List<Widget> getWidgetsAt(int x, int y, int limit) {
+        Region point = Region.builder()
+            .setX(x)
+            .setY(y)
+            .setWidth(0)
+            .setHeight(0)
+            .builder();
+        return readConsistently(() -> {
+            List<MutableWidget> candidates = new ArrayList<>();
+            for (Shard shard : shards.values()) {
+                if (shard.matches(point, RegionMatchMode.INTERSECTS)) {
+                    shard.read(() -> shard.index.coveringInReverseZOrder(x, y, limit, id -> addCandidate(candidates, id)));
+                }
+            }
+            return resolve(candidates, Comparator.comparingLong((MutableWidget widget) -> widget.label).reversed(), limit);
+        });
+    }
+
+    /**
+     * Executes the read operation and checks that no write operation has been executed meanwhile. Otherwise, executes
+     * it again up to {@value #MAX_OPTIMISTIC_READ_ATTEMPTS} times in total, and then under the read lock of the Z-order
+     * layer and the write lock of moves (i.e. without concurrent writes, but concurrently with readers).
+     */
+    private <T> T readConsistently(Supplier<T> read) {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long startVersion = version.get();
+            try {
+                T result = read.get();
+                if (version.get() == startVersion) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (version.get() == startVersion) {
+                    throw e;
+                }
+            }
+        }
+        return underZOrderReadLock(() -> underLock(moveLock.writeLock(), read));
+    }
+
+    private void addCandidate(List<MutableWidget> candidates, WidgetId id) {
+        MutableWidget widget = widgetsByIds.get(id);
+        if (widget != null) {
+            candidates.add(widget);
+        }
+    }
+
+    /**
+     * Sorts candidates found in shards and converts the first of them to widgets under the read lock of the Z-order
+     * layer (labels are not changed under it). A candidate that is not found in the Z-order layer has been modified
+     * concurrently (the result will be discarded by {@link #readConsistently(Supplier)}), so it's skipped.
+     */
+    private List<Widget> resolve(List<MutableWidget> candidates, Comparator<MutableWidget> order, int limit) {
+        return underZOrderReadLock(() -> {
+            candidates.sort(order);
+            List<Widget> widgets = new ArrayList<>(Math.min(limit, candidates.size()));
+            for (int i = 0; i < candidates.size() && widgets.size() < limit; i++) {
+                ZOrderTreap.Entry<MutableWidget> entry = widgetsByZIndex.get(candidates.get(i).label);
+                if (entry != null) {
+                    widgets.add(toImmutable(entry));
+                }
+            }
+            return widgets;
+        });
+    }
+
+    private void addToShard(MutableWidget widget) {
+        Placement placement = widget.placement;
+        Shard shard = shards.computeIfAbsent(placement.tileKey, tileKey -> new Shard(spatialIndexFactory.get()));
+        shard.write(() -> {
+            shard.index.add(widget.id, placement.boundaries, widget.label);
+            shard.extendCoverage(placement.boundaries);
+        });
+    }
+
+    private void removeFromShard(MutableWidget widget) {
+        long tileKey = widget.placement.tileKey;
+        Shard shard = shards.get(tileKey);
+        shard.write(() -> shard.index.remove(widget.id));
+        if (shard.index.size() == 0) {
+            shards.remove(tileKey);
+        }
+    }
+
+    /**
+     * Removes shards that have been left empty by moves. It's called under the write lock of the Z-order layer (i.e.
+     * without concurrent moves that might add widgets to them).
+     */
+    private void removeEmptyShards() {
+        for (Iterator<Long> iterator = emptyTileKeys.iterator(); iterator.hasNext(); ) {
+            long tileKey = iterator.next();
+            iterator.remove();
+            Shard shard = shards.get(tileKey);
+            if (shard != null && shard.index.size() == 0) {
+                shards.remove(tileKey);
+            }
+        }
+    }
+
+    /**
+     * Updates the label of a widget in the R-tree of its shard when the widget is relabeled by the Z-order sequence.
+     */
+    private void relabel(MutableWidget widget, long label) {
+        widget.label = label;
+        Shard shard = shards.get(widget.placement.tileKey);
+        if (shard != null) {
+            shard.write(() -> shard.index.updateZ(widget.id, label));
+        }
+    }
+
+    private long tileKey(Region boundaries) {
+        long tileX = Math.floorDiv(boundaries.getX(), tileSize);
+        long tileY = Math.floorDiv(boundaries.getY(), tileSize);
+        return (tileX << 32) | (tileY & 0xFFFFFFFFL);
+    }
+
+    private <T> T underZOrderReadLock(Supplier<T> action) {
+        return underLock(zOrderLock.readLock(), action);
+    }
+
+    private static <T> T underLock(Lock lock, Supplier<T> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void underZOrderWriteLock(Runnable action) {
+        underZOrderWriteLock(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private <T> T underZOrderWriteLock(Supplier<T> action) {
+        zOrderLock.writeLock().lock();
+        try {
+            removeEmptyShards();
+            return action.get();
+        } finally {
+            zOrderVersion = version.incrementAndGet();
+            zOrderLock.writeLock().unlock();
+        }
+    }
+
+    private Widget toImmutable(MutableWidget widget) {
+        return toImmutable(widgetsByZIndex.get(widget.label));
+    }
+
+    private static Widget toImmutable(ZOrderTreap.Entry<MutableWidget> entry) {
+        return toImmutable(entry, entry.getValue().placement);
+    }
+
+    /**
+     * Converts the entry to a widget. The modification timestamp is the latest of the timestamps of the Z-order layer
+     * (the widget's Z-index or a shift of it) and of the boundaries.
+     */
+    private static Widget toImmutable(ZOrderTreap.Entry<MutableWidget> entry, Placement placement) {
+        Instant modifiedAt = entry.getModifiedAt();
+        return Widget.builder()
+            .setId(entry.getValue().id)
+            .setBoundaries(placement.boundaries)
+            .setZ(entry.getZ())
+            .setModifiedAt(placement.movedAt.isAfter(modifiedAt) ? placement.movedAt : modifiedAt)
+            .build();
+    }
+
+    /**
+     * A mutable widget representation. Its label is modified only under the write lock of the Z-order layer, and its
+     * placement is modified under the write lock of its shard as well.
+     */
+    private static class MutableWidget {
+
+        private final WidgetId id;
+
+        private volatile Placement placement;
+
+        /**
+         * The label of the widget's Z-index in the {@link ZOrderTreap} and the R-tree of the shard.
+         */
+        private volatile long label;
+
+        private MutableWidget(WidgetId id, Placement placement) {
+            this.id = Objects.requireNonNull(id, "id");
+            this.placement = Objects.requireNonNull(placement, "placement");
+        }
+
+        @Override
+        public String toString() {
+            return "MutableWidget{" +
+                "id='" + id + '\'' +
+                ", placement=" + placement +
+                ", label=" + label +
+                '}';
+        }
+    }
+
+    /**
+     * Boundaries of a widget together with their metadata. It's immutable and replaced as a whole, so a reader never
+     * observes boundaries with a timestamp or a version of other boundaries.
+     */
+    private static final class Placement {
+
+        private final Region boundaries;
+
+        /**
+         * The key of the tile (shard) that contains the lower-left corner of the widget.
+         */
+        private final long tileKey;
+
+        /**
+         * The timestamp of the modification that has set these boundaries.
+         */
+        private final Instant movedAt;
+
+        /**
+         * The version of the repository when these boundaries have been set.
+         */
+        private final long version;
+
+        private Placement(Region boundaries, long tileKey, Instant movedAt, long version) {
+            this.boundaries = Objects.requireNonNull(boundaries, "boundaries");
+            this.tileKey = tileKey;
+            this.movedAt = Objects.requireNonNull(movedAt, "movedAt");
+            this.version = version;
+        }
+
+        @Override
+        public String toString() {
+            return "Placement{" +
+                "boundaries=" + boundaries +
+                ", tileKey=" + tileKey +
+                ", movedAt=" + movedAt +
+                ", version=" + version +
+                '}';
+        }
+    }
+
+    /**
+     * A shard: an R-tree of widgets of a tile and its lock.
+     */
+    private static final class Shard {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final WidgetRTree index;
+
+        /**
+         * The bounding box of widgets of this shard ({@code [minX, minY, maxX, maxY]}) or null if there are no widgets.
+         * It's only extended until the index is rebuilt, so it might be larger than the actual bounding box.
+         */
+        private volatile long[] coverage;
+
+        private Shard(WidgetRTree index) {
+            this.index = index;
+        }
+
+        private boolean matches(Region region, RegionMatchMode matchMode) {
+            long[] bounds = coverage;
+            if (bounds == null) {
+                return false;
+            }
+            if (region == null) {
+                return true;
+            }
+            long minX = region.getX();
+            long minY = region.getY();
+            long maxX = minX + region.getWidth();
+            long maxY = minY + region.getHeight();
+            // a widget contained by the region intersects it as well
+            return bounds[0] <= maxX && minX <= bounds[2] && bounds[1] <= maxY && minY <= bounds[3];
+        }
+
+        private void extendCoverage(Region boundaries) {
+            long[] bounds = coverage;
+            long minX = boundaries.getX();
+            long minY = boundaries.getY();
+            long maxX = minX + boundaries.getWidth();
+            long maxY = minY + boundaries.getHeight();
+            coverage = bounds == null
+                ? new long[] { minX, minY, maxX, maxY }
+                : new long[] {
+                    Math.min(bounds[0], minX),
+                    Math.min(bounds[1], minY),
+                    Math.max(bounds[2], maxX),
+                    Math.max(bounds[3], maxY)
+                };
+        }
+
+        private void read(Runnable action) {
+            lock.readLock().lock();
+            try {
+                action.run();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void write(Runnable action) {
+            write(() -> {
+                action.run();
+                return null;
+            });
+        }
+
+        private <T> T write(Supplier<T> action) {
+            lock.writeLock().lock();
+            try {
+                return action.get();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
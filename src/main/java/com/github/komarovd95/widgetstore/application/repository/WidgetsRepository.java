@@ -1,7 +1,12 @@
 package com.github.komarovd95.widgetstore.application.repository;
 
 import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.SnapshotExpiredException;
+import com.github.komarovd95.widgetstore.application.domain.Versioned;
 import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
 import com.github.komarovd95.widgetstore.application.service.WidgetsService;
 
 import java.time.Instant;
@@ -32,7 +37,7 @@ public interface WidgetsRepository {
      * @param zIndex the Z-index of the widget
      * @param modificationTimestamp the timestamp of the insertion, not null
      */
-    void insert(String id, Region boundaries, int zIndex, Instant modificationTimestamp);
+    void insert(WidgetId id, Region boundaries, int zIndex, Instant modificationTimestamp);
 
     /**
      * Updates an existing widget in this repository.
@@ -51,7 +56,20 @@ public interface WidgetsRepository {
      * @return {@code true} if widget has been deleted or {@code false} if there is no widget with the given ID
      *         in this repository
      */
-    boolean deleteById(String id);
+    boolean deleteById(WidgetId id);
+
+    /**
+     * Rebuilds indexes of this repository from scratch. The implementations MAY do nothing if indexes don't need any
+     * maintenance.
+     */
+    void rebuildIndexes();
+
+    /**
+     * Folds lazily maintained metadata (e.g. deferred modification timestamps of shifted widgets) into the widgets.
+     * The compaction MUST NOT change any observable state of this repository. The implementations MAY do nothing if
+     * they don't defer any metadata.
+     */
+    void compact();
 
     /**
      * Returns an existing widget by given ID.
@@ -59,17 +77,89 @@ public interface WidgetsRepository {
      * @param id the identifier of the widget, not null
      * @return the found widget or {@link Optional#empty()} if there is no widget with the given ID in this repository
      */
-    Optional<Widget> getWidgetById(String id);
+    Optional<Widget> getWidgetById(WidgetId id);
+
+    /**
+     * Returns an existing widget by given ID together with the version of its record. The version changes whenever
+     * the widget is modified (including shifts of its Z-index).
+     * <p>
+     * By default, the widget is unversioned, i.e. the repository doesn't support {@link #updateBoundaries}.
+     *
+     * @param id the identifier of the widget, not null
+     * @return the found widget or {@link Optional#empty()} if there is no widget with the given ID in this repository
+     */
+    default Optional<Versioned<Widget>> getVersionedWidgetById(WidgetId id) {
+        return getWidgetById(id).map(Versioned::unversioned);
+    }
+
+    /**
+     * Updates boundaries of an existing widget only if its record still has the given version (see
+     * {@link #getVersionedWidgetById(WidgetId)}). The Z-index of the widget is not changed, so no widgets are shifted.
+     * <p>
+     * It's a single conditional update, so it MAY be executed concurrently with other write operations.
+     *
+     * @param id the identifier of the widget, not null
+     * @param expectedVersion the version of the widget's record that has been read
+     * @param newBoundaries the new boundaries of the widget, not null
+     * @param modificationTimestamp the modification timestamp, not null
+     * @return true if the widget has been updated, or false if it has been modified or deleted concurrently
+     * @throws UnsupportedOperationException if the repository doesn't support versioning (by default)
+     */
+    default boolean updateBoundaries(
+        WidgetId id,
+        long expectedVersion,
+        Region newBoundaries,
+        Instant modificationTimestamp
+    ) {
+        throw new UnsupportedOperationException("Versioned updates are not supported");
+    }
 
     /**
      * Returns a list of widgets by given filter.
      *
      * @param regionToSearch the region to search into. Might be null. If present, then all widgets
-     *                       that contained by this region will be returned
+     *                       that match this region will be returned
+     * @param matchMode the mode of matching widgets against the region, not null
      * @param zIndexCursor the Z-index cursor for cursor-based pagination. Might be null. If present, then all widgets
      *                     with Z-index more than given value will be returned
      * @param limit the maximum number of widgets that will be returned in the list
      * @return the list of widgets
      */
-    List<Widget> getWidgets(Region regionToSearch, Integer zIndexCursor, int limit);
+    List<Widget> getWidgets(Region regionToSearch, RegionMatchMode matchMode, Integer zIndexCursor, int limit);
+
+    /**
+     * Returns a list of widgets by given filter read from a single snapshot of this repository. The list is the same as
+     * the one returned by {@link #getWidgets(Region, RegionMatchMode, Integer, int)} for the snapshot.
+     * <p>
+     * If the filter references a snapshot version, then the list is read from that snapshot, otherwise it's read from
+     * the latest one. The implementations that don't support snapshots always read the current state and return an
+     * unversioned list.
+     *
+     * @param filter the filter, not null. The limit of the filter is the maximum number of widgets that will be
+     *               returned in the list
+     * @return the list of widgets and the version of the snapshot it has been read from
+     * @throws SnapshotExpiredException if the referenced snapshot is not retained by this repository anymore
+     */
+    Versioned<List<Widget>> getWidgets(WidgetsFilter filter);
+
+    /**
+     * Returns lists of widgets for several spatial searches at once. Every list is the same as the one returned by
+     * {@link #getWidgets(Region, RegionMatchMode, Integer, int)} for the corresponding filter.
+     *
+     * @param filters the filters, not null. Regions of all filters MUST be present. The limit of a filter is
+     *                the maximum number of widgets that will be returned in its list
+     * @return the lists of widgets in the same order as the filters
+     */
+    List<List<Widget>> getWidgets(List<WidgetsFilter> filters);
+
+    /**
+     * Returns a list of widgets that cover the given point, sorted by Z-index in descending order (the topmost widget
+     * first). A widget covers the point if {@code x <= px < x + width} and {@code y <= py < y + height}.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @param limit the maximum number of widgets that will be returned in the list
+     * @return the list of widgets
+     */
+    List<Widget> getWidgetsAt(int x, int y, int limit);
 }
@@ -0,0 +1,78 @@
+package com.github.komarovd95.widgetstore.application.repository;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An encoder of geometries to the Well-Known Binary (WKB) format.
+ * <p>
+ * Geometries are bound to SQL statements as WKB byte arrays, so neither the application formats WKT strings, nor
+ * the database parses them. Coordinates are written as little-endian doubles (the byte order is a part of the format).
+ */
+public final class WkbEncoder {
+
+    private static final byte LITTLE_ENDIAN = 1;
+
+    private static final int POINT_TYPE = 1;
+    private static final int POLYGON_TYPE = 3;
+
+    /**
+     * The size of a polygon with a single ring of 5 points: byte order, type, number of rings, number of points and
+     * the points.
+     */
+    private static final int RECTANGLE_SIZE = 1 + 4 + 4 + 4 + 5 * 2 * Double.BYTES;
+
+    /**
+     * The size of a point: byte order, type and coordinates.
+     */
+    private static final int POINT_SIZE = 1 + 4 + 2 * Double.BYTES;
+
+    private WkbEncoder() {
+    }
+
+    /**
+     * Encodes the region as a closed polygon (counter-clockwise, starting from the lower-left corner).
+     *
+     * @param region the region, not null
+     * @return the WKB polygon
+     */
+    public static byte[] rectangle(Region region) {
+        double minX = region.getX();
+        double minY = region.getY();
+        double maxX = (double) region.getX() + region.getWidth();
+        double maxY = (double) region.getY() + region.getHeight();
+        byte[] bytes = new byte[RECTANGLE_SIZE];
+        ByteBuffer.wrap(bytes)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .put(LITTLE_ENDIAN)
+            .putInt(POLYGON_TYPE)
+            .putInt(1)
+            .putInt(5)
+            .putDouble(minX).putDouble(minY)
+            .putDouble(maxX).putDouble(minY)
+            .putDouble(maxX).putDouble(maxY)
+            .putDouble(minX).putDouble(maxY)
+            .putDouble(minX).putDouble(minY);
+        return bytes;
+    }
+
+    /**
+     * Encodes the point.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @return the WKB point
+     */
+    public static byte[] point(int x, int y) {
+        byte[] bytes = new byte[POINT_SIZE];
+        ByteBuffer.wrap(bytes)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .put(LITTLE_ENDIAN)
+            .putInt(POINT_TYPE)
+            .putDouble(x)
+            .putDouble(y);
+        return bytes;
+    }
+}
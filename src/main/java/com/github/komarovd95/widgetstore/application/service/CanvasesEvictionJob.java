@@ -0,0 +1,40 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.Objects;
+
+/**
+ * A background job that periodically evicts idle canvases.
+ * <p>
+ * The interval between evictions is configured via {@value #INTERVAL_PROPERTY} property (an ISO-8601 duration,
+ * one minute by default).
+ *
+ * @see CanvasesService#evictIdleCanvases()
+ */
+public class CanvasesEvictionJob {
+
+    private static final Logger log = LoggerFactory.getLogger(CanvasesEvictionJob.class);
+
+    public static final String INTERVAL_PROPERTY = "widgets.canvases.eviction-interval";
+
+    private final CanvasesService canvasesService;
+
+    public CanvasesEvictionJob(CanvasesService canvasesService) {
+        this.canvasesService = Objects.requireNonNull(canvasesService, "canvasesService");
+    }
+
+    @Scheduled(
+        fixedDelayString = "${" + INTERVAL_PROPERTY + ":PT1M}",
+        initialDelayString = "${" + INTERVAL_PROPERTY + ":PT1M}"
+    )
+    public void evict() {
+        try {
+            canvasesService.evictIdleCanvases();
+        } catch (RuntimeException e) {
+            log.warn("Failed to evict idle canvases", e);
+        }
+    }
+}
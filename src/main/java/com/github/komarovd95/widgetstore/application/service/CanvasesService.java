@@ -0,0 +1,237 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.service.generator.WidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A registry of canvases: independent widget planes with their own storages.
+ * <p>
+ * A canvas is created lazily on the first write ({@link #writeCanvas(String, Function)}), reads of a missing canvas
+ * ({@link #readCanvas(String, Function)}) don't create it. Every canvas has its own repository, indexes, Z-indices and
+ * transactions service (so its own locks), thus operations on different canvases don't contend with each other.
+ * <p>
+ * Canvases that haven't been accessed for the idle timeout and have no widgets are evicted by
+ * {@link #evictIdleCanvases()}: their storages are closed. Canvases with widgets are never evicted. Every operation
+ * holds its canvas for the duration of the operation, so a canvas that is in use is not evicted either.
+ *
+ * @see CanvasesEvictionJob
+ */
+public class CanvasesService implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CanvasesService.class);
+
+    private final Map<String, Canvas> canvases = new ConcurrentHashMap<>();
+
+    private final WidgetsStorageFactory storageFactory;
+
+    private final WidgetIdGenerator idGenerator;
+
+    private final Clock clock;
+
+    private final Duration idleTimeout;
+
+    /**
+     * @param storageFactory the factory of storages of canvases, not null
+     * @param idGenerator the generator of widgets' IDs, not null
+     * @param clock the clock, not null
+     * @param idleTimeout the duration after the last access when a canvas is evicted, positive
+     */
+    public CanvasesService(
+        WidgetsStorageFactory storageFactory,
+        WidgetIdGenerator idGenerator,
+        Clock clock,
+        Duration idleTimeout
+    ) {
+        this.storageFactory = Objects.requireNonNull(storageFactory, "storageFactory");
+        this.idGenerator = Objects.requireNonNull(idGenerator, "idGenerator");
+        this.clock = Objects.requireNonNull(clock, "clock");
+        this.idleTimeout = Objects.requireNonNull(idleTimeout, "idleTimeout");
+        if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("Idle timeout must be positive: idleTimeout=" + idleTimeout);
+        }
+    }
+
+    /**
+     * Applies the action to the widgets service of an existing canvas.
+     *
+     * @param canvasId the ID of the canvas, not null
+     * @param action the action, not null
+     * @return the result of the action or {@link Optional#empty()} if there is no such canvas
+     */
+    public <T> Optional<T> readCanvas(String canvasId, Function<? super WidgetsService, ? extends T> action) {
+        Objects.requireNonNull(canvasId, "canvasId");
+        Objects.requireNonNull(action, "action");
+        Canvas canvas = acquire(canvasId, false);
+        if (canvas == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.ofNullable(action.apply(canvas.widgetsService));
+        } finally {
+            release(canvasId);
+        }
+    }
+
+    /**
+     * Applies the action to the widgets service of the canvas. If there is no such canvas, then it's created.
+     *
+     * @param canvasId the ID of the canvas, not null
+     * @param action the action, not null
+     * @return the result of the action
+     */
+    public <T> T writeCanvas(String canvasId, Function<? super WidgetsService, ? extends T> action) {
+        Objects.requireNonNull(canvasId, "canvasId");
+        Objects.requireNonNull(action, "action");
+        Canvas canvas = acquire(canvasId, true);
+        try {
+            return action.apply(canvas.widgetsService);
+        } finally {
+            release(canvasId);
+        }
+    }
+
+    /**
+     * Applies the action to widgets services of all existing canvases one by one (e.g. for maintenance of their
+     * storages). Canvases created meanwhile might be skipped.
+     *
+     * @param action the action, not null
+     * @return the number of canvases the action has been applied to
+     */
+    public int forEachCanvas(Consumer<? super WidgetsService> action) {
+        Objects.requireNonNull(action, "action");
+        int applied = 0;
+        for (String canvasId : canvases.keySet()) {
+            Optional<Boolean> result = readCanvas(canvasId, service -> {
+                action.accept(service);
+                return true;
+            });
+            if (result.isPresent()) {
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    private Canvas acquire(String canvasId, boolean create) {
+        Instant now = clock.instant();
+        return canvases.compute(canvasId, (id, canvas) -> {
+            if (canvas == null) {
+                if (!create) {
+                    return null;
+                }
+                log.info("Creating a canvas: canvasId={}", id);
+                TransactionsService transactionsService = storageFactory.newTransactionsService();
+                canvas = new Canvas(
+                    transactionsService,
+                    new WidgetsService(
+                        transactionsService,
+                        storageFactory.newWidgetsRepository(),
+                        idGenerator,
+                        clock,
+                        storageFactory.isOptimisticMoves()
+                    )
+                );
+            }
+            canvas.lastAccessedAt = now;
+            canvas.operations++;
+            return canvas;
+        });
+    }
+
+    private void release(String canvasId) {
+        canvases.computeIfPresent(canvasId, (id, canvas) -> {
+            canvas.operations--;
+            return canvas;
+        });
+    }
+
+    /**
+     * @return the number of existing canvases
+     */
+    public int size() {
+        return canvases.size();
+    }
+
+    /**
+     * Evicts canvases that haven't been accessed for the idle timeout, have no widgets and are not used by any
+     * operation.
+     *
+     * @return the number of evicted canvases
+     */
+    public int evictIdleCanvases() {
+        Instant threshold = clock.instant().minus(idleTimeout);
+        int evicted = 0;
+        for (String canvasId : canvases.keySet()) {
+            Canvas[] evictedCanvas = new Canvas[1];
+            canvases.computeIfPresent(canvasId, (id, canvas) -> {
+                if (canvas.lastAccessedAt.isAfter(threshold) || canvas.operations > 0) {
+                    return canvas;
+                }
+                if (!canvas.widgetsService.isEmpty()) {
+                    return canvas;
+                }
+                evictedCanvas[0] = canvas;
+                return null;
+            });
+            if (evictedCanvas[0] != null) {
+                log.info("Evicting an idle canvas: canvasId={}", canvasId);
+                evictedCanvas[0].close();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Closes storages of all canvases.
+     */
+    @Override
+    public void close() {
+        canvases.values().forEach(Canvas::close);
+        canvases.clear();
+    }
+
+    private static final class Canvas {
+
+        private final TransactionsService transactionsService;
+
+        private final WidgetsService widgetsService;
+
+        /**
+         * The moment of the last access. It's modified only inside of the map's compute methods.
+         */
+        private Instant lastAccessedAt;
+
+        /**
+         * The number of operations that are using the canvas. It's modified only inside of the map's compute methods.
+         */
+        private int operations;
+
+        private Canvas(TransactionsService transactionsService, WidgetsService widgetsService) {
+            this.transactionsService = transactionsService;
+            this.widgetsService = widgetsService;
+        }
+
+        private void close() {
+            if (transactionsService instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) transactionsService).close();
+                } catch (Exception e) {
+                    log.warn("Failed to close the transactions service of a canvas", e);
+                }
+            }
+        }
+    }
+}
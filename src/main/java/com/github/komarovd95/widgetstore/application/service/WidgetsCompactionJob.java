@@ -0,0 +1,40 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.Objects;
+
+/**
+ * A background job that periodically compacts the widgets storage.
+ * <p>
+ * The interval between compactions is configured via {@value #INTERVAL_PROPERTY} property (an ISO-8601 duration,
+ * one minute by default).
+ *
+ * @see WidgetsService#compact()
+ */
+public class WidgetsCompactionJob {
+
+    private static final Logger log = LoggerFactory.getLogger(WidgetsCompactionJob.class);
+
+    public static final String INTERVAL_PROPERTY = "widgets.compaction.interval";
+
+    private final WidgetsService widgetsService;
+
+    public WidgetsCompactionJob(WidgetsService widgetsService) {
+        this.widgetsService = Objects.requireNonNull(widgetsService, "widgetsService");
+    }
+
+    @Scheduled(
+        fixedDelayString = "${" + INTERVAL_PROPERTY + ":PT1M}",
+        initialDelayString = "${" + INTERVAL_PROPERTY + ":PT1M}"
+    )
+    public void compact() {
+        try {
+            widgetsService.compact();
+        } catch (RuntimeException e) {
+            log.warn("Failed to compact the storage", e);
+        }
+    }
+}
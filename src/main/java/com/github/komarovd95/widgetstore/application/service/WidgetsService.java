@@ -2,7 +2,11 @@ package com.github.komarovd95.widgetstore.application.service;
 
 import com.github.komarovd95.widgetstore.application.domain.PagedList;
 import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.SnapshotExpiredException;
+import com.github.komarovd95.widgetstore.application.domain.Versioned;
 import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
 import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
 import com.github.komarovd95.widgetstore.application.repository.WidgetsRepository;
 import com.github.komarovd95.widgetstore.application.service.generator.WidgetIdGenerator;
@@ -13,9 +17,14 @@ import org.slf4j.LoggerFactory;
 
 import java.time.Clock;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Widgets service. There are some implementation requirements:
@@ -38,6 +47,18 @@ public class WidgetsService {
      */
     private static final int INITIAL_Z_INDEX = 0;
 
+    /**
+     * The maximum size of a page of widgets (without spatial search) that is read in an optimistic read transaction.
+     * Larger pages are likely to be invalidated by concurrent writes, so they are read in regular read transactions.
+     */
+    private static final int OPTIMISTIC_READ_LIMIT = 20;
+
+    /**
+     * The maximum number of attempts of an optimistic update of widget's boundaries. When all of them have conflicted
+     * with concurrent modifications, the update is executed in a regular write transaction.
+     */
+    private static final int MAX_OPTIMISTIC_MOVE_ATTEMPTS = 3;
+
     private final TransactionsService transactionsService;
 
     private final WidgetsRepository widgetsRepository;
@@ -46,16 +67,33 @@ public class WidgetsService {
 
     private final Clock clock;
 
+    /**
+     * If true, then updates that don't change Z-indices of widgets are executed as conditional updates of versioned
+     * widgets in optimistic write transactions.
+     */
+    private final boolean optimisticMoves;
+
     public WidgetsService(
         TransactionsService transactionsService,
         WidgetsRepository widgetsRepository,
         WidgetIdGenerator idGenerator,
         Clock clock
+    ) {
+        this(transactionsService, widgetsRepository, idGenerator, clock, false);
+    }
+
+    public WidgetsService(
+        TransactionsService transactionsService,
+        WidgetsRepository widgetsRepository,
+        WidgetIdGenerator idGenerator,
+        Clock clock,
+        boolean optimisticMoves
     ) {
         this.transactionsService = Objects.requireNonNull(transactionsService, "transactionsService");
         this.widgetsRepository = Objects.requireNonNull(widgetsRepository, "widgetsRepository");
         this.idGenerator = Objects.requireNonNull(idGenerator, "idGenerator");
         this.clock = clock;
+        this.optimisticMoves = optimisticMoves;
     }
 
     /**
@@ -71,10 +109,25 @@ public class WidgetsService {
      * @return the created widget with a generated identifier. Never returns null.
      */
     public Widget createWidget(StoreWidgetParameters parameters) {
+        return transactionsService.writeTransaction(createWidgetAction(parameters));
+    }
+
+    /**
+     * Submits creation of a new widget (see {@link #createWidget(StoreWidgetParameters)}) without waiting for it.
+     * Submitted modifications are applied in the order of submission.
+     *
+     * @param parameters the parameters to create a new widget (never null)
+     * @return the future of the created widget. Never returns null.
+     */
+    public CompletableFuture<Widget> createWidgetAsync(StoreWidgetParameters parameters) {
+        return transactionsService.submitWriteTransaction(createWidgetAction(parameters));
+    }
+
+    private Supplier<Widget> createWidgetAction(StoreWidgetParameters parameters) {
         Objects.requireNonNull(parameters, "parameters");
-        String id = idGenerator.generate();
-        Instant modificationTimestamp = clock.instant();
-        Widget widget = transactionsService.writeTransaction(() -> {
+        WidgetId id = idGenerator.generate();
+        return () -> {
+            Instant modificationTimestamp = clock.instant();
             int zIndex = parameters.getZ()
                 .orElseGet(() ->
                     widgetsRepository.getCurrentForegroundZIndex()
@@ -88,15 +141,15 @@ public class WidgetsService {
                 zIndex,
                 modificationTimestamp
             );
-            return Widget.builder()
+            Widget widget = Widget.builder()
                 .setId(id)
                 .setBoundaries(parameters.getBoundaries())
                 .setZ(zIndex)
                 .setModifiedAt(modificationTimestamp)
                 .build();
-        });
-        log.info("Widget has been created successfully: widget={}", widget);
-        return widget;
+            log.info("Widget has been created successfully: widget={}", widget);
+            return widget;
+        };
     }
 
     /**
@@ -113,11 +166,84 @@ public class WidgetsService {
      * @return the updated widget or {@link Optional#empty()} if there is no existing widget with the given ID.
      * Never returns null.
      */
-    public Optional<Widget> updateWidget(String id, StoreWidgetParameters parameters) {
+    public Optional<Widget> updateWidget(WidgetId id, StoreWidgetParameters parameters) {
+        if (optimisticMoves) {
+            Optional<Widget> movedWidget = tryMoveWidget(id, parameters);
+            if (movedWidget.isPresent()) {
+                return movedWidget;
+            }
+        }
+        return transactionsService.writeTransaction(updateWidgetAction(id, parameters));
+    }
+
+    /**
+     * Tries to update boundaries of a widget that keeps its Z-index via a conditional update of the versioned widget in
+     * an optimistic write transaction, so no overlying widgets are shifted. A conflicting concurrent modification of
+     * the widget is detected by its version, then the update is retried.
+     *
+     * @return the updated widget or {@link Optional#empty()} if the update must be executed in a regular write
+     * transaction (the Z-index is changed, the widget is not found or versioning is not supported, or all attempts
+     * have conflicted)
+     */
+    private Optional<Widget> tryMoveWidget(WidgetId id, StoreWidgetParameters parameters) {
         Objects.requireNonNull(id, "id");
         Objects.requireNonNull(parameters, "parameters");
-        Instant modificationTimestamp = clock.instant();
-        return transactionsService.writeTransaction(() -> {
+        if (parameters.getZ().isEmpty()) {
+            return Optional.empty();
+        }
+        int zIndex = parameters.getZ().get();
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_MOVE_ATTEMPTS; attempt++) {
+            Optional<Versioned<Widget>> optionalWidget = transactionsService.readTransaction(() ->
+                widgetsRepository.getVersionedWidgetById(id)
+            );
+            if (optionalWidget.isEmpty() || optionalWidget.get().getVersion().isEmpty()) {
+                return Optional.empty();
+            }
+            Widget widget = optionalWidget.get().getValue();
+            long version = optionalWidget.get().getVersion().get();
+            if (widget.getZ() != zIndex) {
+                return Optional.empty();
+            }
+            if (updateIsNotNeeded(widget, parameters.getBoundaries(), zIndex)) {
+                log.info("Widget doesn't need update: widget={}, parameters={}, zIndex={}", widget, parameters, zIndex);
+                return Optional.of(widget);
+            }
+            Instant modificationTimestamp = clock.instant();
+            boolean updated = transactionsService.optimisticWriteTransaction(() ->
+                widgetsRepository.updateBoundaries(id, version, parameters.getBoundaries(), modificationTimestamp)
+            );
+            if (updated) {
+                log.info("Widget has been moved: widget={}, parameters={}, version={}", widget, parameters, version);
+                return Optional.of(
+                    Widget.builder(widget)
+                        .setBoundaries(parameters.getBoundaries())
+                        .setModifiedAt(modificationTimestamp)
+                        .build()
+                );
+            }
+            log.debug("Widget has been modified concurrently: id={}, version={}, attempt={}", id, version, attempt);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Submits update of an existing widget (see {@link #updateWidget(WidgetId, StoreWidgetParameters)}) without waiting
+     * for it. Submitted modifications are applied in the order of submission.
+     *
+     * @param id         the identifier of the updating widget (never null)
+     * @param parameters the parameters to update an existing widget (never null)
+     * @return the future of the updated widget or {@link Optional#empty()} if there is no existing widget with
+     * the given ID. Never returns null.
+     */
+    public CompletableFuture<Optional<Widget>> updateWidgetAsync(WidgetId id, StoreWidgetParameters parameters) {
+        return transactionsService.submitWriteTransaction(updateWidgetAction(id, parameters));
+    }
+
+    private Supplier<Optional<Widget>> updateWidgetAction(WidgetId id, StoreWidgetParameters parameters) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(parameters, "parameters");
+        return () -> {
+            Instant modificationTimestamp = clock.instant();
             Optional<Widget> optionalWidget = widgetsRepository.getWidgetById(id);
             if (optionalWidget.isEmpty()) {
                 log.warn("Widget was not found by given ID: id={}", id);
@@ -150,7 +276,7 @@ public class WidgetsService {
                     .setModifiedAt(modificationTimestamp)
                     .build()
             );
-        });
+        };
     }
 
     private boolean updateIsNotNeeded(Widget widget, Region boundaries, int zIndex) {
@@ -167,17 +293,72 @@ public class WidgetsService {
      *
      * @param id the identifier of the deleting widget (never null)
      */
-    public void deleteWidget(String id) {
+    public void deleteWidget(WidgetId id) {
+        transactionsService.writeTransaction(deleteWidgetAction(id));
+    }
+
+    /**
+     * Submits deletion of an existing widget (see {@link #deleteWidget(WidgetId)}) without waiting for it. Submitted
+     * modifications are applied in the order of submission.
+     *
+     * @param id the identifier of the deleting widget (never null)
+     * @return the future that is completed when the deletion has been applied. Never returns null.
+     */
+    public CompletableFuture<Void> deleteWidgetAsync(WidgetId id) {
+        return transactionsService.submitWriteTransaction(deleteWidgetAction(id));
+    }
+
+    private Supplier<Void> deleteWidgetAction(WidgetId id) {
         Objects.requireNonNull(id, "id");
         log.info("Deleting an existing widget: id={}", id);
-        transactionsService.writeTransaction(() -> {
+        return () -> {
             if (widgetsRepository.deleteById(id)) {
                 log.info("Widget has been deleted successfully: id={}", id);
             } else {
                 log.info("Widget was not found by ID: id={}", id);
             }
             return null;
+        };
+    }
+
+    /**
+     * Rebuilds indexes of this storage (e.g. to repack the spatial index after lots of modifications).
+     * <p>
+     * Rebuild MUST be thread-safe and atomic: any of the other threads cannot observe the intermediate state of
+     * indexes.
+     */
+    public void rebuildIndexes() {
+        log.info("Rebuilding indexes");
+        transactionsService.writeTransaction(() -> {
+            widgetsRepository.rebuildIndexes();
+            return null;
+        });
+        log.info("Indexes have been rebuilt successfully");
+    }
+
+    /**
+     * Compacts lazily maintained metadata of this storage (e.g. deferred modification timestamps).
+     * <p>
+     * Compaction MUST be thread-safe and atomic. It doesn't change any observable state of widgets.
+     */
+    public void compact() {
+        log.debug("Compacting the storage");
+        transactionsService.writeTransaction(() -> {
+            widgetsRepository.compact();
+            return null;
         });
+        log.debug("Storage has been compacted successfully");
+    }
+
+    /**
+     * Checks whether this storage has no widgets.
+     * <p>
+     * The implementation of this method MUST be thread-safe.
+     *
+     * @return true if there are no widgets in this storage
+     */
+    public boolean isEmpty() {
+        return transactionsService.readTransaction(() -> widgetsRepository.getCurrentForegroundZIndex().isEmpty());
     }
 
     /**
@@ -189,9 +370,24 @@ public class WidgetsService {
      * @return the existing widget or {@link Optional#empty()} if there is no existing widget with the given ID.
      * Never returns null.
      */
-    public Optional<Widget> getWidgetById(String id) {
+    public Optional<Widget> getWidgetById(WidgetId id) {
         Objects.requireNonNull(id, "id");
-        return transactionsService.readTransaction(() -> widgetsRepository.getWidgetById(id));
+        return transactionsService.optimisticReadTransaction(() -> widgetsRepository.getWidgetById(id));
+    }
+
+    /**
+     * Returns a list of widgets that cover the given point. The widgets in the resulting list MUST be sorted by Z-index
+     * in descending order (the topmost widget first).
+     * <p>
+     * The implementation of this method MUST be thread-safe.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @param limit the maximum number of widgets to return
+     * @return a list of the topmost widgets, not null
+     */
+    public List<Widget> getWidgetsAt(int x, int y, int limit) {
+        return transactionsService.readTransaction(() -> widgetsRepository.getWidgetsAt(x, y, limit));
     }
 
     /**
@@ -199,23 +395,154 @@ public class WidgetsService {
      * <p>
      * The implementation of this method MUST be thread-safe.
      * <p>
-     * The implementation supports pagination.
+     * The implementation supports pagination. If the storage supports snapshots, then the page contains the version of
+     * the snapshot it has been read from, and the next page requested with this version is read from the same snapshot.
      *
      * @param filter a parameters that used for filtering widgets
      * @return a paged list of all widgets
+     * @throws SnapshotExpiredException if the requested snapshot is not retained by the storage anymore
      */
     public PagedList<Widget> getWidgets(WidgetsFilter filter) {
         Objects.requireNonNull(filter, "filter");
+        WidgetsFilter repositoryFilter = new WidgetsFilter(
+            filter.getRegion().orElse(null),
+            filter.getMatchMode(),
+            filter.getCursor().orElse(null),
+            filter.getLimit() + 1,
+            filter.getSnapshotVersion().orElse(null)
+        );
+        Supplier<Versioned<List<Widget>>> action = () -> widgetsRepository.getWidgets(repositoryFilter);
+        Versioned<List<Widget>> widgets = filter.getRegion().isEmpty() && filter.getLimit() <= OPTIMISTIC_READ_LIMIT
+            ? transactionsService.optimisticReadTransaction(action)
+            : transactionsService.readTransaction(action);
+        return toPage(widgets.getValue(), filter.getLimit(), widgets.getVersion().orElse(null));
+    }
+
+    /**
+     * Passes all widgets to the given consumer in ascending order of Z-index (e.g. for a full export of the storage).
+     * Every widget of a single state of the storage is passed exactly once, regardless of concurrent modifications.
+     * <p>
+     * The implementation of this method MUST be thread-safe. The consumer is never called under locks of the storage,
+     * so a slow consumer doesn't block writers:
+     * <ul>
+     *     <li>if the transactions service supports snapshot reads (see
+     *     {@link TransactionsService#supportsSnapshotReads()}), then widgets are read page by page in a single
+     *     snapshot read transaction;</li>
+     *     <li>if the storage publishes snapshots, then widgets are read page by page from the snapshot of the first
+     *     page in separate read transactions. If the storage doesn't retain the snapshot until the last page, then
+     *     the export fails with {@link SnapshotExpiredException};</li>
+     *     <li>otherwise, all widgets are copied in a single read transaction and passed to the consumer after it.</li>
+     * </ul>
+     * Only pages of {@code batchSize} widgets are held in memory in the first two cases, and references to all widgets
+     * are held in the last one.
+     *
+     * @param batchSize the number of widgets read per page, positive
+     * @param consumer the consumer of widgets, not null
+     * @throws SnapshotExpiredException if the snapshot of the first page is not retained anymore
+     */
+    public void exportWidgets(int batchSize, Consumer<? super Widget> consumer) {
+        Objects.requireNonNull(consumer, "consumer");
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: batchSize=" + batchSize);
+        }
+        if (transactionsService.supportsSnapshotReads()) {
+            transactionsService.snapshotReadTransaction(() -> {
+                // pages are read from the repository directly, since transactions might be not reentrant
+                Function<Integer, PagedList<Widget>> readPage = cursor -> toPage(
+                    widgetsRepository.getWidgets(null, RegionMatchMode.CONTAINS, cursor, batchSize + 1),
+                    batchSize,
+                    null
+                );
+                exportPages(readPage.apply(null), consumer, readPage);
+                return null;
+            });
+            return;
+        }
+        PagedList<Widget> firstPage = getWidgets(new WidgetsFilter(null, RegionMatchMode.CONTAINS, null, batchSize));
+        if (firstPage.getSnapshotVersion().isPresent()) {
+            long snapshotVersion = firstPage.getSnapshotVersion().get();
+            exportPages(firstPage, consumer, cursor -> {
+                WidgetsFilter filter = new WidgetsFilter(
+                    null,
+                    RegionMatchMode.CONTAINS,
+                    cursor,
+                    batchSize + 1,
+                    snapshotVersion
+                );
+                Versioned<List<Widget>> widgets = transactionsService.readTransaction(() ->
+                    widgetsRepository.getWidgets(filter)
+                );
+                // a page of another snapshot might skip or repeat widgets that have been shifted meanwhile
+                if (widgets.getVersion().filter(version -> version == snapshotVersion).isEmpty()) {
+                    throw new SnapshotExpiredException(snapshotVersion);
+                }
+                return toPage(widgets.getValue(), batchSize, snapshotVersion);
+            });
+            return;
+        }
+        if (firstPage.getCursor().isEmpty()) {
+            firstPage.getItems().forEach(consumer);
+            return;
+        }
+        // the first page is a part of another state of the storage, so all widgets are read again at once
         List<Widget> widgets = transactionsService.readTransaction(() ->
-            widgetsRepository.getWidgets(
-                filter.getRegion().orElse(null),
-                filter.getCursor().orElse(null),
-                filter.getLimit() + 1
-            )
+            widgetsRepository.getWidgets(null, RegionMatchMode.CONTAINS, null, Integer.MAX_VALUE)
         );
-        if (widgets.size() > filter.getLimit()) {
-            List<Widget> pageItems = widgets.subList(0, filter.getLimit());
-            return PagedList.nonLastPage(pageItems, pageItems.get(pageItems.size() - 1).getZ());
+        widgets.forEach(consumer);
+    }
+
+    private static void exportPages(
+        PagedList<Widget> firstPage,
+        Consumer<? super Widget> consumer,
+        Function<Integer, PagedList<Widget>> nextPage
+    ) {
+        PagedList<Widget> page = firstPage;
+        page.getItems().forEach(consumer);
+        while (page.getCursor().isPresent()) {
+            page = nextPage.apply(page.getCursor().get());
+            page.getItems().forEach(consumer);
+        }
+    }
+
+    /**
+     * Returns paged lists of widgets for several spatial searches at once (e.g. for tiles of a viewport). Every page is
+     * the same as the one returned by {@link #getWidgets(WidgetsFilter)} for the corresponding filter.
+     * <p>
+     * The implementation of this method MUST be thread-safe. All pages MUST be read from the same state of the storage.
+     *
+     * @param filters the filters, not null. Regions of all filters MUST be present
+     * @return the paged lists of widgets in the same order as the filters, not null
+     */
+    public List<PagedList<Widget>> getWidgets(List<WidgetsFilter> filters) {
+        Objects.requireNonNull(filters, "filters");
+        List<WidgetsFilter> repositoryFilters = new ArrayList<>(filters.size());
+        for (WidgetsFilter filter : filters) {
+            if (filter.getRegion().isEmpty()) {
+                throw new IllegalArgumentException("Region is required: filter=" + filter);
+            }
+            repositoryFilters.add(
+                new WidgetsFilter(
+                    filter.getRegion().get(),
+                    filter.getMatchMode(),
+                    filter.getCursor().orElse(null),
+                    filter.getLimit() + 1
+                )
+            );
+        }
+        List<List<Widget>> widgets = transactionsService.readTransaction(() ->
+            widgetsRepository.getWidgets(repositoryFilters)
+        );
+        List<PagedList<Widget>> pages = new ArrayList<>(filters.size());
+        for (int i = 0; i < filters.size(); i++) {
+            pages.add(toPage(widgets.get(i), filters.get(i).getLimit(), null));
+        }
+        return pages;
+    }
+
+    private static PagedList<Widget> toPage(List<Widget> widgets, int limit, Long snapshotVersion) {
+        if (widgets.size() > limit) {
+            List<Widget> pageItems = widgets.subList(0, limit);
+            return PagedList.nonLastPage(pageItems, pageItems.get(pageItems.size() - 1).getZ(), snapshotVersion);
         } else {
             return PagedList.lastPage(widgets);
         }
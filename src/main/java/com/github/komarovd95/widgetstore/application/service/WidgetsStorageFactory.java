@@ -0,0 +1,74 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.repository.WidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A factory of independent widgets storages: every created storage is a pair of a repository and a transactions service
+ * that guards it.
+ * <p>
+ * The repository and the transactions service MUST be created together, since a transactions service is suitable only
+ * for a specific kind of repositories. Likewise, the factory tells whether its storages execute moves of widgets in
+ * optimistic write transactions (see {@link WidgetsService}).
+ */
+public final class WidgetsStorageFactory {
+
+    private final Supplier<TransactionsService> transactionsServiceFactory;
+
+    private final Supplier<WidgetsRepository> widgetsRepositoryFactory;
+
+    private final boolean optimisticMoves;
+
+    /**
+     * Creates a factory of storages that execute all modifications in regular write transactions.
+     *
+     * @param transactionsServiceFactory the factory of transactions services, not null
+     * @param widgetsRepositoryFactory the factory of empty repositories, not null
+     */
+    public WidgetsStorageFactory(
+        Supplier<TransactionsService> transactionsServiceFactory,
+        Supplier<WidgetsRepository> widgetsRepositoryFactory
+    ) {
+        this(transactionsServiceFactory, widgetsRepositoryFactory, false);
+    }
+
+    /**
+     * @param transactionsServiceFactory the factory of transactions services, not null
+     * @param widgetsRepositoryFactory the factory of empty repositories, not null
+     * @param optimisticMoves whether updates of widgets that keep their Z-indices are executed in optimistic write
+     *                        transactions (the repositories MUST support versioning)
+     */
+    public WidgetsStorageFactory(
+        Supplier<TransactionsService> transactionsServiceFactory,
+        Supplier<WidgetsRepository> widgetsRepositoryFactory,
+        boolean optimisticMoves
+    ) {
+        this.transactionsServiceFactory = Objects.requireNonNull(transactionsServiceFactory, "transactionsServiceFactory");
+        this.widgetsRepositoryFactory = Objects.requireNonNull(widgetsRepositoryFactory, "widgetsRepositoryFactory");
+        this.optimisticMoves = optimisticMoves;
+    }
+
+    /**
+     * @return a new transactions service, never null
+     */
+    public TransactionsService newTransactionsService() {
+        return transactionsServiceFactory.get();
+    }
+
+    /**
+     * @return a new empty repository, never null
+     */
+    public WidgetsRepository newWidgetsRepository() {
+        return widgetsRepositoryFactory.get();
+    }
+
+    /**
+     * @return true if moves of widgets are executed in optimistic write transactions
+     */
+    public boolean isOptimisticMoves() {
+        return optimisticMoves;
+    }
+}
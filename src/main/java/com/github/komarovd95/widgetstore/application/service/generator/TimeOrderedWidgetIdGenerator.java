@@ -0,0 +1,101 @@
+package com.github.komarovd95.widgetstore.application.service.generator;
+
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An ID generator that produces time-ordered identifiers in the UUID version 7 layout:
+ * <pre>
+ * | 48 bits: Unix time (ms) | 4 bits: version (7) | 12 bits: counter |
+ * | 2 bits: variant (10) | 16 bits: node ID | 46 bits: stream |
+ * </pre>
+ * Every thread has its own <i>stream</i>: a number that is taken once per thread from a shared sequence (which starts at
+ * a random value, so streams of restarted instances don't repeat), plus the last timestamp and the counter of the
+ * thread. So, generation of an identifier touches thread-local state only. The node ID distinguishes instances of the
+ * application that share the same database.
+ * <p>
+ * Identifiers of a thread are strictly monotonic: the counter is incremented within a millisecond, and if it
+ * overflows (more than 4096 identifiers per millisecond) or the clock goes backwards, the timestamp is advanced
+ * logically instead of waiting. Identifiers of different threads are ordered by their milliseconds, so inserts into
+ * B-tree indexes on identifiers append to the right edge of the tree instead of being scattered over it.
+ */
+public class TimeOrderedWidgetIdGenerator implements WidgetIdGenerator {
+
+    public static final int MAX_NODE_ID = (1 << 16) - 1;
+
+    private static final int COUNTER_BITS = 12;
+
+    private static final int MAX_COUNTER = (1 << COUNTER_BITS) - 1;
+
+    private static final long VERSION = 0x7L << COUNTER_BITS;
+
+    private static final int STREAM_BITS = 46;
+
+    private static final long STREAM_MASK = (1L << STREAM_BITS) - 1;
+
+    private static final long VARIANT = 0x2L << 62;
+
+    private final Clock clock;
+
+    /**
+     * The node ID and the variant, shifted to their positions in the least significant bits.
+     */
+    private final long nodeBits;
+
+    private final AtomicLong streams = new AtomicLong(new SecureRandom().nextLong());
+
+    private final ThreadLocal<Stream> stream = ThreadLocal.withInitial(
+        () -> new Stream(streams.getAndIncrement() & STREAM_MASK)
+    );
+
+    /**
+     * @param clock the clock that provides timestamps of identifiers, not null
+     * @param nodeId the ID of this instance of the application, from 0 to {@value #MAX_NODE_ID}
+     */
+    public TimeOrderedWidgetIdGenerator(Clock clock, int nodeId) {
+        this.clock = Objects.requireNonNull(clock, "clock");
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node ID is out of range: nodeId=" + nodeId);
+        }
+        this.nodeBits = VARIANT | ((long) nodeId << STREAM_BITS);
+    }
+
+    @Override
+    public WidgetId generate() {
+        Stream current = stream.get();
+        long millis = clock.millis();
+        if (millis > current.lastMillis) {
+            current.lastMillis = millis;
+            current.counter = 0;
+        } else if (current.counter < MAX_COUNTER) {
+            current.counter++;
+        } else {
+            current.lastMillis++;
+            current.counter = 0;
+        }
+        return new WidgetId(
+            (current.lastMillis << 16) | VERSION | current.counter,
+            nodeBits | current.id
+        );
+    }
+
+    /**
+     * The state of the thread.
+     */
+    private static final class Stream {
+
+        private final long id;
+
+        private long lastMillis = Long.MIN_VALUE;
+
+        private int counter;
+
+        private Stream(long id) {
+            this.id = id;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.komarovd95.widgetstore.application.service.generator;
 
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+
 import java.util.UUID;
 
 /**
@@ -8,7 +10,7 @@ import java.util.UUID;
 public class UuidWidgetIdGenerator implements WidgetIdGenerator {
 
     @Override
-    public String generate() {
-        return UUID.randomUUID().toString();
+    public WidgetId generate() {
+        return WidgetId.of(UUID.randomUUID());
     }
 }
@@ -1,5 +1,7 @@
 package com.github.komarovd95.widgetstore.application.service.generator;
 
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+
 /**
  * A generator of unique widgets' identifiers.
  */
@@ -10,7 +12,7 @@ public interface WidgetIdGenerator {
      *
      * The implementation of this method MUST be thread-safe.
      *
-     * @return the unique identifier
+     * @return the unique identifier, not null
      */
-    String generate();
+    WidgetId generate();
 }
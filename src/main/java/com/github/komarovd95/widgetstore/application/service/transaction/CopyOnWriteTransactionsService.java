@@ -0,0 +1,64 @@
+package com.github.komarovd95.widgetstore.application.service.transaction;
+
+import com.github.komarovd95.widgetstore.application.repository.CopyOnWriteWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.repository.ShardedWidgetsRepository;
+
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * An implementation of the {@link TransactionsService} for repositories that publish immutable snapshots or
+ * synchronize reads by themselves.
+ * <p>
+ * Write transactions are serialized via an exclusive lock. Read transactions don't acquire any locks: they read
+ * the state that is current at the moment, so they neither wait for writers nor delay them. Optimistic write
+ * transactions don't acquire the lock either: the repository synchronizes them by itself and detects conflicts via
+ * versions of widgets (see {@link ShardedWidgetsRepository#updateBoundaries}).
+ * <p>
+ * This implementation MUST be used only with repositories whose read operations are atomic by themselves (every read
+ * operation observes a single published snapshot or the state between two write operations).
+ *
+ * @see CopyOnWriteWidgetsRepository
+ * @see ShardedWidgetsRepository
+ */
+public class CopyOnWriteTransactionsService implements TransactionsService {
+
+    /**
+     * A lock for writers.
+     */
+    private final Lock writeLock = new ReentrantLock();
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T writeTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        writeLock.lock();
+        try {
+            return action.get();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T readTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        return action.get();
+    }
+
+    /**
+     * Executes the action without the exclusive lock, so it runs concurrently with other write transactions.
+     */
+    @Override
+    public <T> T optimisticWriteTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        return action.get();
+    }
+}
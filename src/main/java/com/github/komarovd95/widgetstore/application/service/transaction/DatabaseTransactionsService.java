@@ -1,6 +1,7 @@
 package com.github.komarovd95.widgetstore.application.service.transaction;
 
 import com.github.komarovd95.widgetstore.application.service.transaction.locks.ExclusiveLock;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.Objects;
@@ -14,16 +15,31 @@ import java.util.function.Supplier;
  * WIDGET_LOCK table and acquired by SELECT ... FOR UPDATE statement). Finally, it gives us serialized access to the
  * WIDGET table.
  * <p>
- * For read operations it doesn't use any explicit transactions.
+ * Optimistic write transactions are standard database transactions without the table lock: they rely on conditional
+ * updates of versioned rows, so they are serialized only with the writers of the same rows (by row locks).
+ * <p>
+ * For read operations it doesn't use any explicit transactions, except for snapshot reads: they are read-only database
+ * transactions with the {@code REPEATABLE READ} isolation level, so they read a snapshot without blocking writers.
  */
 public class DatabaseTransactionsService implements TransactionsService {
 
     private final TransactionTemplate transactionTemplate;
 
+    private final TransactionTemplate snapshotTransactionTemplate;
+
     private final ExclusiveLock lock;
 
+    /**
+     * @param transactionTemplate the template of database transactions, not null
+     * @param lock the exclusive lock of the widget table, not null
+     */
     public DatabaseTransactionsService(TransactionTemplate transactionTemplate, ExclusiveLock lock) {
         this.transactionTemplate = Objects.requireNonNull(transactionTemplate, "transactionTemplate");
+        this.snapshotTransactionTemplate = new TransactionTemplate(
+            Objects.requireNonNull(transactionTemplate.getTransactionManager(), "transactionManager")
+        );
+        this.snapshotTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshotTransactionTemplate.setReadOnly(true);
         this.lock = Objects.requireNonNull(lock, "lock");
     }
 
@@ -33,13 +49,16 @@ public class DatabaseTransactionsService implements TransactionsService {
     @Override
     public <T> T writeTransaction(Supplier<T> action) {
         Objects.requireNonNull(action, "action");
-        return transactionTemplate.execute(status -> {
-            try (AutoCloseable ignored = lock.acquire()) {
-                return action.get();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        });
+        return lockedTransaction(action);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T optimisticWriteTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        return transactionTemplate.execute(status -> action.get());
     }
 
     /**
@@ -50,4 +69,31 @@ public class DatabaseTransactionsService implements TransactionsService {
         Objects.requireNonNull(action, "action");
         return action.get();
     }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T snapshotReadTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        return snapshotTransactionTemplate.execute(status -> action.get());
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public boolean supportsSnapshotReads() {
+        return true;
+    }
+
+    private <T> T lockedTransaction(Supplier<T> action) {
+        return transactionTemplate.execute(status -> {
+            try (AutoCloseable ignored = lock.acquire()) {
+                return action.get();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
 }
@@ -0,0 +1,218 @@
+package com.github.komarovd95.widgetstore.application.service.transaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * An implementation of the {@link TransactionsService} that applies write transactions by a single writer thread with
+ * group commit.
+ * <p>
+ * Write actions are submitted to a bounded queue (a submitter blocks while the queue is full). The writer thread takes
+ * all queued actions (up to {@code maxBatchSize}) and executes them one by one in a single write transaction of
+ * the delegate, so the lock is acquired once per batch and readers observe every batch atomically. An exception thrown
+ * by an action fails only its own future; the rest of the batch is applied.
+ * <p>
+ * Since the actions of a batch are not isolated from each other, this implementation MUST be used only with
+ * a delegate whose write transactions don't roll back on exceptions (e.g. in-memory ones).
+ * <p>
+ * Read transactions are executed by the delegate in the calling thread.
+ */
+public class GroupCommitTransactionsService implements TransactionsService, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitTransactionsService.class);
+
+    private final TransactionsService delegate;
+
+    private final BlockingQueue<Submission<?>> submissions;
+
+    private final int maxBatchSize;
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a service and starts its writer thread.
+     *
+     * @param delegate the transactions service that executes batches and read transactions, not null
+     * @param capacity the maximum number of submitted and not yet applied actions
+     * @param maxBatchSize the maximum number of actions executed in a single write transaction
+     */
+    public GroupCommitTransactionsService(TransactionsService delegate, int capacity, int maxBatchSize) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        if (capacity <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException(
+                "Capacity and batch size must be positive: capacity=" + capacity + ", maxBatchSize=" + maxBatchSize);
+        }
+        this.submissions = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.writer = new Thread(this::applySubmissions, "widgets-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Submits the action and waits for it. If it's called by the writer thread (i.e. from an action), then the action
+     * is executed immediately in the current batch.
+     */
+    @Override
+    public <T> T writeTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        if (Thread.currentThread() == writer) {
+            return action.get();
+        }
+        try {
+            return submitWriteTransaction(action).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> CompletableFuture<T> submitWriteTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        Submission<T> submission = new Submission<>(action);
+        if (closed) {
+            throw new IllegalStateException("Transactions service is closed");
+        }
+        try {
+            submissions.put(submission);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Submission has been interrupted", e);
+        }
+        // the service might have been closed concurrently, then nobody would apply the submission
+        if (closed && submissions.remove(submission)) {
+            throw new IllegalStateException("Transactions service is closed");
+        }
+        return submission.future;
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T readTransaction(Supplier<T> action) {
+        return delegate.readTransaction(action);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T snapshotReadTransaction(Supplier<T> action) {
+        return delegate.snapshotReadTransaction(action);
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public boolean supportsSnapshotReads() {
+        return delegate.supportsSnapshotReads();
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T optimisticReadTransaction(Supplier<T> action) {
+        return delegate.optimisticReadTransaction(action);
+    }
+
+    /**
+     * Stops the writer thread. Actions submitted before closing are applied, new submissions are rejected.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        writer.interrupt();
+        writer.join();
+        List<Submission<?>> rejected = new ArrayList<>();
+        submissions.drainTo(rejected);
+        rejected.forEach(submission ->
+            submission.future.completeExceptionally(new IllegalStateException("Transactions service is closed"))
+        );
+    }
+
+    private void applySubmissions() {
+        List<Submission<?>> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !submissions.isEmpty()) {
+            try {
+                if (submissions.isEmpty()) {
+                    batch.add(submissions.take());
+                }
+            } catch (InterruptedException e) {
+                // the service is being closed, the rest of submissions is drained below
+            }
+            submissions.drainTo(batch, maxBatchSize - batch.size());
+            if (batch.isEmpty()) {
+                continue;
+            }
+            try {
+                delegate.writeTransaction(() -> {
+                    batch.forEach(Submission::apply);
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                log.error("Batch of write transactions has failed: size={}", batch.size(), e);
+            }
+            batch.forEach(Submission::complete);
+            batch.clear();
+        }
+    }
+
+    /**
+     * A submitted action and its outcome.
+     */
+    private static final class Submission<T> {
+
+        private final Supplier<T> action;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+        private RuntimeException exception;
+        private boolean applied;
+
+        private Submission(Supplier<T> action) {
+            this.action = action;
+        }
+
+        private void apply() {
+            try {
+                result = action.get();
+            } catch (RuntimeException e) {
+                exception = e;
+            }
+            applied = true;
+        }
+
+        /**
+         * Completes the future. The outcome of an action that hasn't been applied (the batch has failed before it) is
+         * unknown, so its future is completed exceptionally.
+         */
+        private void complete() {
+            if (!applied) {
+                future.completeExceptionally(new IllegalStateException("Batch of write transactions has failed"));
+            } else if (exception != null) {
+                future.completeExceptionally(exception);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.komarovd95.widgetstore.application.service.transaction;
+
+import com.github.komarovd95.widgetstore.application.repository.InMemoryWidgetsRepository;
+
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * An implementation of the {@link TransactionsService} based on {@link StampedLock}.
+ * <p>
+ * Write transactions and read transactions work the same way as with a Read-Write lock. Optimistic read transactions
+ * don't write to the lock at all: the action is executed under an optimistic read stamp that is validated afterwards,
+ * so short lookups don't bounce the cache line of the lock between readers' cores. If the stamp isn't valid (a write
+ * transaction has been started meanwhile), then the action is executed again under the read lock.
+ * <p>
+ * This implementation MUST be used only with repositories whose read operations that are executed optimistically
+ * tolerate concurrent modification.
+ *
+ * @see InMemoryWidgetsRepository
+ */
+public class StampedLockTransactionsService implements TransactionsService {
+
+    /**
+     * A lock.
+     */
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T writeTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        long stamp = lock.writeLock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T readTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        long stamp = lock.readLock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @inheritDocs
+     */
+    @Override
+    public <T> T optimisticReadTransaction(Supplier<T> action) {
+        Objects.requireNonNull(action, "action");
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            T result;
+            try {
+                result = action.get();
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+                return readTransaction(action);
+            }
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        }
+        return readTransaction(action);
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.komarovd95.widgetstore.application.service.transaction;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
 /**
@@ -23,6 +24,25 @@ public interface TransactionsService {
      */
     <T> T writeTransaction(Supplier<T> action);
 
+    /**
+     * Submits given action to be executed in the scope of the "write transaction" (see
+     * {@link #writeTransaction(Supplier)}) and returns without waiting for it. The implementations MAY execute several
+     * submitted actions in the same write transaction.
+     * <p>
+     * By default, the action is executed in the calling thread, and the returned future is already completed.
+     *
+     * @param action the action that should be executed in the scope of transaction
+     * @param <T> the type of the result
+     * @return the future that is completed with the result returned by the action or with the exception thrown by it
+     */
+    default <T> CompletableFuture<T> submitWriteTransaction(Supplier<T> action) {
+        try {
+            return CompletableFuture.completedFuture(writeTransaction(action));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     /**
      * Executes given action in the scope of the "read transaction". The term "read transaction" refers to
      * the transaction that allows only read operations.
@@ -34,4 +54,66 @@ public interface TransactionsService {
      * @return the result returned by the action
      */
     <T> T readTransaction(Supplier<T> action);
+
+    /**
+     * Executes given long read-only action (e.g. a full export of the resource) in the scope of the "read transaction"
+     * that observes a single state of the resource for its whole duration. If {@link #supportsSnapshotReads()}, then
+     * the transaction reads a snapshot of the resource and doesn't block writers, so the action MAY be slow (e.g. it MAY
+     * write to a client). Otherwise, the transaction MAY hold locks that block writers.
+     * <p>
+     * By default, it's the same as {@link #readTransaction(Supplier)}.
+     *
+     * @param action the action that should be executed in the scope of transaction
+     * @param <T> the type of the result
+     * @return the result returned by the action
+     */
+    default <T> T snapshotReadTransaction(Supplier<T> action) {
+        return readTransaction(action);
+    }
+
+    /**
+     * Returns whether {@link #snapshotReadTransaction(Supplier)} reads a snapshot of the resource without blocking
+     * writers for its duration.
+     * <p>
+     * By default, snapshot reads are not supported.
+     *
+     * @return true if snapshot read transactions don't block writers
+     */
+    default boolean supportsSnapshotReads() {
+        return false;
+    }
+
+    /**
+     * Executes given short read-only action in the scope of the "read transaction" that MAY be optimistic. An
+     * optimistic transaction executes the action without blocking writers and validates afterwards that no write
+     * transaction has interfered; if it has, then the result of the action is discarded and the action is executed
+     * again in a regular read transaction.
+     * <p>
+     * So, the action MUST NOT have side effects, and it MUST terminate when it's executed concurrently with a write
+     * transaction (an exception thrown by an invalidated execution is discarded as well).
+     * <p>
+     * By default, it's the same as {@link #readTransaction(Supplier)}.
+     *
+     * @param action the action that should be executed in the scope of transaction
+     * @param <T> the type of the result
+     * @return the result returned by the action
+     */
+    default <T> T optimisticReadTransaction(Supplier<T> action) {
+        return readTransaction(action);
+    }
+
+    /**
+     * Executes given short action in the scope of the "write transaction" that MAY be not serialized with other write
+     * transactions (e.g. it doesn't acquire an exclusive lock). So, the action MUST detect conflicting concurrent
+     * modifications by itself (e.g. via conditional updates of versioned records) and report them via its result.
+     * <p>
+     * By default, it's the same as {@link #writeTransaction(Supplier)}.
+     *
+     * @param action the action that should be executed in the scope of transaction
+     * @param <T> the type of the result
+     * @return the result returned by the action
+     */
+    default <T> T optimisticWriteTransaction(Supplier<T> action) {
+        return writeTransaction(action);
+    }
 }
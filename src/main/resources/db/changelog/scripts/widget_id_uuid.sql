@@ -0,0 +1,4 @@
+--liquibase formatted sql
+
+--changeset dkomarov:WIDGET-ID-UUID
+ALTER TABLE widget ALTER COLUMN widget_id UUID NOT NULL;
@@ -0,0 +1,10 @@
+--liquibase formatted sql
+
+--changeset dkomarov:WIDGET-SHIFT
+CREATE TABLE widget_shift
+(
+    id         IDENTITY  NOT NULL PRIMARY KEY,
+    z_from     INTEGER   NOT NULL,
+    z_to       INTEGER   NOT NULL,
+    shifted_at TIMESTAMP NOT NULL
+);
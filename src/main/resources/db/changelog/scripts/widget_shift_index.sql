@@ -0,0 +1,4 @@
+--liquibase formatted sql
+
+--changeset dkomarov:WIDGET-SHIFT-INDEX
+CREATE INDEX widget_shift_z_range_idx ON widget_shift (z_from, z_to, shifted_at);
@@ -0,0 +1,4 @@
+--liquibase formatted sql
+
+--changeset dkomarov:WIDGET-VERSION
+ALTER TABLE widget ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
@@ -1,5 +1,6 @@
 package com.github.komarovd95.widgetstore.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.komarovd95.widgetstore.api.common.Point2D;
 import com.github.komarovd95.widgetstore.api.common.WidgetDimensions;
 import org.junit.jupiter.api.Assertions;
@@ -9,9 +10,15 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 import java.util.stream.Stream;
 
 public abstract class AbstractWidgetsStorageApiTest {
@@ -238,6 +245,16 @@ public abstract class AbstractWidgetsStorageApiTest {
         Assertions.assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
     }
 
+    @Test
+    public void should_return_404_Not_Found_when_widget_with_well_formed_id_was_not_found() {
+        ResponseEntity<WidgetView> response = testRestTemplate.getForEntity(
+            "/api/widgets/{widgetId}",
+            WidgetView.class,
+            UUID.randomUUID().toString()
+        );
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+
     @Test
     public void should_return_all_widgets_when_request_is_valid() {
         CreateWidgetRequest creationRequest = new CreateWidgetRequest(
@@ -403,6 +420,291 @@ public abstract class AbstractWidgetsStorageApiTest {
         Assertions.assertFalse(secondPageWidgets.getPaging().getHasMore());
     }
 
+    @Test
+    public void should_return_intersecting_widgets_when_request_with_intersects_mode_is_valid() {
+        ResponseEntity<WidgetView> creationResponse = testRestTemplate.postForEntity(
+            "/api/widgets",
+            new CreateWidgetRequest(
+                Point2D.builder()
+                    .setX(-100_000)
+                    .setY(-100_000)
+                    .build(),
+                null,
+                WidgetDimensions.builder()
+                    .setWidth(100)
+                    .setHeight(100)
+                    .build()
+            ),
+            WidgetView.class
+        );
+        Assertions.assertEquals(HttpStatus.OK, creationResponse.getStatusCode());
+        WidgetView widget = creationResponse.getBody();
+        Assertions.assertNotNull(widget);
+
+        ResponseEntity<WidgetsListView> intersectsResponse = testRestTemplate.getForEntity(
+            "/api/widgets?x={x}&y={y}&width={width}&height={height}&match={match}",
+            WidgetsListView.class,
+            -100_050,
+            -100_050,
+            100,
+            100,
+            "INTERSECTS"
+        );
+        Assertions.assertEquals(HttpStatus.OK, intersectsResponse.getStatusCode());
+        WidgetsListView intersectingWidgets = intersectsResponse.getBody();
+        Assertions.assertNotNull(intersectingWidgets);
+        Assertions.assertEquals(1, intersectingWidgets.getWidgets().size());
+        assertWidget(widget, intersectingWidgets.getWidgets().get(0));
+
+        ResponseEntity<WidgetsListView> containsResponse = testRestTemplate.getForEntity(
+            "/api/widgets?x={x}&y={y}&width={width}&height={height}",
+            WidgetsListView.class,
+            -100_050,
+            -100_050,
+            100,
+            100
+        );
+        Assertions.assertEquals(HttpStatus.OK, containsResponse.getStatusCode());
+        WidgetsListView containedWidgets = containsResponse.getBody();
+        Assertions.assertNotNull(containedWidgets);
+        Assertions.assertTrue(containedWidgets.getWidgets().isEmpty());
+    }
+
+    @Test
+    public void should_return_topmost_widgets_when_request_with_point_is_valid() {
+        ResponseEntity<WidgetView> creationResponse1 = testRestTemplate.postForEntity(
+            "/api/widgets",
+            new CreateWidgetRequest(
+                Point2D.builder()
+                    .setX(100_000)
+                    .setY(100_000)
+                    .build(),
+                null,
+                WidgetDimensions.builder()
+                    .setWidth(100)
+                    .setHeight(100)
+                    .build()
+            ),
+            WidgetView.class
+        );
+        Assertions.assertEquals(HttpStatus.OK, creationResponse1.getStatusCode());
+        WidgetView widget1 = creationResponse1.getBody();
+        Assertions.assertNotNull(widget1);
+
+        ResponseEntity<WidgetView> creationResponse2 = testRestTemplate.postForEntity(
+            "/api/widgets",
+            new CreateWidgetRequest(
+                Point2D.builder()
+                    .setX(100_050)
+                    .setY(100_050)
+                    .build(),
+                null,
+                WidgetDimensions.builder()
+                    .setWidth(100)
+                    .setHeight(100)
+                    .build()
+            ),
+            WidgetView.class
+        );
+        Assertions.assertEquals(HttpStatus.OK, creationResponse2.getStatusCode());
+        WidgetView widget2 = creationResponse2.getBody();
+        Assertions.assertNotNull(widget2);
+
+        ResponseEntity<WidgetsAtPointView> topmostResponse = testRestTemplate.getForEntity(
+            "/api/widgets/at?x={x}&y={y}",
+            WidgetsAtPointView.class,
+            100_075,
+            100_075
+        );
+        Assertions.assertEquals(HttpStatus.OK, topmostResponse.getStatusCode());
+        WidgetsAtPointView topmostWidgets = topmostResponse.getBody();
+        Assertions.assertNotNull(topmostWidgets);
+        Assertions.assertEquals(1, topmostWidgets.getWidgets().size());
+        assertWidget(widget2, topmostWidgets.getWidgets().get(0));
+
+        ResponseEntity<WidgetsAtPointView> allResponse = testRestTemplate.getForEntity(
+            "/api/widgets/at?x={x}&y={y}&limit={limit}",
+            WidgetsAtPointView.class,
+            100_075,
+            100_075,
+            10
+        );
+        Assertions.assertEquals(HttpStatus.OK, allResponse.getStatusCode());
+        WidgetsAtPointView allWidgets = allResponse.getBody();
+        Assertions.assertNotNull(allWidgets);
+        Assertions.assertEquals(2, allWidgets.getWidgets().size());
+        assertWidget(widget2, allWidgets.getWidgets().get(0));
+        assertWidget(widget1, allWidgets.getWidgets().get(1));
+    }
+
+    @Test
+    public void should_return_400_Bad_Request_when_point_is_missing() {
+        ResponseEntity<String> response = testRestTemplate.getForEntity("/api/widgets/at?x={x}", String.class, 0);
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void should_return_page_per_query_when_batch_query_is_valid() {
+        List<WidgetView> widgets = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            ResponseEntity<WidgetView> creationResponse = testRestTemplate.postForEntity(
+                "/api/widgets",
+                new CreateWidgetRequest(
+                    Point2D.builder()
+                        .setX(-100_000 + i * 50)
+                        .setY(100_000)
+                        .build(),
+                    null,
+                    WidgetDimensions.builder()
+                        .setWidth(100)
+                        .setHeight(100)
+                        .build()
+                ),
+                WidgetView.class
+            );
+            Assertions.assertEquals(HttpStatus.OK, creationResponse.getStatusCode());
+            Assertions.assertNotNull(creationResponse.getBody());
+            widgets.add(creationResponse.getBody());
+        }
+
+        ResponseEntity<WidgetsBatchQueryView> response = testRestTemplate.postForEntity(
+            "/api/widgets/query",
+            new WidgetsBatchQueryRequest(
+                List.of(
+                    new RegionQuery(
+                        Point2D.builder()
+                            .setX(-100_000)
+                            .setY(100_000)
+                            .build(),
+                        WidgetDimensions.builder()
+                            .setWidth(150)
+                            .setHeight(100)
+                            .build(),
+                        null,
+                        1,
+                        null
+                    ),
+                    new RegionQuery(
+                        Point2D.builder()
+                            .setX(-99_900)
+                            .setY(100_000)
+                            .build(),
+                        WidgetDimensions.builder()
+                            .setWidth(100)
+                            .setHeight(100)
+                            .build(),
+                        "INTERSECTS",
+                        null,
+                        null
+                    )
+                )
+            ),
+            WidgetsBatchQueryView.class
+        );
+        Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
+        WidgetsBatchQueryView results = response.getBody();
+        Assertions.assertNotNull(results);
+        Assertions.assertEquals(2, results.getResults().size());
+
+        WidgetsListView firstPage = results.getResults().get(0);
+        Assertions.assertEquals(1, firstPage.getWidgets().size());
+        assertWidget(widgets.get(0), firstPage.getWidgets().get(0));
+        Assertions.assertTrue(firstPage.getPaging().getHasMore());
+        Assertions.assertEquals(
+            String.valueOf(widgets.get(0).getZIndex()),
+            firstPage.getPaging().getCursor().orElse(null)
+        );
+
+        WidgetsListView intersectingWidgets = results.getResults().get(1);
+        Assertions.assertEquals(2, intersectingWidgets.getWidgets().size());
+        assertWidget(widgets.get(0), intersectingWidgets.getWidgets().get(0));
+        assertWidget(widgets.get(1), intersectingWidgets.getWidgets().get(1));
+        Assertions.assertFalse(intersectingWidgets.getPaging().getHasMore());
+    }
+
+    @Test
+    public void should_return_400_Bad_Request_when_batch_query_is_invalid() {
+        ResponseEntity<String> emptyQueriesResponse = testRestTemplate.postForEntity(
+            "/api/widgets/query",
+            new WidgetsBatchQueryRequest(List.of()),
+            String.class
+        );
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, emptyQueriesResponse.getStatusCode());
+
+        ResponseEntity<String> invalidMatchResponse = testRestTemplate.postForEntity(
+            "/api/widgets/query",
+            new WidgetsBatchQueryRequest(
+                List.of(
+                    new RegionQuery(
+                        Point2D.builder()
+                            .setX(0)
+                            .setY(0)
+                            .build(),
+                        WidgetDimensions.builder()
+                            .setWidth(100)
+                            .setHeight(100)
+                            .build(),
+                        "TOUCHES",
+                        null,
+                        null
+                    )
+                )
+            ),
+            String.class
+        );
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, invalidMatchResponse.getStatusCode());
+    }
+
+    @Test
+    public void should_stream_all_widgets_sorted_by_Z_index_when_widgets_are_exported() throws IOException {
+        CreateWidgetRequest creationRequest = new CreateWidgetRequest(
+            Point2D.builder()
+                .setX(0)
+                .setY(0)
+                .build(),
+            null,
+            WidgetDimensions.builder()
+                .setWidth(100)
+                .setHeight(100)
+                .build()
+        );
+
+        ResponseEntity<WidgetView> creationResponse1 = testRestTemplate.postForEntity(
+            "/api/widgets",
+            creationRequest,
+            WidgetView.class
+        );
+        Assertions.assertEquals(HttpStatus.OK, creationResponse1.getStatusCode());
+        WidgetView widget1 = creationResponse1.getBody();
+        Assertions.assertNotNull(widget1);
+
+        ResponseEntity<WidgetView> creationResponse2 = testRestTemplate.postForEntity(
+            "/api/widgets",
+            creationRequest,
+            WidgetView.class
+        );
+        Assertions.assertEquals(HttpStatus.OK, creationResponse2.getStatusCode());
+        WidgetView widget2 = creationResponse2.getBody();
+        Assertions.assertNotNull(widget2);
+
+        ResponseEntity<String> response = testRestTemplate.getForEntity("/api/widgets/export", String.class);
+        Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
+        Assertions.assertTrue(MediaType.APPLICATION_NDJSON.isCompatibleWith(response.getHeaders().getContentType()));
+        Assertions.assertNotNull(response.getBody());
+
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        List<WidgetView> widgets = new ArrayList<>();
+        for (String line : response.getBody().split("\n")) {
+            widgets.add(objectMapper.readValue(line, WidgetView.class));
+        }
+        Assertions.assertTrue(widgets.size() >= 2);
+        for (int i = 1; i < widgets.size(); i++) {
+            Assertions.assertTrue(widgets.get(i - 1).getZIndex() < widgets.get(i).getZIndex());
+        }
+        assertWidget(widget1, widgets.get(widgets.size() - 2));
+        assertWidget(widget2, widgets.get(widgets.size() - 1));
+    }
+
     private static void assertWidget(WidgetView expected, WidgetView actual) {
         Assertions.assertAll(
             () -> Assertions.assertEquals(expected.getId(), actual.getId()),
@@ -0,0 +1,23 @@
+package com.github.komarovd95.widgetstore.application;
+
+import com.github.komarovd95.widgetstore.api.AbstractWidgetsStorageApiTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = {
+        "widgets.in-memory.concurrency=columnar",
+        "widgets.in-memory.columnar.initial-capacity=1"
+    }
+)
+@ActiveProfiles("in-memory")
+public class ColumnarWidgetsStorageApiTest extends AbstractWidgetsStorageApiTest {
+
+    @Autowired
+    public ColumnarWidgetsStorageApiTest(TestRestTemplate testRestTemplate) {
+        super(testRestTemplate);
+    }
+}
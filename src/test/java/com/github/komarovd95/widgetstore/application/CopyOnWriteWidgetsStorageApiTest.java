@@ -0,0 +1,39 @@
+package com.github.komarovd95.widgetstore.application;
+
+import com.github.komarovd95.widgetstore.api.AbstractWidgetsStorageApiTest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "widgets.in-memory.concurrency=copy-on-write"
+)
+@ActiveProfiles("in-memory")
+public class CopyOnWriteWidgetsStorageApiTest extends AbstractWidgetsStorageApiTest {
+
+    private final TestRestTemplate testRestTemplate;
+
+    @Autowired
+    public CopyOnWriteWidgetsStorageApiTest(TestRestTemplate testRestTemplate) {
+        super(testRestTemplate);
+        this.testRestTemplate = testRestTemplate;
+    }
+
+    @Test
+    public void should_return_410_GONE_when_snapshot_of_cursor_is_not_retained() {
+        ResponseEntity<String> response = testRestTemplate.getForEntity(
+            "/api/widgets?limit={limit}&cursor={cursor}",
+            String.class,
+            2,
+            "0@" + Long.MAX_VALUE
+        );
+
+        Assertions.assertEquals(HttpStatus.GONE, response.getStatusCode());
+    }
+}
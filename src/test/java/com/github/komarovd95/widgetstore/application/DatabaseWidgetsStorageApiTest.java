@@ -1,10 +1,13 @@
 package com.github.komarovd95.widgetstore.application;
 
 import com.github.komarovd95.widgetstore.api.AbstractWidgetsStorageApiTest;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 
@@ -17,10 +20,23 @@ public class DatabaseWidgetsStorageApiTest extends AbstractWidgetsStorageApiTest
     @BeforeAll
     public static void beforeAll(@Autowired NamedParameterJdbcTemplate jdbcTemplate) {
         jdbcTemplate.update("TRUNCATE TABLE widget", Collections.emptyMap());
+        jdbcTemplate.update("TRUNCATE TABLE widget_shift", Collections.emptyMap());
     }
 
+    private final TestRestTemplate testRestTemplate;
+
     @Autowired
     public DatabaseWidgetsStorageApiTest(TestRestTemplate testRestTemplate) {
         super(testRestTemplate);
+        this.testRestTemplate = testRestTemplate;
+    }
+
+    @Test
+    public void should_return_404_Not_Found_when_canvas_is_requested() {
+        Assertions.assertEquals(
+            HttpStatus.NOT_FOUND,
+            testRestTemplate.getForEntity("/api/canvases/{canvasId}/widgets", String.class, "canvas")
+                .getStatusCode()
+        );
     }
 }
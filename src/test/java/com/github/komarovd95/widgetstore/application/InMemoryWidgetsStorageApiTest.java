@@ -1,17 +1,120 @@
 package com.github.komarovd95.widgetstore.application;
 
 import com.github.komarovd95.widgetstore.api.AbstractWidgetsStorageApiTest;
+import com.github.komarovd95.widgetstore.api.CreateWidgetRequest;
+import com.github.komarovd95.widgetstore.api.WidgetView;
+import com.github.komarovd95.widgetstore.api.WidgetsListView;
+import com.github.komarovd95.widgetstore.api.common.Point2D;
+import com.github.komarovd95.widgetstore.api.common.WidgetDimensions;
+import com.github.komarovd95.widgetstore.application.service.CanvasesService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("in-memory")
 public class InMemoryWidgetsStorageApiTest extends AbstractWidgetsStorageApiTest {
 
+    private final TestRestTemplate testRestTemplate;
+
+    private final CanvasesService canvasesService;
+
     @Autowired
-    public InMemoryWidgetsStorageApiTest(TestRestTemplate testRestTemplate) {
+    public InMemoryWidgetsStorageApiTest(TestRestTemplate testRestTemplate, CanvasesService canvasesService) {
         super(testRestTemplate);
+        this.testRestTemplate = testRestTemplate;
+        this.canvasesService = canvasesService;
+    }
+
+    @Test
+    public void should_keep_widgets_of_canvases_independent_when_widgets_are_created_in_canvases() {
+        CreateWidgetRequest request = new CreateWidgetRequest(
+            Point2D.builder()
+                .setX(0)
+                .setY(0)
+                .build(),
+            1000,
+            WidgetDimensions.builder()
+                .setWidth(100)
+                .setHeight(100)
+                .build()
+        );
+
+        ResponseEntity<WidgetView> firstResponse = testRestTemplate.postForEntity(
+            "/api/canvases/{canvasId}/widgets",
+            request,
+            WidgetView.class,
+            "first-canvas"
+        );
+        Assertions.assertEquals(HttpStatus.OK, firstResponse.getStatusCode());
+        WidgetView firstWidget = firstResponse.getBody();
+        Assertions.assertNotNull(firstWidget);
+        ResponseEntity<WidgetView> secondResponse = testRestTemplate.postForEntity(
+            "/api/canvases/{canvasId}/widgets",
+            request,
+            WidgetView.class,
+            "second-canvas"
+        );
+        Assertions.assertEquals(HttpStatus.OK, secondResponse.getStatusCode());
+        WidgetView secondWidget = secondResponse.getBody();
+        Assertions.assertNotNull(secondWidget);
+
+        // Z-indices are not shared, so the widget of the second canvas doesn't shift the widget of the first one
+        Assertions.assertEquals(1000, firstWidget.getZIndex());
+        Assertions.assertEquals(1000, secondWidget.getZIndex());
+        ResponseEntity<WidgetView> foundResponse = testRestTemplate.getForEntity(
+            "/api/canvases/{canvasId}/widgets/{widgetId}",
+            WidgetView.class,
+            "first-canvas",
+            firstWidget.getId()
+        );
+        Assertions.assertEquals(HttpStatus.OK, foundResponse.getStatusCode());
+        Assertions.assertNotNull(foundResponse.getBody());
+        Assertions.assertEquals(1000, foundResponse.getBody().getZIndex());
+        Assertions.assertEquals(
+            HttpStatus.NOT_FOUND,
+            testRestTemplate.getForEntity(
+                "/api/canvases/{canvasId}/widgets/{widgetId}",
+                WidgetView.class,
+                "second-canvas",
+                firstWidget.getId()
+            ).getStatusCode()
+        );
+        Assertions.assertEquals(
+            HttpStatus.NOT_FOUND,
+            testRestTemplate.getForEntity("/api/widgets/{widgetId}", WidgetView.class, firstWidget.getId())
+                .getStatusCode()
+        );
+
+        ResponseEntity<WidgetsListView> listResponse = testRestTemplate.getForEntity(
+            "/api/canvases/{canvasId}/widgets",
+            WidgetsListView.class,
+            "second-canvas"
+        );
+        Assertions.assertEquals(HttpStatus.OK, listResponse.getStatusCode());
+        Assertions.assertNotNull(listResponse.getBody());
+        Assertions.assertEquals(1, listResponse.getBody().getWidgets().size());
+        Assertions.assertEquals(secondWidget.getId(), listResponse.getBody().getWidgets().get(0).getId());
+    }
+
+    @Test
+    public void should_return_404_Not_Found_and_not_create_canvas_when_missing_canvas_is_read() {
+        int canvases = canvasesService.size();
+        Assertions.assertEquals(
+            HttpStatus.NOT_FOUND,
+            testRestTemplate.getForEntity("/api/canvases/{canvasId}/widgets", String.class, "missing-canvas")
+                .getStatusCode()
+        );
+        Assertions.assertEquals(
+            HttpStatus.NOT_FOUND,
+            testRestTemplate.getForEntity("/api/canvases/{canvasId}/widgets/export", String.class, "missing-canvas")
+                .getStatusCode()
+        );
+        Assertions.assertEquals(canvases, canvasesService.size());
     }
 }
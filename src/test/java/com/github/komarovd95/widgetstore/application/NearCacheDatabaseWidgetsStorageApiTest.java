@@ -0,0 +1,35 @@
+package com.github.komarovd95.widgetstore.application;
+
+import com.github.komarovd95.widgetstore.api.AbstractWidgetsStorageApiTest;
+import com.github.komarovd95.widgetstore.application.repository.CachingWidgetsRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Collections;
+
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "widgets.database.near-cache=true"
+)
+@ActiveProfiles("database")
+public class NearCacheDatabaseWidgetsStorageApiTest extends AbstractWidgetsStorageApiTest {
+
+    @BeforeAll
+    public static void beforeAll(
+        @Autowired NamedParameterJdbcTemplate jdbcTemplate,
+        @Autowired CachingWidgetsRepository widgetsRepository
+    ) {
+        jdbcTemplate.update("TRUNCATE TABLE widget", Collections.emptyMap());
+        jdbcTemplate.update("TRUNCATE TABLE widget_shift", Collections.emptyMap());
+        widgetsRepository.reload();
+    }
+
+    @Autowired
+    public NearCacheDatabaseWidgetsStorageApiTest(TestRestTemplate testRestTemplate) {
+        super(testRestTemplate);
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.komarovd95.widgetstore.application;
+
+import com.github.komarovd95.widgetstore.api.AbstractWidgetsStorageApiTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = {
+        "widgets.spatial-index.split-policy=R_STAR",
+        "widgets.spatial-index.max-entries=16",
+        "widgets.spatial-index.min-entries=6"
+    }
+)
+@ActiveProfiles("in-memory")
+public class RStarWidgetsStorageApiTest extends AbstractWidgetsStorageApiTest {
+
+    @Autowired
+    public RStarWidgetsStorageApiTest(TestRestTemplate testRestTemplate) {
+        super(testRestTemplate);
+    }
+}
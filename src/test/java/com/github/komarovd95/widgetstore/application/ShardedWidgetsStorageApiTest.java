@@ -0,0 +1,23 @@
+package com.github.komarovd95.widgetstore.application;
+
+import com.github.komarovd95.widgetstore.api.AbstractWidgetsStorageApiTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = {
+        "widgets.in-memory.concurrency=sharded",
+        "widgets.in-memory.sharding.tile-size=16"
+    }
+)
+@ActiveProfiles("in-memory")
+public class ShardedWidgetsStorageApiTest extends AbstractWidgetsStorageApiTest {
+
+    @Autowired
+    public ShardedWidgetsStorageApiTest(TestRestTemplate testRestTemplate) {
+        super(testRestTemplate);
+    }
+}
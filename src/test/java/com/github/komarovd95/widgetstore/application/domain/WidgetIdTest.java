@@ -0,0 +1,56 @@
+package com.github.komarovd95.widgetstore.application.domain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+public class WidgetIdTest {
+
+    @Test
+    public void should_keep_bits_and_text_form_of_uuid() {
+        // given
+        UUID uuid = UUID.fromString("123e4567-e89b-12d3-a456-426614174000");
+
+        // when
+        WidgetId id = WidgetId.of(uuid);
+
+        // then
+        Assertions.assertEquals(uuid.getMostSignificantBits(), id.getHigh());
+        Assertions.assertEquals(uuid.getLeastSignificantBits(), id.getLow());
+        Assertions.assertEquals(uuid, id.toUuid());
+        Assertions.assertEquals(uuid.toString(), id.toString());
+        Assertions.assertEquals(id, WidgetId.parse(id.toString()));
+        Assertions.assertEquals(id.hashCode(), WidgetId.hash(id.getHigh(), id.getLow()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "random", "1-1-1-1-1", "123e4567-e89b-12d3-a456-42661417400g"})
+    public void should_reject_malformed_text_form(String text) {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> WidgetId.parse(text));
+    }
+
+    @Test
+    public void should_order_identifiers_as_their_text_forms() {
+        // given
+        Random random = new Random(42);
+        List<WidgetId> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(new WidgetId(random.nextLong(), random.nextLong()));
+        }
+
+        // when
+        List<WidgetId> sortedIds = new ArrayList<>(ids);
+        sortedIds.sort(Comparator.naturalOrder());
+        ids.sort(Comparator.comparing(WidgetId::toString));
+
+        // then
+        Assertions.assertEquals(ids, sortedIds);
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.komarovd95.widgetstore.application.domain.columnar;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+public class SpatialGridTest {
+
+    @Test
+    public void should_find_the_same_slots_as_full_scan_when_slots_are_added_and_removed() {
+        // given
+        Random random = new Random(42);
+        WidgetColumns columns = new WidgetColumns(1);
+        SpatialGrid grid = new SpatialGrid(columns);
+        List<Integer> slots = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            // when
+            if (!slots.isEmpty() && random.nextInt(3) == 0) {
+                int slot = slots.remove(random.nextInt(slots.size()));
+                grid.remove(slot);
+                columns.remove(slot);
+            } else {
+                // most widgets are small, so many cells of the lowest level hold a single slot
+                int size = random.nextInt(10) == 0 ? random.nextInt(5000) + 1 : random.nextInt(50) + 1;
+                Region region = Region.builder()
+                    .setX(random.nextInt(4000) - 2000)
+                    .setY(random.nextInt(4000) - 2000)
+                    .setWidth(size)
+                    .setHeight(random.nextInt(size) + 1)
+                    .builder();
+                int slot = columns.add(new WidgetId(0, i), region, i, Instant.EPOCH);
+                grid.add(slot);
+                slots.add(slot);
+            }
+
+            // then
+            if (i % 100 == 0) {
+                long minX = random.nextInt(4000) - 2000;
+                long minY = random.nextInt(4000) - 2000;
+                long maxX = minX + random.nextInt(random.nextBoolean() ? 100 : 4000);
+                long maxY = minY + random.nextInt(random.nextBoolean() ? 100 : 4000);
+                Set<Integer> intersecting = new TreeSet<>();
+                grid.intersecting(minX, minY, maxX, maxY, intersecting::add);
+                Assertions.assertEquals(
+                    slots.stream()
+                        .filter(slot -> columns.x[slot] <= maxX && columns.y[slot] <= maxY
+                            && (long) columns.x[slot] + columns.width[slot] >= minX
+                            && (long) columns.y[slot] + columns.height[slot] >= minY)
+                        .collect(Collectors.toCollection(TreeSet::new)),
+                    intersecting
+                );
+                Set<Integer> contained = new TreeSet<>();
+                grid.contained(minX, minY, maxX, maxY, contained::add);
+                Assertions.assertEquals(
+                    slots.stream()
+                        .filter(slot -> columns.x[slot] >= minX && columns.y[slot] >= minY
+                            && (long) columns.x[slot] + columns.width[slot] <= maxX
+                            && (long) columns.y[slot] + columns.height[slot] <= maxY)
+                        .collect(Collectors.toCollection(TreeSet::new)),
+                    contained
+                );
+            }
+        }
+    }
+
+    @Test
+    public void should_throw_exception_when_removed_slot_is_not_found() {
+        // given
+        WidgetColumns columns = new WidgetColumns(2);
+        SpatialGrid grid = new SpatialGrid(columns);
+        Region region = Region.builder()
+            .setX(0)
+            .setY(0)
+            .setWidth(10)
+            .setHeight(10)
+            .builder();
+        int added = columns.add(new WidgetId(0, 1), region, 1, Instant.EPOCH);
+        int notAdded = columns.add(new WidgetId(0, 2), region, 2, Instant.EPOCH);
+        grid.add(added);
+
+        // when
+        Executable removal = () -> grid.remove(notAdded);
+
+        // then
+        Assertions.assertThrows(IllegalStateException.class, removal);
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.komarovd95.widgetstore.application.domain.columnar;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class WidgetColumnsTest {
+
+    @Test
+    public void should_find_the_same_slots_as_hash_map_when_widgets_are_added_and_removed() {
+        // given
+        Random random = new Random(42);
+        WidgetColumns columns = new WidgetColumns(1);
+        Map<WidgetId, Integer> expectedSlots = new HashMap<>();
+        List<WidgetId> ids = new ArrayList<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            // when
+            if (!ids.isEmpty() && random.nextInt(3) == 0) {
+                WidgetId id = ids.remove(random.nextInt(ids.size()));
+                columns.remove(expectedSlots.remove(id));
+            } else {
+                WidgetId id = new WidgetId(0, i);
+                int slot = columns.add(id, region(i), i, Instant.ofEpochSecond(i, i));
+                Assertions.assertFalse(expectedSlots.containsValue(slot));
+                expectedSlots.put(id, slot);
+                ids.add(id);
+            }
+
+            // then
+            Assertions.assertEquals(expectedSlots.size(), columns.size());
+            if (i % 1000 == 0) {
+                for (Map.Entry<WidgetId, Integer> entry : expectedSlots.entrySet()) {
+                    Assertions.assertEquals(entry.getValue(), columns.slotOf(entry.getKey()));
+                }
+                Assertions.assertEquals(-1, columns.slotOf(new WidgetId(0, i + 1)));
+            }
+        }
+    }
+
+    @Test
+    public void should_reuse_slots_of_removed_widgets() {
+        // given
+        WidgetColumns columns = new WidgetColumns(4);
+        WidgetId firstId = new WidgetId(0, 1);
+        WidgetId thirdId = new WidgetId(0, 3);
+        int first = columns.add(firstId, region(1), 1, Instant.EPOCH);
+        columns.add(new WidgetId(0, 2), region(2), 2, Instant.EPOCH);
+
+        // when
+        columns.remove(first);
+        int third = columns.add(thirdId, region(3), 3, Instant.EPOCH);
+
+        // then
+        Assertions.assertEquals(first, third);
+        Assertions.assertEquals(-1, columns.slotOf(firstId));
+        Assertions.assertEquals(thirdId, columns.toWidget(third).getId());
+    }
+
+    @Test
+    public void should_keep_nanoseconds_of_modification_timestamps() {
+        // given
+        WidgetColumns columns = new WidgetColumns(1);
+        Instant timestamp = Instant.parse("2021-04-01T10:15:30.123456789Z");
+
+        // when
+        int slot = columns.add(new WidgetId(0, 1), region(0), 0, timestamp);
+
+        // then
+        Assertions.assertEquals(timestamp, columns.toWidget(slot).getModifiedAt());
+    }
+
+    private static Region region(int x) {
+        return Region.builder()
+            .setX(x)
+            .setY(-x)
+            .setWidth(10)
+            .setHeight(20)
+            .builder();
+    }
+}
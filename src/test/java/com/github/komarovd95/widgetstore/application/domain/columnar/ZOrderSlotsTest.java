@@ -0,0 +1,117 @@
+package com.github.komarovd95.widgetstore.application.domain.columnar;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class ZOrderSlotsTest {
+
+    private static final Region BOUNDARIES = Region.builder()
+        .setX(0)
+        .setY(0)
+        .setWidth(1)
+        .setHeight(1)
+        .builder();
+
+    @Test
+    public void should_keep_the_same_order_as_brute_force_shifting_when_slots_are_inserted_and_removed() {
+        // given
+        Random random = new Random(42);
+        WidgetColumns columns = new WidgetColumns(16);
+        ZOrderSlots slots = new ZOrderSlots(columns);
+        TreeMap<Integer, WidgetId> expectedByZ = new TreeMap<>();
+        Map<WidgetId, Instant> expectedModifiedAt = new HashMap<>();
+
+        for (int i = 0; i < 5000; i++) {
+            // when
+            Instant timestamp = Instant.ofEpochSecond(i);
+            if (!expectedByZ.isEmpty() && random.nextInt(5) == 0) {
+                List<WidgetId> ids = new ArrayList<>(expectedByZ.values());
+                WidgetId id = ids.get(random.nextInt(ids.size()));
+                expectedByZ.values().remove(id);
+                expectedModifiedAt.remove(id);
+                int slot = columns.slotOf(id);
+                slots.remove(slot);
+                columns.remove(slot);
+            } else {
+                WidgetId id = new WidgetId(0, i);
+                int z = random.nextInt(3000) - 1500;
+                shift(expectedByZ, expectedModifiedAt, z, timestamp);
+                expectedByZ.put(z, id);
+                expectedModifiedAt.put(id, timestamp);
+                slots.shift(z, timestamp);
+                slots.insert(columns.add(id, BOUNDARIES, z, timestamp));
+            }
+
+            // then
+            Assertions.assertEquals(expectedByZ.size(), slots.size());
+            if (i % 100 == 0) {
+                assertSequence(columns, slots, expectedByZ, expectedModifiedAt);
+            }
+        }
+        assertSequence(columns, slots, expectedByZ, expectedModifiedAt);
+    }
+
+    @Test
+    public void should_provide_slots_after_cursor() {
+        // given
+        WidgetColumns columns = new WidgetColumns(16);
+        ZOrderSlots slots = new ZOrderSlots(columns);
+        for (int z = 0; z < 2000; z += 2) {
+            slots.insert(columns.add(new WidgetId(0, z), BOUNDARIES, z, Instant.EPOCH));
+        }
+
+        // when
+        List<Integer> zIndices = new ArrayList<>();
+        slots.forEachAfter(1001, 3, slot -> zIndices.add(columns.z(slot)));
+
+        // then
+        Assertions.assertEquals(List.of(1002, 1004, 1006), zIndices);
+        Assertions.assertEquals(1998, slots.lastZ().orElseThrow());
+    }
+
+    private static void shift(
+        TreeMap<Integer, WidgetId> expectedByZ,
+        Map<WidgetId, Instant> expectedModifiedAt,
+        int z,
+        Instant timestamp
+    ) {
+        int runEnd = z;
+        while (expectedByZ.containsKey(runEnd)) {
+            runEnd++;
+        }
+        for (int i = runEnd; i > z; i--) {
+            WidgetId id = expectedByZ.remove(i - 1);
+            expectedByZ.put(i, id);
+            expectedModifiedAt.put(id, timestamp);
+        }
+    }
+
+    private static void assertSequence(
+        WidgetColumns columns,
+        ZOrderSlots slots,
+        TreeMap<Integer, WidgetId> expectedByZ,
+        Map<WidgetId, Instant> expectedModifiedAt
+    ) {
+        List<Widget> widgets = new ArrayList<>();
+        slots.forEachAfter(null, Integer.MAX_VALUE, slot -> widgets.add(columns.toWidget(slot)));
+        Assertions.assertEquals(expectedByZ.size(), widgets.size());
+        int i = 0;
+        for (Map.Entry<Integer, WidgetId> entry : expectedByZ.entrySet()) {
+            Widget widget = widgets.get(i++);
+            Assertions.assertEquals(entry.getKey(), widget.getZ());
+            Assertions.assertEquals(entry.getValue(), widget.getId());
+            Assertions.assertEquals(expectedModifiedAt.get(entry.getValue()), widget.getModifiedAt());
+        }
+    }
+}
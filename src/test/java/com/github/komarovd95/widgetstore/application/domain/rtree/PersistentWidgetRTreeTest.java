@@ -0,0 +1,255 @@
+package com.github.komarovd95.widgetstore.application.domain.rtree;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class PersistentWidgetRTreeTest {
+
+    @ParameterizedTest
+    @EnumSource(WidgetRTree.SplitPolicy.class)
+    public void should_find_the_same_widgets_as_brute_force_search_when_widgets_are_modified(
+        WidgetRTree.SplitPolicy splitPolicy
+    ) {
+        // given
+        Random random = new Random(42);
+        PersistentWidgetRTree tree = PersistentWidgetRTree.empty(8, 3, splitPolicy);
+        Map<WidgetId, Region> widgets = new HashMap<>();
+        Map<WidgetId, Integer> zIndices = new HashMap<>();
+
+        for (int i = 0; i < 3000; i++) {
+            // when
+            int operation = random.nextInt(4);
+            if (!widgets.isEmpty() && operation < 3) {
+                WidgetId id = new ArrayList<>(widgets.keySet()).get(random.nextInt(widgets.size()));
+                if (operation == 0) {
+                    tree = tree.remove(id, widgets.remove(id));
+                    zIndices.remove(id);
+                } else if (operation == 1) {
+                    Region boundaries = randomRegion(random, 1000, 100);
+                    tree = tree.move(id, widgets.put(id, boundaries), boundaries, zIndices.get(id));
+                } else {
+                    zIndices.put(id, -1 - i);
+                    tree = tree.updateZ(id, widgets.get(id), -1 - i);
+                }
+            } else {
+                WidgetId id = new WidgetId(0, i);
+                Region boundaries = randomRegion(random, 1000, 100);
+                widgets.put(id, boundaries);
+                zIndices.put(id, i);
+                tree = tree.add(id, boundaries, i);
+            }
+
+            // then
+            Assertions.assertEquals(widgets.size(), tree.size());
+            if (i % 50 == 0) {
+                Region region = randomRegion(random, 1000, 700);
+                Integer cursor = random.nextBoolean() ? random.nextInt(2000) - 1000 : null;
+                List<WidgetId> found = new ArrayList<>();
+                tree.containsInZOrder(region, cursor, 10, found::add);
+                List<WidgetId> expected = bruteForceContains(widgets, region).stream()
+                    .filter(id -> cursor == null || zIndices.get(id) > cursor)
+                    .sorted(Comparator.comparing(zIndices::get))
+                    .limit(10)
+                    .collect(Collectors.toList());
+                Assertions.assertEquals(expected, found);
+                Assertions.assertEquals(bruteForceContains(widgets, region), contains(tree, region));
+
+                List<WidgetId> intersecting = new ArrayList<>();
+                tree.intersectsInZOrder(region, cursor, 10, intersecting::add);
+                List<WidgetId> expectedIntersecting = widgets.entrySet().stream()
+                    .filter(entry -> isIntersected(entry.getValue(), region))
+                    .map(Map.Entry::getKey)
+                    .filter(id -> cursor == null || zIndices.get(id) > cursor)
+                    .sorted(Comparator.comparing(zIndices::get))
+                    .limit(10)
+                    .collect(Collectors.toList());
+                Assertions.assertEquals(expectedIntersecting, intersecting);
+            }
+        }
+    }
+
+    @Test
+    public void should_keep_previous_versions_unchanged_when_tree_is_modified() {
+        // given
+        Random random = new Random(42);
+        PersistentWidgetRTree tree = PersistentWidgetRTree.empty(4, 2);
+        List<PersistentWidgetRTree> versions = new ArrayList<>();
+        List<Map<WidgetId, Region>> versionsWidgets = new ArrayList<>();
+        Map<WidgetId, Region> widgets = new HashMap<>();
+
+        // when
+        for (int i = 0; i < 300; i++) {
+            if (!widgets.isEmpty() && random.nextInt(3) == 0) {
+                WidgetId id = new ArrayList<>(widgets.keySet()).get(random.nextInt(widgets.size()));
+                tree = tree.remove(id, widgets.remove(id));
+            } else {
+                WidgetId id = new WidgetId(0, i);
+                Region boundaries = randomRegion(random, 1000, 100);
+                widgets.put(id, boundaries);
+                tree = tree.add(id, boundaries, i);
+            }
+            versions.add(tree);
+            versionsWidgets.add(new HashMap<>(widgets));
+        }
+
+        // then
+        Region region = region(-1000, -1000, 2000, 2000);
+        for (int i = 0; i < versions.size(); i++) {
+            Assertions.assertEquals(versionsWidgets.get(i).keySet(), contains(versions.get(i), region));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 0, 1, 8, 9, 65, 1000 })
+    public void should_find_the_same_widgets_as_brute_force_search_when_tree_is_bulk_loaded(int count) {
+        // given
+        Random random = new Random(42);
+        Map<WidgetId, Region> widgets = new HashMap<>();
+        List<Widget> loadedWidgets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            WidgetId id = new WidgetId(0, i);
+            Region boundaries = randomRegion(random, 1000, 100);
+            widgets.put(id, boundaries);
+            loadedWidgets.add(
+                Widget.builder()
+                    .setId(id)
+                    .setBoundaries(boundaries)
+                    .setZ(i)
+                    .setModifiedAt(Instant.EPOCH)
+                    .build()
+            );
+        }
+
+        // when
+        PersistentWidgetRTree tree = PersistentWidgetRTree.empty(8, 4).load(loadedWidgets);
+        for (int i = 0; i < count / 2; i += 2) {
+            WidgetId id = new WidgetId(0, i);
+            tree = tree.remove(id, widgets.remove(id));
+        }
+
+        // then
+        Assertions.assertEquals(widgets.size(), tree.size());
+        for (int i = 0; i < 20; i++) {
+            Region region = randomRegion(random, 1000, 500);
+            Assertions.assertEquals(bruteForceContains(widgets, region), contains(tree, region));
+        }
+    }
+
+    @Test
+    public void should_find_the_same_widgets_as_single_searches_when_batch_search_is_used() {
+        // given
+        Random random = new Random(42);
+        PersistentWidgetRTree tree = PersistentWidgetRTree.empty(8, 3);
+        for (int i = 0; i < 1000; i++) {
+            tree = tree.add(new WidgetId(0, i), randomRegion(random, 1000, 100), random.nextInt(2000) - 1000 + i * 2000);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            // when
+            List<WidgetsFilter> filters = new ArrayList<>();
+            for (int j = random.nextInt(10); j >= 0; j--) {
+                filters.add(
+                    new WidgetsFilter(
+                        randomRegion(random, 1000, 400),
+                        random.nextBoolean() ? RegionMatchMode.CONTAINS : RegionMatchMode.INTERSECTS,
+                        random.nextBoolean() ? random.nextInt(2_000_000) - 1000 : null,
+                        random.nextInt(30)
+                    )
+                );
+            }
+            List<List<WidgetId>> found = new ArrayList<>();
+            filters.forEach(filter -> found.add(new ArrayList<>()));
+            tree.searchInZOrder(filters, (id, filterIndex) -> found.get(filterIndex).add(id));
+
+            // then
+            for (int j = 0; j < filters.size(); j++) {
+                WidgetsFilter filter = filters.get(j);
+                List<WidgetId> expected = new ArrayList<>();
+                if (filter.getMatchMode() == RegionMatchMode.INTERSECTS) {
+                    tree.intersectsInZOrder(
+                        filter.getRegion().get(), filter.getCursor().orElse(null), filter.getLimit(), expected::add);
+                } else {
+                    tree.containsInZOrder(
+                        filter.getRegion().get(), filter.getCursor().orElse(null), filter.getLimit(), expected::add);
+                }
+                Assertions.assertEquals(expected, found.get(j));
+            }
+        }
+    }
+
+    @Test
+    public void should_return_the_same_tree_when_widget_is_not_found() {
+        // given
+        PersistentWidgetRTree tree = PersistentWidgetRTree.empty(4, 2).add(new WidgetId(0, 1), region(0, 0, 10, 10), 0);
+
+        // when
+        PersistentWidgetRTree removed = tree.remove(new WidgetId(0, 2), region(0, 0, 10, 10));
+
+        // then
+        Assertions.assertSame(tree, removed);
+        Assertions.assertEquals(1, removed.size());
+    }
+
+    private static Set<WidgetId> contains(PersistentWidgetRTree tree, Region region) {
+        Set<WidgetId> result = new HashSet<>();
+        tree.contains(region, id -> Assertions.assertTrue(result.add(id), "Duplicated widget: " + id));
+        return result;
+    }
+
+    private static Set<WidgetId> bruteForceContains(Map<WidgetId, Region> widgets, Region region) {
+        Set<WidgetId> result = new HashSet<>();
+        widgets.forEach((id, boundaries) -> {
+            if (region.getX() <= boundaries.getX()
+                && region.getY() <= boundaries.getY()
+                && (long) region.getX() + region.getWidth() >= (long) boundaries.getX() + boundaries.getWidth()
+                && (long) region.getY() + region.getHeight() >= (long) boundaries.getY() + boundaries.getHeight()) {
+                result.add(id);
+            }
+        });
+        return result;
+    }
+
+    private static boolean isIntersected(Region boundaries, Region region) {
+        return boundaries.getX() <= region.getX() + region.getWidth()
+            && region.getX() <= boundaries.getX() + boundaries.getWidth()
+            && boundaries.getY() <= region.getY() + region.getHeight()
+            && region.getY() <= boundaries.getY() + boundaries.getHeight();
+    }
+
+    private static Region randomRegion(Random random, int planeSize, int maxSize) {
+        return region(
+            random.nextInt(planeSize) - planeSize / 2,
+            random.nextInt(planeSize) - planeSize / 2,
+            random.nextInt(maxSize) + 1,
+            random.nextInt(maxSize) + 1
+        );
+    }
+
+    private static Region region(int x, int y, int width, int height) {
+        return Region.builder()
+            .setX(x)
+            .setY(y)
+            .setWidth(width)
+            .setHeight(height)
+            .builder();
+    }
+}
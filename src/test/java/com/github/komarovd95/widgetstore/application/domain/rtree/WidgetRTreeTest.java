@@ -0,0 +1,397 @@
+package com.github.komarovd95.widgetstore.application.domain.rtree;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class WidgetRTreeTest {
+
+    @ParameterizedTest
+    @EnumSource(WidgetRTree.SplitPolicy.class)
+    public void should_find_the_same_widgets_as_brute_force_search_when_widgets_are_added_and_removed(
+        WidgetRTree.SplitPolicy splitPolicy
+    ) {
+        // given
+        Random random = new Random(42);
+        WidgetRTree tree = new WidgetRTree(8, 3, splitPolicy);
+        Map<WidgetId, Region> widgets = new HashMap<>();
+
+        for (int i = 0; i < 2000; i++) {
+            // when
+            if (!widgets.isEmpty() && random.nextInt(3) == 0) {
+                WidgetId id = new ArrayList<>(widgets.keySet()).get(random.nextInt(widgets.size()));
+                widgets.remove(id);
+                Assertions.assertTrue(tree.remove(id));
+            } else {
+                WidgetId id = new WidgetId(0, i);
+                Region boundaries = randomRegion(random, 1000, 100);
+                widgets.put(id, boundaries);
+                tree.add(id, boundaries, i);
+            }
+
+            // then
+            Assertions.assertEquals(widgets.size(), tree.size());
+            if (i % 50 == 0) {
+                Region region = randomRegion(random, 1000, 500);
+                Assertions.assertEquals(bruteForceContains(widgets, region), contains(tree, region));
+            }
+        }
+    }
+
+    @Test
+    public void should_find_widgets_without_precision_loss_when_coordinates_are_large() {
+        // given
+        WidgetRTree tree = new WidgetRTree();
+        int x = (1 << 24) + 1;
+        WidgetId inside = new WidgetId(0, 1);
+        WidgetId outside = new WidgetId(0, 2);
+        WidgetId hugeId = new WidgetId(0, 3);
+        tree.add(inside, region(x, 0, 1, 1), 0);
+        tree.add(outside, region(x - 1, 0, 1, 1), 1);
+        Region huge = region(Integer.MAX_VALUE - 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        tree.add(hugeId, huge, 2);
+
+        // when
+        Set<WidgetId> found = contains(tree, region(x, 0, 1, 1));
+        Set<WidgetId> foundHuge = contains(tree, huge);
+
+        // then
+        Assertions.assertEquals(Set.of(inside), found);
+        Assertions.assertEquals(Set.of(hugeId), foundHuge);
+    }
+
+    @ParameterizedTest
+    @EnumSource(WidgetRTree.SplitPolicy.class)
+    public void should_find_widgets_in_Z_order_when_cursor_and_limit_are_used(WidgetRTree.SplitPolicy splitPolicy) {
+        // given
+        Random random = new Random(42);
+        WidgetRTree tree = new WidgetRTree(8, 3, splitPolicy);
+        Map<WidgetId, Region> widgets = new HashMap<>();
+        Map<WidgetId, Integer> zIndices = new HashMap<>();
+        List<Integer> shuffledZIndices = new ArrayList<>();
+        for (int z = 0; z < 1000; z++) {
+            shuffledZIndices.add(z * 2);
+        }
+        Collections.shuffle(shuffledZIndices, random);
+        for (int i = 0; i < shuffledZIndices.size(); i++) {
+            WidgetId id = new WidgetId(0, i);
+            Region boundaries = randomRegion(random, 1000, 100);
+            widgets.put(id, boundaries);
+            zIndices.put(id, shuffledZIndices.get(i));
+            tree.add(id, boundaries, shuffledZIndices.get(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            WidgetId id = new WidgetId(0, random.nextInt(widgets.size()));
+            int z = -1 - i;
+            zIndices.put(id, z);
+            Assertions.assertTrue(tree.updateZ(id, z));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            // when
+            Region region = randomRegion(random, 1000, 700);
+            Integer cursor = random.nextBoolean() ? random.nextInt(2000) : null;
+            int limit = random.nextInt(20) + 1;
+            List<WidgetId> found = new ArrayList<>();
+            tree.containsInZOrder(region, cursor, limit, found::add);
+
+            // then
+            List<WidgetId> expected = bruteForceContains(widgets, region).stream()
+                .filter(id -> cursor == null || zIndices.get(id) > cursor)
+                .sorted(Comparator.comparing(zIndices::get))
+                .limit(limit)
+                .collect(Collectors.toList());
+            Assertions.assertEquals(expected, found);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(WidgetRTree.SplitPolicy.class)
+    public void should_find_the_same_widgets_as_brute_force_search_when_widgets_are_moved(
+        WidgetRTree.SplitPolicy splitPolicy
+    ) {
+        // given
+        Random random = new Random(42);
+        WidgetRTree tree = new WidgetRTree(8, 3, splitPolicy);
+        Map<WidgetId, Region> widgets = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            WidgetId id = new WidgetId(0, i);
+            Region boundaries = randomRegion(random, 1000, 100);
+            widgets.put(id, boundaries);
+            tree.add(id, boundaries, i);
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            // when
+            WidgetId id = new WidgetId(0, random.nextInt(widgets.size()));
+            Region old = widgets.get(id);
+            Region boundaries = random.nextBoolean()
+                ? region(old.getX() + random.nextInt(5) - 2, old.getY() + random.nextInt(5) - 2, 10, 10)
+                : randomRegion(random, 1000, 100);
+            widgets.put(id, boundaries);
+            Assertions.assertTrue(tree.move(id, boundaries));
+
+            // then
+            Assertions.assertEquals(widgets.size(), tree.size());
+            if (i % 50 == 0) {
+                Region region = randomRegion(random, 1000, 500);
+                Assertions.assertEquals(bruteForceContains(widgets, region), contains(tree, region));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 0, 1, 7, 8, 9, 64, 65, 1000, 5000 })
+    public void should_find_the_same_widgets_as_brute_force_search_when_tree_is_bulk_loaded(int count) {
+        // given
+        Random random = new Random(42);
+        WidgetRTree tree = new WidgetRTree(8, 4, WidgetRTree.SplitPolicy.LINEAR);
+        Map<WidgetId, Region> widgets = new HashMap<>();
+        List<Widget> loadedWidgets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            WidgetId id = new WidgetId(0, i);
+            Region boundaries = randomRegion(random, 1000, 100);
+            widgets.put(id, boundaries);
+            loadedWidgets.add(
+                Widget.builder()
+                    .setId(id)
+                    .setBoundaries(boundaries)
+                    .setZ(i)
+                    .setModifiedAt(Instant.EPOCH)
+                    .build()
+            );
+        }
+
+        // when
+        tree.load(loadedWidgets);
+
+        // then
+        Assertions.assertEquals(count, tree.size());
+        for (int i = 0; i < 20; i++) {
+            Region region = randomRegion(random, 1000, 500);
+            Assertions.assertEquals(bruteForceContains(widgets, region), contains(tree, region));
+            List<WidgetId> found = new ArrayList<>();
+            tree.containsInZOrder(region, null, 5, found::add);
+            List<WidgetId> expected = bruteForceContains(widgets, region).stream()
+                .sorted(Comparator.comparing(id -> id.getLow()))
+                .limit(5)
+                .collect(Collectors.toList());
+            Assertions.assertEquals(expected, found);
+        }
+
+        // and when
+        for (int i = 0; i < count / 2; i++) {
+            WidgetId id = new WidgetId(0, i);
+            if (i % 2 == 0) {
+                widgets.remove(id);
+                Assertions.assertTrue(tree.remove(id));
+            } else {
+                Region boundaries = randomRegion(random, 1000, 100);
+                widgets.put(id, boundaries);
+                Assertions.assertTrue(tree.move(id, boundaries));
+            }
+        }
+
+        // then
+        Assertions.assertEquals(widgets.size(), tree.size());
+        Region region = randomRegion(random, 1000, 500);
+        Assertions.assertEquals(bruteForceContains(widgets, region), contains(tree, region));
+    }
+
+    @ParameterizedTest
+    @EnumSource(WidgetRTree.SplitPolicy.class)
+    public void should_find_intersecting_widgets_in_Z_order(WidgetRTree.SplitPolicy splitPolicy) {
+        // given
+        Random random = new Random(42);
+        WidgetRTree tree = new WidgetRTree(8, 3, splitPolicy);
+        Map<WidgetId, Region> widgets = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            WidgetId id = new WidgetId(0, i);
+            Region boundaries = randomRegion(random, 1000, 100);
+            widgets.put(id, boundaries);
+            tree.add(id, boundaries, i);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            // when
+            Region region = randomRegion(random, 1000, 300);
+            Integer cursor = random.nextBoolean() ? random.nextInt(1000) : null;
+            int limit = random.nextInt(50) + 1;
+            List<WidgetId> found = new ArrayList<>();
+            tree.intersectsInZOrder(region, cursor, limit, found::add);
+
+            // then
+            List<WidgetId> expected = widgets.entrySet().stream()
+                .filter(entry -> isIntersected(entry.getValue(), region))
+                .map(Map.Entry::getKey)
+                .sorted(Comparator.comparing(id -> id.getLow()))
+                .filter(id -> cursor == null || id.getLow() > cursor)
+                .limit(limit)
+                .collect(Collectors.toList());
+            Assertions.assertEquals(expected, found);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(WidgetRTree.SplitPolicy.class)
+    public void should_find_covering_widgets_in_reverse_Z_order(WidgetRTree.SplitPolicy splitPolicy) {
+        // given
+        Random random = new Random(42);
+        WidgetRTree tree = new WidgetRTree(8, 3, splitPolicy);
+        Map<WidgetId, Region> widgets = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            WidgetId id = new WidgetId(0, i);
+            Region boundaries = randomRegion(random, 1000, 200);
+            widgets.put(id, boundaries);
+            tree.add(id, boundaries, random.nextBoolean() ? i : -i - 1);
+        }
+        Map<WidgetId, Integer> zIndices = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            zIndices.put(new WidgetId(0, i), 1000 - i);
+            tree.updateZ(new WidgetId(0, i), 1000 - i);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            // when
+            int x = random.nextInt(1000) - 500;
+            int y = random.nextInt(1000) - 500;
+            int limit = random.nextInt(5) + 1;
+            List<WidgetId> found = new ArrayList<>();
+            tree.coveringInReverseZOrder(x, y, limit, found::add);
+
+            // then
+            List<WidgetId> expected = widgets.entrySet().stream()
+                .filter(entry -> entry.getValue().getX() <= x
+                    && x < entry.getValue().getX() + entry.getValue().getWidth()
+                    && entry.getValue().getY() <= y
+                    && y < entry.getValue().getY() + entry.getValue().getHeight())
+                .map(Map.Entry::getKey)
+                .sorted(Comparator.comparing(zIndices::get).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+            Assertions.assertEquals(expected, found);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(WidgetRTree.SplitPolicy.class)
+    public void should_find_the_same_widgets_as_single_searches_when_batch_search_is_used(
+        WidgetRTree.SplitPolicy splitPolicy
+    ) {
+        // given
+        Random random = new Random(42);
+        WidgetRTree tree = new WidgetRTree(8, 3, splitPolicy);
+        for (int i = 0; i < 1000; i++) {
+            tree.add(new WidgetId(0, i), randomRegion(random, 1000, 100), random.nextInt(2000) - 1000 + i * 2000);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            // when
+            List<WidgetsFilter> filters = new ArrayList<>();
+            for (int j = random.nextInt(10); j >= 0; j--) {
+                filters.add(
+                    new WidgetsFilter(
+                        randomRegion(random, 1000, 400),
+                        random.nextBoolean() ? RegionMatchMode.CONTAINS : RegionMatchMode.INTERSECTS,
+                        random.nextBoolean() ? random.nextInt(2_000_000) - 1000 : null,
+                        random.nextInt(30)
+                    )
+                );
+            }
+            List<List<WidgetId>> found = new ArrayList<>();
+            filters.forEach(filter -> found.add(new ArrayList<>()));
+            tree.searchInZOrder(filters, (id, filterIndex) -> found.get(filterIndex).add(id));
+
+            // then
+            for (int j = 0; j < filters.size(); j++) {
+                WidgetsFilter filter = filters.get(j);
+                List<WidgetId> expected = new ArrayList<>();
+                if (filter.getMatchMode() == RegionMatchMode.INTERSECTS) {
+                    tree.intersectsInZOrder(
+                        filter.getRegion().get(), filter.getCursor().orElse(null), filter.getLimit(), expected::add);
+                } else {
+                    tree.containsInZOrder(
+                        filter.getRegion().get(), filter.getCursor().orElse(null), filter.getLimit(), expected::add);
+                }
+                Assertions.assertEquals(expected, found.get(j));
+            }
+        }
+    }
+
+    @Test
+    public void should_not_remove_widget_when_widget_is_not_found() {
+        // given
+        WidgetRTree tree = new WidgetRTree();
+        tree.add(new WidgetId(0, 1), region(0, 0, 10, 10), 0);
+
+        // when
+        boolean removed = tree.remove(new WidgetId(0, 2));
+
+        // then
+        Assertions.assertFalse(removed);
+        Assertions.assertEquals(1, tree.size());
+    }
+
+    private static Set<WidgetId> contains(WidgetRTree tree, Region region) {
+        Set<WidgetId> result = new HashSet<>();
+        tree.contains(region, id -> Assertions.assertTrue(result.add(id), "Duplicated widget: " + id));
+        return result;
+    }
+
+    private static Set<WidgetId> bruteForceContains(Map<WidgetId, Region> widgets, Region region) {
+        Set<WidgetId> result = new HashSet<>();
+        widgets.forEach((id, boundaries) -> {
+            if (region.getX() <= boundaries.getX()
+                && region.getY() <= boundaries.getY()
+                && (long) region.getX() + region.getWidth() >= (long) boundaries.getX() + boundaries.getWidth()
+                && (long) region.getY() + region.getHeight() >= (long) boundaries.getY() + boundaries.getHeight()) {
+                result.add(id);
+            }
+        });
+        return result;
+    }
+
+    private static boolean isIntersected(Region boundaries, Region region) {
+        return boundaries.getX() <= region.getX() + region.getWidth()
+            && region.getX() <= boundaries.getX() + boundaries.getWidth()
+            && boundaries.getY() <= region.getY() + region.getHeight()
+            && region.getY() <= boundaries.getY() + boundaries.getHeight();
+    }
+
+    private static Region randomRegion(Random random, int planeSize, int maxSize) {
+        return region(
+            random.nextInt(planeSize) - planeSize / 2,
+            random.nextInt(planeSize) - planeSize / 2,
+            random.nextInt(maxSize) + 1,
+            random.nextInt(maxSize) + 1
+        );
+    }
+
+    private static Region region(int x, int y, int width, int height) {
+        return Region.builder()
+            .setX(x)
+            .setY(y)
+            .setWidth(width)
+            .setHeight(height)
+            .builder();
+    }
+}
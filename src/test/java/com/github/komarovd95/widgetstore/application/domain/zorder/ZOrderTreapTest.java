@@ -0,0 +1,162 @@
+package com.github.komarovd95.widgetstore.application.domain.zorder;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class ZOrderTreapTest {
+
+    @Test
+    public void should_keep_the_same_order_as_brute_force_shifting_when_values_are_inserted_and_removed() {
+        // given
+        Random random = new Random(42);
+        Map<String, Long> labels = new HashMap<>();
+        ZOrderTreap<String> treap = new ZOrderTreap<>(labels::put);
+        TreeMap<Integer, String> expectedByZ = new TreeMap<>();
+        Map<String, Instant> expectedModifiedAt = new HashMap<>();
+
+        for (int i = 0; i < 3000; i++) {
+            // when
+            Instant timestamp = Instant.ofEpochSecond(i);
+            if (!expectedByZ.isEmpty() && random.nextInt(4) == 0) {
+                List<String> values = new ArrayList<>(expectedByZ.values());
+                String value = values.get(random.nextInt(values.size()));
+                expectedByZ.values().remove(value);
+                expectedModifiedAt.remove(value);
+                Assertions.assertTrue(treap.remove(labels.remove(value)));
+            } else {
+                String value = "value-" + i;
+                int z = random.nextInt(200);
+                shift(expectedByZ, expectedModifiedAt, z, timestamp);
+                expectedByZ.put(z, value);
+                expectedModifiedAt.put(value, timestamp);
+                labels.put(value, treap.insert(value, z, timestamp));
+            }
+
+            // then
+            Assertions.assertEquals(expectedByZ.size(), treap.size());
+            if (i % 50 == 0) {
+                assertSequence(treap, labels, expectedByZ, expectedModifiedAt);
+            }
+        }
+        assertSequence(treap, labels, expectedByZ, expectedModifiedAt);
+    }
+
+    @Test
+    public void should_relabel_values_when_values_are_inserted_at_the_same_position() {
+        // given
+        Map<String, Long> labels = new HashMap<>();
+        ZOrderTreap<String> treap = new ZOrderTreap<>(labels::put);
+        TreeMap<Integer, String> expectedByZ = new TreeMap<>();
+        Map<String, Instant> expectedModifiedAt = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            String value = "value-" + i;
+            expectedByZ.put(i * 1000, value);
+            expectedModifiedAt.put(value, Instant.EPOCH);
+            labels.put(value, treap.insert(value, i * 1000, Instant.EPOCH));
+        }
+
+        // when
+        for (int i = 0; i < 500; i++) {
+            String value = "inserted-" + i;
+            Instant timestamp = Instant.ofEpochSecond(i);
+            // every value is inserted right above the previous one, so the gap between labels halves every time
+            int z = 5000 - i - 1;
+            shift(expectedByZ, expectedModifiedAt, z, timestamp);
+            expectedByZ.put(z, value);
+            expectedModifiedAt.put(value, timestamp);
+            labels.put(value, treap.insert(value, z, timestamp));
+        }
+
+        // then
+        assertSequence(treap, labels, expectedByZ, expectedModifiedAt);
+    }
+
+    @Test
+    public void should_return_labels_after_the_cursor() {
+        // given
+        ZOrderTreap<String> treap = new ZOrderTreap<>((value, label) -> { });
+        long first = treap.insert("first", 10, Instant.EPOCH);
+        long second = treap.insert("second", 20, Instant.EPOCH);
+
+        // when
+        long firstShifted = treap.insert("third", 10, Instant.EPOCH);
+
+        // then
+        Assertions.assertTrue(firstShifted < first);
+        Assertions.assertEquals(firstShifted, treap.lowestLabelAfter(null));
+        Assertions.assertEquals(first, treap.lowestLabelAfter(10));
+        Assertions.assertEquals(second, treap.lowestLabelAfter(11));
+        Assertions.assertEquals(Long.MAX_VALUE, treap.lowestLabelAfter(20));
+        Assertions.assertEquals(11, treap.get(first).getZ());
+        Assertions.assertEquals(20, treap.lastZ().orElse(null));
+    }
+
+    private static void shift(
+        TreeMap<Integer, String> expectedByZ,
+        Map<String, Instant> expectedModifiedAt,
+        int z,
+        Instant timestamp
+    ) {
+        int end = z;
+        while (expectedByZ.containsKey(end)) {
+            end++;
+        }
+        for (int shiftedZ = end; shiftedZ > z; shiftedZ--) {
+            String shifted = expectedByZ.remove(shiftedZ - 1);
+            expectedByZ.put(shiftedZ, shifted);
+            expectedModifiedAt.put(shifted, timestamp);
+        }
+    }
+
+    private static void assertSequence(
+        ZOrderTreap<String> treap,
+        Map<String, Long> labels,
+        TreeMap<Integer, String> expectedByZ,
+        Map<String, Instant> expectedModifiedAt
+    ) {
+        List<ZOrderTreap.Entry<String>> entries = new ArrayList<>();
+        treap.forEachAfter(null, Integer.MAX_VALUE, entries::add);
+        Assertions.assertEquals(new ArrayList<>(expectedByZ.values()), values(entries));
+        for (int i = 0; i < entries.size(); i++) {
+            ZOrderTreap.Entry<String> entry = entries.get(i);
+            Assertions.assertEquals(expectedByZ.get(entry.getZ()), entry.getValue());
+            Assertions.assertEquals(expectedModifiedAt.get(entry.getValue()), entry.getModifiedAt());
+            Assertions.assertEquals(labels.get(entry.getValue()), entry.getLabel());
+            if (i > 0) {
+                Assertions.assertTrue(entries.get(i - 1).getLabel() < entry.getLabel());
+            }
+            ZOrderTreap.Entry<String> found = treap.get(entry.getLabel());
+            Assertions.assertEquals(entry.getZ(), found.getZ());
+            Assertions.assertEquals(entry.getModifiedAt(), found.getModifiedAt());
+            Assertions.assertTrue(treap.matches(entry.getLabel(), entry.getZ(), entry.getModifiedAt()));
+            Assertions.assertFalse(treap.matches(entry.getLabel(), entry.getZ() + 1, entry.getModifiedAt()));
+            Assertions.assertFalse(treap.matches(entry.getLabel(), entry.getZ(), entry.getModifiedAt().plusNanos(1)));
+        }
+        Assertions.assertEquals(expectedByZ.isEmpty() ? null : expectedByZ.lastKey(), treap.lastZ().orElse(null));
+
+        if (!expectedByZ.isEmpty()) {
+            int cursor = expectedByZ.firstKey() + (expectedByZ.lastKey() - expectedByZ.firstKey()) / 2;
+            List<ZOrderTreap.Entry<String>> page = new ArrayList<>();
+            treap.forEachAfter(cursor, 5, page::add);
+            Assertions.assertEquals(
+                new ArrayList<>(expectedByZ.tailMap(cursor, false).values()).subList(0, page.size()),
+                values(page)
+            );
+            Assertions.assertEquals(Math.min(5, expectedByZ.tailMap(cursor, false).size()), page.size());
+        }
+    }
+
+    private static List<String> values(List<ZOrderTreap.Entry<String>> entries) {
+        List<String> values = new ArrayList<>();
+        entries.forEach(entry -> values.add(entry.getValue()));
+        return values;
+    }
+}
@@ -2,14 +2,27 @@ package com.github.komarovd95.widgetstore.application.service;
 
 import com.github.komarovd95.widgetstore.application.domain.PagedList;
 import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
 import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
 import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
 import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.service.generator.WidgetIdGenerator;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractWidgetsServiceTest {
 
@@ -422,7 +435,7 @@ public abstract class AbstractWidgetsServiceTest {
         Widget widget = service.createWidget(DEFAULT_PARAMETERS);
 
         // when
-        service.deleteWidget("other_test");
+        service.deleteWidget(new WidgetId(0, 0));
 
         // then
         List<Widget> widgets = service.getWidgets(DEFAULT_FILTER).getItems();
@@ -712,13 +725,560 @@ public abstract class AbstractWidgetsServiceTest {
         Assertions.assertFalse(page.getCursor().isPresent());
     }
 
+    @Test
+    public void should_return_all_widgets_when_spatial_search_is_used_after_indexes_rebuild() {
+        // given
+        WidgetsService service = getService();
+
+        // and given
+        Widget widget1 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(0)
+                        .setY(0)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .build()
+        );
+        service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(50)
+                        .setY(50)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .build()
+        );
+
+        // and given
+        Region searchBoundaries = Region.builder()
+            .setX(0)
+            .setY(0)
+            .setWidth(100)
+            .setHeight(150)
+            .builder();
+
+        // when
+        service.rebuildIndexes();
+        Widget widget3 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(0)
+                        .setY(50)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .setZ(widget1.getZ())
+                .build()
+        );
+        PagedList<Widget> page = service.getWidgets(
+            new WidgetsFilter(
+                searchBoundaries,
+                null,
+                100
+            )
+        );
+
+        // then
+        Assertions.assertEquals(2, page.getItems().size());
+        assertWidget(
+            page.getItems().get(0),
+            widget3.getId(),
+            widget3.getBoundaries(),
+            widget1.getZ(),
+            widget3.getModifiedAt()
+        );
+        Assertions.assertEquals(widget1.getId(), page.getItems().get(1).getId());
+        Assertions.assertEquals(widget1.getZ() + 1, page.getItems().get(1).getZ());
+        Assertions.assertFalse(page.getCursor().isPresent());
+    }
+
+    @Test
+    public void should_return_intersecting_widgets_when_spatial_search_in_intersects_mode_is_used() {
+        // given
+        WidgetsService service = getService();
+
+        // and given
+        Widget widget1 = service.createWidget(DEFAULT_PARAMETERS);
+        Widget widget2 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(150)
+                        .setY(150)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .build()
+        );
+        Widget widget3 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(300)
+                        .setY(300)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .build()
+        );
+        service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(1000)
+                        .setY(1000)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .build()
+        );
+
+        // and given
+        Region searchBoundaries = Region.builder()
+            .setX(50)
+            .setY(50)
+            .setWidth(250)
+            .setHeight(250)
+            .builder();
+
+        // when
+        PagedList<Widget> firstPage = service.getWidgets(
+            new WidgetsFilter(searchBoundaries, RegionMatchMode.INTERSECTS, null, 2)
+        );
+        PagedList<Widget> secondPage = service.getWidgets(
+            new WidgetsFilter(
+                searchBoundaries,
+                RegionMatchMode.INTERSECTS,
+                firstPage.getCursor().orElseGet(() -> Assertions.fail("Cursor expected from the first page")),
+                2
+            )
+        );
+        PagedList<Widget> containedWidgets = service.getWidgets(
+            new WidgetsFilter(searchBoundaries, RegionMatchMode.CONTAINS, null, 10)
+        );
+
+        // then
+        Assertions.assertEquals(2, firstPage.getItems().size());
+        Assertions.assertEquals(widget1.getId(), firstPage.getItems().get(0).getId());
+        Assertions.assertEquals(widget2.getId(), firstPage.getItems().get(1).getId());
+        Assertions.assertEquals(1, secondPage.getItems().size());
+        Assertions.assertEquals(widget3.getId(), secondPage.getItems().get(0).getId());
+        Assertions.assertFalse(secondPage.getCursor().isPresent());
+        Assertions.assertEquals(1, containedWidgets.getItems().size());
+        Assertions.assertEquals(widget2.getId(), containedWidgets.getItems().get(0).getId());
+    }
+
+    @Test
+    public void should_return_topmost_widgets_when_widgets_cover_the_point() {
+        // given
+        WidgetsService service = getService();
+
+        // and given
+        Widget widget1 = service.createWidget(DEFAULT_PARAMETERS);
+        Widget widget2 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(50)
+                        .setY(50)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .build()
+        );
+        Widget widget3 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(200)
+                        .setY(200)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .build()
+        );
+
+        // when
+        List<Widget> topmostWidgets = service.getWidgetsAt(75, 75, 10);
+        List<Widget> topmostWidget = service.getWidgetsAt(75, 75, 1);
+        List<Widget> edgeWidgets = service.getWidgetsAt(100, 100, 10);
+        List<Widget> noWidgets = service.getWidgetsAt(150, 150, 10);
+        List<Widget> separateWidgets = service.getWidgetsAt(250, 250, 10);
+
+        // then
+        Assertions.assertEquals(2, topmostWidgets.size());
+        assertWidget(topmostWidgets.get(0), widget2.getBoundaries(), widget2.getZ());
+        Assertions.assertEquals(widget2.getId(), topmostWidgets.get(0).getId());
+        Assertions.assertEquals(widget1.getId(), topmostWidgets.get(1).getId());
+        Assertions.assertEquals(1, topmostWidget.size());
+        Assertions.assertEquals(widget2.getId(), topmostWidget.get(0).getId());
+        Assertions.assertEquals(1, edgeWidgets.size());
+        Assertions.assertEquals(widget2.getId(), edgeWidgets.get(0).getId());
+        Assertions.assertTrue(noWidgets.isEmpty());
+        Assertions.assertEquals(1, separateWidgets.size());
+        Assertions.assertEquals(widget3.getId(), separateWidgets.get(0).getId());
+    }
+
+    @Test
+    public void should_return_page_per_region_when_batch_spatial_search_is_used() {
+        // given
+        WidgetsService service = getService();
+
+        // and given
+        Widget widget1 = service.createWidget(DEFAULT_PARAMETERS);
+        Widget widget2 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(50)
+                        .setY(50)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .build()
+        );
+        Widget widget3 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(
+                    Region.builder()
+                        .setX(500)
+                        .setY(500)
+                        .setWidth(100)
+                        .setHeight(100)
+                        .builder()
+                )
+                .build()
+        );
+
+        // and given
+        Region firstRegion = Region.builder()
+            .setX(0)
+            .setY(0)
+            .setWidth(200)
+            .setHeight(200)
+            .builder();
+        Region secondRegion = Region.builder()
+            .setX(120)
+            .setY(120)
+            .setWidth(400)
+            .setHeight(400)
+            .builder();
+
+        // when
+        List<PagedList<Widget>> pages = service.getWidgets(
+            List.of(
+                new WidgetsFilter(firstRegion, RegionMatchMode.CONTAINS, null, 1),
+                new WidgetsFilter(firstRegion, RegionMatchMode.CONTAINS, widget1.getZ(), 1),
+                new WidgetsFilter(secondRegion, RegionMatchMode.INTERSECTS, null, 10),
+                new WidgetsFilter(secondRegion, RegionMatchMode.CONTAINS, null, 10)
+            )
+        );
+
+        // then
+        Assertions.assertEquals(4, pages.size());
+        Assertions.assertEquals(1, pages.get(0).getItems().size());
+        assertWidget(pages.get(0).getItems().get(0), widget1.getBoundaries(), widget1.getZ());
+        Assertions.assertEquals(widget1.getZ(), pages.get(0).getCursor().orElse(null));
+        Assertions.assertEquals(1, pages.get(1).getItems().size());
+        Assertions.assertEquals(widget2.getId(), pages.get(1).getItems().get(0).getId());
+        Assertions.assertFalse(pages.get(1).getCursor().isPresent());
+        Assertions.assertEquals(2, pages.get(2).getItems().size());
+        Assertions.assertEquals(widget2.getId(), pages.get(2).getItems().get(0).getId());
+        Assertions.assertEquals(widget3.getId(), pages.get(2).getItems().get(1).getId());
+        Assertions.assertTrue(pages.get(3).getItems().isEmpty());
+    }
+
+    @Test
+    public void should_keep_modification_timestamps_of_shifted_widgets_when_storage_is_compacted() {
+        // given
+        WidgetsService service = getService();
+
+        // and given
+        Widget widget1 = service.createWidget(DEFAULT_PARAMETERS);
+        Widget widget2 = service.createWidget(DEFAULT_PARAMETERS);
+        Widget widget3 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(DEFAULT_BOUNDARIES)
+                .setZ(widget2.getZ())
+                .build()
+        );
+        service.compact();
+
+        // when
+        Widget widget4 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(DEFAULT_BOUNDARIES)
+                .setZ(widget1.getZ())
+                .build()
+        );
+        Widget updatedWidget3 = service
+            .updateWidget(
+                widget3.getId(),
+                StoreWidgetParameters.builder()
+                    .setBoundaries(DEFAULT_BOUNDARIES)
+                    .setZ(2)
+                    .build()
+            )
+            .orElseGet(() -> Assertions.fail("Widget was not found by ID"));
+        List<Widget> widgets = service.getWidgets(DEFAULT_FILTER).getItems();
+        service.compact();
+        List<Widget> compactedWidgets = service.getWidgets(DEFAULT_FILTER).getItems();
+
+        // then
+        Assertions.assertEquals(4, widgets.size());
+        assertWidget(widgets.get(0), widget4.getId(), DEFAULT_BOUNDARIES, 0, widget4.getModifiedAt());
+        assertWidget(widgets.get(1), widget1.getId(), DEFAULT_BOUNDARIES, 1, widget4.getModifiedAt());
+        assertWidget(widgets.get(2), widget3.getId(), DEFAULT_BOUNDARIES, 2, updatedWidget3.getModifiedAt());
+        assertWidget(widgets.get(3), widget2.getId(), DEFAULT_BOUNDARIES, 3, widget4.getModifiedAt());
+
+        // and then
+        Assertions.assertEquals(widgets.size(), compactedWidgets.size());
+        for (int i = 0; i < widgets.size(); i++) {
+            Widget widget = widgets.get(i);
+            assertWidget(compactedWidgets.get(i), widget.getId(), widget.getBoundaries(), widget.getZ(),
+                widget.getModifiedAt());
+        }
+        Widget widget2FoundById = service.getWidgetById(widget2.getId())
+            .orElseGet(() -> Assertions.fail("Widget was not found by ID"));
+        assertWidget(widget2FoundById, widget2.getId(), DEFAULT_BOUNDARIES, 3, widget4.getModifiedAt());
+    }
+
+    @Test
+    public void should_export_all_widgets_sorted_by_Z_index_when_there_are_several_batches() {
+        // given
+        WidgetsService service = getService();
+
+        // and given
+        Widget widget1 = service.createWidget(DEFAULT_PARAMETERS);
+        Widget widget2 = service.createWidget(DEFAULT_PARAMETERS);
+        Widget widget3 = service.createWidget(DEFAULT_PARAMETERS);
+        Widget widget4 = service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(DEFAULT_BOUNDARIES)
+                .setZ(widget1.getZ())
+                .build()
+        );
+        Widget widget5 = service.createWidget(DEFAULT_PARAMETERS);
+
+        // when
+        List<Widget> widgets = new ArrayList<>();
+        service.exportWidgets(2, widgets::add);
+
+        // then
+        Assertions.assertEquals(5, widgets.size());
+        assertWidget(widgets.get(0), widget4.getId(), DEFAULT_BOUNDARIES, 0, widget4.getModifiedAt());
+        assertWidget(widgets.get(1), widget1.getId(), DEFAULT_BOUNDARIES, 1, widget4.getModifiedAt());
+        assertWidget(widgets.get(2), widget2.getId(), DEFAULT_BOUNDARIES, 2, widget4.getModifiedAt());
+        assertWidget(widgets.get(3), widget3.getId(), DEFAULT_BOUNDARIES, 3, widget4.getModifiedAt());
+        assertWidget(widgets.get(4), widget5.getId(), DEFAULT_BOUNDARIES, 4, widget5.getModifiedAt());
+    }
+
+    @Test
+    public void should_export_every_widget_once_when_widgets_are_shifted_concurrently() throws Exception {
+        // given
+        WidgetsService service = getService();
+        List<Widget> createdWidgets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            createdWidgets.add(service.createWidget(DEFAULT_PARAMETERS));
+        }
+        StoreWidgetParameters bottomParameters = StoreWidgetParameters.builder()
+            .setBoundaries(DEFAULT_BOUNDARIES)
+            .setZ(0)
+            .build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Future<?>> shifts = new ArrayList<>();
+        List<Widget> widgets = new ArrayList<>();
+
+        try {
+            // when
+            service.exportWidgets(3, widget -> {
+                widgets.add(widget);
+                // every widget inserted at the bottom shifts all widgets (including the exported ones) upwards
+                Future<?> shift = executor.submit(() -> service.createWidget(bottomParameters));
+                shifts.add(shift);
+                try {
+                    // widgets are passed to the consumer outside of storage locks, so writers are not blocked
+                    shift.get(10, TimeUnit.SECONDS);
+                } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // then
+        Assertions.assertEquals(createdWidgets.size(), widgets.size());
+        for (int i = 0; i < widgets.size(); i++) {
+            Assertions.assertEquals(createdWidgets.get(i).getId(), widgets.get(i).getId());
+            Assertions.assertEquals(i, widgets.get(i).getZ());
+        }
+        Assertions.assertEquals(
+            createdWidgets.size() + shifts.size(),
+            service.getWidgets(new WidgetsFilter(null, null, 100)).getItems().size()
+        );
+    }
+
+    @Test
+    public void should_export_no_widgets_when_storage_is_empty() {
+        // given
+        WidgetsService service = getService();
+
+        // when
+        List<Widget> widgets = new ArrayList<>();
+        service.exportWidgets(2, widgets::add);
+
+        // then
+        Assertions.assertTrue(widgets.isEmpty());
+    }
+
+    /**
+     * Applies the same random modifications to both storages and checks that they return the same widgets to the same
+     * reads. Widgets are placed in the square of the given size around the origin, so the test may choose how widgets
+     * are spread over shards, cells, etc.
+     *
+     * @param reference the storage with known-good behavior, created with {@link #sequentialIds()}
+     * @param tested the tested storage, created with {@link #sequentialIds()} and the same clock
+     * @param operations the number of modifications
+     * @param planeSize the size of the square where widgets are placed
+     * @param maxWidgetSize the maximum size of widgets' sides. Half of widgets are not larger than 50
+     */
+    protected static void assertSameWidgetsAsReference(
+        WidgetsService reference,
+        WidgetsService tested,
+        int operations,
+        int planeSize,
+        int maxWidgetSize
+    ) {
+        Random random = new Random(42);
+        int maxZIndex = Math.max(planeSize / 10, 50);
+        List<WidgetId> ids = new ArrayList<>();
+
+        for (int i = 0; i < operations; i++) {
+            // when
+            int operation = random.nextInt(5);
+            if (!ids.isEmpty() && operation == 0) {
+                WidgetId id = ids.remove(random.nextInt(ids.size()));
+                reference.deleteWidget(id);
+                tested.deleteWidget(id);
+            } else if (!ids.isEmpty() && operation < 3) {
+                WidgetId id = ids.get(random.nextInt(ids.size()));
+                StoreWidgetParameters parameters = randomParameters(random, planeSize, maxWidgetSize, maxZIndex);
+                assertSameWidget(reference.updateWidget(id, parameters), tested.updateWidget(id, parameters));
+            } else {
+                StoreWidgetParameters parameters = randomParameters(random, planeSize, maxWidgetSize, maxZIndex);
+                Widget widget = reference.createWidget(parameters);
+                assertSameWidget(Optional.of(widget), Optional.of(tested.createWidget(parameters)));
+                ids.add(widget.getId());
+            }
+            if (i % 500 == 499) {
+                tested.rebuildIndexes();
+            }
+
+            // then
+            if (i % 20 == 0) {
+                Region region = randomRegion(random, planeSize, planeSize * 2);
+                RegionMatchMode matchMode = random.nextBoolean()
+                    ? RegionMatchMode.CONTAINS
+                    : RegionMatchMode.INTERSECTS;
+                Integer cursor = random.nextBoolean() ? random.nextInt(maxZIndex) : null;
+                WidgetsFilter filter = new WidgetsFilter(region, matchMode, cursor, 10);
+                assertSameWidgets(reference.getWidgets(filter).getItems(), tested.getWidgets(filter).getItems());
+                WidgetsFilter pageFilter = new WidgetsFilter(null, cursor, 10);
+                assertSameWidgets(
+                    reference.getWidgets(pageFilter).getItems(),
+                    tested.getWidgets(pageFilter).getItems()
+                );
+                List<WidgetsFilter> filters = List.of(
+                    filter,
+                    new WidgetsFilter(randomRegion(random, planeSize, planeSize / 2), cursor, 5)
+                );
+                List<PagedList<Widget>> expectedPages = reference.getWidgets(filters);
+                List<PagedList<Widget>> pages = tested.getWidgets(filters);
+                for (int j = 0; j < filters.size(); j++) {
+                    assertSameWidgets(expectedPages.get(j).getItems(), pages.get(j).getItems());
+                }
+                int x = random.nextInt(planeSize) - planeSize / 2;
+                int y = random.nextInt(planeSize) - planeSize / 2;
+                assertSameWidgets(reference.getWidgetsAt(x, y, 5), tested.getWidgetsAt(x, y, 5));
+            }
+        }
+    }
+
+    /**
+     * @return the generator of IDs 1, 2, 3 and so on, so two storages generate the same IDs for the same creations
+     */
+    protected static WidgetIdGenerator sequentialIds() {
+        AtomicLong sequence = new AtomicLong();
+        return () -> new WidgetId(0, sequence.incrementAndGet());
+    }
+
+    protected static void assertSameWidgets(List<Widget> expected, List<Widget> actual) {
+        Assertions.assertEquals(expected.size(), actual.size(), () -> "Expected " + expected + " but was " + actual);
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameWidget(Optional.of(expected.get(i)), Optional.of(actual.get(i)));
+        }
+    }
+
+    private static void assertSameWidget(Optional<Widget> expected, Optional<Widget> actual) {
+        Assertions.assertEquals(expected.isPresent(), actual.isPresent());
+        expected.ifPresent(widget -> assertWidget(
+            actual.get(),
+            widget.getId(),
+            widget.getBoundaries(),
+            widget.getZ(),
+            widget.getModifiedAt()
+        ));
+    }
+
+    /**
+     * @return the parameters of a widget placed in the square of the given size around the origin. Half of widgets
+     *         are not larger than 50, and half of them have no Z-index
+     */
+    protected static StoreWidgetParameters randomParameters(
+        Random random,
+        int planeSize,
+        int maxWidgetSize,
+        int maxZIndex
+    ) {
+        int maxSize = random.nextBoolean() ? Math.min(50, maxWidgetSize) : maxWidgetSize;
+        return StoreWidgetParameters.builder()
+            .setBoundaries(randomRegion(random, planeSize, maxSize))
+            .setZ(random.nextBoolean() ? random.nextInt(maxZIndex) : null)
+            .build();
+    }
+
+    private static Region randomRegion(Random random, int planeSize, int maxSize) {
+        return Region.builder()
+            .setX(random.nextInt(planeSize) - planeSize / 2)
+            .setY(random.nextInt(planeSize) - planeSize / 2)
+            .setWidth(random.nextInt(maxSize) + 1)
+            .setHeight(random.nextInt(maxSize) + 1)
+            .builder();
+    }
+
     private static void assertWidget(Widget widget, Region expectedBoundaries, int expectedZIndex) {
         assertWidget(widget, widget.getId(), expectedBoundaries, expectedZIndex, widget.getModifiedAt());
     }
 
     private static void assertWidget(
         Widget widget,
-        String expectedId,
+        WidgetId expectedId,
         Region expectedBoundaries,
         int expectedZIndex,
         Instant expectedTimestamp
@@ -0,0 +1,206 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.repository.InMemoryWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.GroupCommitTransactionsService;
+import com.github.komarovd95.widgetstore.application.service.transaction.InMemoryTransactionsService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class CanvasesServiceTest {
+
+    private static final StoreWidgetParameters PARAMETERS = StoreWidgetParameters.builder()
+        .setBoundaries(
+            Region.builder()
+                .setX(0)
+                .setY(0)
+                .setWidth(100)
+                .setHeight(100)
+                .builder()
+        )
+        .setZ(0)
+        .build();
+
+    @Test
+    public void should_create_independent_canvases_when_widgets_are_created_in_canvases() {
+        // given
+        CanvasesService canvasesService = newCanvasesService(Clock.systemUTC());
+
+        // when
+        Widget first = canvasesService.writeCanvas("first", service -> service.createWidget(PARAMETERS));
+        Widget second = canvasesService.writeCanvas("second", service -> service.createWidget(PARAMETERS));
+
+        // then
+        Assertions.assertEquals(2, canvasesService.size());
+        Assertions.assertEquals(0, first.getZ());
+        Assertions.assertEquals(0, second.getZ());
+        Assertions.assertEquals(
+            Optional.of(true),
+            canvasesService.readCanvas("first", service -> service.getWidgetById(first.getId()).isPresent())
+        );
+        Assertions.assertEquals(
+            Optional.of(false),
+            canvasesService.readCanvas("first", service -> service.getWidgetById(second.getId()).isPresent())
+        );
+    }
+
+    @Test
+    public void should_not_create_canvas_when_missing_canvas_is_read() {
+        // given
+        CanvasesService canvasesService = newCanvasesService(Clock.systemUTC());
+
+        // when
+        Optional<Boolean> result = canvasesService.readCanvas("missing", WidgetsService::isEmpty);
+
+        // then
+        Assertions.assertTrue(result.isEmpty());
+        Assertions.assertEquals(0, canvasesService.size());
+    }
+
+    @Test
+    public void should_apply_action_to_every_canvas_when_canvases_are_iterated() {
+        // given
+        CanvasesService canvasesService = newCanvasesService(Clock.systemUTC());
+        Widget first = canvasesService.writeCanvas("first", service -> service.createWidget(PARAMETERS));
+        Widget second = canvasesService.writeCanvas("second", service -> service.createWidget(PARAMETERS));
+
+        // when
+        List<Widget> widgets = new ArrayList<>();
+        int applied = canvasesService.forEachCanvas(service -> {
+            service.rebuildIndexes();
+            widgets.addAll(service.getWidgets(new WidgetsFilter(null, null, 10)).getItems());
+        });
+
+        // then
+        Assertions.assertEquals(2, applied);
+        Assertions.assertEquals(
+            Set.of(first.getId(), second.getId()),
+            widgets.stream().map(Widget::getId).collect(Collectors.toSet())
+        );
+    }
+
+    @Test
+    public void should_evict_and_close_canvases_when_they_are_idle_and_empty() {
+        // given
+        MutableClock clock = new MutableClock();
+        List<GroupCommitTransactionsService> transactionsServices = new ArrayList<>();
+        CanvasesService canvasesService = new CanvasesService(
+            new WidgetsStorageFactory(
+                () -> {
+                    GroupCommitTransactionsService transactionsService =
+                        new GroupCommitTransactionsService(new InMemoryTransactionsService(), 16, 4);
+                    transactionsServices.add(transactionsService);
+                    return transactionsService;
+                },
+                InMemoryWidgetsRepository::new
+            ),
+            new UuidWidgetIdGenerator(),
+            clock,
+            Duration.ofMinutes(1)
+        );
+        Widget idleWidget = canvasesService.writeCanvas("idle", service -> service.createWidget(PARAMETERS));
+        canvasesService.writeCanvas("idle", service -> {
+            service.deleteWidget(idleWidget.getId());
+            return null;
+        });
+        clock.instant = clock.instant.plusSeconds(45);
+        canvasesService.writeCanvas("active", service -> service.createWidget(PARAMETERS));
+
+        // when
+        clock.instant = clock.instant.plusSeconds(30);
+        int evicted = canvasesService.evictIdleCanvases();
+
+        // then
+        Assertions.assertEquals(1, evicted);
+        Assertions.assertEquals(1, canvasesService.size());
+        Assertions.assertThrows(
+            IllegalStateException.class,
+            () -> transactionsServices.get(0).writeTransaction(() -> null)
+        );
+        Assertions.assertTrue(canvasesService.readCanvas("idle", WidgetsService::isEmpty).isEmpty());
+        canvasesService.close();
+    }
+
+    @Test
+    public void should_not_evict_canvases_when_they_are_idle_but_have_widgets() {
+        // given
+        MutableClock clock = new MutableClock();
+        CanvasesService canvasesService = newCanvasesService(clock);
+        Widget widget = canvasesService.writeCanvas("idle", service -> service.createWidget(PARAMETERS));
+
+        // when
+        clock.instant = clock.instant.plus(Duration.ofHours(1));
+        int evicted = canvasesService.evictIdleCanvases();
+
+        // then
+        Assertions.assertEquals(0, evicted);
+        Assertions.assertEquals(
+            Optional.of(true),
+            canvasesService.readCanvas("idle", service -> service.getWidgetById(widget.getId()).isPresent())
+        );
+    }
+
+    @Test
+    public void should_not_evict_canvases_when_they_are_used_by_operations() {
+        // given
+        MutableClock clock = new MutableClock();
+        CanvasesService canvasesService = newCanvasesService(clock);
+
+        // when
+        Widget widget = canvasesService.writeCanvas("used", service -> {
+            clock.instant = clock.instant.plus(Duration.ofHours(1));
+            Assertions.assertEquals(0, canvasesService.evictIdleCanvases());
+            return service.createWidget(PARAMETERS);
+        });
+
+        // then
+        Assertions.assertEquals(
+            Optional.of(true),
+            canvasesService.readCanvas("used", service -> service.getWidgetById(widget.getId()).isPresent())
+        );
+    }
+
+    private static CanvasesService newCanvasesService(Clock clock) {
+        return new CanvasesService(
+            new WidgetsStorageFactory(InMemoryTransactionsService::new, InMemoryWidgetsRepository::new),
+            new UuidWidgetIdGenerator(),
+            clock,
+            Duration.ofMinutes(1)
+        );
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant instant = Instant.EPOCH;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
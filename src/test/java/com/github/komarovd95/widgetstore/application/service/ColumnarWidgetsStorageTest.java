@@ -0,0 +1,77 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.repository.ColumnarWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.repository.InMemoryWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.InMemoryTransactionsService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+public class ColumnarWidgetsStorageTest extends AbstractWidgetsServiceTest {
+
+    @Override
+    protected WidgetsService getService() {
+        return new WidgetsService(
+            new InMemoryTransactionsService(),
+            new ColumnarWidgetsRepository(1),
+            new UuidWidgetIdGenerator(),
+            new UniqueClock()
+        );
+    }
+
+    @Test
+    public void should_find_the_same_widgets_as_in_memory_storage_when_widgets_are_modified() {
+        Clock clock = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+        WidgetsService inMemory = new WidgetsService(
+            new InMemoryTransactionsService(),
+            new InMemoryWidgetsRepository(),
+            sequentialIds(),
+            clock
+        );
+        WidgetsService columnar = new WidgetsService(
+            new InMemoryTransactionsService(),
+            new ColumnarWidgetsRepository(1),
+            sequentialIds(),
+            clock
+        );
+
+        // sizes of widgets vary from a single unit to thousands, so widgets are spread over several levels of the grid
+        assertSameWidgetsAsReference(inMemory, columnar, 3000, 1000, 3000);
+    }
+
+    @Test
+    public void should_find_widgets_with_extreme_coordinates() {
+        // given
+        WidgetsService service = getService();
+        Widget huge = service.createWidget(parameters(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        Widget corner = service.createWidget(parameters(Integer.MAX_VALUE - 10, Integer.MAX_VALUE - 10, 10));
+
+        // when
+        List<Widget> nearOrigin = service.getWidgetsAt(-5, -5, 10);
+        List<Widget> atCorner = service.getWidgetsAt(Integer.MAX_VALUE - 1, Integer.MAX_VALUE - 1, 10);
+
+        // then
+        assertSameWidgets(List.of(huge), nearOrigin);
+        assertSameWidgets(List.of(corner), atCorner);
+    }
+
+    private static StoreWidgetParameters parameters(int x, int y, int size) {
+        return StoreWidgetParameters.builder()
+            .setBoundaries(
+                Region.builder()
+                    .setX(x)
+                    .setY(y)
+                    .setWidth(size)
+                    .setHeight(size)
+                    .builder()
+            )
+            .build();
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.domain.PagedList;
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.SnapshotExpiredException;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.domain.rtree.PersistentWidgetRTree;
+import com.github.komarovd95.widgetstore.application.repository.CopyOnWriteWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.CopyOnWriteTransactionsService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class CopyOnWriteWidgetsStorageTest extends AbstractWidgetsServiceTest {
+
+    private static final StoreWidgetParameters PARAMETERS = StoreWidgetParameters.builder()
+        .setBoundaries(
+            Region.builder()
+                .setX(0)
+                .setY(0)
+                .setWidth(100)
+                .setHeight(100)
+                .builder()
+        )
+        .build();
+
+    @Override
+    protected WidgetsService getService() {
+        return getService(CopyOnWriteWidgetsRepository.DEFAULT_SNAPSHOT_RETENTION);
+    }
+
+    @Test
+    public void should_read_next_page_from_the_same_snapshot_when_widgets_are_modified_between_pages() {
+        // given
+        WidgetsService service = getService();
+        Widget widget1 = service.createWidget(PARAMETERS);
+        Widget widget2 = service.createWidget(PARAMETERS);
+        Widget widget3 = service.createWidget(PARAMETERS);
+        PagedList<Widget> firstPage = service.getWidgets(new WidgetsFilter(null, null, 2));
+
+        // when
+        service.createWidget(
+            StoreWidgetParameters.builder()
+                .setBoundaries(PARAMETERS.getBoundaries())
+                .setZ(widget1.getZ())
+                .build()
+        );
+        service.deleteWidget(widget3.getId());
+        PagedList<Widget> secondPage = service.getWidgets(
+            new WidgetsFilter(
+                null,
+                RegionMatchMode.CONTAINS,
+                firstPage.getCursor().orElseGet(() -> Assertions.fail("Cursor expected from the first page")),
+                2,
+                firstPage.getSnapshotVersion().orElseGet(() -> Assertions.fail("Version expected from the first page"))
+            )
+        );
+
+        // then
+        Assertions.assertEquals(List.of(widget1.getId(), widget2.getId()), ids(firstPage));
+        Assertions.assertEquals(List.of(widget3.getId()), ids(secondPage));
+        Assertions.assertEquals(widget3.getZ(), secondPage.getItems().get(0).getZ());
+        Assertions.assertFalse(secondPage.getCursor().isPresent());
+    }
+
+    @Test
+    public void should_throw_exception_when_snapshot_retention_has_expired() {
+        // given
+        WidgetsService service = getService(Duration.ZERO);
+        service.createWidget(PARAMETERS);
+        service.createWidget(PARAMETERS);
+        Widget widget3 = service.createWidget(PARAMETERS);
+        PagedList<Widget> firstPage = service.getWidgets(new WidgetsFilter(null, null, 2));
+        service.deleteWidget(widget3.getId());
+        service.createWidget(PARAMETERS);
+        WidgetsFilter nextPageFilter = new WidgetsFilter(
+            null,
+            RegionMatchMode.CONTAINS,
+            firstPage.getCursor().orElseGet(() -> Assertions.fail("Cursor expected from the first page")),
+            2,
+            firstPage.getSnapshotVersion().orElseGet(() -> Assertions.fail("Version expected from the first page"))
+        );
+
+        // when
+        SnapshotExpiredException exception = Assertions.assertThrows(
+            SnapshotExpiredException.class,
+            () -> service.getWidgets(nextPageFilter)
+        );
+
+        // then
+        Assertions.assertEquals(firstPage.getSnapshotVersion().orElseThrow(), exception.getSnapshotVersion());
+    }
+
+    @Test
+    public void should_fail_export_when_snapshot_retention_has_expired_before_the_last_page() {
+        // given
+        WidgetsService service = getService(Duration.ZERO);
+        service.createWidget(PARAMETERS);
+        service.createWidget(PARAMETERS);
+        service.createWidget(PARAMETERS);
+        List<Widget> widgets = new ArrayList<>();
+
+        // when
+        Assertions.assertThrows(SnapshotExpiredException.class, () -> service.exportWidgets(1, widget -> {
+            widgets.add(widget);
+            service.createWidget(PARAMETERS);
+        }));
+
+        // then
+        Assertions.assertEquals(1, widgets.size());
+    }
+
+    private static WidgetsService getService(Duration snapshotRetention) {
+        return new WidgetsService(
+            new CopyOnWriteTransactionsService(),
+            new CopyOnWriteWidgetsRepository(PersistentWidgetRTree.empty(4, 2), new UniqueClock(), snapshotRetention),
+            new UuidWidgetIdGenerator(),
+            new UniqueClock()
+        );
+    }
+
+    private static List<WidgetId> ids(PagedList<Widget> page) {
+        return page.getItems().stream()
+            .map(Widget::getId)
+            .collect(Collectors.toList());
+    }
+}
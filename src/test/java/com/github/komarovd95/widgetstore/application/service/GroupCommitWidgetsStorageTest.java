@@ -0,0 +1,105 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.repository.InMemoryWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.GroupCommitTransactionsService;
+import com.github.komarovd95.widgetstore.application.service.transaction.InMemoryTransactionsService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class GroupCommitWidgetsStorageTest extends AbstractWidgetsServiceTest {
+
+    private static final StoreWidgetParameters PARAMETERS = StoreWidgetParameters.builder()
+        .setBoundaries(
+            Region.builder()
+                .setX(0)
+                .setY(0)
+                .setWidth(100)
+                .setHeight(100)
+                .builder()
+        )
+        .setZ(0)
+        .build();
+
+    private final List<GroupCommitTransactionsService> transactionsServices = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        for (GroupCommitTransactionsService transactionsService : transactionsServices) {
+            transactionsService.close();
+        }
+    }
+
+    @Override
+    protected WidgetsService getService() {
+        GroupCommitTransactionsService transactionsService =
+            new GroupCommitTransactionsService(new InMemoryTransactionsService(), 16, 4);
+        transactionsServices.add(transactionsService);
+        return new WidgetsService(
+            transactionsService,
+            new InMemoryWidgetsRepository(),
+            new UuidWidgetIdGenerator(),
+            new UniqueClock()
+        );
+    }
+
+    @Test
+    public void should_apply_submitted_modifications_in_the_order_of_submission() {
+        // given
+        WidgetsService service = getService();
+
+        // when
+        List<CompletableFuture<Widget>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(service.createWidgetAsync(PARAMETERS));
+        }
+        CompletableFuture<Void> deletion = service.deleteWidgetAsync(futures.get(0).join().getId());
+        deletion.join();
+
+        // then
+        List<Widget> widgets = service.getWidgets(new WidgetsFilter(null, null, 200)).getItems();
+        Assertions.assertEquals(99, widgets.size());
+        for (int i = 0; i < widgets.size(); i++) {
+            // every widget is inserted at the bottom, so the last submitted one is the lowest
+            Assertions.assertEquals(futures.get(futures.size() - 1 - i).join().getId(), widgets.get(i).getId());
+            Assertions.assertEquals(i, widgets.get(i).getZ());
+        }
+    }
+
+    @Test
+    public void should_fail_only_the_future_of_the_failed_modification_when_batch_is_applied() {
+        // given
+        GroupCommitTransactionsService transactionsService =
+            new GroupCommitTransactionsService(new InMemoryTransactionsService(), 16, 16);
+        transactionsServices.add(transactionsService);
+
+        // when
+        CompletableFuture<Integer> first = transactionsService.submitWriteTransaction(() -> 1);
+        CompletableFuture<Integer> failed = transactionsService.submitWriteTransaction(() -> {
+            throw new IllegalArgumentException("failed");
+        });
+        CompletableFuture<Integer> last = transactionsService.submitWriteTransaction(() -> 3);
+
+        // then
+        Assertions.assertEquals(1, first.join());
+        CompletionException exception = Assertions.assertThrows(CompletionException.class, failed::join);
+        Assertions.assertTrue(exception.getCause() instanceof IllegalArgumentException);
+        Assertions.assertEquals(3, last.join());
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> transactionsService.writeTransaction(() -> {
+                throw new IllegalArgumentException("failed");
+            })
+        );
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree;
+import com.github.komarovd95.widgetstore.application.repository.CachingWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.repository.H2DatabaseWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.repository.WidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@SpringBootTest(properties = "widgets.database.near-cache=true")
+@ActiveProfiles("database")
+public class H2DatabaseNearCacheStorageTest extends AbstractWidgetsServiceTest {
+
+    @Autowired
+    private TransactionsService transactionsService;
+
+    @Autowired
+    private CachingWidgetsRepository widgetsRepository;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        jdbcTemplate.update("TRUNCATE TABLE widget", Collections.emptyMap());
+        jdbcTemplate.update("TRUNCATE TABLE widget_shift", Collections.emptyMap());
+        widgetsRepository.reload();
+    }
+
+    @Override
+    protected WidgetsService getService() {
+        return new WidgetsService(
+            transactionsService,
+            widgetsRepository,
+            new UuidWidgetIdGenerator(),
+            new UniqueClock()
+        );
+    }
+
+    @Test
+    public void should_load_the_same_widgets_as_stored_in_database() {
+        // given
+        WidgetsService service = getService();
+        Widget widget = service.createWidget(parameters(region(0, 0), 1));
+        service.createWidget(parameters(region(10, 10), 1));
+        service.createWidget(parameters(region(20, 20), 5));
+        service.updateWidget(widget.getId(), parameters(region(30, 30), 2));
+
+        // when
+        CachingWidgetsRepository restoredRepository =
+            new CachingWidgetsRepository(new H2DatabaseWidgetsRepository(jdbcTemplate), WidgetRTree::new);
+        restoredRepository.reload();
+
+        // then
+        Assertions.assertEquals(
+            getAllWidgets(new H2DatabaseWidgetsRepository(jdbcTemplate)).toString(),
+            getAllWidgets(widgetsRepository).toString()
+        );
+        Assertions.assertEquals(
+            getAllWidgets(widgetsRepository).toString(),
+            getAllWidgets(restoredRepository).toString()
+        );
+    }
+
+    @Test
+    public void should_discard_cached_modifications_when_transaction_is_rolled_back() {
+        // given
+        WidgetsService service = getService();
+        Widget widget = service.createWidget(parameters(region(0, 0), 1));
+        WidgetId rolledBackId = WidgetId.of(UUID.randomUUID());
+
+        // when
+        Assertions.assertThrows(RuntimeException.class, () -> transactionsService.writeTransaction(() -> {
+            widgetsRepository.insert(rolledBackId, region(10, 10), 1, Instant.now());
+            throw new IllegalStateException("Rollback");
+        }));
+
+        // then
+        Assertions.assertTrue(widgetsRepository.getWidgetById(rolledBackId).isEmpty());
+        Assertions.assertEquals(1, widgetsRepository.getWidgetById(widget.getId()).orElseThrow().getZ());
+        Assertions.assertEquals(1, getAllWidgets(widgetsRepository).size());
+    }
+
+    @Test
+    public void should_apply_modifications_to_cache_only_after_commit() {
+        // given
+        WidgetId id = WidgetId.of(UUID.randomUUID());
+
+        // when
+        List<Boolean> visibleBeforeCommit = transactionsService.writeTransaction(() -> {
+            widgetsRepository.insert(id, region(10, 10), 1, Instant.now());
+            return List.of(
+                widgetsRepository.getWidgetById(id).isPresent(),
+                CompletableFuture.supplyAsync(() -> widgetsRepository.getWidgetById(id).isPresent()).join()
+            );
+        });
+
+        // then
+        Assertions.assertEquals(List.of(true, false), visibleBeforeCommit);
+        Assertions.assertTrue(CompletableFuture.supplyAsync(() -> widgetsRepository.getWidgetById(id)).join()
+            .isPresent());
+        Assertions.assertEquals(
+            getAllWidgets(new H2DatabaseWidgetsRepository(jdbcTemplate)).toString(),
+            getAllWidgets(widgetsRepository).toString()
+        );
+    }
+
+    @Test
+    public void should_serve_reads_from_database_when_modification_fails_to_be_applied_to_cache() throws Exception {
+        // given
+        AtomicBoolean failing = new AtomicBoolean();
+        H2DatabaseWidgetsRepository databaseRepository = new H2DatabaseWidgetsRepository(jdbcTemplate);
+        CachingWidgetsRepository repository = new CachingWidgetsRepository(databaseRepository, () -> new WidgetRTree() {
+            @Override
+            public void add(WidgetId id, Region boundaries, long z) {
+                if (failing.get()) {
+                    throw new IllegalStateException("Failure");
+                }
+                super.add(id, boundaries, z);
+            }
+        });
+        repository.reload();
+        WidgetId failedId = WidgetId.of(UUID.randomUUID());
+        WidgetId nextId = WidgetId.of(UUID.randomUUID());
+
+        // when
+        failing.set(true);
+        transactionsService.writeTransaction(() -> {
+            repository.insert(failedId, region(0, 0), 1, Instant.now());
+            return null;
+        });
+        failing.set(false);
+        // the next commit doesn't wait for the failed one
+        CompletableFuture.runAsync(() -> transactionsService.writeTransaction(() -> {
+            repository.insert(nextId, region(10, 10), 2, Instant.now());
+            return null;
+        })).get(10, TimeUnit.SECONDS);
+
+        // then
+        Assertions.assertTrue(repository.getWidgetById(failedId).isPresent());
+        Assertions.assertTrue(repository.getWidgetById(nextId).isPresent());
+        Assertions.assertEquals(getAllWidgets(databaseRepository).toString(), getAllWidgets(repository).toString());
+        repository.reload();
+        Assertions.assertEquals(getAllWidgets(databaseRepository).toString(), getAllWidgets(repository).toString());
+    }
+
+    private static List<Widget> getAllWidgets(WidgetsRepository repository) {
+        return repository.getWidgets(null, RegionMatchMode.CONTAINS, null, 100);
+    }
+
+    private static StoreWidgetParameters parameters(Region boundaries, int z) {
+        return StoreWidgetParameters.builder()
+            .setBoundaries(boundaries)
+            .setZ(z)
+            .build();
+    }
+
+    private static Region region(int x, int y) {
+        return Region.builder()
+            .setX(x)
+            .setY(y)
+            .setWidth(100)
+            .setHeight(100)
+            .builder();
+    }
+}
@@ -0,0 +1,204 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Versioned;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.repository.WidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest
+@ActiveProfiles("database")
+public class H2DatabaseOptimisticMovesStorageTest extends AbstractWidgetsServiceTest {
+
+    @Autowired
+    private TransactionsService transactionsService;
+
+    @Autowired
+    private WidgetsRepository widgetsRepository;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        jdbcTemplate.update("TRUNCATE TABLE widget", Collections.emptyMap());
+        jdbcTemplate.update("TRUNCATE TABLE widget_shift", Collections.emptyMap());
+    }
+
+    @Override
+    protected WidgetsService getService() {
+        return new WidgetsService(
+            transactionsService,
+            widgetsRepository,
+            new UuidWidgetIdGenerator(),
+            new UniqueClock(),
+            true
+        );
+    }
+
+    @Test
+    public void should_not_update_boundaries_when_widget_has_been_shifted_since_it_was_read() {
+        // given
+        WidgetsService service = getService();
+        Widget widget = service.createWidget(parameters(region(0, 0), 1));
+        Versioned<Widget> readWidget = widgetsRepository.getVersionedWidgetById(widget.getId()).orElseThrow();
+        service.createWidget(parameters(region(10, 10), 1));
+
+        // when
+        boolean updated = transactionsService.optimisticWriteTransaction(() ->
+            widgetsRepository.updateBoundaries(
+                widget.getId(), readWidget.getVersion().orElseThrow(), region(20, 20), Instant.now())
+        );
+
+        // then
+        Assertions.assertFalse(updated);
+        Widget actualWidget = service.getWidgetById(widget.getId()).orElseThrow();
+        Assertions.assertEquals(2, actualWidget.getZ());
+        Assertions.assertEquals(region(0, 0), actualWidget.getBoundaries());
+    }
+
+    @Test
+    public void should_increment_version_when_z_index_is_changed_concurrently_with_uncommitted_move() throws Exception {
+        // given
+        WidgetsService service = getService();
+        Widget widget = service.createWidget(parameters(region(0, 0), 1));
+        service.createWidget(parameters(region(0, 0), 2));
+        long version = widgetsRepository.getVersionedWidgetById(widget.getId())
+            .flatMap(Versioned::getVersion)
+            .orElseThrow();
+        CountDownLatch moved = new CountDownLatch(1);
+        CountDownLatch committing = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            // when
+            Future<Boolean> move = executor.submit(() -> transactionsService.optimisticWriteTransaction(() -> {
+                boolean updated = widgetsRepository.updateBoundaries(
+                    widget.getId(), version, region(10, 10), Instant.now());
+                moved.countDown();
+                awaitQuietly(committing);
+                return updated;
+            }));
+            Assertions.assertTrue(moved.await(10, TimeUnit.SECONDS));
+            // the Z-index change reads the version of the widget while the move holds the lock of its row
+            Future<?> zIndexChange = executor.submit(() ->
+                service.updateWidget(widget.getId(), parameters(region(0, 0), 3))
+            );
+            Thread.sleep(200);
+            committing.countDown();
+
+            // then
+            Assertions.assertTrue(move.get(10, TimeUnit.SECONDS));
+            zIndexChange.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        Versioned<Widget> actualWidget = widgetsRepository.getVersionedWidgetById(widget.getId()).orElseThrow();
+        Assertions.assertEquals(3, actualWidget.getValue().getZ());
+        // the version after the move is (version + 1), and the Z-index change must increment it
+        Assertions.assertEquals(version + 2, actualWidget.getVersion().orElseThrow());
+    }
+
+    @Test
+    public void should_keep_widgets_consistent_when_moves_are_concurrent_with_z_index_changes() throws Exception {
+        // given
+        WidgetsService service = new WidgetsService(
+            transactionsService,
+            widgetsRepository,
+            new UuidWidgetIdGenerator(),
+            Clock.systemUTC(),
+            true
+        );
+        List<WidgetId> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ids.add(service.createWidget(parameters(region(0, 0), i)).getId());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            // when
+            List<Future<?>> writers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                boolean changesZ = i == 0;
+                long seed = i;
+                writers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int j = 0; j < 100; j++) {
+                        WidgetId id = ids.get(random.nextInt(ids.size()));
+                        if (changesZ) {
+                            service.updateWidget(id, parameters(region(0, 0), random.nextInt(20)));
+                        } else {
+                            Region boundaries = region(j, j);
+                            service.getWidgetById(id).ifPresent(widget ->
+                                service.updateWidget(id, parameters(boundaries, widget.getZ()))
+                            );
+                        }
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // then
+        List<Widget> widgets = service.getWidgets(new WidgetsFilter(null, null, 100)).getItems();
+        Assertions.assertEquals(ids.size(), widgets.size());
+        Set<Integer> zIndices = new HashSet<>();
+        for (Widget widget : widgets) {
+            Assertions.assertTrue(zIndices.add(widget.getZ()));
+            Assertions.assertEquals(widget.getZ(), service.getWidgetById(widget.getId()).orElseThrow().getZ());
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static StoreWidgetParameters parameters(Region boundaries, int z) {
+        return StoreWidgetParameters.builder()
+            .setBoundaries(boundaries)
+            .setZ(z)
+            .build();
+    }
+
+    private static Region region(int x, int y) {
+        return Region.builder()
+            .setX(x)
+            .setY(y)
+            .setWidth(100)
+            .setHeight(100)
+            .builder();
+    }
+}
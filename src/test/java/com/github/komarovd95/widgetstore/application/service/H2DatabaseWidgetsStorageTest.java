@@ -1,15 +1,32 @@
 package com.github.komarovd95.widgetstore.application.service;
 
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
 import com.github.komarovd95.widgetstore.application.repository.WidgetsRepository;
 import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
 import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
 
 @SpringBootTest
 @ActiveProfiles("database")
@@ -27,6 +44,7 @@ public class H2DatabaseWidgetsStorageTest extends AbstractWidgetsServiceTest {
     @BeforeEach
     public void setUp() {
         jdbcTemplate.update("TRUNCATE TABLE widget", Collections.emptyMap());
+        jdbcTemplate.update("TRUNCATE TABLE widget_shift", Collections.emptyMap());
     }
 
     @Override
@@ -38,4 +56,119 @@ public class H2DatabaseWidgetsStorageTest extends AbstractWidgetsServiceTest {
             new UniqueClock()
         );
     }
+
+    @Test
+    public void should_shift_long_run_of_widgets_and_record_the_shift() {
+        // given
+        WidgetsService service = getService();
+        Widget underlying = service.createWidget(parameters(-1));
+        List<Widget> run = new ArrayList<>();
+        for (int zIndex = 0; zIndex < 1000; zIndex++) {
+            run.add(service.createWidget(parameters(zIndex)));
+        }
+        Widget overlying = service.createWidget(parameters(1001));
+
+        // when
+        Widget widget = service.createWidget(parameters(0));
+
+        // then
+        List<Widget> widgets = service.getWidgets(new WidgetsFilter(null, null, 2000)).getItems();
+        Assertions.assertEquals(1003, widgets.size());
+        Assertions.assertEquals(underlying.getId(), widgets.get(0).getId());
+        Assertions.assertEquals(-1, widgets.get(0).getZ());
+        Assertions.assertEquals(widget.getId(), widgets.get(1).getId());
+        Assertions.assertEquals(0, widgets.get(1).getZ());
+        // the stored timestamp is rounded by the database
+        Instant shiftedAt = widgets.get(1).getModifiedAt();
+        for (int i = 0; i < run.size(); i++) {
+            Widget shiftedWidget = widgets.get(i + 2);
+            Assertions.assertEquals(run.get(i).getId(), shiftedWidget.getId());
+            Assertions.assertEquals(i + 1, shiftedWidget.getZ());
+            Assertions.assertEquals(shiftedAt, shiftedWidget.getModifiedAt());
+        }
+        Assertions.assertEquals(overlying.getId(), widgets.get(1002).getId());
+        Assertions.assertEquals(1001, widgets.get(1002).getZ());
+        Assertions.assertTrue(widgets.get(1002).getModifiedAt().isBefore(shiftedAt));
+        List<Map<String, Object>> shifts = jdbcTemplate.queryForList(
+            "SELECT z_from, z_to, shifted_at FROM widget_shift",
+            Collections.emptyMap()
+        );
+        Assertions.assertEquals(1, shifts.size());
+        Assertions.assertEquals(1, ((Number) shifts.get(0).get("z_from")).intValue());
+        Assertions.assertEquals(1000, ((Number) shifts.get(0).get("z_to")).intValue());
+        Assertions.assertEquals(shiftedAt, ((Timestamp) shifts.get(0).get("shifted_at")).toInstant());
+    }
+
+    @Test
+    public void should_resolve_modification_timestamps_via_index_when_there_are_many_shift_records() {
+        // given
+        WidgetsService service = getService();
+        for (int zIndex = 0; zIndex < 200; zIndex++) {
+            service.createWidget(parameters(zIndex));
+        }
+        Random random = new Random(42);
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        MapSqlParameterSource[] shifts = new MapSqlParameterSource[5000];
+        for (int i = 0; i < shifts.length; i++) {
+            int zFrom = random.nextInt(250);
+            shifts[i] = new MapSqlParameterSource()
+                .addValue("z_from", zFrom)
+                .addValue("z_to", zFrom + random.nextInt(20))
+                .addValue("shifted_at", now.plusSeconds(random.nextInt(1000) - 500));
+        }
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO widget_shift (z_from, z_to, shifted_at) VALUES (:z_from, :z_to, :shifted_at)",
+            shifts
+        );
+        Map<WidgetId, Instant> expectedModifiedAt = new HashMap<>();
+        jdbcTemplate.query("SELECT widget_id, z_index, modified_at FROM widget", Collections.emptyMap(), resultSet -> {
+            int zIndex = resultSet.getInt("z_index");
+            Instant modifiedAt = resultSet.getTimestamp("modified_at").toInstant();
+            for (MapSqlParameterSource shift : shifts) {
+                Instant shiftedAt = (Instant) shift.getValue("shifted_at");
+                if ((int) shift.getValue("z_from") <= zIndex && zIndex <= (int) shift.getValue("z_to")
+                    && shiftedAt.isAfter(modifiedAt)) {
+                    modifiedAt = shiftedAt;
+                }
+            }
+            expectedModifiedAt.put(WidgetId.of(resultSet.getObject("widget_id", UUID.class)), modifiedAt);
+        });
+        Region region = Region.builder()
+            .setX(0)
+            .setY(0)
+            .setWidth(300)
+            .setHeight(10)
+            .builder();
+
+        // when
+        List<Widget> widgets = new ArrayList<>(service.getWidgets(new WidgetsFilter(null, null, 100)).getItems());
+        widgets.addAll(service.getWidgets(new WidgetsFilter(region, 99, 100)).getItems());
+        widgets.addAll(service.getWidgetsAt(150, 5, 20));
+        String plan = jdbcTemplate.queryForObject(
+            "EXPLAIN SELECT max(s.shifted_at) FROM widget_shift s WHERE 42 BETWEEN s.z_from AND s.z_to",
+            Collections.emptyMap(),
+            String.class
+        );
+
+        // then
+        Assertions.assertEquals(210, widgets.size());
+        for (Widget widget : widgets) {
+            Assertions.assertEquals(expectedModifiedAt.get(widget.getId()), widget.getModifiedAt());
+        }
+        Assertions.assertTrue(plan.toUpperCase().contains("WIDGET_SHIFT_Z_RANGE_IDX"), plan);
+    }
+
+    private static StoreWidgetParameters parameters(int zIndex) {
+        return StoreWidgetParameters.builder()
+            .setBoundaries(
+                Region.builder()
+                    .setX(zIndex)
+                    .setY(0)
+                    .setWidth(10)
+                    .setHeight(10)
+                    .builder()
+            )
+            .setZ(zIndex)
+            .build();
+    }
 }
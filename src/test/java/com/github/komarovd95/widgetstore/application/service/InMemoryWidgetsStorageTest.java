@@ -1,10 +1,25 @@
 package com.github.komarovd95.widgetstore.application.service;
 
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.RegionMatchMode;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
 import com.github.komarovd95.widgetstore.application.repository.InMemoryWidgetsRepository;
 import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
 import com.github.komarovd95.widgetstore.application.service.transaction.InMemoryTransactionsService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 
 public class InMemoryWidgetsStorageTest extends AbstractWidgetsServiceTest {
+
+    private static final Region BOUNDARIES = Region.builder()
+        .setX(0)
+        .setY(0)
+        .setWidth(10)
+        .setHeight(10)
+        .builder();
+
     @Override
     protected WidgetsService getService() {
         return new WidgetsService(
@@ -14,4 +29,45 @@ public class InMemoryWidgetsStorageTest extends AbstractWidgetsServiceTest {
             new UniqueClock()
         );
     }
+
+    @Test
+    public void should_return_stored_widget_instances_when_widgets_are_read() {
+        // given
+        WidgetsService service = getService();
+        Widget widget = service.createWidget(StoreWidgetParameters.builder().setBoundaries(BOUNDARIES).build());
+
+        // when
+        Widget foundById = service.getWidgetById(widget.getId()).orElseThrow();
+
+        // then
+        Assertions.assertSame(foundById, service.getWidgetById(widget.getId()).orElseThrow());
+        Assertions.assertSame(foundById, service.getWidgets(new WidgetsFilter(null, null, 10)).getItems().get(0));
+        Assertions.assertSame(
+            foundById,
+            service.getWidgets(new WidgetsFilter(BOUNDARIES, RegionMatchMode.INTERSECTS, null, 10)).getItems().get(0)
+        );
+        Assertions.assertSame(foundById, service.getWidgetsAt(5, 5, 10).get(0));
+    }
+
+    @Test
+    public void should_return_shifted_widget_instances_when_widgets_are_shifted() {
+        // given
+        WidgetsService service = getService();
+        Widget widget = service.createWidget(
+            StoreWidgetParameters.builder().setBoundaries(BOUNDARIES).setZ(0).build()
+        );
+
+        // when
+        Widget underlyingWidget = service.createWidget(
+            StoreWidgetParameters.builder().setBoundaries(BOUNDARIES).setZ(0).build()
+        );
+
+        // then
+        Widget shiftedWidget = service.getWidgetsAt(5, 5, 10).get(0);
+        Assertions.assertEquals(widget.getId(), shiftedWidget.getId());
+        Assertions.assertEquals(1, shiftedWidget.getZ());
+        Assertions.assertEquals(underlyingWidget.getModifiedAt(), shiftedWidget.getModifiedAt());
+        Assertions.assertSame(shiftedWidget, service.getWidgetById(widget.getId()).orElseThrow());
+        Assertions.assertSame(shiftedWidget, service.getWidgets(new WidgetsFilter(null, null, 10)).getItems().get(1));
+    }
 }
@@ -0,0 +1,295 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.domain.rtree.WidgetRTree;
+import com.github.komarovd95.widgetstore.application.repository.InMemoryWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.repository.ShardedWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.CopyOnWriteTransactionsService;
+import com.github.komarovd95.widgetstore.application.service.transaction.InMemoryTransactionsService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+public class ShardedWidgetsStorageTest extends AbstractWidgetsServiceTest {
+
+    /**
+     * Tiles are small, so widgets of the common tests are spread over many shards.
+     */
+    private static final int TILE_SIZE = 16;
+
+    @Override
+    protected WidgetsService getService() {
+        return new WidgetsService(
+            new CopyOnWriteTransactionsService(),
+            new ShardedWidgetsRepository(WidgetRTree::new, TILE_SIZE),
+            new UuidWidgetIdGenerator(),
+            new UniqueClock(),
+            true
+        );
+    }
+
+    @Test
+    public void should_find_the_same_widgets_as_not_sharded_storage_when_widgets_are_modified() {
+        Clock clock = Clock.fixed(Instant.EPOCH, ZoneOffset.UTC);
+        WidgetsService notSharded = new WidgetsService(
+            new InMemoryTransactionsService(),
+            new InMemoryWidgetsRepository(),
+            sequentialIds(),
+            clock
+        );
+        WidgetsService sharded = new WidgetsService(
+            new CopyOnWriteTransactionsService(),
+            new ShardedWidgetsRepository(() -> new WidgetRTree(4, 2, WidgetRTree.SplitPolicy.QUADRATIC), TILE_SIZE),
+            sequentialIds(),
+            clock,
+            true
+        );
+
+        assertSameWidgetsAsReference(notSharded, sharded, 2000, 100, 20);
+    }
+
+    @Test
+    public void should_return_consistent_widgets_when_spatial_searches_are_concurrent_with_modifications()
+        throws Exception {
+        // given
+        WidgetsService service = new WidgetsService(
+            new CopyOnWriteTransactionsService(),
+            new ShardedWidgetsRepository(WidgetRTree::new, TILE_SIZE),
+            new UuidWidgetIdGenerator(),
+            Clock.systemUTC(),
+            true
+        );
+        Region region = Region.builder()
+            .setX(-1000)
+            .setY(-1000)
+            .setWidth(2000)
+            .setHeight(2000)
+            .builder();
+        Random random = new Random(42);
+        List<WidgetId> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(service.createWidget(randomParameters(random, 100, 20, 50)).getId());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        try {
+            // when
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(executor.submit(() -> {
+                    while (!stopped.get()) {
+                        // all widgets are inside the region, so exactly the first page of all widgets must be found
+                        List<Widget> page = service.getWidgets(new WidgetsFilter(region, null, 10)).getItems();
+                        Assertions.assertEquals(10, page.size());
+                        for (int j = 1; j < page.size(); j++) {
+                            Assertions.assertTrue(page.get(j - 1).getZ() < page.get(j).getZ());
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < 5000; i++) {
+                service.updateWidget(ids.get(random.nextInt(ids.size())), randomParameters(random, 100, 20, 50));
+            }
+            stopped.set(true);
+
+            // then
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            stopped.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_move_widgets_of_different_shards_concurrently() throws Exception {
+        // given
+        CyclicBarrier movesInShards = new CyclicBarrier(2);
+        AtomicBoolean moving = new AtomicBoolean();
+        WidgetsService service = new WidgetsService(
+            new CopyOnWriteTransactionsService(),
+            new ShardedWidgetsRepository(() -> new WidgetRTree() {
+                @Override
+                public boolean move(WidgetId id, Region boundaries) {
+                    if (moving.get()) {
+                        // both moves must hold write locks of their shards at the same time to pass the barrier
+                        try {
+                            movesInShards.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                            throw new IllegalStateException("Moves have not been executed concurrently", e);
+                        }
+                    }
+                    return super.move(id, boundaries);
+                }
+            }, TILE_SIZE),
+            new UuidWidgetIdGenerator(),
+            new UniqueClock(),
+            true
+        );
+        Widget first = service.createWidget(parameters(region(0, 0), 1));
+        Widget second = service.createWidget(parameters(region(10 * TILE_SIZE, 10 * TILE_SIZE), 2));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            // when
+            moving.set(true);
+            Future<Optional<Widget>> firstMove = executor.submit(() ->
+                service.updateWidget(first.getId(), parameters(region(1, 1), 1))
+            );
+            Future<Optional<Widget>> secondMove = executor.submit(() ->
+                service.updateWidget(
+                    second.getId(),
+                    parameters(region(10 * TILE_SIZE + 1, 10 * TILE_SIZE + 1), 2)
+                )
+            );
+
+            // then
+            Assertions.assertEquals(
+                Optional.of(region(1, 1)),
+                firstMove.get(20, TimeUnit.SECONDS).map(Widget::getBoundaries)
+            );
+            Assertions.assertEquals(
+                Optional.of(region(10 * TILE_SIZE + 1, 10 * TILE_SIZE + 1)),
+                secondMove.get(20, TimeUnit.SECONDS).map(Widget::getBoundaries)
+            );
+            moving.set(false);
+            assertSameWidgets(
+                List.of(service.getWidgetById(first.getId()).get(), service.getWidgetById(second.getId()).get()),
+                service.getWidgets(new WidgetsFilter(null, null, 10)).getItems()
+            );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_exclude_only_moves_when_search_is_invalidated_by_concurrent_moves_repeatedly() throws Exception {
+        // given
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        AtomicBoolean interfering = new AtomicBoolean();
+        AtomicInteger searches = new AtomicInteger();
+        AtomicReference<WidgetsService> serviceReference = new AtomicReference<>();
+        AtomicReference<WidgetId> movingId = new AtomicReference<>();
+        CountDownLatch lockedSearch = new CountDownLatch(1);
+        CountDownLatch releasedSearch = new CountDownLatch(1);
+        WidgetsService service = new WidgetsService(
+            new CopyOnWriteTransactionsService(),
+            new ShardedWidgetsRepository(() -> new WidgetRTree() {
+                @Override
+                public void coveringInReverseZOrder(int x, int y, int limit, Consumer<WidgetId> widgetConsumer) {
+                    if (interfering.get()) {
+                        int search = searches.incrementAndGet();
+                        try {
+                            if (search <= 3) {
+                                // a widget of another shard is moved during every optimistic search
+                                Region boundaries = region(10 * TILE_SIZE + search, 10 * TILE_SIZE + search);
+                                executor.submit(() ->
+                                    serviceReference.get().updateWidget(movingId.get(), parameters(boundaries, 2))
+                                ).get(10, TimeUnit.SECONDS);
+                            } else {
+                                lockedSearch.countDown();
+                                releasedSearch.await(10, TimeUnit.SECONDS);
+                            }
+                        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    super.coveringInReverseZOrder(x, y, limit, widgetConsumer);
+                }
+            }, TILE_SIZE),
+            new UuidWidgetIdGenerator(),
+            new UniqueClock(),
+            true
+        );
+        serviceReference.set(service);
+        Widget first = service.createWidget(parameters(region(0, 0), 1));
+        Widget second = service.createWidget(parameters(region(10 * TILE_SIZE, 10 * TILE_SIZE), 2));
+        movingId.set(second.getId());
+
+        try {
+            // when
+            interfering.set(true);
+            Future<List<Widget>> search = executor.submit(() -> service.getWidgetsAt(1, 1, 10));
+            Assertions.assertTrue(lockedSearch.await(10, TimeUnit.SECONDS));
+            List<Widget> otherSearch = executor.submit(() ->
+                service.getWidgets(new WidgetsFilter(tile(10, 10), null, 10)).getItems()
+            ).get(10, TimeUnit.SECONDS);
+            Future<Optional<Widget>> move = executor.submit(() ->
+                service.updateWidget(second.getId(), parameters(region(20 * TILE_SIZE, 20 * TILE_SIZE), 2))
+            );
+            Thread.sleep(200);
+            boolean movedDuringSearch = move.isDone();
+            releasedSearch.countDown();
+
+            // then
+            Assertions.assertEquals(4, searches.get());
+            Assertions.assertEquals(
+                List.of(first.getId()),
+                search.get(10, TimeUnit.SECONDS).stream().map(Widget::getId).collect(Collectors.toList())
+            );
+            // other searches are not blocked by the search that excludes moves
+            Assertions.assertEquals(
+                List.of(second.getId()),
+                otherSearch.stream().map(Widget::getId).collect(Collectors.toList())
+            );
+            Assertions.assertFalse(movedDuringSearch);
+            Assertions.assertTrue(move.get(10, TimeUnit.SECONDS).isPresent());
+        } finally {
+            releasedSearch.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static StoreWidgetParameters parameters(Region boundaries, int z) {
+        return StoreWidgetParameters.builder()
+            .setBoundaries(boundaries)
+            .setZ(z)
+            .build();
+    }
+
+    private static Region tile(int tileX, int tileY) {
+        return Region.builder()
+            .setX(tileX * TILE_SIZE)
+            .setY(tileY * TILE_SIZE)
+            .setWidth(TILE_SIZE)
+            .setHeight(TILE_SIZE)
+            .builder();
+    }
+
+    private static Region region(int x, int y) {
+        return Region.builder()
+            .setX(x)
+            .setY(y)
+            .setWidth(4)
+            .setHeight(4)
+            .builder();
+    }
+}
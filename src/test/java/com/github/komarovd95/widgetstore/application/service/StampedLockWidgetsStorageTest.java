@@ -0,0 +1,100 @@
+package com.github.komarovd95.widgetstore.application.service;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.repository.InMemoryWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.StampedLockTransactionsService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StampedLockWidgetsStorageTest extends AbstractWidgetsServiceTest {
+
+    private static final Region BOUNDARIES = Region.builder()
+        .setX(0)
+        .setY(0)
+        .setWidth(100)
+        .setHeight(100)
+        .builder();
+
+    @Override
+    protected WidgetsService getService() {
+        return new WidgetsService(
+            new StampedLockTransactionsService(),
+            new InMemoryWidgetsRepository(),
+            new UuidWidgetIdGenerator(),
+            new UniqueClock()
+        );
+    }
+
+    @Test
+    public void should_return_consistent_widgets_when_optimistic_reads_are_concurrent_with_shifts() throws Exception {
+        // given
+        WidgetsService service = new WidgetsService(
+            new StampedLockTransactionsService(),
+            new InMemoryWidgetsRepository(),
+            new UuidWidgetIdGenerator(),
+            Clock.systemUTC()
+        );
+        List<WidgetId> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(service.createWidget(StoreWidgetParameters.builder().setBoundaries(BOUNDARIES).build()).getId());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        try {
+            // when
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(executor.submit(() -> {
+                    Random random = new Random();
+                    while (!stopped.get()) {
+                        WidgetId id = ids.get(random.nextInt(ids.size()));
+                        Widget widget = service.getWidgetById(id)
+                            .orElseGet(() -> Assertions.fail("Widget was not found by ID"));
+                        Assertions.assertEquals(id, widget.getId());
+
+                        List<Widget> page = service.getWidgets(new WidgetsFilter(null, null, 10)).getItems();
+                        Assertions.assertEquals(10, page.size());
+                        for (int j = 1; j < page.size(); j++) {
+                            Assertions.assertTrue(page.get(j - 1).getZ() < page.get(j).getZ());
+                        }
+                    }
+                }));
+            }
+            Random random = new Random(42);
+            for (int i = 0; i < 5000; i++) {
+                service.updateWidget(
+                    ids.get(random.nextInt(ids.size())),
+                    StoreWidgetParameters.builder()
+                        .setBoundaries(BOUNDARIES)
+                        .setZ(random.nextInt(100))
+                        .build()
+                );
+            }
+            stopped.set(true);
+
+            // then
+            for (Future<?> reader : readers) {
+                reader.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            stopped.set(true);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.komarovd95.widgetstore.application.service.generator;
+
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TimeOrderedWidgetIdGeneratorTest {
+
+    private static final Instant NOW = Instant.parse("2021-04-01T10:15:30.123Z");
+
+    @Test
+    public void should_generate_version_7_uuids_with_timestamp_and_node_id() {
+        // given
+        TimeOrderedWidgetIdGenerator generator = new TimeOrderedWidgetIdGenerator(fixedClock(NOW), 0xABCD);
+
+        // when
+        UUID uuid = generator.generate().toUuid();
+
+        // then
+        Assertions.assertEquals(7, uuid.version());
+        Assertions.assertEquals(2, uuid.variant());
+        Assertions.assertEquals(NOW.toEpochMilli(), uuid.getMostSignificantBits() >>> 16);
+        Assertions.assertEquals(0xABCD, (uuid.getLeastSignificantBits() >>> 46) & 0xFFFF);
+    }
+
+    @Test
+    public void should_generate_monotonic_ids_when_clock_stands_still_or_goes_backwards() {
+        // given
+        MutableClock clock = new MutableClock();
+        TimeOrderedWidgetIdGenerator generator = new TimeOrderedWidgetIdGenerator(clock, 1);
+
+        // when
+        List<WidgetId> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            ids.add(generator.generate());
+        }
+        clock.instant = NOW.minusSeconds(1);
+        for (int i = 0; i < 100; i++) {
+            ids.add(generator.generate());
+        }
+        clock.instant = NOW.plusSeconds(10);
+        ids.add(generator.generate());
+
+        // then
+        for (int i = 1; i < ids.size(); i++) {
+            Assertions.assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0, "IDs are not monotonic: index=" + i);
+        }
+        Assertions.assertEquals(clock.instant.toEpochMilli(), ids.get(ids.size() - 1).getHigh() >>> 16);
+    }
+
+    @Test
+    public void should_generate_unique_ids_when_used_concurrently() throws Exception {
+        // given
+        TimeOrderedWidgetIdGenerator generator = new TimeOrderedWidgetIdGenerator(fixedClock(NOW), 0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            // when
+            List<Future<List<WidgetId>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    List<WidgetId> ids = new ArrayList<>();
+                    for (int j = 0; j < 20_000; j++) {
+                        ids.add(generator.generate());
+                    }
+                    return ids;
+                }));
+            }
+
+            // then
+            Set<WidgetId> ids = new HashSet<>();
+            for (Future<List<WidgetId>> future : futures) {
+                ids.addAll(future.get());
+            }
+            Assertions.assertEquals(8 * 20_000, ids.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_reject_node_id_when_it_is_out_of_range() {
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> new TimeOrderedWidgetIdGenerator(Clock.systemUTC(), TimeOrderedWidgetIdGenerator.MAX_NODE_ID + 1)
+        );
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> new TimeOrderedWidgetIdGenerator(Clock.systemUTC(), -1)
+        );
+    }
+
+    private static Clock fixedClock(Instant instant) {
+        return Clock.fixed(instant, ZoneOffset.UTC);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant instant = NOW;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
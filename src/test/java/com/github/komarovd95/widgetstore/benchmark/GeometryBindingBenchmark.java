@@ -0,0 +1,104 @@
+package com.github.komarovd95.widgetstore.benchmark;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.repository.WkbEncoder;
+import org.h2.value.ValueGeometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of binding boundaries of a widget to the H2 {@code GEOMETRY} column: encoding alone
+ * ({@code encode*}) and encoding with the conversion to the H2 geometry value that the database does for every bound
+ * parameter ({@code bind*}). {@code *Wkt} is the former formatting of WKT polygons, {@code *Wkb} is {@link WkbEncoder}.
+ * <p>
+ * Run: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.github.komarovd95.widgetstore.benchmark.GeometryBindingBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeometryBindingBenchmark {
+
+    private static final int REGIONS_COUNT = 1024;
+
+    private Region[] regions;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        regions = new Region[REGIONS_COUNT];
+        for (int i = 0; i < REGIONS_COUNT; i++) {
+            regions[i] = Region.builder()
+                .setX(random.nextInt(200_000) - 100_000)
+                .setY(random.nextInt(200_000) - 100_000)
+                .setWidth(random.nextInt(1000) + 1)
+                .setHeight(random.nextInt(1000) + 1)
+                .builder();
+        }
+    }
+
+    @Benchmark
+    public String encodeWkt() {
+        return toWktPolygon(nextRegion());
+    }
+
+    @Benchmark
+    public byte[] encodeWkb() {
+        return WkbEncoder.rectangle(nextRegion());
+    }
+
+    @Benchmark
+    public ValueGeometry bindWkt() {
+        return ValueGeometry.get(toWktPolygon(nextRegion()));
+    }
+
+    @Benchmark
+    public ValueGeometry bindWkb() {
+        return ValueGeometry.getFromEWKB(WkbEncoder.rectangle(nextRegion()));
+    }
+
+    private Region nextRegion() {
+        next = (next + 1) & (REGIONS_COUNT - 1);
+        return regions[next];
+    }
+
+    /**
+     * The WKT encoding that had been used before {@link WkbEncoder}.
+     */
+    private static String toWktPolygon(Region region) {
+        String lowerLeftCorner = String.format("%d %d", region.getX(), region.getY());
+        String lowerRightCorner = String.format("%d %d", region.getX() + region.getWidth(), region.getY());
+        String higherRightCorner = String.format("%d %d",
+            region.getX() + region.getWidth(), region.getY() + region.getHeight());
+        String higherLeftCorner = String.format("%d %d", region.getX(), region.getY() + region.getHeight());
+        return String.format("POLYGON ((%s, %s, %s, %s, %s))",
+            lowerLeftCorner, lowerRightCorner, higherRightCorner, higherLeftCorner, lowerLeftCorner);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+            new OptionsBuilder()
+                .include(GeometryBindingBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+}
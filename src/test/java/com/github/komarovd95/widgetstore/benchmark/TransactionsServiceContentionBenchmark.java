@@ -0,0 +1,139 @@
+package com.github.komarovd95.widgetstore.benchmark;
+
+import com.github.komarovd95.widgetstore.application.domain.Region;
+import com.github.komarovd95.widgetstore.application.domain.StoreWidgetParameters;
+import com.github.komarovd95.widgetstore.application.domain.Widget;
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.domain.WidgetsFilter;
+import com.github.komarovd95.widgetstore.application.repository.InMemoryWidgetsRepository;
+import com.github.komarovd95.widgetstore.application.service.WidgetsService;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.transaction.InMemoryTransactionsService;
+import com.github.komarovd95.widgetstore.application.service.transaction.StampedLockTransactionsService;
+import com.github.komarovd95.widgetstore.application.service.transaction.TransactionsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Clock;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures read throughput of in-memory transactions services under contention: 8 readers without writers
+ * ({@code readOnly}) and 7 readers (lookups by ID and small pages) with a writer that moves random widgets to
+ * the foreground ({@code readWrite}).
+ * <p>
+ * Run: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.github.komarovd95.widgetstore.benchmark.TransactionsServiceContentionBenchmark}
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionsServiceContentionBenchmark {
+
+    private static final int WIDGETS_COUNT = 10_000;
+
+    @Param({ "read-write-lock", "optimistic-read" })
+    private String concurrency;
+
+    /**
+     * The amount of work (in JMH tokens) that the writer does between updates.
+     */
+    @Param({ "1000" })
+    private int writerBackoff;
+
+    private WidgetsService service;
+
+    private WidgetId[] ids;
+
+    @Setup
+    public void setUp() {
+        TransactionsService transactionsService = "optimistic-read".equals(concurrency)
+            ? new StampedLockTransactionsService()
+            : new InMemoryTransactionsService();
+        service = new WidgetsService(
+            transactionsService,
+            new InMemoryWidgetsRepository(),
+            new UuidWidgetIdGenerator(),
+            Clock.systemUTC()
+        );
+        ids = new WidgetId[WIDGETS_COUNT];
+        for (int i = 0; i < WIDGETS_COUNT; i++) {
+            ids[i] = service.createWidget(StoreWidgetParameters.builder().setBoundaries(randomRegion()).build())
+                .getId();
+        }
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(8)
+    public Optional<Widget> readOnlyGetById() {
+        return service.getWidgetById(randomId());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(6)
+    public Optional<Widget> readWriteGetById() {
+        return service.getWidgetById(randomId());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public Object readWriteGetPage() {
+        return service.getWidgets(new WidgetsFilter(null, ThreadLocalRandom.current().nextInt(WIDGETS_COUNT), 10));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public Optional<Widget> readWriteUpdate() {
+        Blackhole.consumeCPU(writerBackoff);
+        return service.updateWidget(
+            randomId(),
+            StoreWidgetParameters.builder().setBoundaries(randomRegion()).build()
+        );
+    }
+
+    private WidgetId randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    private static Region randomRegion() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return Region.builder()
+            .setX(random.nextInt(10_000))
+            .setY(random.nextInt(10_000))
+            .setWidth(random.nextInt(100) + 1)
+            .setHeight(random.nextInt(100) + 1)
+            .builder();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+            new OptionsBuilder()
+                .include(TransactionsServiceContentionBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.komarovd95.widgetstore.benchmark;
+
+import com.github.komarovd95.widgetstore.application.domain.WidgetId;
+import com.github.komarovd95.widgetstore.application.service.generator.TimeOrderedWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.generator.UuidWidgetIdGenerator;
+import com.github.komarovd95.widgetstore.application.service.generator.WidgetIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures throughput of widgets' ID generators by a single thread ({@code generate}) and by 8 threads
+ * ({@code generateConcurrently}), as in bulk imports of widgets.
+ * <p>
+ * Run: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.github.komarovd95.widgetstore.benchmark.WidgetIdGeneratorBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetIdGeneratorBenchmark {
+
+    @Param({ "random-uuid", "time-ordered" })
+    private String generatorType;
+
+    private WidgetIdGenerator generator;
+
+    @Setup
+    public void setUp() {
+        generator = "time-ordered".equals(generatorType)
+            ? new TimeOrderedWidgetIdGenerator(Clock.systemUTC(), 0)
+            : new UuidWidgetIdGenerator();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public WidgetId generate() {
+        return generator.generate();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public WidgetId generateConcurrently() {
+        return generator.generate();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(
+            new OptionsBuilder()
+                .include(WidgetIdGeneratorBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+}